@@ -0,0 +1,93 @@
+/**
+Copyright (C) 2007 Mark Utting
+This file is part of the CZT project.
+
+The CZT project contains free software; you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation; either version 2 of the License, or
+(at your option) any later version.
+
+The CZT project is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with CZT; if not, write to the Free Software
+Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+*/
+
+package nz.ac.waikato.modeljunit.benchmarks;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import nz.ac.waikato.modeljunit.ListenerFactory;
+import nz.ac.waikato.modeljunit.Model;
+import nz.ac.waikato.modeljunit.ModelListener;
+import nz.ac.waikato.modeljunit.Transition;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Measures the doneTransition method of the graph listener and of each
+ *  coverage metric, by replaying a recorded random walk into it.
+ *  The model is not run during the measurement, except that the graph
+ *  listener asks it for the enabled guards of its current state.
+ *  The scores are in transitions per second.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ListenerBenchmark
+{
+  @Param({"graph", "action coverage", "state coverage",
+    "transition coverage", "transition pair coverage"})
+  public String listener;
+
+  @Param({"SimpleSet", "LargeSet", "SimCard", "ECinema"})
+  public String model;
+
+  private ModelListener listener_;
+
+  private Transition[] walk_;
+
+  private int[] actions_;
+
+  @Setup(Level.Trial)
+  public void setUp()
+  {
+    Model model = Models.createModel(this.model);
+    listener_ = model.addListener(
+        ListenerFactory.getFactory().getListener(listener));
+    List<Transition> walk = Models.randomWalk(this.model, Models.STEPS);
+    walk_ = walk.toArray(new Transition[walk.size()]);
+    actions_ = new int[walk_.length];
+    for (int i = 0; i < walk_.length; i++) {
+      actions_[i] = model.getActionNumber(walk_[i].getAction());
+    }
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(Models.STEPS)
+  public void doneTransition()
+  {
+    for (int i = 0; i < walk_.length; i++) {
+      listener_.doneTransition(actions_[i], walk_[i]);
+    }
+  }
+}
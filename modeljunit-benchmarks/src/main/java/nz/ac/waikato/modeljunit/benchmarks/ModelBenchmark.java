@@ -0,0 +1,97 @@
+/**
+Copyright (C) 2007 Mark Utting
+This file is part of the CZT project.
+
+The CZT project contains free software; you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation; either version 2 of the License, or
+(at your option) any later version.
+
+The CZT project is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with CZT; if not, write to the Free Software
+Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+*/
+
+package nz.ac.waikato.modeljunit.benchmarks;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import nz.ac.waikato.modeljunit.Model;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/** Measures the basic operations of Model: evaluating guards
+ *  and taking actions, with no listeners attached.
+ *  The scores are in steps per second.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ModelBenchmark
+{
+  @Param({"SimpleSet", "LargeSet", "SimCard", "ECinema"})
+  public String model;
+
+  private Model model_;
+
+  private Random rand_;
+
+  @Setup(Level.Trial)
+  public void setUp()
+  {
+    model_ = Models.createModel(model);
+    rand_ = new Random(42);
+  }
+
+  /** Evaluates the guard of every action in each step,
+   *  then takes one of the enabled actions at random.
+   */
+  @Benchmark
+  @OperationsPerInvocation(Models.STEPS)
+  public void enabledAndDoAction(Blackhole hole)
+  {
+    int numActions = model_.getNumActions();
+    for (int i = 0; i < Models.STEPS; i++) {
+      int enabled = 0;
+      for (int a = 0; a < numActions; a++) {
+        enabled += model_.enabled(a);
+      }
+      hole.consume(enabled);
+      if ( ! model_.doAction(rand_.nextInt(numActions))) {
+        model_.doReset("Benchmark");
+      }
+    }
+  }
+
+  /** Computes the set of enabled actions (as the testers do). */
+  @Benchmark
+  @OperationsPerInvocation(Models.STEPS)
+  public void enabledGuards(Blackhole hole)
+  {
+    for (int i = 0; i < Models.STEPS; i++) {
+      hole.consume(model_.enabledGuards());
+    }
+  }
+}
@@ -0,0 +1,108 @@
+/**
+Copyright (C) 2007 Mark Utting
+This file is part of the CZT project.
+
+The CZT project contains free software; you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation; either version 2 of the License, or
+(at your option) any later version.
+
+The CZT project is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with CZT; if not, write to the Free Software
+Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+*/
+
+package nz.ac.waikato.modeljunit.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import nz.ac.waikato.modeljunit.AbstractListener;
+import nz.ac.waikato.modeljunit.FsmModel;
+import nz.ac.waikato.modeljunit.Model;
+import nz.ac.waikato.modeljunit.RandomTester;
+import nz.ac.waikato.modeljunit.Tester;
+import nz.ac.waikato.modeljunit.Transition;
+import nz.ac.waikato.modeljunit.examples.LargeSet;
+import nz.ac.waikato.modeljunit.examples.SimpleSet;
+import nz.ac.waikato.modeljunit.examples.ecinema.ECinema;
+import nz.ac.waikato.modeljunit.examples.gsm.SimCard;
+import nz.ac.waikato.modeljunit.timing.TimedModel;
+import nz.ac.waikato.modeljunit.timing.examples.TrafficLight;
+
+/** Creates the example models that the benchmarks run on.
+ *  None of them is connected to a real system under test
+ *  (SimCard is given a null adaptor), so the benchmarks measure
+ *  just the cost of the models and of the ModelJUnit engine.
+ */
+final class Models
+{
+  /** The number of steps that each benchmark invocation takes. */
+  static final int STEPS = 1000;
+
+  private Models()
+  {
+  }
+
+  /** Creates a new instance of one of the untimed example models.
+   *
+   * @param name SimpleSet, LargeSet, SimCard or ECinema.
+   */
+  static FsmModel create(String name)
+  {
+    if ("SimpleSet".equals(name)) {
+      return new SimpleSet();
+    }
+    if ("LargeSet".equals(name)) {
+      return new LargeSet();
+    }
+    if ("SimCard".equals(name)) {
+      return new SimCard(null);
+    }
+    if ("ECinema".equals(name)) {
+      return new ECinema();
+    }
+    throw new IllegalArgumentException("unknown example model: " + name);
+  }
+
+  /** Creates a Model for one of the example models.
+   *  TrafficLight is wrapped in a TimedModel.
+   */
+  static Model createModel(String name)
+  {
+    if ("TrafficLight".equals(name)) {
+      return new TimedModel(new TrafficLight());
+    }
+    return new Model(create(name));
+  }
+
+  /** Records the transitions of a random walk of the given model,
+   *  so that listeners can be benchmarked without running the model.
+   */
+  static List<Transition> randomWalk(String name, int steps)
+  {
+    final List<Transition> walk = new ArrayList<Transition>(steps);
+    Model model = createModel(name);
+    model.addListener(new AbstractListener() {
+      @Override
+      public String getName()
+      {
+        return "recorder";
+      }
+
+      @Override
+      public void doneTransition(int action, Transition tr)
+      {
+        walk.add(tr);
+      }
+    });
+    Tester tester = new RandomTester(model);
+    tester.generate(steps);
+    return walk;
+  }
+}
@@ -0,0 +1,132 @@
+/**
+Copyright (C) 2007 Mark Utting
+This file is part of the CZT project.
+
+The CZT project contains free software; you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation; either version 2 of the License, or
+(at your option) any later version.
+
+The CZT project is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with CZT; if not, write to the Free Software
+Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+*/
+
+package nz.ac.waikato.modeljunit.benchmarks;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import nz.ac.waikato.modeljunit.Action;
+import nz.ac.waikato.modeljunit.FsmModel;
+import nz.ac.waikato.modeljunit.GraphListener;
+import nz.ac.waikato.modeljunit.RandomTester;
+import nz.ac.waikato.modeljunit.ShortenFailure;
+import nz.ac.waikato.modeljunit.StopOnFailureListener;
+import nz.ac.waikato.modeljunit.TestFailureException;
+import nz.ac.waikato.modeljunit.Tester;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Measures how long ShortenFailure takes to shorten a long random
+ *  failing sequence, with each of its algorithms.
+ *  The scores are in milliseconds per shortening.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ShortenFailureBenchmark
+{
+  private Tester tester_;
+
+  private TestFailureException failure_;
+
+  private GraphListener graph_;
+
+  @Setup(Level.Trial)
+  public void setUp()
+  {
+    tester_ = new RandomTester(new Counter());
+    tester_.setRandom(new Random(42));
+    graph_ = tester_.buildGraph(10000);
+    tester_.addListener(new StopOnFailureListener());
+    try {
+      tester_.generate(100000);
+      throw new IllegalStateException("Counter did not fail");
+    }
+    catch (TestFailureException ex) {
+      failure_ = ex;
+    }
+  }
+
+  @Benchmark
+  public Object cutCycles()
+  {
+    ShortenFailure shorten = new ShortenFailure(tester_, failure_);
+    shorten.cutCycles(10);
+    return shorten;
+  }
+
+  @Benchmark
+  public Object beelineShortest()
+  {
+    ShortenFailure shorten = new ShortenFailure(tester_, failure_);
+    shorten.beelineShortest(graph_.getGraph(), 10);
+    return shorten;
+  }
+
+  /** A counter that fails when it reaches its maximum value.
+   *  Random walks wander up and down for a long time before they
+   *  fail, so they give long failing sequences with many cycles.
+   */
+  public static class Counter implements FsmModel
+  {
+    private static final int MAX = 12;
+
+    private int value_ = 0;
+
+    public Object getState()
+    {
+      // ShortenFailure identifies states by their toString(),
+      // so string states are the safest choice.
+      return Integer.toString(value_);
+    }
+
+    public void reset(boolean testing)
+    {
+      value_ = 0;
+    }
+
+    public boolean incGuard() { return value_ < MAX; }
+    @Action public void inc()
+    {
+      value_++;
+      if (value_ == MAX) {
+        throw new IllegalStateException("reached " + MAX);
+      }
+    }
+
+    public boolean decGuard() { return value_ > 0; }
+    @Action public void dec() { value_--; }
+
+    @Action public void stay() { }
+  }
+}
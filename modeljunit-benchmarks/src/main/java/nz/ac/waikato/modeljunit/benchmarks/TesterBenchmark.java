@@ -0,0 +1,94 @@
+/**
+Copyright (C) 2007 Mark Utting
+This file is part of the CZT project.
+
+The CZT project contains free software; you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation; either version 2 of the License, or
+(at your option) any later version.
+
+The CZT project is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with CZT; if not, write to the Free Software
+Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+*/
+
+package nz.ac.waikato.modeljunit.benchmarks;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import nz.ac.waikato.modeljunit.GreedyTester;
+import nz.ac.waikato.modeljunit.LookaheadTester;
+import nz.ac.waikato.modeljunit.Model;
+import nz.ac.waikato.modeljunit.QuickTester;
+import nz.ac.waikato.modeljunit.RandomTester;
+import nz.ac.waikato.modeljunit.Tester;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Measures the test generation speed of each Tester,
+ *  including the graph listener that most of them use.
+ *  The scores are in steps per second.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TesterBenchmark
+{
+  @Param({"random", "greedy", "lookahead", "quick"})
+  public String tester;
+
+  @Param({"SimpleSet", "LargeSet", "SimCard", "ECinema"})
+  public String model;
+
+  private Tester tester_;
+
+  @Setup(Level.Trial)
+  public void setUp()
+  {
+    Model model = Models.createModel(this.model);
+    if ("random".equals(tester)) {
+      tester_ = new RandomTester(model);
+    }
+    else if ("greedy".equals(tester)) {
+      tester_ = new GreedyTester(model);
+    }
+    else if ("lookahead".equals(tester)) {
+      tester_ = new LookaheadTester(model);
+    }
+    else if ("quick".equals(tester)) {
+      tester_ = new QuickTester(model);
+    }
+    else {
+      throw new IllegalArgumentException("unknown tester: " + tester);
+    }
+    tester_.setRandom(new Random(42));
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(Models.STEPS)
+  public void generate()
+  {
+    tester_.generate(Models.STEPS);
+  }
+}
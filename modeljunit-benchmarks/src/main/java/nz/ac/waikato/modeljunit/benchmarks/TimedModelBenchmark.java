@@ -0,0 +1,92 @@
+/**
+Copyright (C) 2007 Mark Utting
+This file is part of the CZT project.
+
+The CZT project contains free software; you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation; either version 2 of the License, or
+(at your option) any later version.
+
+The CZT project is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with CZT; if not, write to the Free Software
+Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+*/
+
+package nz.ac.waikato.modeljunit.benchmarks;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import nz.ac.waikato.modeljunit.Model;
+import nz.ac.waikato.modeljunit.RandomTester;
+import nz.ac.waikato.modeljunit.Tester;
+import nz.ac.waikato.modeljunit.timing.TimedModel;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Measures TimedModel.doAction, which also advances the clock
+ *  and fires timeouts, on the TrafficLight example.
+ *  The scores are in steps per second.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TimedModelBenchmark
+{
+  private TimedModel model_;
+
+  private Tester tester_;
+
+  private Random rand_;
+
+  @Setup(Level.Trial)
+  public void setUp()
+  {
+    Model model = Models.createModel("TrafficLight");
+    model_ = (TimedModel) model;
+    tester_ = new RandomTester(model);
+    rand_ = new Random(42);
+    model_.setRandom(rand_);
+    tester_.setRandom(rand_);
+  }
+
+  /** Takes random actions directly. */
+  @Benchmark
+  @OperationsPerInvocation(Models.STEPS)
+  public void doAction()
+  {
+    int numActions = model_.getNumActions();
+    for (int i = 0; i < Models.STEPS; i++) {
+      if ( ! model_.doAction(rand_.nextInt(numActions))) {
+        model_.doReset("Benchmark");
+      }
+    }
+  }
+
+  /** Generates tests with a RandomTester. */
+  @Benchmark
+  @OperationsPerInvocation(Models.STEPS)
+  public void generate()
+  {
+    tester_.generate(Models.STEPS);
+  }
+}
@@ -19,13 +19,24 @@
 
 package nz.ac.waikato.modeljunit;
 
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
 import nz.ac.waikato.modeljunit.Transition;
 
 /** An implementation of ModelListener that ignores all events.
  *  Subclasses must define the <code>getName</code> method, at least.
+ *  <p>
+ *  By default, a subclass is only sent the events whose methods
+ *  it overrides (see {@link #getEvents()}).
+ *  </p>
  */
-public abstract class AbstractListener implements ModelListener
+public abstract class AbstractListener implements SelectiveListener
 {
+  /** The events that each subclass wants. */
+  private static final Map<Class<?>,Integer> EVENTS
+    = new ConcurrentHashMap<Class<?>,Integer>();
+
   protected Model model_;
 
   /** Returns the model that this listener is listening to. */
@@ -39,6 +50,51 @@ public abstract class AbstractListener implements ModelListener
     model_ = model;
   }
 
+  /** Returns the events whose methods are overridden by the class of
+   *  this listener, since the methods of this class ignore them.
+   *  Subclasses whose methods only sometimes do something can override
+   *  this to return a more precise (or larger) set of events.
+   */
+  public int getEvents()
+  {
+    Integer events = EVENTS.get(getClass());
+    if (events == null) {
+      int result = 0;
+      if (overrides("doneReset", String.class, boolean.class)) {
+        result |= RESET;
+      }
+      if (overrides("doneGuard", Object.class, int.class, boolean.class,
+          int.class)) {
+        result |= GUARD;
+      }
+      if (overrides("startAction", Object.class, int.class, String.class)) {
+        result |= START_ACTION;
+      }
+      if (this instanceof IntTransitionListener
+          || overrides("doneTransition", int.class, Transition.class)) {
+        result |= TRANSITION;
+      }
+      if (overrides("failure", TestFailureException.class)) {
+        result |= FAILURE;
+      }
+      events = result;
+      EVENTS.put(getClass(), events);
+    }
+    return events;
+  }
+
+  /** True if the class of this listener overrides the given method. */
+  private boolean overrides(String name, Class<?>... params)
+  {
+    try {
+      return getClass().getMethod(name, params).getDeclaringClass()
+        != AbstractListener.class;
+    }
+    catch (NoSuchMethodException ex) {
+      return true;
+    }
+  }
+
   public void doneReset(String reason, boolean testing)
   {
   }
@@ -0,0 +1,221 @@
+/**
+Copyright (C) 2007 Mark Utting
+This file is part of the CZT project.
+
+The CZT project contains free software; you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation; either version 2 of the License, or
+(at your option) any later version.
+
+The CZT project is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with CZT; if not, write to the Free Software
+Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+*/
+
+package nz.ac.waikato.modeljunit;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.HashMap;
+
+/** Calls the actions and guards of an FSM model, by action number.
+ *  <p>
+ *  Model (and ModelTestCase) find the @Action methods and guards
+ *  by reflection, then call them through one of these dispatchers.
+ *  The {@link #forModel forModel} factory tries to generate a small
+ *  class (using ASM) that switches on the action number and calls
+ *  each method directly, so that each step does not have to go
+ *  through {@code Method.invoke} and box the guard results.
+ *  If that is not possible (for example, the model class is not public),
+ *  it falls back to a dispatcher that uses reflection.
+ *  </p>
+ *  <p>
+ *  Dispatchers are stateless, so one dispatcher is shared by all
+ *  the Model objects that wrap instances of the same FsmModel class.
+ *  </p>
+ */
+public abstract class ActionDispatcher
+{
+  /** Dispatchers that have already been created, for each FSM class. */
+  private static final Map<Class<?>, CacheEntry> cache_
+    = new HashMap<Class<?>, CacheEntry>();
+
+  /** Calls action number {@code index} of the given FSM model.
+   *
+   * @param fsm    An instance of the FSM class of this dispatcher.
+   * @param index  The number of the action (0..n-1).
+   * @throws InvocationTargetException if the action throws any exception.
+   * @throws IllegalAccessException if the action cannot be called.
+   */
+  public abstract void doAction(Object fsm, int index)
+    throws InvocationTargetException, IllegalAccessException;
+
+  /** Evaluates the guard of action number {@code index}.
+   *  Missing guards return 1, boolean guards return 1 for true
+   *  and 0 for false, and int guards return their value.
+   *
+   * @param fsm    An instance of the FSM class of this dispatcher.
+   * @param index  The number of the action (0..n-1).
+   * @return       The `enabledness' of this Action.
+   * @throws InvocationTargetException if the guard throws any exception.
+   * @throws IllegalAccessException if the guard cannot be called.
+   */
+  public abstract int enabled(Object fsm, int index)
+    throws InvocationTargetException, IllegalAccessException;
+
+  /** True if this dispatcher calls the model methods directly,
+   *  rather than via reflection.
+   */
+  public boolean isGenerated()
+  {
+    return true;
+  }
+
+  /** Returns a dispatcher for the given actions and guards of fsm.
+   *  The guards must be in the same order as the actions, and must
+   *  return boolean or int.  A null guard means that action has no guard.
+   *  <p>
+   *  The result is cached, so later calls for the same class
+   *  (with the same actions and guards) return the same dispatcher.
+   *  </p>
+   *
+   * @param fsm      The FSM model class.
+   * @param actions  The @Action methods of fsm, in action-number order.
+   * @param guards   The guards of those actions (null entries allowed).
+   * @return         A non-null dispatcher.
+   */
+  public static ActionDispatcher forModel(Class<?> fsm,
+      List<Method> actions, List<Method> guards)
+  {
+    synchronized (cache_) {
+      CacheEntry entry = cache_.get(fsm);
+      ActionDispatcher result = null;
+      if (entry != null && entry.actions_.equals(actions)
+          && entry.guards_.equals(guards)) {
+        result = entry.dispatcher_;
+      }
+      if (result == null) {
+        result = DispatcherGenerator.generate(fsm, actions, guards);
+        if (result == null) {
+          result = reflective(actions, guards);
+        }
+        cache_.put(fsm, new CacheEntry(actions, guards, result));
+      }
+      return result;
+    }
+  }
+
+  /** Returns a dispatcher that uses reflection to call the given
+   *  actions and guards.  This is slower than the generated ones,
+   *  but works for all models.
+   */
+  public static ActionDispatcher reflective(List<Method> actions,
+      List<Method> guards)
+  {
+    return new ReflectiveDispatcher(actions, guards);
+  }
+
+  /** Creates the exception that is thrown for an illegal action number.
+   *  This is public so that the generated subclasses can call it.
+   */
+  public static IllegalArgumentException badIndex(int index)
+  {
+    return new IllegalArgumentException("illegal action number: " + index);
+  }
+
+  /** Remembers which methods a cached dispatcher was generated for. */
+  private static class CacheEntry
+  {
+    private final List<Method> actions_;
+    private final List<Method> guards_;
+    private final ActionDispatcher dispatcher_;
+
+    CacheEntry(List<Method> actions, List<Method> guards,
+        ActionDispatcher dispatcher)
+    {
+      actions_ = new ArrayList<Method>(actions);
+      guards_ = new ArrayList<Method>(guards);
+      dispatcher_ = dispatcher;
+    }
+  }
+
+  /** The fallback dispatcher, which uses Method.invoke. */
+  private static class ReflectiveDispatcher extends ActionDispatcher
+  {
+    /** An empty array of objects. */
+    private static final Object[] VOID_ARGS = new Object[] {};
+
+    private final Method[] actions_;
+
+    private final Method[] guards_;
+
+    /** True for the guards that return boolean, rather than int. */
+    private final boolean[] boolGuard_;
+
+    ReflectiveDispatcher(List<Method> actions, List<Method> guards)
+    {
+      actions_ = actions.toArray(new Method[actions.size()]);
+      guards_ = guards.toArray(new Method[guards.size()]);
+      boolGuard_ = new boolean[guards_.length];
+      for (int i = 0; i < guards_.length; i++) {
+        boolGuard_[i] = guards_[i] != null
+          && guards_[i].getReturnType() == boolean.class;
+      }
+      makeAccessible(actions_);
+      makeAccessible(guards_);
+    }
+
+    /** The model class may be in another package and not be public. */
+    private static void makeAccessible(Method[] methods)
+    {
+      for (Method m : methods) {
+        if (m != null) {
+          try {
+            m.setAccessible(true);
+          }
+          catch (SecurityException ex) {
+            // invoke will throw IllegalAccessException instead.
+          }
+        }
+      }
+    }
+
+    @Override
+    public boolean isGenerated()
+    {
+      return false;
+    }
+
+    @Override
+    public void doAction(Object fsm, int index)
+      throws InvocationTargetException, IllegalAccessException
+    {
+      actions_[index].invoke(fsm, VOID_ARGS);
+    }
+
+    @Override
+    public int enabled(Object fsm, int index)
+      throws InvocationTargetException, IllegalAccessException
+    {
+      Method guard = guards_[index];
+      if (guard == null) {
+        return 1;
+      }
+      Object value = guard.invoke(fsm, VOID_ARGS);
+      if (boolGuard_[index]) {
+        return ((Boolean) value).booleanValue() ? 1 : 0;
+      }
+      else {
+        return ((Integer) value).intValue();
+      }
+    }
+  }
+}
@@ -0,0 +1,428 @@
+/**
+ Copyright (C) 2007 Mark Utting
+ This file is part of the CZT project.
+
+ The CZT project contains free software; you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation; either version 2 of the License, or
+ (at your option) any later version.
+
+ The CZT project is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with CZT; if not, write to the Free Software
+ Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package nz.ac.waikato.modeljunit;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/** Sends the events of a model to another listener on a background thread.
+ *  <p>
+ *  This is useful for listeners that are slow, such as VerboseListener,
+ *  CoverageHistory or the visualisation listener, so that they do not
+ *  slow down the thread that is driving the SUT.  To use it, wrap the
+ *  slow listener, as in
+ *  <code>model.addListener(new AsyncListener(new VerboseListener()))</code>.
+ *  The wrapper has the same name as the wrapped listener.
+ *  </p>
+ *  <p>
+ *  The model thread publishes each event into a preallocated ring buffer,
+ *  and a background thread takes the events out of the buffer and passes
+ *  them on to the wrapped listener, in the same order.  The wrapped
+ *  listener must not call back into the model, because the model has
+ *  moved on by the time it sees each event.  Call {@link #flush()} before
+ *  reading results from the wrapped listener, to wait until it has seen
+ *  all the events so far.  The background thread sleeps while the
+ *  buffer is empty, and stops when {@link #close()} is called, which
+ *  Model.removeListener and Model.removeAllListeners do.
+ *  </p>
+ *  <p>
+ *  Failure events are not queued: the buffer is flushed, then
+ *  <code>failure</code> is called on the model thread, so a listener that
+ *  throws the failure (like StopOnFailureListener) still stops the test.
+ *  If the wrapped listener throws an exception on the background
+ *  thread, it is thrown again on the model thread at the next event
+ *  (and every event after that).
+ *  </p>
+ *  <p>
+ *  When the buffer is full, what happens to the next event depends on
+ *  the back-pressure policy (see {@link BackPressure}).
+ *  </p>
+ */
+public class AsyncListener implements SelectiveListener
+{
+  /** What to do with a new event when the buffer is full. */
+  public enum BackPressure
+  {
+    /** Wait until the background thread has made room.  No events
+     *  are lost. */
+    BLOCK,
+    /** Throw away the oldest event in the buffer. */
+    DROP_OLDEST,
+    /** Throw away the new event if it is a doneGuard or startAction
+     *  event, since the transition or reset that follows it summarises
+     *  it, but wait for room for doneReset and doneTransition events.
+     *  So the listener sees every reset and transition. */
+    COALESCE
+  }
+
+  /** The default number of events that the buffer holds. */
+  public static final int DEFAULT_CAPACITY = 1024;
+
+  /** How long the model thread sleeps while waiting for the background
+   *  thread to make progress. */
+  private static final long PAUSE_NANOS = 50000L;
+
+  private static final int RESET = 0;
+  private static final int GUARD = 1;
+  private static final int START = 2;
+  private static final int TRANSITION = 3;
+
+  private final ModelListener listener_;
+
+  private final BackPressure policy_;
+
+  private Model model_;
+
+  /** The fields of each event in the ring buffer.  Each event uses the
+   *  fields that are relevant to its kind: doneReset puts the reason in
+   *  object_, startAction puts the name in object_, and doneTransition
+   *  puts the Transition in object_. */
+  private final int mask_;
+  private final int[] kind_;
+  private final Object[] state_;
+  private final int[] action_;
+  private final boolean[] flag_;
+  private final int[] value_;
+  private final Object[] object_;
+
+  /** The number of events ever taken out of the buffer (or dropped from
+   *  it).  The model thread only changes this when dropping the oldest
+   *  event, so both threads update it with compareAndSet. */
+  private final AtomicLong head_ = new AtomicLong();
+
+  /** The number of events ever published.  Only the model thread
+   *  changes this. */
+  private volatile long tail_ = 0;
+
+  /** The number of events that were thrown away. */
+  private volatile long dropped_ = 0;
+
+  private volatile Thread consumer_;
+
+  private volatile boolean closed_ = false;
+
+  /** An exception thrown by the listener on the background thread. */
+  private volatile RuntimeException error_;
+
+  public AsyncListener(ModelListener listener)
+  {
+    this(listener, DEFAULT_CAPACITY, BackPressure.BLOCK);
+  }
+
+  /** Wraps the given listener.
+   *
+   * @param listener The listener that will receive the events.
+   * @param capacity The number of events that the buffer holds.
+   *                 This is rounded up to a power of two.
+   * @param policy   What to do when the buffer is full.
+   */
+  public AsyncListener(ModelListener listener, int capacity,
+      BackPressure policy)
+  {
+    if (capacity < 1) {
+      throw new IllegalArgumentException("capacity must be positive");
+    }
+    int size = Integer.highestOneBit(capacity);
+    if (size < capacity) {
+      size *= 2;
+    }
+    listener_ = listener;
+    policy_ = policy;
+    mask_ = size - 1;
+    kind_ = new int[size];
+    state_ = new Object[size];
+    action_ = new int[size];
+    flag_ = new boolean[size];
+    value_ = new int[size];
+    object_ = new Object[size];
+  }
+
+  /** The listener that the events are passed on to. */
+  public ModelListener getListener()
+  {
+    return listener_;
+  }
+
+  public BackPressure getBackPressure()
+  {
+    return policy_;
+  }
+
+  /** The number of events that the buffer holds. */
+  public int getCapacity()
+  {
+    return mask_ + 1;
+  }
+
+  /** The number of events that were thrown away because the buffer
+   *  was full.
+   */
+  public long getDropped()
+  {
+    return dropped_;
+  }
+
+  /** The number of events that are waiting in the buffer. */
+  public int getPending()
+  {
+    return (int) (tail_ - head_.get());
+  }
+
+  public String getName()
+  {
+    return listener_.getName();
+  }
+
+  public Model getModel()
+  {
+    return model_;
+  }
+
+  public void setModel(Model model)
+  {
+    model_ = model;
+    listener_.setModel(model);
+  }
+
+  /** The same events as the wrapped listener. */
+  public int getEvents()
+  {
+    if (listener_ instanceof SelectiveListener) {
+      return ((SelectiveListener) listener_).getEvents();
+    }
+    return ALL;
+  }
+
+  public void doneReset(String reason, boolean testing)
+  {
+    int pos = claim(RESET);
+    if (pos >= 0) {
+      flag_[pos] = testing;
+      object_[pos] = reason;
+      publish();
+    }
+  }
+
+  public void doneGuard(Object state, int action, boolean enabled, int value)
+  {
+    int pos = claim(GUARD);
+    if (pos >= 0) {
+      state_[pos] = state;
+      action_[pos] = action;
+      flag_[pos] = enabled;
+      value_[pos] = value;
+      publish();
+    }
+  }
+
+  public void startAction(Object state, int action, String name)
+  {
+    int pos = claim(START);
+    if (pos >= 0) {
+      state_[pos] = state;
+      action_[pos] = action;
+      object_[pos] = name;
+      publish();
+    }
+  }
+
+  public void doneTransition(int action, Transition tr)
+  {
+    int pos = claim(TRANSITION);
+    if (pos >= 0) {
+      action_[pos] = action;
+      object_[pos] = tr;
+      publish();
+    }
+  }
+
+  /** Waits until the wrapped listener has seen all the events so far,
+   *  then passes the failure on to it, on this thread.
+   */
+  public void failure(TestFailureException failure)
+  {
+    flush();
+    listener_.failure(failure);
+  }
+
+  /** Waits until the wrapped listener has seen all the events that have
+   *  been published so far.
+   */
+  public void flush()
+  {
+    while (head_.get() < tail_ && consumer_ != null && consumer_.isAlive()) {
+      LockSupport.unpark(consumer_);
+      LockSupport.parkNanos(PAUSE_NANOS);
+    }
+    checkError();
+  }
+
+  /** Passes on the remaining events, then stops the background thread.
+   *  Events that arrive after this are passed on directly, on the model
+   *  thread.
+   */
+  public void close()
+  {
+    flush();
+    closed_ = true;
+    Thread consumer = consumer_;
+    if (consumer != null) {
+      LockSupport.unpark(consumer);
+      try {
+        consumer.join();
+      }
+      catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+      }
+    }
+    checkError();
+  }
+
+  /** Finds room in the buffer for a new event of the given kind.
+   *
+   * @return The position of the new event, or -1 if it is discarded.
+   */
+  private int claim(int kind)
+  {
+    checkError();
+    if (consumer_ == null) {
+      start();
+    }
+    long tail = tail_;
+    while (tail - head_.get() > mask_) {
+      if (policy_ == BackPressure.DROP_OLDEST) {
+        long head = head_.get();
+        if (tail - head > mask_ && head_.compareAndSet(head, head + 1)) {
+          dropped_++;
+        }
+      }
+      else if (policy_ == BackPressure.COALESCE
+          && (kind == GUARD || kind == START)) {
+        dropped_++;
+        return -1;
+      }
+      else {
+        LockSupport.unpark(consumer_);
+        LockSupport.parkNanos(PAUSE_NANOS);
+        checkError();
+      }
+    }
+    int pos = (int) tail & mask_;
+    kind_[pos] = kind;
+    return pos;
+  }
+
+  /** Makes the event claimed last visible to the background thread. */
+  private void publish()
+  {
+    tail_ = tail_ + 1;
+    if (closed_) {
+      // pass it on directly.
+      while (take()) {
+        // keep going
+      }
+    }
+    else {
+      LockSupport.unpark(consumer_);
+    }
+  }
+
+  private synchronized void start()
+  {
+    if (consumer_ != null) {
+      return;
+    }
+    Thread consumer = new Thread("async " + getName()) {
+      @Override
+      public void run()
+      {
+        try {
+          while ( ! closed_) {
+            if ( ! take()) {
+              // publish and close unpark this thread.
+              LockSupport.park(this);
+            }
+          }
+        }
+        catch (RuntimeException ex) {
+          error_ = ex;
+        }
+        catch (Error err) {
+          error_ = new RuntimeException(err);
+        }
+      }
+    };
+    consumer.setDaemon(true);
+    consumer_ = consumer;
+    consumer.start();
+  }
+
+  /** Passes the oldest event in the buffer on to the listener.
+   *
+   * @return false if the buffer is empty.
+   */
+  private boolean take()
+  {
+    while (true) {
+      long head = head_.get();
+      if (head >= tail_) {
+        return false;
+      }
+      // copy the event before claiming it, since once it is claimed,
+      // the model thread may reuse its position.
+      int pos = (int) head & mask_;
+      int kind = kind_[pos];
+      Object state = state_[pos];
+      int action = action_[pos];
+      boolean flag = flag_[pos];
+      int value = value_[pos];
+      Object object = object_[pos];
+      if (head_.compareAndSet(head, head + 1)) {
+        switch (kind) {
+        case RESET:
+          listener_.doneReset((String) object, flag);
+          break;
+        case GUARD:
+          listener_.doneGuard(state, action, flag, value);
+          break;
+        case START:
+          listener_.startAction(state, action, (String) object);
+          break;
+        default:
+          listener_.doneTransition(action, (Transition) object);
+          break;
+        }
+        return true;
+      }
+      // the model thread dropped this event, so try the next one.
+    }
+  }
+
+  /** Throws the exception that stopped the background thread, if any.
+   *  Once that has happened, every later event throws it again.
+   */
+  private void checkError()
+  {
+    RuntimeException error = error_;
+    if (error != null) {
+      throw error;
+    }
+  }
+}
@@ -0,0 +1,198 @@
+/**
+Copyright (C) 2007 Mark Utting
+This file is part of the CZT project.
+
+The CZT project contains free software; you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation; either version 2 of the License, or
+(at your option) any later version.
+
+The CZT project is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with CZT; if not, write to the Free Software
+Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+*/
+
+package nz.ac.waikato.modeljunit;
+
+import java.util.Arrays;
+
+/** Explores the graph of a model systematically, level by level.
+ *  This is the engine behind Tester.buildGraphBreadthFirst.
+ *  <p>
+ *  States are expanded in breadth-first order.  To expand a state,
+ *  the explorer goes to that state and takes each of its isTodo actions
+ *  (see GraphListener), so each (state,action) pair is explored once.
+ *  Transitions that are already in the graph are followed without
+ *  being executed.  To go to a state, the explorer first tries to restore
+ *  a snapshot of it (see Tester.snapshot), then falls back to resetting
+ *  the model and replaying the shortest known path to that state.
+ *  </p>
+ *  <p>
+ *  For deterministic models, this explores every transition within
+ *  the depth limit, using at most one reset and replay per transition.
+ *  If a non-deterministic model does not reach the expected state
+ *  during a replay, the rest of that state is skipped.
+ *  </p>
+ */
+class BreadthFirstExplorer
+{
+  private static final int NONE = CompactGraph.NONE;
+
+  private final Tester tester_;
+
+  private final Model model_;
+
+  private final CompactGraph graph_;
+
+  /** The depth of each state, or NONE if it has not been reached. */
+  private int[] depth_ = new int[0];
+
+  /** The state before each state on its shortest known path. */
+  private int[] parentState_ = new int[0];
+
+  /** The action that leads from parentState_ to each state. */
+  private int[] parentAction_ = new int[0];
+
+  /** The states waiting to be expanded, in order. */
+  private int[] queue_ = new int[16];
+
+  /** Snapshots of the queued states (null if not available). */
+  private Object[] saved_ = new Object[16];
+
+  private int head_ = 0;
+
+  private int tail_ = 0;
+
+  /** The number of states that could not be reached by replay. */
+  private int unreachable_ = 0;
+
+  BreadthFirstExplorer(Tester tester, GraphListener listener)
+  {
+    tester_ = tester;
+    model_ = tester.getModel();
+    graph_ = listener.getCompactGraph();
+  }
+
+  /** The number of states that could not be reached by a replay,
+   *  so were not fully explored.
+   */
+  public int getUnreachable()
+  {
+    return unreachable_;
+  }
+
+  /** Explores all the transitions of states that are less than
+   *  maxDepth transitions from the initial state.
+   *  The model must be in its initial state.
+   */
+  public void explore(int maxDepth)
+  {
+    int root = graph_.getStateId(model_.getCurrentState());
+    assert root != NONE;
+    reached(root, 0, NONE, NONE, maxDepth);
+    while (head_ < tail_) {
+      int state = queue_[head_];
+      Object saved = saved_[head_];
+      saved_[head_] = null;
+      head_++;
+      expand(state, saved, maxDepth);
+    }
+  }
+
+  /** Takes all the todo actions of state, then queues its successors. */
+  private void expand(int state, Object saved, int maxDepth)
+  {
+    int depth = depth_[state];
+    int numActions = graph_.numActions();
+    for (int action = 0; action < numActions; action++) {
+      if (graph_.isTodo(state, action)) {
+        if ( ! goTo(state, saved)) {
+          unreachable_++;
+          return;
+        }
+        if (model_.doAction(action)) {
+          int dest = graph_.getStateId(model_.getCurrentState());
+          reached(dest, depth + 1, state, action, maxDepth);
+        }
+      }
+    }
+    // now follow the transitions that were already known.
+    for (int e = graph_.getFirstOutEdge(state); e != NONE;
+         e = graph_.getNextOutEdge(e)) {
+      reached(graph_.getEdgeDest(e), depth + 1, state,
+          graph_.getEdgeAction(e), maxDepth);
+    }
+  }
+
+  /** Records a path to state, if it has not been reached already.
+   *  If the model is currently in that state, then a snapshot
+   *  of it is saved, ready for when the state is expanded.
+   */
+  private void reached(int state, int depth, int parent, int action,
+      int maxDepth)
+  {
+    if (state >= depth_.length) {
+      int size = Math.max(state + 1, 2 * depth_.length);
+      int old = depth_.length;
+      depth_ = Arrays.copyOf(depth_, size);
+      parentState_ = Arrays.copyOf(parentState_, size);
+      parentAction_ = Arrays.copyOf(parentAction_, size);
+      Arrays.fill(depth_, old, size, NONE);
+    }
+    if (depth_[state] != NONE) {
+      return; // we already know a path that is at least as short.
+    }
+    depth_[state] = depth;
+    parentState_[state] = parent;
+    parentAction_[state] = action;
+    if (depth < maxDepth) {
+      if (tail_ == queue_.length) {
+        queue_ = Arrays.copyOf(queue_, 2 * tail_);
+        saved_ = Arrays.copyOf(saved_, 2 * tail_);
+      }
+      Object snapshot = null;
+      if (state == graph_.getStateId(model_.getCurrentState())) {
+        snapshot = tester_.snapshot();
+      }
+      queue_[tail_] = state;
+      saved_[tail_] = snapshot;
+      tail_++;
+    }
+  }
+
+  /** Puts the model into the given state.
+   * @return false if this was not possible.
+   */
+  private boolean goTo(int state, Object saved)
+  {
+    if (graph_.getStateId(model_.getCurrentState()) == state) {
+      return true;
+    }
+    if (saved != null && tester_.restoreSnapshot(saved)) {
+      if (graph_.getStateId(model_.getCurrentState()) == state) {
+        return true;
+      }
+    }
+    // replay the shortest known path from the initial state.
+    int length = depth_[state];
+    int[] actions = new int[length];
+    int[] states = new int[length];
+    for (int s = state, i = length - 1; i >= 0; s = parentState_[s], i--) {
+      actions[i] = parentAction_[s];
+      states[i] = s;
+    }
+    model_.doReset("Buildgraph");
+    for (int i = 0; i < length; i++) {
+      if ( ! model_.doAction(actions[i])
+          || graph_.getStateId(model_.getCurrentState()) != states[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+}
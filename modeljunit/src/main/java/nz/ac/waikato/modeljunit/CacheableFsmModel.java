@@ -0,0 +1,42 @@
+/**
+ Copyright (C) 2007 Mark Utting
+ This file is part of the CZT project.
+
+ The CZT project contains free software; you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation; either version 2 of the License, or
+ (at your option) any later version.
+
+ The CZT project is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with CZT; if not, write to the Free Software
+ Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package nz.ac.waikato.modeljunit;
+
+/** An FSM model whose graph depends on how the model object was
+ *  configured, not just on its class.
+ *  <p>
+ *  A {@link GraphCache} keeps one graph for each model class and
+ *  configuration.  Without this interface, it can only tell instances of
+ *  the same class apart by their initial state and its enabled actions,
+ *  so models whose constructors take parameters (for example, the size
+ *  of a set) should implement this, to make sure that they never reload
+ *  the graph of a differently configured model.
+ *  </p>
+ */
+public interface CacheableFsmModel extends FsmModel
+{
+  /** A description of every setting that affects the graph of this
+   *  model, such as "size=5".  Two instances of the same class with the
+   *  same configuration must have the same graph.
+   *
+   * @return A non-null string.
+   */
+  public String getConfiguration();
+}
@@ -0,0 +1,692 @@
+/**
+Copyright (C) 2007 Mark Utting
+This file is part of the CZT project.
+
+The CZT project contains free software; you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation; either version 2 of the License, or
+(at your option) any later version.
+
+The CZT project is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with CZT; if not, write to the Free Software
+Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+*/
+
+package nz.ac.waikato.modeljunit;
+
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.util.Arrays;
+import java.util.BitSet;
+
+/** A compact store for the states and transitions of an FSM graph.
+ *  <p>
+ *  Each state is given a dense integer id (0, 1, 2, ...) in the order
+ *  that it is added, and each transition (edge) is given a dense edge id.
+ *  Everything is held in growable arrays of ints and longs, rather than
+ *  in one object per vertex and edge, so the only objects that are stored
+ *  are the state objects themselves.  This takes a few dozen bytes per
+ *  state, plus 24 bytes per edge, plus about 20 bytes per (state, action)
+ *  pair that has edges.
+ *  </p>
+ *  <p>
+ *  The outgoing and incoming edges of each state are kept as linked lists
+ *  that are threaded through int arrays, so edges can be added in constant
+ *  time.  The edges of each (state, action) pair are also kept as a linked
+ *  list, whose first edge is found via a LongIntMap, so finding the edges
+ *  of one action does not search all the outgoing edges of a state.  When exploration has finished, {@link #compact()} renumbers
+ *  the edges so that the outgoing edges of each state are contiguous
+ *  (as in a compressed sparse row matrix) and trims all the arrays.
+ *  </p>
+ *  <p>
+ *  For each state, this also records two sets of actions, packed into
+ *  longs: the actions that have been done (taken) from that state,
+ *  and the actions that have been seen to be enabled in that state.
+ *  </p>
+ *  <p>
+ *  Use {@link #getView()} to see this graph as a JDSL InspectableGraph.
+ *  </p>
+ */
+public class CompactGraph
+{
+  /** The state or edge number that means 'no state' or 'no more edges'. */
+  public static final int NONE = -1;
+
+  private static final int INITIAL_SIZE = 16;
+
+  /** The names of the actions, indexed by action number. */
+  private final String[] actionNames_;
+
+  /** The number of longs that hold the action bits of each state. */
+  private final int words_;
+
+  private int numStates_ = 0;
+
+  /** The state objects, indexed by state number. */
+  private Object[] states_;
+
+  /** The hash code of each state. */
+  private int[] hash_;
+
+  /** An open-addressing hash table that maps states to their number.
+   *  Each entry is 0 if empty, or the state number plus one.
+   *  Its length is a power of two, and it is at most half full.
+   */
+  private int[] table_;
+
+  /** The first outgoing edge of each state, or NONE. */
+  private int[] firstOut_;
+
+  /** The first incoming edge of each state, or NONE. */
+  private int[] firstIn_;
+
+  /** The actions done from each state (words_ longs per state). */
+  private long[] done_;
+
+  /** The actions seen enabled in each state (words_ longs per state). */
+  private long[] enabled_;
+
+  private int numEdges_ = 0;
+
+  private int[] edgeSource_;
+
+  private int[] edgeDest_;
+
+  private int[] edgeAction_;
+
+  /** The next outgoing edge of the same source state, or NONE. */
+  private int[] nextOut_;
+
+  /** The next incoming edge of the same destination state, or NONE. */
+  private int[] nextIn_;
+
+  /** The next edge with the same source state and action, or NONE. */
+  private int[] nextSame_;
+
+  /** Maps each (state, action) pair, as state * numActions + action,
+   *  to its first edge.  Pairs with no edges are not in the map. */
+  private final LongIntMap firstSame_ = new LongIntMap();
+
+  /** This is incremented each time the edges are renumbered. */
+  private int edgeVersion_ = 0;
+
+  /** The JDSL view of this graph, created on demand. */
+  private CompactGraphView view_;
+
+  /** Creates an empty graph.
+   *
+   * @param actionNames The names of the actions, in action-number order.
+   */
+  public CompactGraph(String[] actionNames)
+  {
+    actionNames_ = actionNames.clone();
+    words_ = Math.max(1, (actionNames.length + 63) / 64);
+    states_ = new Object[INITIAL_SIZE];
+    hash_ = new int[INITIAL_SIZE];
+    table_ = new int[2 * INITIAL_SIZE];
+    firstOut_ = new int[INITIAL_SIZE];
+    firstIn_ = new int[INITIAL_SIZE];
+    done_ = new long[INITIAL_SIZE * words_];
+    enabled_ = new long[INITIAL_SIZE * words_];
+    edgeSource_ = new int[INITIAL_SIZE];
+    edgeDest_ = new int[INITIAL_SIZE];
+    edgeAction_ = new int[INITIAL_SIZE];
+    nextOut_ = new int[INITIAL_SIZE];
+    nextIn_ = new int[INITIAL_SIZE];
+    nextSame_ = new int[INITIAL_SIZE];
+  }
+
+  /** The number of actions of the model. */
+  public int numActions()
+  {
+    return actionNames_.length;
+  }
+
+  /** The name of the given action number. */
+  public String getActionName(int action)
+  {
+    return actionNames_[action];
+  }
+
+  /** The number of states in the graph. */
+  public int numStates()
+  {
+    return numStates_;
+  }
+
+  /** The number of edges (transitions) in the graph. */
+  public int numEdges()
+  {
+    return numEdges_;
+  }
+
+  /** Returns the state object that has the given number. */
+  public Object getState(int state)
+  {
+    checkState(state);
+    return states_[state];
+  }
+
+  /** Returns the number of the given state, or NONE if it is unknown. */
+  public int getStateId(Object state)
+  {
+    int h = hash(state);
+    int mask = table_.length - 1;
+    for (int i = h & mask; table_[i] != 0; i = (i + 1) & mask) {
+      int id = table_[i] - 1;
+      if (hash_[id] == h && states_[id].equals(state)) {
+        return id;
+      }
+    }
+    return NONE;
+  }
+
+  /** Adds a state to the graph, if it is not already there.
+   *  New states are numbered consecutively, so the result is
+   *  equal to the old numStates() if and only if state is new.
+   *
+   * @param state A non-null state of the model.
+   * @return      The number of that state.
+   */
+  public int addState(Object state)
+  {
+    int h = hash(state);
+    int mask = table_.length - 1;
+    int i = h & mask;
+    for ( ; table_[i] != 0; i = (i + 1) & mask) {
+      int id = table_[i] - 1;
+      if (hash_[id] == h && states_[id].equals(state)) {
+        return id;
+      }
+    }
+    if (numStates_ == states_.length) {
+      growStates();
+    }
+    int id = numStates_++;
+    states_[id] = state;
+    hash_[id] = h;
+    firstOut_[id] = NONE;
+    firstIn_[id] = NONE;
+    table_[i] = id + 1;
+    if (2 * numStates_ > table_.length) {
+      rehash(2 * table_.length);
+    }
+    return id;
+  }
+
+  /** Returns the edge (source, action, dest), or NONE if it is not present.
+   *  This searches only the edges of source that have the given action.
+   */
+  public int getEdge(int source, int action, int dest)
+  {
+    for (int e = getFirstEdge(source, action); e != NONE; e = nextSame_[e]) {
+      if (edgeDest_[e] == dest) {
+        return e;
+      }
+    }
+    return NONE;
+  }
+
+  /** The first outgoing edge of state that has the given action, or NONE.
+   *  There is usually at most one such edge, but there may be several
+   *  if the action is non-deterministic.  To visit all of them, use:
+   *  <pre>
+   *  for (int e = g.getFirstEdge(s, a); e != NONE; e = g.getNextEdge(e))
+   *  </pre>
+   */
+  public int getFirstEdge(int state, int action)
+  {
+    // LongIntMap.NONE is also -1.
+    return firstSame_.get(key(state, action));
+  }
+
+  /** The next outgoing edge of the same state with the same action,
+   *  or NONE. */
+  public int getNextEdge(int edge)
+  {
+    return nextSame_[edge];
+  }
+
+  private long key(int state, int action)
+  {
+    return (long) state * actionNames_.length + action;
+  }
+
+  /** Adds the edge (source, action, dest), if it is not already present.
+   *  New edges are numbered consecutively, so the result is equal
+   *  to the old numEdges() if and only if the edge is new.
+   *
+   * @return The number of the edge.
+   */
+  public int addEdge(int source, int action, int dest)
+  {
+    checkState(source);
+    checkState(dest);
+    if (action < 0 || action >= actionNames_.length) {
+      throw new IllegalArgumentException("illegal action number: " + action);
+    }
+    int e = getEdge(source, action, dest);
+    if (e != NONE) {
+      return e;
+    }
+    if (numEdges_ == edgeSource_.length) {
+      growEdges();
+    }
+    e = numEdges_++;
+    edgeSource_[e] = source;
+    edgeDest_[e] = dest;
+    edgeAction_[e] = action;
+    nextOut_[e] = firstOut_[source];
+    firstOut_[source] = e;
+    nextIn_[e] = firstIn_[dest];
+    firstIn_[dest] = e;
+    long key = key(source, action);
+    nextSame_[e] = firstSame_.get(key);
+    firstSame_.put(key, e);
+    return e;
+  }
+
+  /** The first outgoing edge of the given state, or NONE.
+   *  To visit all the outgoing edges of state s, use:
+   *  <pre>
+   *  for (int e = g.getFirstOutEdge(s); e != NONE; e = g.getNextOutEdge(e))
+   *  </pre>
+   */
+  public int getFirstOutEdge(int state)
+  {
+    return firstOut_[state];
+  }
+
+  /** The next outgoing edge of the same state, or NONE. */
+  public int getNextOutEdge(int edge)
+  {
+    return nextOut_[edge];
+  }
+
+  /** The first incoming edge of the given state, or NONE. */
+  public int getFirstInEdge(int state)
+  {
+    return firstIn_[state];
+  }
+
+  /** The next incoming edge of the same state, or NONE. */
+  public int getNextInEdge(int edge)
+  {
+    return nextIn_[edge];
+  }
+
+  /** The number of the state that the given edge starts from. */
+  public int getEdgeSource(int edge)
+  {
+    return edgeSource_[edge];
+  }
+
+  /** The number of the state that the given edge goes to. */
+  public int getEdgeDest(int edge)
+  {
+    return edgeDest_[edge];
+  }
+
+  /** The action number of the given edge. */
+  public int getEdgeAction(int edge)
+  {
+    return edgeAction_[edge];
+  }
+
+  /** This changes each time that compact() renumbers the edges. */
+  public int getEdgeVersion()
+  {
+    return edgeVersion_;
+  }
+
+  /** Renumbers the edges so that the outgoing edges of each state
+   *  are contiguous and in action-number order, then trims all the
+   *  arrays to their exact size.  This makes the graph smaller and
+   *  faster to traverse, so it is worth doing once exploration has
+   *  finished.  Edges can still be added afterwards.
+   *  <p>
+   *  Note that this changes the edge numbers, but not the state numbers.
+   *  </p>
+   */
+  public void compact()
+  {
+    int n = numStates_;
+    int m = numEdges_;
+    int[] order = new int[m];   // maps new edge number to old number
+    int[] first = new int[n];
+    int pos = 0;
+    for (int s = 0; s < n; s++) {
+      int start = pos;
+      for (int e = firstOut_[s]; e != NONE; e = nextOut_[e]) {
+        // insertion sort, by action and then by old edge number.
+        int i = pos++;
+        while (i > start && before(e, order[i - 1])) {
+          order[i] = order[i - 1];
+          i--;
+        }
+        order[i] = e;
+      }
+      first[s] = pos > start ? start : NONE;
+    }
+    assert pos == m;
+
+    int[] source = new int[m];
+    int[] dest = new int[m];
+    int[] action = new int[m];
+    int[] nextOut = new int[m];
+    int[] nextIn = new int[m];
+    for (int i = 0; i < m; i++) {
+      source[i] = edgeSource_[order[i]];
+      dest[i] = edgeDest_[order[i]];
+      action[i] = edgeAction_[order[i]];
+      nextOut[i] = (i + 1 < m && edgeSource_[order[i + 1]] == source[i])
+        ? i + 1 : NONE;
+    }
+    int[] firstIn = new int[n];
+    Arrays.fill(firstIn, NONE);
+    int[] nextSame = new int[m];
+    firstSame_.clear();
+    for (int i = m - 1; i >= 0; i--) {
+      nextIn[i] = firstIn[dest[i]];
+      firstIn[dest[i]] = i;
+      // the edges of each (state, action) pair are now adjacent.
+      nextSame[i] = (i + 1 < m && source[i + 1] == source[i]
+          && action[i + 1] == action[i]) ? i + 1 : NONE;
+      if (i == 0 || source[i - 1] != source[i] || action[i - 1] != action[i]) {
+        firstSame_.put(key(source[i], action[i]), i);
+      }
+    }
+    edgeSource_ = source;
+    edgeDest_ = dest;
+    edgeAction_ = action;
+    nextOut_ = nextOut;
+    nextIn_ = nextIn;
+    nextSame_ = nextSame;
+    firstOut_ = first;
+    firstIn_ = firstIn;
+    states_ = Arrays.copyOf(states_, n);
+    hash_ = Arrays.copyOf(hash_, n);
+    done_ = Arrays.copyOf(done_, n * words_);
+    enabled_ = Arrays.copyOf(enabled_, n * words_);
+    edgeVersion_++;
+  }
+
+  /** Adds all the states, edges and action bits of another graph
+   *  into this graph.  This is used to combine the graphs explored by
+   *  several test generators (see ParallelTester).  The states of other
+   *  that are new to this graph are numbered in the same order as in other.
+   *
+   * @param other A graph of the same model (with the same actions).
+   */
+  public void merge(CompactGraph other)
+  {
+    if ( ! Arrays.equals(actionNames_, other.actionNames_)) {
+      throw new IllegalArgumentException("cannot merge graphs of different models");
+    }
+    int[] ids = new int[other.numStates_];
+    for (int s = 0; s < other.numStates_; s++) {
+      ids[s] = addState(other.states_[s]);
+      for (int w = 0; w < words_; w++) {
+        done_[ids[s] * words_ + w] |= other.done_[s * words_ + w];
+        enabled_[ids[s] * words_ + w] |= other.enabled_[s * words_ + w];
+      }
+    }
+    for (int e = 0; e < other.numEdges_; e++) {
+      addEdge(ids[other.edgeSource_[e]], other.edgeAction_[e],
+          ids[other.edgeDest_[e]]);
+    }
+  }
+
+  /** Writes the action names, states, edges and action bits of this
+   *  graph, in a form that {@link #read(ObjectInput)} can read back.
+   *  The state objects are written with writeObject, so they must be
+   *  serializable.  Everything else is written as ints and longs.
+   */
+  public void write(ObjectOutput out)
+    throws IOException
+  {
+    out.writeInt(actionNames_.length);
+    for (String name : actionNames_) {
+      out.writeUTF(name);
+    }
+    out.writeInt(numStates_);
+    for (int s = 0; s < numStates_; s++) {
+      out.writeObject(states_[s]);
+    }
+    for (int i = 0; i < numStates_ * words_; i++) {
+      out.writeLong(done_[i]);
+      out.writeLong(enabled_[i]);
+    }
+    out.writeInt(numEdges_);
+    for (int e = 0; e < numEdges_; e++) {
+      out.writeInt(edgeSource_[e]);
+      out.writeInt(edgeAction_[e]);
+      out.writeInt(edgeDest_[e]);
+    }
+  }
+
+  /** Reads a graph that was written by {@link #write(ObjectOutput)}.
+   *  The states and edges have the same numbers as in the graph that
+   *  was written.
+   */
+  public static CompactGraph read(ObjectInput in)
+    throws IOException, ClassNotFoundException
+  {
+    String[] actionNames = new String[in.readInt()];
+    for (int a = 0; a < actionNames.length; a++) {
+      actionNames[a] = in.readUTF();
+    }
+    CompactGraph graph = new CompactGraph(actionNames);
+    int numStates = in.readInt();
+    for (int s = 0; s < numStates; s++) {
+      if (graph.addState(in.readObject()) != s) {
+        throw new IOException("duplicate state in graph");
+      }
+    }
+    for (int i = 0; i < numStates * graph.words_; i++) {
+      graph.done_[i] = in.readLong();
+      graph.enabled_[i] = in.readLong();
+    }
+    int numEdges = in.readInt();
+    for (int e = 0; e < numEdges; e++) {
+      int source = in.readInt();
+      int action = in.readInt();
+      int dest = in.readInt();
+      if (source < 0 || source >= numStates || dest < 0 || dest >= numStates
+          || action < 0 || action >= actionNames.length) {
+        throw new IOException("illegal edge in graph");
+      }
+      graph.addEdge(source, action, dest);
+    }
+    return graph;
+  }
+
+  /** The ordering of edges within each state, used by compact. */
+  private boolean before(int e1, int e2)
+  {
+    return edgeAction_[e1] < edgeAction_[e2]
+      || edgeAction_[e1] == edgeAction_[e2] && e1 < e2;
+  }
+
+  /** True if the given action has been done from the given state. */
+  public boolean isDone(int state, int action)
+  {
+    return (done_[state * words_ + (action >>> 6)] & (1L << action)) != 0;
+  }
+
+  /** Records that the given action has been done from the given state.
+   *
+   * @return true if it had not been done before.
+   */
+  public boolean setDone(int state, int action)
+  {
+    checkState(state);
+    int i = state * words_ + (action >>> 6);
+    long old = done_[i];
+    done_[i] = old | (1L << action);
+    return done_[i] != old;
+  }
+
+  /** True if the given action has been seen enabled in the given state. */
+  public boolean isEnabled(int state, int action)
+  {
+    return (enabled_[state * words_ + (action >>> 6)] & (1L << action)) != 0;
+  }
+
+  /** Records that the given actions are enabled in the given state.
+   *
+   * @param state   A state number.
+   * @param actions The numbers of the enabled actions.
+   * @return        The number of actions that were not already recorded.
+   */
+  public int addEnabled(int state, BitSet actions)
+  {
+    checkState(state);
+    int added = 0;
+    int base = state * words_;
+    for (int a = actions.nextSetBit(0); a >= 0; a = actions.nextSetBit(a + 1)) {
+      int i = base + (a >>> 6);
+      long old = enabled_[i];
+      enabled_[i] = old | (1L << a);
+      if (enabled_[i] != old) {
+        added++;
+      }
+    }
+    return added;
+  }
+
+  /** True if the given action has been enabled in the given state,
+   *  but has not yet been done from that state.
+   */
+  public boolean isTodo(int state, int action)
+  {
+    int i = state * words_ + (action >>> 6);
+    return (enabled_[i] & ~done_[i] & (1L << action)) != 0;
+  }
+
+  /** True if the given state has at least one isTodo action. */
+  public boolean hasTodo(int state)
+  {
+    int base = state * words_;
+    for (int i = base; i < base + words_; i++) {
+      if ((enabled_[i] & ~done_[i]) != 0) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /** Returns a new BitSet containing the done actions of state. */
+  public BitSet getDone(int state)
+  {
+    return toBitSet(done_, null, state);
+  }
+
+  /** Returns a new BitSet containing the enabled actions of state. */
+  public BitSet getEnabled(int state)
+  {
+    return toBitSet(enabled_, null, state);
+  }
+
+  /** Returns a new BitSet containing the isTodo actions of state. */
+  public BitSet getTodo(int state)
+  {
+    return toBitSet(enabled_, done_, state);
+  }
+
+  /** Forgets all the done and enabled actions of all states. */
+  public void clearActions()
+  {
+    Arrays.fill(done_, 0L);
+    Arrays.fill(enabled_, 0L);
+  }
+
+  /** Returns a read-only JDSL view of this graph.
+   *  The view always reflects the current contents of this graph.
+   */
+  public CompactGraphView getView()
+  {
+    if (view_ == null) {
+      view_ = new CompactGraphView(this);
+    }
+    return view_;
+  }
+
+  /** Converts the bits of one state into a BitSet.
+   *  If minus is non-null, its bits are removed from the result.
+   */
+  private BitSet toBitSet(long[] bits, long[] minus, int state)
+  {
+    checkState(state);
+    BitSet result = new BitSet(actionNames_.length);
+    int base = state * words_;
+    for (int w = 0; w < words_; w++) {
+      long word = bits[base + w];
+      if (minus != null) {
+        word &= ~minus[base + w];
+      }
+      while (word != 0) {
+        result.set(w * 64 + Long.numberOfTrailingZeros(word));
+        word &= word - 1;
+      }
+    }
+    return result;
+  }
+
+  private void checkState(int state)
+  {
+    if (state < 0 || state >= numStates_) {
+      throw new IllegalArgumentException("illegal state number: " + state);
+    }
+  }
+
+  /** Spreads the hash code of a state, so that similar codes
+   *  do not all end up in the same part of the table.
+   */
+  private static int hash(Object state)
+  {
+    int h = state.hashCode() * 0x9E3779B9;
+    return h ^ (h >>> 16);
+  }
+
+  private void rehash(int size)
+  {
+    table_ = new int[size];
+    int mask = size - 1;
+    for (int id = 0; id < numStates_; id++) {
+      int i = hash_[id] & mask;
+      while (table_[i] != 0) {
+        i = (i + 1) & mask;
+      }
+      table_[i] = id + 1;
+    }
+  }
+
+  private void growStates()
+  {
+    int size = Math.max(INITIAL_SIZE, 2 * states_.length);
+    states_ = Arrays.copyOf(states_, size);
+    hash_ = Arrays.copyOf(hash_, size);
+    firstOut_ = Arrays.copyOf(firstOut_, size);
+    firstIn_ = Arrays.copyOf(firstIn_, size);
+    done_ = Arrays.copyOf(done_, size * words_);
+    enabled_ = Arrays.copyOf(enabled_, size * words_);
+  }
+
+  private void growEdges()
+  {
+    int size = Math.max(INITIAL_SIZE, 2 * edgeSource_.length);
+    edgeSource_ = Arrays.copyOf(edgeSource_, size);
+    edgeDest_ = Arrays.copyOf(edgeDest_, size);
+    edgeAction_ = Arrays.copyOf(edgeAction_, size);
+    nextOut_ = Arrays.copyOf(nextOut_, size);
+    nextIn_ = Arrays.copyOf(nextIn_, size);
+    nextSame_ = Arrays.copyOf(nextSame_, size);
+  }
+}
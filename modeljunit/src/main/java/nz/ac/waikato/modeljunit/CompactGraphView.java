@@ -0,0 +1,465 @@
+/**
+Copyright (C) 2007 Mark Utting
+This file is part of the CZT project.
+
+The CZT project contains free software; you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation; either version 2 of the License, or
+(at your option) any later version.
+
+The CZT project is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with CZT; if not, write to the Free Software
+Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+*/
+
+package nz.ac.waikato.modeljunit;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import nz.ac.waikato.jdsl.core.api.Accessor;
+import nz.ac.waikato.jdsl.core.api.Container;
+import nz.ac.waikato.jdsl.core.api.InvalidMethodCallException;
+import nz.ac.waikato.jdsl.core.api.ObjectIterator;
+import nz.ac.waikato.jdsl.core.ref.ArrayObjectIterator;
+import nz.ac.waikato.jdsl.core.ref.HashtableDecorable;
+import nz.ac.waikato.jdsl.graph.api.Edge;
+import nz.ac.waikato.jdsl.graph.api.EdgeDirection;
+import nz.ac.waikato.jdsl.graph.api.EdgeIterator;
+import nz.ac.waikato.jdsl.graph.api.InvalidEdgeException;
+import nz.ac.waikato.jdsl.graph.api.InvalidVertexException;
+import nz.ac.waikato.jdsl.graph.api.Vertex;
+import nz.ac.waikato.jdsl.graph.api.VertexIterator;
+import nz.ac.waikato.jdsl.graph.ref.AbstractGraph;
+import nz.ac.waikato.jdsl.graph.ref.EdgeIteratorAdapter;
+import nz.ac.waikato.jdsl.graph.ref.VertexIteratorAdapter;
+
+/** A read-only JDSL graph view of a CompactGraph.
+ *  This lets the coverage metrics, the GUI and the JDSL algorithms
+ *  work on a CompactGraph.  The vertices of this graph are the states
+ *  of the model, and the elements of the edges are the action names.
+ *  <p>
+ *  The Vertex and Edge objects are only created when they are first
+ *  asked for, and are then reused, so any decorations that are put on
+ *  them are kept.  However, after CompactGraph.compact() renumbers the
+ *  edges, the old Edge objects no longer belong to this graph.
+ *  </p>
+ */
+public class CompactGraphView extends AbstractGraph
+{
+  private final CompactGraph graph_;
+
+  /** The vertices that have been created so far, indexed by state. */
+  private StateVertex[] vertices_ = new StateVertex[0];
+
+  /** The edges that have been created so far, indexed by edge number. */
+  private ActionEdge[] edges_ = new ActionEdge[0];
+
+  /** The CompactGraph edge version that edges_ belongs to. */
+  private int edgeVersion_;
+
+  CompactGraphView(CompactGraph graph)
+  {
+    graph_ = graph;
+    edgeVersion_ = graph.getEdgeVersion();
+  }
+
+  /** The underlying compact graph. */
+  public CompactGraph getCompactGraph()
+  {
+    return graph_;
+  }
+
+  /** Returns the vertex for the given state number. */
+  public Vertex getVertex(int state)
+  {
+    Object element = graph_.getState(state);
+    if (state >= vertices_.length) {
+      vertices_ = Arrays.copyOf(vertices_,
+          Math.max(state + 1, graph_.numStates()));
+    }
+    StateVertex v = vertices_[state];
+    if (v == null) {
+      v = new StateVertex(this, state, element);
+      vertices_[state] = v;
+    }
+    return v;
+  }
+
+  /** Returns the edge for the given edge number. */
+  public Edge getEdge(int edge)
+  {
+    if (edge < 0 || edge >= graph_.numEdges()) {
+      throw new IllegalArgumentException("illegal edge number: " + edge);
+    }
+    checkEdgeVersion();
+    if (edge >= edges_.length) {
+      edges_ = Arrays.copyOf(edges_, Math.max(edge + 1, graph_.numEdges()));
+    }
+    ActionEdge e = edges_[edge];
+    if (e == null) {
+      e = new ActionEdge(this, edge, edgeVersion_,
+          graph_.getActionName(graph_.getEdgeAction(edge)));
+      edges_[edge] = e;
+    }
+    return e;
+  }
+
+  /** Returns the state number of a vertex of this graph. */
+  public int getStateNumber(Vertex v)
+  {
+    if ( ! (v instanceof StateVertex) || ((StateVertex) v).owner_ != this) {
+      throw new InvalidVertexException("vertex " + v + " is not in this graph");
+    }
+    return ((StateVertex) v).state_;
+  }
+
+  /** Returns the edge number of an edge of this graph. */
+  public int getEdgeNumber(Edge e)
+  {
+    checkEdgeVersion();
+    if ( ! (e instanceof ActionEdge) || ((ActionEdge) e).owner_ != this
+        || ((ActionEdge) e).version_ != edgeVersion_) {
+      throw new InvalidEdgeException("edge " + e + " is not in this graph");
+    }
+    return ((ActionEdge) e).edge_;
+  }
+
+  /** Returns a read-only map from the states to the vertices of
+   *  this graph.  Like this graph, it reflects later changes.
+   */
+  public Map<Object,Vertex> getVertexMap()
+  {
+    return new VertexMap();
+  }
+
+  /** After the edges are renumbered, forget the old edge objects. */
+  private void checkEdgeVersion()
+  {
+    if (edgeVersion_ != graph_.getEdgeVersion()) {
+      edgeVersion_ = graph_.getEdgeVersion();
+      edges_ = new ActionEdge[0];
+    }
+  }
+
+  public int numVertices()
+  {
+    return graph_.numStates();
+  }
+
+  public int numEdges()
+  {
+    return graph_.numEdges();
+  }
+
+  public VertexIterator vertices()
+  {
+    Vertex[] result = new Vertex[graph_.numStates()];
+    for (int s = 0; s < result.length; s++) {
+      result[s] = getVertex(s);
+    }
+    return new VertexIteratorAdapter(new ArrayObjectIterator(result));
+  }
+
+  public Vertex aVertex()
+  {
+    return graph_.numStates() == 0 ? Vertex.NONE : getVertex(0);
+  }
+
+  public EdgeIterator edges()
+  {
+    Edge[] result = new Edge[graph_.numEdges()];
+    for (int e = 0; e < result.length; e++) {
+      result[e] = getEdge(e);
+    }
+    return new EdgeIteratorAdapter(new ArrayObjectIterator(result));
+  }
+
+  public Edge anEdge()
+  {
+    return graph_.numEdges() == 0 ? Edge.NONE : getEdge(0);
+  }
+
+  public boolean areIncident(Vertex v, Edge e)
+  {
+    int state = getStateNumber(v);
+    int edge = getEdgeNumber(e);
+    return graph_.getEdgeSource(edge) == state
+      || graph_.getEdgeDest(edge) == state;
+  }
+
+  public int degree(Vertex v)
+  {
+    return degree(v, EdgeDirection.IN | EdgeDirection.OUT);
+  }
+
+  public int degree(Vertex v, int edgetype)
+  {
+    return incidentEdgeNumbers(getStateNumber(v), edgetype).length;
+  }
+
+  public EdgeIterator incidentEdges(Vertex v)
+  {
+    return incidentEdges(v, EdgeDirection.IN | EdgeDirection.OUT);
+  }
+
+  public EdgeIterator incidentEdges(Vertex v, int edgetype)
+  {
+    int[] numbers = incidentEdgeNumbers(getStateNumber(v), edgetype);
+    Edge[] result = new Edge[numbers.length];
+    for (int i = 0; i < numbers.length; i++) {
+      result[i] = getEdge(numbers[i]);
+    }
+    return new EdgeIteratorAdapter(new ArrayObjectIterator(result));
+  }
+
+  public Edge anIncidentEdge(Vertex v)
+  {
+    return anIncidentEdge(v, EdgeDirection.IN | EdgeDirection.OUT);
+  }
+
+  public Edge anIncidentEdge(Vertex v, int edgetype)
+  {
+    int state = getStateNumber(v);
+    int edge = CompactGraph.NONE;
+    if ((edgetype & EdgeDirection.OUT) != 0) {
+      edge = graph_.getFirstOutEdge(state);
+    }
+    if (edge == CompactGraph.NONE && (edgetype & EdgeDirection.IN) != 0) {
+      edge = graph_.getFirstInEdge(state);
+    }
+    return edge == CompactGraph.NONE ? Edge.NONE : getEdge(edge);
+  }
+
+  /** The outgoing and/or incoming edges of a state.
+   *  All edges are directed, so UNDIR never matches anything.
+   */
+  private int[] incidentEdgeNumbers(int state, int edgetype)
+  {
+    int count = 0;
+    int[] result = new int[4];
+    if ((edgetype & EdgeDirection.OUT) != 0) {
+      for (int e = graph_.getFirstOutEdge(state); e != CompactGraph.NONE;
+           e = graph_.getNextOutEdge(e)) {
+        if (count == result.length) {
+          result = Arrays.copyOf(result, 2 * count);
+        }
+        result[count++] = e;
+      }
+    }
+    if ((edgetype & EdgeDirection.IN) != 0) {
+      for (int e = graph_.getFirstInEdge(state); e != CompactGraph.NONE;
+           e = graph_.getNextInEdge(e)) {
+        if (count == result.length) {
+          result = Arrays.copyOf(result, 2 * count);
+        }
+        result[count++] = e;
+      }
+    }
+    return Arrays.copyOf(result, count);
+  }
+
+  public Vertex[] endVertices(Edge e)
+  {
+    return new Vertex[] {origin(e), destination(e)};
+  }
+
+  public Vertex opposite(Vertex v, Edge e)
+  {
+    int state = getStateNumber(v);
+    int edge = getEdgeNumber(e);
+    if (graph_.getEdgeSource(edge) == state) {
+      return getVertex(graph_.getEdgeDest(edge));
+    }
+    if (graph_.getEdgeDest(edge) == state) {
+      return getVertex(graph_.getEdgeSource(edge));
+    }
+    throw new InvalidVertexException("vertex " + v + " is not an end of " + e);
+  }
+
+  public Vertex origin(Edge e)
+  {
+    return getVertex(graph_.getEdgeSource(getEdgeNumber(e)));
+  }
+
+  public Vertex destination(Edge e)
+  {
+    return getVertex(graph_.getEdgeDest(getEdgeNumber(e)));
+  }
+
+  public boolean isDirected(Edge e)
+  {
+    getEdgeNumber(e); // checks that e is valid
+    return true;
+  }
+
+  public boolean contains(Accessor a)
+  {
+    if (a instanceof StateVertex) {
+      return ((StateVertex) a).owner_ == this;
+    }
+    if (a instanceof ActionEdge) {
+      checkEdgeVersion();
+      return ((ActionEdge) a).owner_ == this
+        && ((ActionEdge) a).version_ == edgeVersion_;
+    }
+    return false;
+  }
+
+  public ObjectIterator elements()
+  {
+    int numStates = graph_.numStates();
+    Object[] result = new Object[numStates + graph_.numEdges()];
+    for (int s = 0; s < numStates; s++) {
+      result[s] = graph_.getState(s);
+    }
+    for (int e = 0; e < graph_.numEdges(); e++) {
+      result[numStates + e] = graph_.getActionName(graph_.getEdgeAction(e));
+    }
+    return new ArrayObjectIterator(result);
+  }
+
+  /** This view is read-only, so this always throws an exception. */
+  public Object replaceElement(Accessor a, Object newElement)
+  {
+    throw new InvalidMethodCallException("CompactGraphView is read-only");
+  }
+
+  /** This view is read-only, so this always throws an exception. */
+  public Container newContainer()
+  {
+    throw new InvalidMethodCallException("CompactGraphView is read-only");
+  }
+
+  /** A vertex of the graph, whose element is a state. */
+  private static class StateVertex extends HashtableDecorable
+    implements Vertex
+  {
+    private static final long serialVersionUID = 1L;
+
+    private final CompactGraphView owner_;
+    private final int state_;
+    private final Object element_;
+
+    StateVertex(CompactGraphView owner, int state, Object element)
+    {
+      owner_ = owner;
+      state_ = state;
+      element_ = element;
+    }
+
+    public Object element()
+    {
+      return element_;
+    }
+
+    @Override
+    public String toString()
+    {
+      return String.valueOf(element_);
+    }
+  }
+
+  /** An edge of the graph, whose element is an action name. */
+  private static class ActionEdge extends HashtableDecorable
+    implements Edge
+  {
+    private static final long serialVersionUID = 1L;
+
+    private final CompactGraphView owner_;
+    private final int edge_;
+    private final int version_;
+    private final String element_;
+
+    ActionEdge(CompactGraphView owner, int edge, int version, String element)
+    {
+      owner_ = owner;
+      edge_ = edge;
+      version_ = version;
+      element_ = element;
+    }
+
+    public Object element()
+    {
+      return element_;
+    }
+
+    @Override
+    public String toString()
+    {
+      return element_;
+    }
+  }
+
+  /** Maps each state to its vertex, via the CompactGraph state numbers. */
+  private class VertexMap extends AbstractMap<Object,Vertex>
+  {
+    @Override
+    public int size()
+    {
+      return graph_.numStates();
+    }
+
+    @Override
+    public boolean containsKey(Object state)
+    {
+      return state != null && graph_.getStateId(state) != CompactGraph.NONE;
+    }
+
+    @Override
+    public Vertex get(Object state)
+    {
+      int id = state == null ? CompactGraph.NONE : graph_.getStateId(state);
+      return id == CompactGraph.NONE ? null : getVertex(id);
+    }
+
+    @Override
+    public Set<Map.Entry<Object,Vertex>> entrySet()
+    {
+      return new AbstractSet<Map.Entry<Object,Vertex>>() {
+        @Override
+        public int size()
+        {
+          return graph_.numStates();
+        }
+
+        @Override
+        public Iterator<Map.Entry<Object,Vertex>> iterator()
+        {
+          return new Iterator<Map.Entry<Object,Vertex>>() {
+            private int next_ = 0;
+
+            public boolean hasNext()
+            {
+              return next_ < graph_.numStates();
+            }
+
+            public Map.Entry<Object,Vertex> next()
+            {
+              if ( ! hasNext()) {
+                throw new NoSuchElementException();
+              }
+              Vertex v = getVertex(next_++);
+              return new SimpleImmutableEntry<Object,Vertex>(v.element(), v);
+            }
+
+            public void remove()
+            {
+              throw new UnsupportedOperationException();
+            }
+          };
+        }
+      };
+    }
+  }
+}
@@ -0,0 +1,335 @@
+/**
+ Copyright (C) 2007 Mark Utting
+ This file is part of the CZT project.
+
+ The CZT project contains free software; you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation; either version 2 of the License, or
+ (at your option) any later version.
+
+ The CZT project is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with CZT; if not, write to the Free Software
+ Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package nz.ac.waikato.modeljunit;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/** Minimizes a failing test sequence by delta debugging (ddmin).
+ *  <p>
+ *  Unlike ShortenFailure, which tries random cuts one at a time, this
+ *  splits the current failing sequence into n chunks, and tries each
+ *  chunk on its own, and the sequence without each chunk.  If one of
+ *  those candidates still fails, it becomes the current sequence, else
+ *  the chunks are made smaller, until each chunk is a single transition.
+ *  So it is deterministic, and it always terminates, with a sequence
+ *  from which no single transition can be removed.
+ *  </p>
+ *  <p>
+ *  All the candidates of one round are run concurrently, each on one of
+ *  a pool of independent Model instances (and so SUTs), which are
+ *  obtained from a {@link ParallelTester.ModelFactory}.  The candidate
+ *  that is kept is always the first one in the round that fails, so the
+ *  result does not depend on the number of threads.
+ *  </p>
+ *  <p>
+ *  A candidate is replayed by doing the actions of its transitions, from
+ *  the initial state, followed by the action that failed originally.
+ *  It is rejected if any of those actions is disabled.  A failure is
+ *  accepted using the same rules as ShortenFailure (see
+ *  {@link #setSameState(boolean)} and {@link #setSameAction(boolean)}),
+ *  and the new sequence is the one that actually led to that failure.
+ *  </p>
+ */
+public class DeltaDebugger
+{
+  private final ParallelTester.ModelFactory models_;
+
+  private int numThreads_;
+
+  private boolean sameState_ = true;
+
+  private boolean sameAction_ = true;
+
+  /** The failure that is being minimized. */
+  private final TestFailureException original_;
+
+  /** The shortest failure found so far. */
+  private TestFailureException failure_;
+
+  private List<Transition> failureSequence_;
+
+  /** The number of candidate sequences that have been run. */
+  private final AtomicInteger numTests_ = new AtomicInteger();
+
+  /** Creates a minimizer for the given failure.
+   *
+   * @param models  Creates the FsmModel (and SUT) of each thread.
+   *                These must all behave like the model that failed.
+   * @param failure A failure whose sequence was recorded.
+   */
+  public DeltaDebugger(ParallelTester.ModelFactory models,
+      TestFailureException failure)
+  {
+    if (failure.getSequence() == null) {
+      throw new IllegalArgumentException("failure has no sequence");
+    }
+    models_ = models;
+    original_ = failure;
+    failure_ = failure;
+    failureSequence_ = new ArrayList<Transition>(failure.getSequence());
+    numThreads_ = Runtime.getRuntime().availableProcessors();
+  }
+
+  /** Sets the number of threads (and model instances) used to run the
+   *  candidate sequences.  The default is the number of processors.
+   */
+  public void setThreads(int numThreads)
+  {
+    if (numThreads < 1) {
+      throw new IllegalArgumentException("need at least one thread");
+    }
+    numThreads_ = numThreads;
+  }
+
+  public int getThreads()
+  {
+    return numThreads_;
+  }
+
+  /** If value is true (the default), a shorter sequence is only accepted
+   *  if it fails in the same state as the original failure.
+   */
+  public void setSameState(boolean value)
+  {
+    sameState_ = value;
+  }
+
+  public boolean getSameState()
+  {
+    return sameState_;
+  }
+
+  /** If value is true (the default), a shorter sequence is only accepted
+   *  if it fails on the same action as the original failure.
+   */
+  public void setSameAction(boolean value)
+  {
+    sameAction_ = value;
+  }
+
+  public boolean getSameAction()
+  {
+    return sameAction_;
+  }
+
+  /** The number of candidate sequences that have been run so far. */
+  public int getNumTests()
+  {
+    return numTests_.get();
+  }
+
+  /** The sequence of the original failure. */
+  public List<Transition> getOldFailureSequence()
+  {
+    return original_.getSequence();
+  }
+
+  /** The shortest failure found so far.
+   *  This is the original failure, until a shorter one has been found.
+   */
+  public TestFailureException getFailure()
+  {
+    return failure_;
+  }
+
+  /** Minimizes the failing sequence.
+   *
+   * @return The shortest failure found.
+   */
+  public TestFailureException minimize()
+  {
+    BlockingQueue<Model> pool = new ArrayBlockingQueue<Model>(numThreads_);
+    for (int i = 0; i < numThreads_; i++) {
+      Model model = new Model(models_.createModel(i));
+      model.addListener(new StopOnFailureListener());
+      pool.add(model);
+    }
+    ExecutorService executor = Executors.newFixedThreadPool(numThreads_);
+    try {
+      int n = 2;
+      while ( ! failureSequence_.isEmpty()) {
+        int size = failureSequence_.size();
+        n = Math.min(n, size);
+        List<List<Transition>> candidates = candidates(n);
+        int found = runRound(executor, pool, candidates);
+        if (found >= 0 && n > 1 && found < n) {
+          n = 2;  // a single chunk still fails
+        }
+        else if (found >= 0) {
+          n = Math.max(n - 1, 2);  // a complement still fails
+        }
+        else if (n < size) {
+          n = Math.min(2 * n, size);
+        }
+        else {
+          break;  // no single transition can be removed
+        }
+      }
+    }
+    finally {
+      executor.shutdown();
+    }
+    return failure_;
+  }
+
+  /** The candidates of one round: each of the n chunks of the current
+   *  sequence (if n > 1), then the sequence without each chunk.
+   */
+  private List<List<Transition>> candidates(int n)
+  {
+    List<Transition> seq = failureSequence_;
+    List<List<Transition>> result = new ArrayList<List<Transition>>();
+    if (n > 1) {
+      for (int i = 0; i < n; i++) {
+        result.add(new ArrayList<Transition>(
+            seq.subList(start(i, n), start(i + 1, n))));
+      }
+    }
+    for (int i = 0; i < n; i++) {
+      List<Transition> complement = new ArrayList<Transition>(seq.size());
+      complement.addAll(seq.subList(0, start(i, n)));
+      complement.addAll(seq.subList(start(i + 1, n), seq.size()));
+      result.add(complement);
+    }
+    return result;
+  }
+
+  /** The start of chunk i of n chunks of the current sequence. */
+  private int start(int i, int n)
+  {
+    return (int) ((long) failureSequence_.size() * i / n);
+  }
+
+  /** Runs all the candidates concurrently, and keeps the first one that
+   *  fails, if any.  Candidates after a known failing one are skipped.
+   *
+   * @return The index of the candidate that was kept, or -1.
+   */
+  private int runRound(ExecutorService executor, final BlockingQueue<Model> pool,
+      List<List<Transition>> candidates)
+  {
+    final AtomicInteger best = new AtomicInteger(Integer.MAX_VALUE);
+    List<Future<TestFailureException>> results
+      = new ArrayList<Future<TestFailureException>>();
+    for (int i = 0; i < candidates.size(); i++) {
+      final int index = i;
+      final List<Transition> candidate = candidates.get(i);
+      results.add(executor.submit(new Callable<TestFailureException>() {
+        public TestFailureException call() throws InterruptedException
+        {
+          if (index > best.get()) {
+            return null;
+          }
+          Model model = pool.take();
+          try {
+            TestFailureException result = run(model, candidate);
+            if (result != null) {
+              lower(best, index);
+            }
+            return result;
+          }
+          finally {
+            pool.put(model);
+          }
+        }
+      }));
+    }
+    try {
+      for (int i = 0; i < results.size(); i++) {
+        TestFailureException result = results.get(i).get();
+        if (result != null) {
+          // the earlier candidates have all finished and passed.
+          for (Future<TestFailureException> other : results) {
+            other.cancel(false);
+          }
+          failure_ = result;
+          failureSequence_ = result.getSequence();
+          return i;
+        }
+      }
+    }
+    catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+    }
+    catch (ExecutionException ex) {
+      if (ex.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) ex.getCause();
+      }
+      throw new RuntimeException("candidate failed", ex.getCause());
+    }
+    return -1;
+  }
+
+  private static void lower(AtomicInteger best, int index)
+  {
+    int old = best.get();
+    while (index < old && ! best.compareAndSet(old, index)) {
+      old = best.get();
+    }
+  }
+
+  /** Replays one candidate sequence on the given model.
+   *
+   * @return The failure it produced, if that is acceptable, else null.
+   */
+  private TestFailureException run(Model model, List<Transition> sequence)
+  {
+    numTests_.incrementAndGet();
+    model.doReset();
+    Object currState = null;
+    String currAction = null;
+    try {
+      for (Transition trans : sequence) {
+        currState = model.getCurrentState();
+        currAction = trans.getAction();
+        int action = model.getActionNumber(currAction);
+        if (action < 0 || ! model.doAction(action)) {
+          return null;
+        }
+      }
+      currState = model.getCurrentState();
+      currAction = original_.getActionName();
+      int action = model.getActionNumber(currAction);
+      if (action >= 0) {
+        model.doAction(action);
+      }
+      return null;  // because we are expecting a failure
+    }
+    catch (TestFailureException ex) {
+      boolean correctAction = currAction.equals(original_.getActionName());
+      boolean correctState = currState.equals(original_.getState());
+      if ((!sameAction_ || correctAction) && (!sameState_ || correctState)) {
+        // the model reuses its sequence, so keep a copy.
+        ex.setSequence(new ArrayList<Transition>(ex.getSequence()));
+        return ex;
+      }
+      return null;
+    }
+  }
+}
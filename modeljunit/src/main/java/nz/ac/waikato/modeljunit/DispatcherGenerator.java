@@ -0,0 +1,238 @@
+/**
+Copyright (C) 2007 Mark Utting
+This file is part of the CZT project.
+
+The CZT project contains free software; you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation; either version 2 of the License, or
+(at your option) any later version.
+
+The CZT project is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with CZT; if not, write to the Free Software
+Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+*/
+
+package nz.ac.waikato.modeljunit;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.List;
+
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+
+/** Generates ActionDispatcher subclasses that call the model methods
+ *  directly.  For an FSM class with actions a0..an and guards g0..gn,
+ *  the generated class is equivalent to:
+ *  <pre>
+ *  public void doAction(Object fsm, int index) {
+ *    switch (index) {
+ *      case 0: ((Fsm) fsm).a0(); return;
+ *      ...
+ *    }
+ *  }
+ *  public int enabled(Object fsm, int index) {
+ *    switch (index) {
+ *      case 0: return ((Fsm) fsm).g0();   // or 1 if a0 has no guard
+ *      ...
+ *    }
+ *  }
+ *  </pre>
+ *  except that any exception thrown by an action or guard is wrapped
+ *  in an InvocationTargetException, just like Method.invoke does.
+ *  <p>
+ *  The generated class is loaded by its own class loader, so it can
+ *  only call public methods of public classes.
+ *  </p>
+ */
+class DispatcherGenerator implements Opcodes
+{
+  private static final String SUPER_NAME =
+    Type.getInternalName(ActionDispatcher.class);
+
+  private static final String EXCEPTION_NAME =
+    Type.getInternalName(InvocationTargetException.class);
+
+  /** Used to give each generated class a unique name. */
+  private static int counter_ = 0;
+
+  private DispatcherGenerator()
+  {
+  }
+
+  /** Generates a dispatcher for the given actions and guards.
+   *
+   * @return the new dispatcher, or null if one cannot be generated.
+   */
+  static ActionDispatcher generate(Class<?> fsm,
+      List<Method> actions, List<Method> guards)
+  {
+    if (actions.isEmpty() || !canCall(actions) || !canCall(guards)) {
+      return null;
+    }
+    try {
+      String name = className(fsm);
+      byte[] code = generateClass(name.replace('.', '/'), actions, guards);
+      DispatcherLoader loader = new DispatcherLoader(fsm.getClassLoader());
+      Class<?> dispatcher = loader.define(name, code);
+      return (ActionDispatcher) dispatcher.newInstance();
+    }
+    catch (Throwable ex) {
+      // for example, a security manager, or asm is not on the classpath.
+      return null;
+    }
+  }
+
+  /** True if the generated code will be allowed to call these methods. */
+  private static boolean canCall(List<Method> methods)
+  {
+    for (Method m : methods) {
+      if (m != null
+          && ! (Modifier.isPublic(m.getModifiers())
+                && Modifier.isPublic(m.getDeclaringClass().getModifiers())
+                && ! Modifier.isStatic(m.getModifiers()))) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static synchronized String className(Class<?> fsm)
+  {
+    counter_++;
+    return "nz.ac.waikato.modeljunit.generated.Dispatcher"
+      + counter_ + "$" + fsm.getSimpleName();
+  }
+
+  private static byte[] generateClass(String name,
+      List<Method> actions, List<Method> guards)
+  {
+    ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+    cw.visit(V1_5, ACC_PUBLIC + ACC_FINAL + ACC_SUPER, name, null,
+        SUPER_NAME, null);
+
+    MethodVisitor init = cw.visitMethod(ACC_PUBLIC, "<init>", "()V",
+        null, null);
+    init.visitCode();
+    init.visitVarInsn(ALOAD, 0);
+    init.visitMethodInsn(INVOKESPECIAL, SUPER_NAME, "<init>", "()V");
+    init.visitInsn(RETURN);
+    init.visitMaxs(0, 0);
+    init.visitEnd();
+
+    generateSwitch(cw, "doAction", "(Ljava/lang/Object;I)V", actions, true);
+    generateSwitch(cw, "enabled", "(Ljava/lang/Object;I)I", guards, false);
+    cw.visitEnd();
+    return cw.toByteArray();
+  }
+
+  /** Generates one of the two dispatch methods.
+   *  Local 1 is the fsm object and local 2 is the action number.
+   */
+  private static void generateSwitch(ClassWriter cw, String methodName,
+      String desc, List<Method> methods, boolean isAction)
+  {
+    MethodVisitor mv = cw.visitMethod(ACC_PUBLIC, methodName, desc, null,
+        new String[] {EXCEPTION_NAME,
+                      Type.getInternalName(IllegalAccessException.class)});
+    mv.visitCode();
+    Label start = new Label();
+    Label end = new Label();
+    Label handler = new Label();
+    Label bad = new Label();
+    mv.visitTryCatchBlock(start, end, handler, "java/lang/Throwable");
+
+    Label[] cases = new Label[methods.size()];
+    for (int i = 0; i < cases.length; i++) {
+      cases[i] = new Label();
+    }
+    mv.visitLabel(start);
+    mv.visitVarInsn(ILOAD, 2);
+    mv.visitTableSwitchInsn(0, cases.length - 1, bad, cases);
+    for (int i = 0; i < cases.length; i++) {
+      mv.visitLabel(cases[i]);
+      Method m = methods.get(i);
+      if (m == null) {
+        // a missing guard is always true
+        mv.visitInsn(ICONST_1);
+        mv.visitInsn(IRETURN);
+        continue;
+      }
+      Class<?> owner = m.getDeclaringClass();
+      String ownerName = Type.getInternalName(owner);
+      mv.visitVarInsn(ALOAD, 1);
+      mv.visitTypeInsn(CHECKCAST, ownerName);
+      mv.visitMethodInsn(owner.isInterface() ? INVOKEINTERFACE : INVOKEVIRTUAL,
+          ownerName, m.getName(), Type.getMethodDescriptor(m));
+      if (isAction) {
+        // actions should be void, but we allow (and ignore) results.
+        Class<?> result = m.getReturnType();
+        if (result == long.class || result == double.class) {
+          mv.visitInsn(POP2);
+        }
+        else if (result != void.class) {
+          mv.visitInsn(POP);
+        }
+        mv.visitInsn(RETURN);
+      }
+      else {
+        // boolean and int guards are both ints in the JVM.
+        mv.visitInsn(IRETURN);
+      }
+    }
+    mv.visitLabel(end);
+
+    mv.visitLabel(bad);
+    mv.visitVarInsn(ILOAD, 2);
+    mv.visitMethodInsn(INVOKESTATIC, SUPER_NAME, "badIndex",
+        "(I)Ljava/lang/IllegalArgumentException;");
+    mv.visitInsn(ATHROW);
+
+    mv.visitLabel(handler);
+    mv.visitVarInsn(ASTORE, 3);
+    mv.visitTypeInsn(NEW, EXCEPTION_NAME);
+    mv.visitInsn(DUP);
+    mv.visitVarInsn(ALOAD, 3);
+    mv.visitMethodInsn(INVOKESPECIAL, EXCEPTION_NAME, "<init>",
+        "(Ljava/lang/Throwable;)V");
+    mv.visitInsn(ATHROW);
+    mv.visitMaxs(0, 0);
+    mv.visitEnd();
+  }
+
+  /** Loads one generated dispatcher.
+   *  It sees the classes of the FSM model via its parent loader,
+   *  but always resolves ActionDispatcher to our own copy of that class.
+   */
+  private static class DispatcherLoader extends ClassLoader
+  {
+    DispatcherLoader(ClassLoader parent)
+    {
+      super(parent);
+    }
+
+    @Override
+    protected synchronized Class<?> loadClass(String name, boolean resolve)
+      throws ClassNotFoundException
+    {
+      if (name.equals(ActionDispatcher.class.getName())) {
+        return ActionDispatcher.class;
+      }
+      return super.loadClass(name, resolve);
+    }
+
+    Class<?> define(String name, byte[] code)
+    {
+      return defineClass(name, code, 0, code.length);
+    }
+  }
+}
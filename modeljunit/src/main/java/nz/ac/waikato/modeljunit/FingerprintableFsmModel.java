@@ -0,0 +1,44 @@
+/**
+ Copyright (C) 2007 Mark Utting
+ This file is part of the CZT project.
+
+ The CZT project contains free software; you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation; either version 2 of the License, or
+ (at your option) any later version.
+
+ The CZT project is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with CZT; if not, write to the Free Software
+ Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package nz.ac.waikato.modeljunit;
+
+/** An FSM model that computes the fingerprints of its own states,
+ *  for {@link Tester#exploreMapped(MappedStateStore, int)}.
+ *  <p>
+ *  A MappedStateStore identifies each state by a 128-bit fingerprint,
+ *  rather than by equals.  Without this interface, the fingerprint is a
+ *  hash of the serialized state, so the states must be serializable, and
+ *  equal states must serialize to the same bytes.  Models whose states
+ *  are not serializable, or have several serialized forms (for example,
+ *  hash sets with different histories), or can be fingerprinted more
+ *  cheaply, should implement this.
+ *  </p>
+ */
+public interface FingerprintableFsmModel extends FsmModel
+{
+  /** Computes a 128-bit fingerprint of one of the states of this model.
+   *  Equal states must have equal fingerprints, and unequal states
+   *  should almost never have equal fingerprints.
+   *
+   * @param state A result of getState().
+   * @param fp    The two halves of the fingerprint are put here.
+   */
+  public void fingerprint(Object state, long[] fp);
+}
@@ -0,0 +1,205 @@
+package nz.ac.waikato.modeljunit;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * A priority queue of Unexplored transitions (goals), each with the path
+ * that leads from the initial state to its starting state.
+ * <p>
+ * The paths are stored as a prefix tree of {@link Prefix} nodes, where each
+ * node points to its parent, so goals that were found during the same
+ * test sequence share the common part of their paths, and remembering
+ * a goal takes constant space, whatever its depth.
+ * </p>
+ * <p>
+ * The cheapest goal is the one with the shortest path (ties are broken
+ * by taking the oldest goal), and it can be found in O(log n) time.
+ * </p>
+ */
+public class GoalQueue {
+
+    /**
+     * One node of the prefix tree: the last transition of a path,
+     * plus a pointer to the rest of the path.
+     */
+    public static class Prefix {
+        private final Prefix parent_;
+
+        private final Transition transition_;
+
+        private final int depth_;
+
+        /**
+         * Creates a path that extends parent by one transition.
+         *
+         * @param parent     the path up to the start of transition,
+         *                   or null if transition starts at the initial state.
+         * @param transition the last transition of the new path.
+         */
+        public Prefix(Prefix parent, Transition transition) {
+            this.parent_ = parent;
+            this.transition_ = transition;
+            this.depth_ = parent == null ? 1 : parent.depth_ + 1;
+        }
+
+        public Prefix getParent() {
+            return parent_;
+        }
+
+        public Transition getTransition() {
+            return transition_;
+        }
+
+        /** The number of transitions in this path. */
+        public int getDepth() {
+            return depth_;
+        }
+
+        /** Returns the transitions of this path, from the initial state. */
+        public List<Transition> getTransitions() {
+            return transitions(this);
+        }
+
+        @Override
+        public String toString() {
+            return getTransitions().toString();
+        }
+    }
+
+    /** One goal in the queue. */
+    private static class Entry {
+        private final Unexplored goal_;
+
+        private final Prefix path_;
+
+        private final int depth_;
+
+        private final long seq_;
+
+        Entry(Unexplored goal, Prefix path, long seq) {
+            this.goal_ = goal;
+            this.path_ = path;
+            this.depth_ = depth(path);
+            this.seq_ = seq;
+        }
+    }
+
+    /** Orders the entries by the length of their path, then by age. */
+    private static final Comparator<Entry> CHEAPEST = new Comparator<Entry>() {
+        public int compare(Entry e1, Entry e2) {
+            if (e1.depth_ != e2.depth_) {
+                return e1.depth_ < e2.depth_ ? -1 : 1;
+            }
+            return e1.seq_ < e2.seq_ ? -1 : (e1.seq_ == e2.seq_ ? 0 : 1);
+        }
+    };
+
+    private final Map<Unexplored, Entry> entries_ = new HashMap<Unexplored, Entry>();
+
+    private final TreeSet<Entry> queue_ = new TreeSet<Entry>(CHEAPEST);
+
+    private long seq_ = 0;
+
+    /** The number of transitions in the given path (null is the empty path). */
+    public static int depth(Prefix path) {
+        return path == null ? 0 : path.getDepth();
+    }
+
+    /** Returns the transitions of the given path (null is the empty path). */
+    public static List<Transition> transitions(Prefix path) {
+        List<Transition> result = new ArrayList<Transition>(depth(path));
+        for (Prefix p = path; p != null; p = p.getParent()) {
+            result.add(p.getTransition());
+        }
+        Collections.reverse(result);
+        return result;
+    }
+
+    /** The number of goals in the queue. */
+    public int size() {
+        return entries_.size();
+    }
+
+    public boolean isEmpty() {
+        return entries_.isEmpty();
+    }
+
+    public boolean contains(Unexplored goal) {
+        return entries_.containsKey(goal);
+    }
+
+    /**
+     * Adds a goal to the queue.  If the goal is already in the queue,
+     * the shorter of the two paths is kept.
+     *
+     * @param goal  an unexplored transition.
+     * @param path  the path that reaches the starting state of goal
+     *              (null if that is the initial state).
+     * @return true if the queue was changed.
+     */
+    public boolean add(Unexplored goal, Prefix path) {
+        Entry old = entries_.get(goal);
+        if (old != null) {
+            if (old.depth_ <= depth(path)) {
+                return false;
+            }
+            queue_.remove(old);
+        }
+        Entry entry = new Entry(goal, path, seq_++);
+        entries_.put(goal, entry);
+        queue_.add(entry);
+        return true;
+    }
+
+    /**
+     * Returns the path of the given goal, or null if the goal is not in the
+     * queue or its path is empty (use {@link #contains(Unexplored)} to tell
+     * the difference).
+     */
+    public Prefix get(Unexplored goal) {
+        Entry entry = entries_.get(goal);
+        return entry == null ? null : entry.path_;
+    }
+
+    /** Returns the goal with the shortest path, or null if the queue is empty. */
+    public Unexplored peek() {
+        return queue_.isEmpty() ? null : queue_.first().goal_;
+    }
+
+    /**
+     * Removes a goal from the queue.
+     *
+     * @return true if the goal was in the queue.
+     */
+    public boolean remove(Unexplored goal) {
+        Entry entry = entries_.remove(goal);
+        if (entry == null) {
+            return false;
+        }
+        queue_.remove(entry);
+        return true;
+    }
+
+    public void clear() {
+        entries_.clear();
+        queue_.clear();
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder result = new StringBuilder("[");
+        for (Entry entry : queue_) {
+            if (result.length() > 1) {
+                result.append(", ");
+            }
+            result.append(entry.goal_).append("=").append(entry.depth_);
+        }
+        return result.append("]").toString();
+    }
+}
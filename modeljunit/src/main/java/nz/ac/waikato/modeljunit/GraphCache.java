@@ -0,0 +1,362 @@
+/**
+ Copyright (C) 2007 Mark Utting
+ This file is part of the CZT project.
+
+ The CZT project contains free software; you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation; either version 2 of the License, or
+ (at your option) any later version.
+
+ The CZT project is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with CZT; if not, write to the Free Software
+ Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package nz.ac.waikato.modeljunit;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.UnsupportedEncodingException;
+import java.lang.reflect.Method;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/** Saves explored graphs on disk, so that later runs need not explore
+ *  the same model again.
+ *  <p>
+ *  Each graph is saved in a file whose name includes a fingerprint of
+ *  the model class: a hash of the bytecode of the class (and its
+ *  superclasses), plus the signatures of its actions and guards.
+ *  The name also includes a key of the model instance: a hash of its
+ *  configuration (see {@link CacheableFsmModel}), its initial state and
+ *  the actions enabled in that state.  So a graph is only reloaded for
+ *  exactly the same model, configured in the same way, and a reloaded
+ *  graph is only used if it starts from the initial state of the model.
+ *  When the model changes, its old graph file is ignored, and is deleted
+ *  when the new graph is saved.
+ *  </p>
+ *  <p>
+ *  The saved graph includes the done and enabled actions of each state,
+ *  so if exploration was stopped before the graph was complete, it
+ *  carries on from the unexplored branches of the saved graph.
+ *  The states of the model must be serializable.
+ *  </p>
+ *  <p>
+ *  {@link Tester#buildGraph(int, boolean)} uses the default cache, if
+ *  the system property <code>modeljunit.graphcache</code> gives its
+ *  directory.
+ *  </p>
+ */
+public class GraphCache
+{
+  /** The system property that names the directory of the default cache. */
+  public static final String DIRECTORY_PROPERTY = "modeljunit.graphcache";
+
+  private static final int MAGIC = 0x4d4a4743;  // "MJGC"
+
+  private static final int VERSION = 2;
+
+  private static final String SUFFIX = ".graph";
+
+  private final File directory_;
+
+  /** Creates a cache that keeps its files in the given directory.
+   *  The directory is created when the first graph is saved.
+   */
+  public GraphCache(File directory)
+  {
+    directory_ = directory;
+  }
+
+  /** Returns the cache in the directory named by the system property
+   *  modeljunit.graphcache, or null if that property is not set.
+   */
+  public static GraphCache getDefault()
+  {
+    String dir = System.getProperty(DIRECTORY_PROPERTY);
+    if (dir == null || dir.length() == 0) {
+      return null;
+    }
+    return new GraphCache(new File(dir));
+  }
+
+  public File getDirectory()
+  {
+    return directory_;
+  }
+
+  /** The file that holds the graph of the given model.
+   *  This resets the model if it is not in its initial state.
+   */
+  public File getFile(Model model)
+  {
+    toInitialState(model);
+    return getFile(model.getModelClass(),
+        instanceKey(model, model.getCurrentState(), model.enabledGuards()));
+  }
+
+  private File getFile(Class<?> fsmClass, String key)
+  {
+    return new File(directory_, fsmClass.getName() + "-" + key + "-"
+        + fingerprint(fsmClass) + SUFFIX);
+  }
+
+  /** Loads the saved graph of the model of graph (if any) into graph.
+   *  This resets the model if it is not in its initial state.
+   *  The saved graph is ignored unless it contains the initial state,
+   *  with exactly the actions that the model now enables in that state.
+   *
+   * @return true if a graph was loaded.
+   */
+  public boolean load(GraphListener graph)
+  {
+    Model model = graph.getModel();
+    toInitialState(model);
+    Class<?> fsmClass = model.getModelClass();
+    Object initial = model.getCurrentState();
+    BitSet enabled = model.enabledGuards();
+    String key = instanceKey(model, initial, enabled);
+    File file = getFile(fsmClass, key);
+    if ( ! file.isFile()) {
+      return false;
+    }
+    try {
+      ObjectInputStream in = new ObjectInputStream(new BufferedInputStream(
+          new InflaterInputStream(new FileInputStream(file))));
+      try {
+        if (in.readInt() != MAGIC || in.readInt() != VERSION
+            || ! in.readUTF().equals(fingerprint(fsmClass))
+            || ! in.readUTF().equals(key)) {
+          return false;
+        }
+        CompactGraph saved = CompactGraph.read(in);
+        int id = saved.getStateId(initial);
+        if (id == CompactGraph.NONE || ! saved.getEnabled(id).equals(enabled)) {
+          return false;
+        }
+        graph.loadGraph(saved);
+        return true;
+      }
+      finally {
+        in.close();
+      }
+    }
+    catch (IOException ex) {
+      // an unreadable file is just a cache miss.
+    }
+    catch (ClassNotFoundException ex) {
+      // ditto
+    }
+    catch (IllegalArgumentException ex) {
+      // the graph does not match the actions of the model.
+    }
+    return false;
+  }
+
+  /** Saves the graph of graph, replacing any saved graph of that model
+   *  (including those of older versions of the model).
+   *
+   * @return true if it was saved, false if it could not be
+   *         (for example, because the states are not serializable).
+   */
+  public boolean save(GraphListener graph)
+  {
+    Model model = graph.getModel();
+    Class<?> fsmClass = model.getModelClass();
+    CompactGraph saved = graph.getGraphToSave();
+    if (saved.numStates() == 0) {
+      return false;
+    }
+    // the first state of the graph is the initial state.
+    String key = instanceKey(model, saved.getState(0), saved.getEnabled(0));
+    File file = getFile(fsmClass, key);
+    File temp = null;
+    try {
+      directory_.mkdirs();
+      temp = File.createTempFile("graph", ".tmp", directory_);
+      ObjectOutputStream out = new ObjectOutputStream(new BufferedOutputStream(
+          new DeflaterOutputStream(new FileOutputStream(temp))));
+      try {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeUTF(fingerprint(fsmClass));
+        out.writeUTF(key);
+        saved.write(out);
+      }
+      finally {
+        out.close();
+      }
+      removeOld(fsmClass, key);
+      if (temp.renameTo(file)) {
+        temp = null;
+        return true;
+      }
+    }
+    catch (IOException ex) {
+      // give up, since the cache is only an optimisation.
+    }
+    finally {
+      if (temp != null) {
+        temp.delete();
+      }
+    }
+    return false;
+  }
+
+  /** Deletes the saved graphs of fsmClass with the given instance key,
+   *  whatever their fingerprint.
+   */
+  private void removeOld(Class<?> fsmClass, String key)
+  {
+    File[] files = directory_.listFiles();
+    if (files == null) {
+      return;
+    }
+    String prefix = fsmClass.getName() + "-" + key + "-";
+    for (File f : files) {
+      String name = f.getName();
+      if (name.startsWith(prefix) && name.endsWith(SUFFIX)
+          && name.indexOf('-', prefix.length()) < 0) {
+        f.delete();
+      }
+    }
+  }
+
+  private static void toInitialState(Model model)
+  {
+    if ( ! model.isInitialState()) {
+      model.doReset("graphcache");
+    }
+  }
+
+  /** A hash of the configuration of the model (if it is a
+   *  CacheableFsmModel), its initial state and the actions enabled in
+   *  that state.  The state is hashed in serialized form, or via
+   *  toString if it is not serializable (then it cannot be saved anyway).
+   *
+   * @return A string of hexadecimal digits.
+   */
+  public static String instanceKey(Model model, Object initial,
+      BitSet enabled)
+  {
+    MessageDigest digest = sha1();
+    Object fsm = model.getModel();
+    if (fsm instanceof CacheableFsmModel) {
+      digest.update(bytes(((CacheableFsmModel) fsm).getConfiguration()));
+    }
+    digest.update((byte) 0);
+    try {
+      ByteArrayOutputStream buf = new ByteArrayOutputStream();
+      ObjectOutputStream out = new ObjectOutputStream(buf);
+      out.writeObject(initial);
+      out.close();
+      digest.update(buf.toByteArray());
+    }
+    catch (IOException ex) {
+      digest.update(bytes(String.valueOf(initial)));
+    }
+    digest.update(bytes(enabled.toString()));
+    return hex(digest.digest());
+  }
+
+  /** A hash of the bytecode of fsmClass and its superclasses, and the
+   *  signatures of their action and guard methods.
+   *
+   * @return A string of hexadecimal digits.
+   */
+  public static String fingerprint(Class<?> fsmClass)
+  {
+    MessageDigest digest = sha1();
+    for (Class<?> c = fsmClass; c != null && c != Object.class;
+         c = c.getSuperclass()) {
+      digest.update(bytes(c.getName()));
+      addBytecode(digest, c);
+      List<String> signatures = new ArrayList<String>();
+      for (Method m : c.getDeclaredMethods()) {
+        if (m.isAnnotationPresent(Action.class)
+            || m.getName().endsWith("Guard")) {
+          signatures.add(m.toGenericString());
+        }
+      }
+      Collections.sort(signatures);
+      for (String sig : signatures) {
+        digest.update(bytes(sig));
+      }
+    }
+    return hex(digest.digest());
+  }
+
+  private static MessageDigest sha1()
+  {
+    try {
+      return MessageDigest.getInstance("SHA-1");
+    }
+    catch (NoSuchAlgorithmException ex) {
+      throw new RuntimeException("SHA-1 is not available", ex);
+    }
+  }
+
+  private static String hex(byte[] hash)
+  {
+    StringBuilder result = new StringBuilder();
+    for (byte b : hash) {
+      result.append(Character.forDigit((b >> 4) & 15, 16));
+      result.append(Character.forDigit(b & 15, 16));
+    }
+    return result.toString();
+  }
+
+  /** Adds the class file of c to digest, if it can be found. */
+  private static void addBytecode(MessageDigest digest, Class<?> c)
+  {
+    String name = c.getName();
+    InputStream in = c.getResourceAsStream(
+        name.substring(name.lastIndexOf('.') + 1) + ".class");
+    if (in == null) {
+      return;  // generated classes, for example
+    }
+    try {
+      try {
+        byte[] buf = new byte[4096];
+        for (int n = in.read(buf); n > 0; n = in.read(buf)) {
+          digest.update(buf, 0, n);
+        }
+      }
+      finally {
+        in.close();
+      }
+    }
+    catch (IOException ex) {
+      // the signatures will have to do.
+    }
+  }
+
+  private static byte[] bytes(String str)
+  {
+    try {
+      return str.getBytes("UTF-8");
+    }
+    catch (UnsupportedEncodingException ex) {
+      throw new RuntimeException(ex);
+    }
+  }
+}
@@ -21,16 +21,17 @@ package nz.ac.waikato.modeljunit;
 
 import java.io.FileNotFoundException;
 import java.io.PrintWriter;
+import java.util.ArrayList;
 import java.util.BitSet;
-import java.util.HashMap;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import nz.ac.waikato.jdsl.graph.api.Edge;
-import nz.ac.waikato.jdsl.graph.api.EdgeIterator;
-import nz.ac.waikato.jdsl.graph.api.Graph;
 import nz.ac.waikato.jdsl.graph.api.InspectableGraph;
 import nz.ac.waikato.jdsl.graph.api.Vertex;
-import nz.ac.waikato.jdsl.graph.ref.IncidenceListGraph;
 import nz.ac.waikato.modeljunit.coverage.CoverageMetric;
 
 
@@ -40,12 +41,17 @@ import nz.ac.waikato.modeljunit.coverage.CoverageMetric;
  *
  *  As well as building the graph, this listener also keeps track of
  *  which paths have not yet been explored.  Internally, it keeps track
- *  of two bitsets for each node/state.  The 'done_' set records the 
+ *  of two bitsets for each node/state.  The 'done' set records the 
  *  outgoing transitions that have been taken/explored since the last
- *  call to clearDoneTodo().  The 'wasEnabled_' set records the actions that
+ *  call to clearDoneTodo().  The 'enabled' set records the actions that
  *  have been observed to have true guards at some point since the last
  *  call to clearDoneTodo() (this includes implicitly true guards, where the
  *  action has no explicit guard).
+ *
+ *  The graph and these bitsets are stored in a CompactGraph, which
+ *  numbers the states and packs everything into arrays, so that very
+ *  large graphs can be explored.  The getGraph() method gives a JDSL
+ *  view of that graph.
  */
 public class GraphListener extends AbstractListener
 {
@@ -59,29 +65,35 @@ public class GraphListener extends AbstractListener
    *  <ul>
    *    <li>fsmState is the current state we are exploring.</li>
    *    <li>for any state S and action A, 
-   *        isDone(S,A) implies wasEnabled_.get(S).get(A).</li>
-   *    <li>the domains of done_ and wasEnabled_ are a subset of the
-   *        domain of vertex_.</li>
+   *        isDone(S,A) implies fsmGraph_.isEnabled(S,A).</li>
    *    <li>for any transition (S1,A,S2), isDone(S1,A) implies that
    *        the transition is in graph_.</li>
    *    <ol>
    *  </ul>
    */
   //@invariant fsmGraph_!=null ==> fsmClass!=null;
-  private Graph fsmGraph_;
+  private CompactGraph fsmGraph_;
 
-  /** A map from fsm states to the corresponding vertex of fsmGraph_. */
-  //@invariant fsmVertex_==null <==> fsmGraph_==null;
-  // invariant (obj,vertex) in fsmVertex_ <==> vertex.element()==obj;
-  private Map<Object,Vertex> fsmVertex_;
+  /** The number of unexplored branches.
+   *  This is the total number of enabled bits, minus
+   *  the total number of done bits.
+   */
+  private int numTodo_;
 
-  /** Records the (state,action) pairs that have been explored.
-   *  There is an entry in this map for every state that has been visited.
+  /** The states that have at least one isTodo action.
+   *  This is kept in insertion order, so that the states that
+   *  were seen first are returned first by getTodoState().
    */
-  private Map<Object,BitSet> done_;
+  private Set<Object> todoStates_;
 
-  /** Records the (state,action) pairs that have had true guard. */
-  private Map<Object,BitSet> wasEnabled_;
+  /** The state that the last transition reached, and its number in
+   *  fsmGraph_.  The next transition usually starts from that state,
+   *  so this saves looking it up in the graph by its hash code.
+   *  The graph numbers its states itself, so this listener does not
+   *  make the model number its states (see IntTransitionListener).
+   */
+  private Object lastState_ = null;
+  private int lastId_ = CompactGraph.NONE;
 
   /** This remembers whether this graph has been complete. */
   private boolean complete_ = false;
@@ -100,20 +112,31 @@ public class GraphListener extends AbstractListener
   }
 
   /** Returns the number of unexplored paths/branches in the graph.
-   *
-   *  TODO: make this efficient by maintaining the sum
-   *       of the number of done_ and wasEnabled_ bits
-   *       and returning the difference.
+   *  This is maintained incrementally, so is a constant-time operation.
    */
   public int numTodo()
   {
-    int result = 0;
-    for (Map.Entry<Object, BitSet> e : wasEnabled_.entrySet()) {
-      BitSet enabled = e.getValue();
-      BitSet done = done_.get(e.getKey());
-      result += enabled.cardinality() - (done==null ? 0 : done.cardinality());
+    return numTodo_;
+  }
+
+  /** Returns one of the states that still has unexplored branches,
+   *  or null if there are no such states.
+   *  The states are returned in the order that they were first seen.
+   */
+  public Object getTodoState()
+  {
+    if (todoStates_.isEmpty()) {
+      return null;
     }
-    return result;
+    return todoStates_.iterator().next();
+  }
+
+  /** Returns all the states that still have unexplored branches.
+   *  The result is a read-only view that changes as the graph is explored.
+   */
+  public Set<Object> getTodoStates()
+  {
+    return Collections.unmodifiableSet(todoStates_);
   }
 
   /** True if the guard of the given action was once true in the given
@@ -124,11 +147,8 @@ public class GraphListener extends AbstractListener
    */
   public boolean isTodo(Object state, int action)
   {
-    BitSet enabled = wasEnabled_.get(state);
-    if (enabled == null)
-      return false;
-    BitSet done = done_.get(state);
-    return enabled.get(action) && (done==null || ! done.get(action));
+    int id = fsmGraph_.getStateId(state);
+    return id != CompactGraph.NONE && fsmGraph_.isTodo(id, action);
   }
 
   /**
@@ -139,16 +159,11 @@ public class GraphListener extends AbstractListener
    */
   public BitSet getTodo(Object state)
   {
-    BitSet enabled = wasEnabled_.get(state);
-    if (enabled == null) {
+    int id = fsmGraph_.getStateId(state);
+    if (id == CompactGraph.NONE) {
       return new BitSet();
     }
-    BitSet result = (BitSet) enabled.clone();
-    BitSet done = done_.get(state);
-    if (done != null) {
-      result.andNot(done);
-    }
-    return result;
+    return fsmGraph_.getTodo(id);
   }
 
   /** True if the given action has been executed from the given state.
@@ -158,10 +173,8 @@ public class GraphListener extends AbstractListener
    */
   public boolean isDone(Object state, int action)
   {
-    BitSet done = done_.get(state);
-    if (done == null)
-      return false;
-    return done.get(action);
+    int id = fsmGraph_.getStateId(state);
+    return id != CompactGraph.NONE && fsmGraph_.isDone(id, action);
   }
 
   /**
@@ -172,13 +185,11 @@ public class GraphListener extends AbstractListener
    */
   public BitSet getDone(Object state)
   {
-    BitSet result = done_.get(state);
-    if (result == null) {
+    int id = fsmGraph_.getStateId(state);
+    if (id == CompactGraph.NONE) {
       return new BitSet();
     }
-    else {
-      return (BitSet) result.clone();
-    }
+    return fsmGraph_.getDone(id);
   }
 
   /** Resets all the done and todo information.
@@ -186,18 +197,38 @@ public class GraphListener extends AbstractListener
    *  for every state and action.
    */
   public void clearDoneTodo()
+  {
+    resetDoneTodo();
+  }
+
+  /** The body of clearDoneTodo, which setModel uses, so that subclasses
+   *  can override clearDoneTodo without affecting setModel.
+   */
+  private void resetDoneTodo()
   {
     if (! model_.isInitialState()) {
       model_.doReset("graphlistener");
     }
     Object curr = model_.getCurrentState();
     assert curr != null;
-    done_ = new HashMap<Object,BitSet>();
-    wasEnabled_ = new HashMap<Object,BitSet>();
+    fsmGraph_.clearActions();
+    todoStates_ = new LinkedHashSet<Object>();
     BitSet enabled = model_.enabledGuards();
     if (enabled.isEmpty())
       throw new FsmException("Initial state has no actions enabled.");
-    wasEnabled_.put(curr, enabled);
+    numTodo_ = fsmGraph_.addEnabled(fsmGraph_.addState(curr), enabled);
+    todoStates_.add(curr);
+  }
+
+  /** Adds or removes state from todoStates_, after its bits have changed. */
+  private void updateTodoState(Object state, int id)
+  {
+    if (fsmGraph_.hasTodo(id)) {
+      todoStates_.add(state);
+    }
+    else {
+      todoStates_.remove(state);
+    }
   }
 
   /** Returns the graph of the FSM model.
@@ -205,25 +236,77 @@ public class GraphListener extends AbstractListener
    *  (call buildGraph to explore the graph thoroughly).
    */
   public InspectableGraph getGraph()
+  {
+    CompactGraph graph = getCompactGraph();
+    return graph == null ? null : graph.getView();
+  }
+
+  /** Returns the compact form of the graph of the FSM model.
+   *  This also holds the done and enabled bits of each state.
+   */
+  public CompactGraph getCompactGraph()
   {
     return fsmGraph_;
   }
 
+  /** The graph that GraphCache saves, with its current action bits. */
+  CompactGraph getGraphToSave()
+  {
+    return getCompactGraph();
+  }
+
   /**
    * Returns a map that maps each state of the model to
    * the corresponding vertex of the graph.
-   * @return a map
+   * @return a read-only map
    */
   public Map<Object,Vertex> getVertexMap()
   {
-    return fsmVertex_;
+    return getCompactGraph().getView().getVertexMap();
   }
 
   /** Maps a state to a vertex object of the FSM graph.
    */
   public Vertex getVertex(Object state)
   {
-    return fsmVertex_.get(state);
+    CompactGraph graph = getCompactGraph();
+    int id = graph.getStateId(state);
+    return id == CompactGraph.NONE ? null : graph.getView().getVertex(id);
+  }
+
+  /** Returns the known edges that go out of state via the given action.
+   *  There is usually at most one such edge, but there may be several
+   *  edges with different destinations if the action is non-deterministic.
+   *
+   *  This uses the (state, action) index of the graph, so it does not
+   *  search the other edges of state.
+   *
+   * @param state   A state of the model.
+   * @param action  The number of one of the actions of the model.
+   * @return A read-only list, which is empty if (state,action) has
+   *         not been explored yet.
+   */
+  public List<Edge> getOutEdges(Object state, int action)
+  {
+    CompactGraph graph = getCompactGraph();
+    int id = graph.getStateId(state);
+    int e = id == CompactGraph.NONE ? CompactGraph.NONE
+      : graph.getFirstEdge(id, action);
+    if (e == CompactGraph.NONE) {
+      return Collections.emptyList();
+    }
+    Edge first = graph.getView().getEdge(e);
+    e = graph.getNextEdge(e);
+    if (e == CompactGraph.NONE) {
+      return Collections.singletonList(first);
+    }
+    // a non-deterministic action
+    List<Edge> result = new ArrayList<Edge>();
+    result.add(first);
+    for ( ; e != CompactGraph.NONE; e = graph.getNextEdge(e)) {
+      result.add(graph.getView().getEdge(e));
+    }
+    return Collections.unmodifiableList(result);
   }
 
   public void printProgress(int importance, String msg)
@@ -238,15 +321,17 @@ public class GraphListener extends AbstractListener
   public void setModel(Model model)
   {
     super.setModel(model);
-    clearDoneTodo();
-    Object curr = model_.getCurrentState(); //the initial state
-    // set up the initial state
-    fsmGraph_ = new IncidenceListGraph();
-    fsmVertex_ = new HashMap<Object,Vertex>();
-    Vertex initial = fsmGraph_.insertVertex(curr);
-    assert initial != null;
-    printProgress(3, "buildgraph: start with vertex for initial state "+curr);
-    fsmVertex_.put(curr, initial);
+    String[] actionNames = new String[model_.getNumActions()];
+    for (int i = 0; i < actionNames.length; i++) {
+      actionNames[i] = model_.getActionName(i);
+    }
+    fsmGraph_ = new CompactGraph(actionNames);
+    lastState_ = null;
+    lastId_ = CompactGraph.NONE;
+    // this adds the initial state
+    resetDoneTodo();
+    printProgress(3, "buildgraph: start with vertex for initial state "
+        + model_.getCurrentState());
   }
 
   /** Saves the FSM graph into the given file, in DOT format.
@@ -259,19 +344,18 @@ public class GraphListener extends AbstractListener
   public void printGraphDot(String filename)
   throws FileNotFoundException
   {
-    if (fsmGraph_ == null)
+    CompactGraph graph = getCompactGraph();
+    if (graph == null)
       throw new IllegalStateException("Graph not built yet.  Call buildGraph.");
     PrintWriter output = new PrintWriter(filename);
     String shortName = model_.getModelName();
     shortName = shortName.substring(shortName.lastIndexOf('.')+1);
     output.println("digraph "+shortName);
     output.println("{");
-    EdgeIterator edges = fsmGraph_.edges();
-    while (edges.hasNext()) {
-      Edge e = edges.nextEdge();
-      Object origin = fsmGraph_.origin(e).element();
-      Object dest = fsmGraph_.destination(e).element();
-      String action = (String) e.element();
+    for (int e = 0; e < graph.numEdges(); e++) {
+      Object origin = graph.getState(graph.getEdgeSource(e));
+      Object dest = graph.getState(graph.getEdgeDest(e));
+      String action = graph.getActionName(graph.getEdgeAction(e));
       output.println("  "+stateName(origin)+" -> "+stateName(dest)
           +"  [label=\""+action+"\"];");
     }
@@ -303,68 +387,92 @@ public class GraphListener extends AbstractListener
   public void doneTransition(int action, Transition tr)
   {
     Object oldState = tr.getStartState();
-    Vertex oldVertex = fsmVertex_.get(oldState);
-    assert oldVertex != null;  // we must have already visited it.
-    String actionName = tr.getAction();
+    int oldId = oldState == lastState_ ? lastId_
+      : fsmGraph_.getStateId(oldState);
+    assert oldId != CompactGraph.NONE;  // we must have already visited it.
     Object newState = tr.getEndState();
     assert newState == model_.getCurrentState();
-    // see if this newState is an unknown one.
-    Vertex newVertex = fsmVertex_.get(newState);
-    if (newVertex == null) {
-      // we have reached a new state, so add & analyze it.
-      newVertex = fsmGraph_.insertVertex(newState);
-      fsmVertex_.put(newState, newVertex);
+    int newId = addState(newState);
+    lastState_ = newState;
+    lastId_ = newId;
+    doneTransition(oldState, oldId, action, newState, newId);
+  }
+
+  /** Adds newState to the graph, if it is an unknown one. */
+  private int addState(Object newState)
+  {
+    int numStates = fsmGraph_.numStates();
+    int newId = fsmGraph_.addState(newState);
+    if (newId == numStates) {
       printProgress(3, "buildgraph: Added vertex for state "+newState);
     }
+    return newId;
+  }
 
-    // see if fsmGraph_ already contains this edge.
-    boolean present = false;
-    EdgeIterator edges = fsmGraph_.connectingEdges(oldVertex, newVertex);
-    while (edges.hasNext()) {
-      Edge edge = edges.nextEdge();
-      if (edge.element().equals(actionName)
-          && fsmGraph_.origin(edge) == oldVertex
-          && fsmGraph_.destination(edge) == newVertex) {
-        present = true;
-        break;
-      }
-    }
-    if ( ! present) {
-      fsmGraph_.insertDirectedEdge(oldVertex, newVertex, actionName);
+  private void doneTransition(Object oldState, int oldId, int action,
+      Object newState, int newId)
+  {
+    // add the edge, if fsmGraph_ does not already contain it.
+    int numEdges = fsmGraph_.numEdges();
+    if (fsmGraph_.addEdge(oldId, action, newId) == numEdges) {
       printProgress(3, "buildgraph: Added edge ("+oldState+","
-          +actionName+","+newState+")");
+          +fsmGraph_.getActionName(action)+","+newState+")");
     }
 
-    // Now update done_ of the old state
-    BitSet oldDone = done_.get(oldState);
-    if (oldDone == null) {
-      oldDone = new BitSet(); // all false
-      done_.put(oldState, oldDone);
+    // Now set the done bit for the transition we've just done
+    if (fsmGraph_.setDone(oldId, action)) {
+      numTodo_--;
+      updateTodoState(oldState, oldId);
     }
-    // now set the bit for the transition we've just done
-    oldDone.set(action);
-
-    // Now update wasEnabled_ of the new state
-    BitSet nowTrue = model_.enabledGuards();
-    BitSet wasTrue = wasEnabled_.get(newState);
-    if (wasTrue == null) {
-      wasTrue = nowTrue;
-      wasEnabled_.put(newState, wasTrue);
+
+    // Now update the enabled bits of the new state
+    int added = fsmGraph_.addEnabled(newId, model_.enabledGuards());
+    if (added > 0) {
+      numTodo_ += added;
+      updateTodoState(newState, newId);
     }
-    else {
-      wasTrue.or(nowTrue);
+
+    if (! complete_ && numTodo_ == 0) {
+      completed();
     }
+  }
 
-    if (! complete_ && numTodo() == 0) {
-      complete_ = true; // so we don't do this repeatedly
-      // tell all the listeners about the graph
-      printProgress(2, "completed graph, so calling setGraph");
-      for (String name : model_.getListenerNames()) {
-        ModelListener listen = model_.getListener(name);
-        if (listen instanceof CoverageMetric) {
-          ((CoverageMetric)listen).setGraph(fsmGraph_, fsmVertex_);
-        }
+  /** Called when the graph first becomes complete. */
+  private void completed()
+  {
+    complete_ = true; // so we don't do this repeatedly
+    fsmGraph_.compact();
+    // tell all the listeners about the graph
+    printProgress(2, "completed graph, so calling setGraph");
+    for (String name : model_.getListenerNames()) {
+      ModelListener listen = model_.getListener(name);
+      if (listen instanceof CoverageMetric) {
+        ((CoverageMetric)listen).setGraph(getGraph(), getVertexMap());
       }
     }
   }
+
+  /** Adds a previously explored graph of the same model (for example,
+   *  one read from a GraphCache) into this graph, including its done
+   *  and enabled actions.  Exploration then carries on from the
+   *  combined todo set, and if that is empty, the graph is complete.
+   *
+   * @param graph A graph with the same actions as this model.
+   */
+  public void loadGraph(CompactGraph graph)
+  {
+    fsmGraph_.merge(graph);
+    numTodo_ = 0;
+    todoStates_ = new LinkedHashSet<Object>();
+    for (int id = 0; id < fsmGraph_.numStates(); id++) {
+      int todo = fsmGraph_.getTodo(id).cardinality();
+      if (todo > 0) {
+        numTodo_ += todo;
+        todoStates_.add(fsmGraph_.getState(id));
+      }
+    }
+    if (! complete_ && numTodo_ == 0) {
+      completed();
+    }
+  }
 }
@@ -0,0 +1,47 @@
+/**
+ Copyright (C) 2007 Mark Utting
+ This file is part of the CZT project.
+
+ The CZT project contains free software; you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation; either version 2 of the License, or
+ (at your option) any later version.
+
+ The CZT project is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with CZT; if not, write to the Free Software
+ Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package nz.ac.waikato.modeljunit;
+
+/** A listener that can take transitions as state and action numbers.
+ *  <p>
+ *  If a listener implements this interface, the Model calls
+ *  {@link #doneTransition(Model, int, int, int)} after each transition,
+ *  instead of {@link ModelListener#doneTransition(int, Transition)}, so
+ *  that no Transition object needs to be created for it.  The state
+ *  numbers come from the StateInterner of the model that sends the event,
+ *  so a listener that is added to several models must use the model
+ *  to tell them apart.  The Model only numbers its states while it has
+ *  listeners like this.  It may clear its interner at a reset, so a
+ *  listener that keeps state numbers must check the generation of the
+ *  interner (see {@link StateInterner#getGeneration()}).
+ *  </p>
+ */
+public interface IntTransitionListener extends ModelListener
+{
+  /** The Model calls this after taking each transition.
+   *
+   * @param model   The model that took the transition.
+   * @param fromId  The number of the start state
+   *                (see {@link Model#getStateInterner()}).
+   * @param action  The number of the action just taken.
+   * @param toId    The number of the end state.
+   */
+  public void doneTransition(Model model, int fromId, int action, int toId);
+}
@@ -0,0 +1,170 @@
+/**
+ Copyright (C) 2007 Mark Utting
+ This file is part of the CZT project.
+
+ The CZT project contains free software; you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation; either version 2 of the License, or
+ (at your option) any later version.
+
+ The CZT project is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with CZT; if not, write to the Free Software
+ Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package nz.ac.waikato.modeljunit;
+
+import java.util.Arrays;
+
+/** A hash map from long keys to int values, without any boxing.
+ *  <p>
+ *  This uses open addressing with linear probing, so each entry takes
+ *  just twelve bytes.  Entries can be added and changed, but not
+ *  removed (except by clear).  Like HashMap, it is not thread-safe.
+ *  </p>
+ */
+public class LongIntMap
+{
+  /** The result of get for a key that is not in the map. */
+  public static final int NONE = -1;
+
+  /** Marks an unused entry.  It can still be used as a key, because
+   *  that key is kept separately, in hasFree_ and freeValue_. */
+  private static final long FREE = Long.MIN_VALUE;
+
+  private long[] keys_;
+
+  private int[] values_;
+
+  private int size_ = 0;
+
+  /** Whether the FREE key is in the map, and its value. */
+  private boolean hasFree_ = false;
+  private int freeValue_;
+
+  public LongIntMap()
+  {
+    this(16);
+  }
+
+  /** Creates a map that can hold expectedSize entries without growing. */
+  public LongIntMap(int expectedSize)
+  {
+    int capacity = 16;
+    while (capacity * 3 / 4 < expectedSize) {
+      capacity *= 2;
+    }
+    allocate(capacity);
+  }
+
+  private void allocate(int capacity)
+  {
+    keys_ = new long[capacity];
+    Arrays.fill(keys_, FREE);
+    values_ = new int[capacity];
+  }
+
+  /** The number of entries in the map. */
+  public int size()
+  {
+    return size_ + (hasFree_ ? 1 : 0);
+  }
+
+  /** Returns the value of key, or NONE if key is not in the map. */
+  public int get(long key)
+  {
+    if (key == FREE) {
+      return hasFree_ ? freeValue_ : NONE;
+    }
+    int mask = keys_.length - 1;
+    for (int i = hash(key) & mask; ; i = (i + 1) & mask) {
+      long k = keys_[i];
+      if (k == key) {
+        return values_[i];
+      }
+      if (k == FREE) {
+        return NONE;
+      }
+    }
+  }
+
+  public boolean containsKey(long key)
+  {
+    if (key == FREE) {
+      return hasFree_;
+    }
+    int mask = keys_.length - 1;
+    for (int i = hash(key) & mask; ; i = (i + 1) & mask) {
+      long k = keys_[i];
+      if (k == key) {
+        return true;
+      }
+      if (k == FREE) {
+        return false;
+      }
+    }
+  }
+
+  /** Maps key to value, replacing any previous value of key. */
+  public void put(long key, int value)
+  {
+    if (key == FREE) {
+      hasFree_ = true;
+      freeValue_ = value;
+      return;
+    }
+    int mask = keys_.length - 1;
+    int i = hash(key) & mask;
+    while (keys_[i] != FREE) {
+      if (keys_[i] == key) {
+        values_[i] = value;
+        return;
+      }
+      i = (i + 1) & mask;
+    }
+    keys_[i] = key;
+    values_[i] = value;
+    size_++;
+    if (size_ > keys_.length * 3 / 4) {
+      rehash();
+    }
+  }
+
+  /** Removes all the entries. */
+  public void clear()
+  {
+    Arrays.fill(keys_, FREE);
+    size_ = 0;
+    hasFree_ = false;
+  }
+
+  private void rehash()
+  {
+    long[] keys = keys_;
+    int[] values = values_;
+    allocate(keys.length * 2);
+    int mask = keys_.length - 1;
+    for (int j = 0; j < keys.length; j++) {
+      if (keys[j] != FREE) {
+        int i = hash(keys[j]) & mask;
+        while (keys_[i] != FREE) {
+          i = (i + 1) & mask;
+        }
+        keys_[i] = keys[j];
+        values_[i] = values[j];
+      }
+    }
+  }
+
+  /** Mixes all the bits of key, since packed keys have structure. */
+  private static int hash(long key)
+  {
+    long h = key * 0x9E3779B97F4A7C15L;
+    return (int) (h ^ (h >>> 32));
+  }
+}
@@ -19,9 +19,18 @@
 
 package nz.ac.waikato.modeljunit;
 
-import nz.ac.waikato.jdsl.graph.api.Edge;
-import nz.ac.waikato.jdsl.graph.api.EdgeIterator;
-import nz.ac.waikato.jdsl.graph.api.InspectableGraph;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import nz.ac.waikato.modeljunit.coverage.AbstractCoverage;
 import nz.ac.waikato.modeljunit.coverage.ActionCoverage;
 import nz.ac.waikato.modeljunit.coverage.CoverageMetric;
 import nz.ac.waikato.modeljunit.coverage.TransitionCoverage;
@@ -54,6 +63,18 @@ import nz.ac.waikato.modeljunit.timing.TimedModel;
  *  otherwise it is the maximum value of its outgoing transitions.
  *  This means that the lookahead is limited to paths of length DEPTH.
  *
+ *  Each step walks only the outgoing edges of the known states that
+ *  are within DEPTH steps, and the worth of each (state, depth) pair
+ *  is computed at most once per step, so a step takes time roughly
+ *  proportional to DEPTH times the number of those edges, rather than
+ *  growing exponentially with DEPTH.  The memoized worths are kept in
+ *  a hash table, so their memory is proportional to the number of
+ *  (state, depth) pairs that the step reaches, not to the whole graph.
+ *
+ *  The lookahead can be spread across several threads
+ *  (see setParallelism), and its depth can be chosen at each step
+ *  from a time budget (see setTimeBudget), rather than being fixed.
+ *
  *  The get/setMaxLength methods can be used to control the maximum
  *  length of each generated test.  If the test generation has not
  *  reached a terminal state before that length, it does a reset.
@@ -83,6 +104,49 @@ public class LookaheadTester extends Tester
 
   protected CoverageMetric actions_;
 
+  /** The largest time budget, in nanoseconds, for choosing each action,
+   *  or 0 to always look ahead DEPTH levels. */
+  protected long timeBudget_ = 0;
+
+  /** The deepest lookahead that is tried when there is a time budget. */
+  protected int maxDepth_ = 20;
+
+  /** The depth of the lookahead that chose the last action. */
+  protected int lastDepth_ = 0;
+
+  /** Runs the parallel parts of each lookahead, or null. */
+  private ExecutorService executor_;
+
+  /** The number of parallel tasks used for each lookahead. */
+  private int parallelism_ = 1;
+
+  /** The graph that edgeSlot_ refers to. */
+  private CompactGraph memoGraph_;
+
+  /** The edge numbering of memoGraph_ that edgeSlot_ refers to. */
+  private int edgeVersion_;
+
+  /** The transition coverage slot of each edge, or -1 if not known yet.
+   *  Parallel searches may fill in the same entry at the same time,
+   *  but they always write the same value.
+   */
+  private int[] edgeSlot_ = new int[0];
+
+  /** The worth of taking each action for the first time in a state. */
+  private int[] todoWorth_ = new int[0];
+
+  /** The id of the current state in memoGraph_. */
+  private int currId_;
+
+  /** The number of depths for each state in the memo table keys. */
+  private int stride_;
+
+  /** The search that chooses the action. */
+  private final Search search_ = new Search();
+
+  /** The searches used by the parallel tasks, one per task. */
+  private final List<Search> searches_ = new ArrayList<Search>();
+
   /**
    * @return the depth of the recursive lookahead
    */
@@ -101,8 +165,8 @@ public class LookaheadTester extends Tester
    * GreedyTester makes a random choice between them).
    *
    * @param depth the depth of the recursive lookahead (1..n)
-   *              This should be reasonably small, otherwise the lookahead
-   *              may be exponentially slow.  The default value is 3.
+   *              Larger depths look further ahead, but each step
+   *              takes longer.  The default value is 3.
    */
   public void setDepth(int depth)
   {
@@ -151,6 +215,108 @@ public class LookaheadTester extends Tester
     this.maxLength_ = maxLength;
   }
 
+  /** The time budget for choosing each action, in nanoseconds. */
+  public long getTimeBudget()
+  {
+    return timeBudget_;
+  }
+
+  /** Chooses the lookahead depth adaptively, from a time budget.
+   *  At each step, the lookahead is done with depth 1, 2, 3, ...
+   *  until the next depth would probably exceed the budget, or
+   *  getMaxDepth() is reached, and the action chosen by the deepest
+   *  lookahead is taken.  The worths computed by each depth are reused
+   *  by the next, so this costs little more than the deepest lookahead.
+   *  Note that the chosen depth depends upon the speed of the machine,
+   *  so the generated tests may differ from one run to the next.
+   *
+   * @param nanos  The time budget per step in nanoseconds,
+   *               or 0 to always use the fixed depth (see setDepth).
+   */
+  public void setTimeBudget(long nanos)
+  {
+    if (nanos < 0) {
+      throw new IllegalArgumentException("negative time budget");
+    }
+    this.timeBudget_ = nanos;
+  }
+
+  /** The deepest lookahead that is tried when there is a time budget. */
+  public int getMaxDepth()
+  {
+    return maxDepth_;
+  }
+
+  /** Sets the deepest lookahead that is tried when there is a time budget.
+   *  The default is 20.
+   */
+  public void setMaxDepth(int depth)
+  {
+    if (depth < 1) {
+      throw new IllegalArgumentException("depth must be at least 1");
+    }
+    this.maxDepth_ = depth;
+  }
+
+  /** The depth of the lookahead that chose the most recent action. */
+  public int getLastDepth()
+  {
+    return lastDepth_;
+  }
+
+  /** The number of parallel tasks used by each lookahead. */
+  public int getParallelism()
+  {
+    return parallelism_;
+  }
+
+  /** Sets the number of threads used to look ahead.
+   *  With more than one thread, the states that are one or more steps
+   *  away from the current state are evaluated in parallel tasks,
+   *  and their worths are then combined to choose the action.
+   *  The chosen actions are exactly the same as with one thread.
+   *  The threads stay alive until this method is called again or
+   *  {@link #close()} is called, so call close() when this tester is
+   *  no longer needed.
+   *
+   * @param threads  The number of threads (1 means no parallelism).
+   */
+  public void setParallelism(int threads)
+  {
+    if (threads < 1) {
+      throw new IllegalArgumentException("need at least one thread");
+    }
+    close();
+    parallelism_ = threads;
+    if (threads > 1) {
+      executor_ = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+        public Thread newThread(Runnable task)
+        {
+          Thread thread = new Thread(task, "lookahead");
+          thread.setDaemon(true);
+          return thread;
+        }
+      });
+      for (int i = 0; i < threads; i++) {
+        searches_.add(new Search());
+      }
+    }
+  }
+
+  /** Stops the threads started by setParallelism, if any.
+   *  This tester can still be used afterwards, but it looks ahead
+   *  with just one thread.
+   */
+  public void close()
+  {
+    if (executor_ != null) {
+      executor_.shutdown();
+      executor_ = null;
+    }
+    parallelism_ = 1;
+    searches_.clear();
+  }
+
   /**
    *  Creates a test generator that can does smart look ahead.
    *
@@ -190,8 +356,8 @@ public class LookaheadTester extends Tester
     return "At each state, this test generator looks ahead through all" +
     		" the known paths, upto a fixed DEPTH, to find the path" +
     		" that leads to an Action or a Transition that has not yet" +
-    		" been explored.  Can be exponentially slow if DEPTH is set" +
-    		" too large.";
+    		" been explored.  Each step gets slower as DEPTH is" +
+    		" increased.";
   }
 
   /**
@@ -205,82 +371,326 @@ public class LookaheadTester extends Tester
    */
   public int evalState(Object state, int depth)
   {
-    if (depth == 0 || depth < DEPTH && state.equals(model_.getCurrentState()))
-      return 0;
-    int[] worth = new int[model_.getNumActions()];
-    for (int i = 0; i < worth.length; i++) {
-      worth[i] = Integer.MIN_VALUE;
-    }
-
-    InspectableGraph fsmGraph = graph_.getGraph();
-    EdgeIterator edges = fsmGraph.edges();
-
-    // look ahead into the paths that we know about
-    // TODO: iterate only over the nodes out of this state
-    while (edges.hasNext()) {
-      Edge e = edges.nextEdge();
-      Object origin = fsmGraph.origin(e).element();
-      Object dest = fsmGraph.destination(e).element();
-      String actionName = (String) e.element();
-      int actionNum = model_.getActionNumber(actionName);
-      if (origin.equals(state)) {
-        Transition tr = new Transition(origin, (String) e.element(), dest);
-        Integer takenBefore = transitions_.getDetails().get(tr);
-        if (takenBefore == null) {
-          // This means that the transitions_ coverage is less accurate
-          // than the graph_ coverage, probably because they were added
-          // at different times.
-          // But we know that this transition has been taken at least once.
-          takenBefore = 1;
+    CompactGraph graph = graph_.getCompactGraph();
+    startLookahead(graph, Math.max(depth, DEPTH));
+    int id = graph.getStateId(state);
+    if (id == CompactGraph.NONE) {
+      // nothing is known about this state, so there is no path to take
+      return depth == DEPTH ? -1 : 0;
+    }
+    search_.top_ = DEPTH;
+    return search_.evalState(graph, id, depth);
+  }
+
+  /** Chooses the best action to take from the current state.
+   *  This looks ahead DEPTH levels, or chooses the depth from
+   *  the time budget if there is one.
+   *
+   * @return an action number, or -1 if no action is worthwhile.
+   */
+  protected int chooseAction()
+  {
+    CompactGraph graph = graph_.getCompactGraph();
+    int maxDepth = timeBudget_ > 0 ? maxDepth_ : DEPTH;
+    startLookahead(graph, maxDepth);
+    if (currId_ == CompactGraph.NONE) {
+      return -1;
+    }
+    if (timeBudget_ == 0) {
+      lastDepth_ = DEPTH;
+      return search(graph, DEPTH);
+    }
+    long start = System.nanoTime();
+    int action = -1;
+    for (int depth = 1; depth <= maxDepth; depth++) {
+      long before = System.nanoTime();
+      action = search(graph, depth);
+      lastDepth_ = depth;
+      long now = System.nanoTime();
+      // the next depth reuses the worths of this one, so it usually
+      // takes about as long as this depth did.
+      if (now - start + (now - before) > timeBudget_) {
+        break;
+      }
+    }
+    return action;
+  }
+
+  /** Prepares the memo tables for the lookahead from the current state.
+   *  The worth of a state depends upon the current state and the
+   *  coverage so far, both of which change at every step, so the
+   *  memoized worths are all invalidated by moving to a new stamp.
+   */
+  private void startLookahead(CompactGraph graph, int maxDepth)
+  {
+    if (graph != memoGraph_ || graph.getEdgeVersion() != edgeVersion_) {
+      // the edge numbers may have changed, so look up the slots again
+      Arrays.fill(edgeSlot_, -1);
+      memoGraph_ = graph;
+      edgeVersion_ = graph.getEdgeVersion();
+    }
+    if (edgeSlot_.length < graph.numEdges()) {
+      int old = edgeSlot_.length;
+      edgeSlot_ = Arrays.copyOf(edgeSlot_,
+          Math.max(graph.numEdges(), 2 * old));
+      Arrays.fill(edgeSlot_, old, edgeSlot_.length, -1);
+    }
+    int numActions = model_.getNumActions();
+    if (todoWorth_.length != numActions) {
+      todoWorth_ = new int[numActions];
+    }
+    for (int i = 0; i < numActions; i++) {
+      String actionName = model_.getActionName(i);
+      todoWorth_[i] = actions_.getDetails().containsKey(actionName)
+        ? NEW_TRANS : NEW_ACTION;
+    }
+    currId_ = graph.getStateId(model_.getCurrentState());
+    stride_ = maxDepth + 1;
+    search_.start(numActions);
+    for (Search search : searches_) {
+      search.start(numActions);
+    }
+  }
+
+  /** Looks ahead {@code top} levels from the current state,
+   *  and returns the best action to take.
+   */
+  private int search(CompactGraph graph, int top)
+  {
+    if (executor_ != null && top > 1) {
+      evalFrontier(graph, top);
+    }
+    search_.top_ = top;
+    return search_.evalState(graph, currId_, top);
+  }
+
+  /** Evaluates the states near the current state in parallel tasks,
+   *  and memoizes their worths in the main search.
+   *  This starts with the successors of the current state, and moves
+   *  out one level at a time until there are enough states to keep
+   *  all the tasks busy.
+   */
+  private void evalFrontier(final CompactGraph graph, final int top)
+  {
+    int depth = top - 1;
+    int[] frontier = successors(graph, new int[] {currId_}, depth);
+    while (frontier.length < 2 * parallelism_ && depth > 1) {
+      int[] next = successors(graph, frontier, depth - 1);
+      if (next.length <= frontier.length) {
+        break;
+      }
+      frontier = next;
+      depth--;
+    }
+    if (frontier.length < 2) {
+      return;
+    }
+    final int[] states = frontier;
+    final int level = depth;
+    final int tasks = Math.min(parallelism_, states.length);
+    List<Future<int[]>> results = new ArrayList<Future<int[]>>();
+    for (int t = 0; t < tasks; t++) {
+      final int first = t;
+      final Search search = searches_.get(t);
+      results.add(executor_.submit(new Callable<int[]>() {
+        public int[] call()
+        {
+          search.top_ = top;
+          int[] worths = new int[(states.length - first + tasks - 1) / tasks];
+          for (int i = first, w = 0; i < states.length; i += tasks, w++) {
+            worths[w] = search.evalState(graph, states[i], level);
+          }
+          return worths;
         }
-        int destWorth = evalState(dest, depth - 1); // recursive lookahead
-        int tempBest = destWorth - takenBefore.intValue();
-        //System.out.println("  evalState(" + state + "," + depth
-        //    + ") sees action " + actionNum + "=" + takenBefore + " and dest "
-        //    + dest + "=" + destWorth);
-        if (tempBest > worth[actionNum]) {
-          //System.out.println("  worth[" + actionNum + "] = " + tempBest);
-          worth[actionNum] = tempBest;
+      }));
+    }
+    boolean interrupted = false;
+    try {
+      for (int t = 0; t < tasks; t++) {
+        int[] worths = null;
+        while (worths == null) {
+          try {
+            worths = results.get(t).get();
+          }
+          catch (InterruptedException ex) {
+            // the tasks use our memo tables, so we must wait for them
+            interrupted = true;
+          }
         }
+        for (int i = t, w = 0; i < states.length; i += tasks, w++) {
+          search_.setWorth(states[i], level, worths[w]);
+        }
+      }
+    }
+    catch (ExecutionException ex) {
+      if (ex.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) ex.getCause();
+      }
+      throw new RuntimeException("lookahead failed", ex.getCause());
+    }
+    finally {
+      if (interrupted) {
+        Thread.currentThread().interrupt();
       }
     }
+  }
 
-    // assign values to the unknown (unexplored) paths
-    for (int i = 0; i < model_.getNumActions(); i++) {
-      if (graph_.isTodo(state, i)) {
-        String actionName = model_.getActionName(i);
-        if (actions_.getDetails().containsKey(actionName)) {
-          //System.out.println("  worth[" + i + "] (TODO) = " + NEW_TRANS);
-          worth[i] = NEW_TRANS;
-        }
-        else {
-          //System.out.println("  worth[" + i + "] (TODO) = " + NEW_ACTION);
-          worth[i] = NEW_ACTION;
+  /** Returns the distinct successors of the given states, apart from
+   *  the current state and any whose worth at {@code depth} is known.
+   */
+  private int[] successors(CompactGraph graph, int[] states, int depth)
+  {
+    BitSet seen = new BitSet();
+    int[] result = new int[16];
+    int size = 0;
+    for (int id : states) {
+      for (int e = graph.getFirstOutEdge(id); e != CompactGraph.NONE;
+           e = graph.getNextOutEdge(e)) {
+        int dest = graph.getEdgeDest(e);
+        if (dest != currId_ && ! seen.get(dest)
+            && ! search_.isKnown(dest, depth)) {
+          seen.set(dest);
+          if (size == result.length) {
+            result = Arrays.copyOf(result, 2 * size);
+          }
+          result[size++] = dest;
         }
       }
     }
+    return Arrays.copyOf(result, size);
+  }
 
-    // find the best action
-    // (we consider only enabled actions if depth==DEPTH)
-    // Note: every enabled action must either be in TODO,
-    // or have been taken previously, so its worth will be > MIN_VALUE.
-    int bestAction = -1;
-    int bestWorth = 0;
-    for (int i = 0; i < model_.getNumActions(); i++) {
-      if (worth[i] > bestWorth && (depth != DEPTH || model_.isEnabled(i))) {
-        bestAction = i;
-        bestWorth = worth[i];
+  /** The number of times that the given edge has been taken,
+   *  according to the transition coverage metric.
+   */
+  private int takenBefore(CompactGraph graph, int edge)
+  {
+    int slot = edgeSlot_[edge];
+    if (slot >= 0) {
+      return ((AbstractCoverage) transitions_).getSlotCount(slot);
+    }
+    Transition tr = new Transition(graph.getState(graph.getEdgeSource(edge)),
+        graph.getActionName(graph.getEdgeAction(edge)),
+        graph.getState(graph.getEdgeDest(edge)));
+    if (transitions_ instanceof AbstractCoverage) {
+      slot = ((AbstractCoverage) transitions_).getSlot(tr);
+      if (slot >= 0) {
+        edgeSlot_[edge] = slot;
+        return ((AbstractCoverage) transitions_).getSlotCount(slot);
       }
     }
-    if (depth == DEPTH) {
-      // This is the start state of our lookahead
-      assert state == model_.getCurrentState();
-      //System.out.println("RETURN bestAction="+bestAction+" worth "+bestWorth);
-      return bestAction;
+    Integer takenBefore = transitions_.getDetails().get(tr);
+    if (takenBefore == null) {
+      // This means that the transitions_ coverage is less accurate
+      // than the graph_ coverage, probably because they were added
+      // at different times.
+      // But we know that this transition has been taken at least once.
+      return 1;
     }
-    else {
-      //System.out.println("evalState("+state+","+depth+") returns sum="+bestWorth);
-      return bestWorth;
+    return takenBefore;
+  }
+
+  /** The memo table of one lookahead search.
+   *  The worth of each (state, depth) pair depends only upon the graph,
+   *  the coverage and the current state, which do not change during
+   *  a step, so several searches can evaluate different parts of
+   *  the same step in parallel, each with its own table.
+   */
+  private class Search
+  {
+    /** The memoized worth of each (state, depth) pair that this step
+     *  has reached, keyed by memoKey.  Only the reached pairs are kept,
+     *  since a deep lookahead in a large graph reaches few of them. */
+    private final LongIntMap memo_ = new LongIntMap();
+
+    /** The worth of each action, for each level of the recursion. */
+    private int[][] worthBuffers_ = new int[0][];
+
+    /** The depth at which the action is chosen. */
+    private int top_;
+
+    /** Forgets all the memoized worths, ready for the next step. */
+    void start(int numActions)
+    {
+      memo_.clear();
+      if (worthBuffers_.length < stride_
+          || worthBuffers_[0].length != numActions) {
+        worthBuffers_ = new int[stride_][numActions];
+      }
+    }
+
+    /** The key of a (state, depth) pair in memo_.  This is a long,
+     *  since the number of pairs can exceed the range of an int. */
+    private long memoKey(int id, int depth)
+    {
+      return (long) id * stride_ + depth;
+    }
+
+    boolean isKnown(int id, int depth)
+    {
+      return memo_.containsKey(memoKey(id, depth));
+    }
+
+    void setWorth(int id, int depth, int worth)
+    {
+      memo_.put(memoKey(id, depth), worth);
+    }
+
+    /** The recursive part of evalState, which walks only the outgoing
+     *  edges of each state, and evaluates each (state, depth) pair
+     *  at most once per step.
+     */
+    int evalState(CompactGraph graph, int id, int depth)
+    {
+      if (depth == 0 || depth < top_ && id == currId_)
+        return 0;
+      long memo = memoKey(id, depth);
+      int known = memo_.get(memo);
+      if (known != LongIntMap.NONE) {
+        // worths are never negative, so NONE means not memoized yet
+        return known;
+      }
+      // each level of the recursion has its own buffer
+      int[] worth = worthBuffers_[depth];
+      Arrays.fill(worth, Integer.MIN_VALUE);
+
+      // look ahead into the paths that we know about
+      for (int e = graph.getFirstOutEdge(id); e != CompactGraph.NONE;
+           e = graph.getNextOutEdge(e)) {
+        int actionNum = graph.getEdgeAction(e);
+        int destWorth = evalState(graph, graph.getEdgeDest(e), depth - 1);
+        int tempBest = destWorth - takenBefore(graph, e);
+        if (tempBest > worth[actionNum]) {
+          worth[actionNum] = tempBest;
+        }
+      }
+
+      // assign values to the unknown (unexplored) paths
+      BitSet todo = graph_.getTodo(graph.getState(id));
+      for (int i = todo.nextSetBit(0); i >= 0; i = todo.nextSetBit(i + 1)) {
+        worth[i] = todoWorth_[i];
+      }
+
+      // find the best action
+      // (we consider only enabled actions at the top level)
+      // Note: every enabled action must either be in TODO,
+      // or have been taken previously, so its worth will be > MIN_VALUE.
+      int bestAction = -1;
+      int bestWorth = 0;
+      for (int i = 0; i < worth.length; i++) {
+        if (worth[i] > bestWorth && (depth != top_ || model_.isEnabled(i))) {
+          bestAction = i;
+          bestWorth = worth[i];
+        }
+      }
+      if (depth == top_) {
+        // This is the start state of our lookahead
+        return bestAction;
+      }
+      else {
+        memo_.put(memo, bestWorth);
+        return bestWorth;
+      }
     }
   }
 
@@ -295,7 +705,7 @@ public class LookaheadTester extends Tester
   public int generate()
   {
     assert DEPTH > 0;
-    int action = evalState(model_.getCurrentState(), DEPTH);
+    int action = chooseAction();
     if (action < 0 || currLength_ >= maxLength_) {
       model_.doReset();
       currLength_ = 0;
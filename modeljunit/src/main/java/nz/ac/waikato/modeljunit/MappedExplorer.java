@@ -0,0 +1,180 @@
+/**
+ Copyright (C) 2007 Mark Utting
+ This file is part of the CZT project.
+
+ The CZT project contains free software; you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation; either version 2 of the License, or
+ (at your option) any later version.
+
+ The CZT project is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with CZT; if not, write to the Free Software
+ Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package nz.ac.waikato.modeljunit;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/** Explores a model breadth-first, recording the visited states in a
+ *  MappedStateStore rather than in a GraphListener.
+ *  This is the engine behind Tester.exploreMapped.
+ *  <p>
+ *  This works like BreadthFirstExplorer, but nothing that grows with the
+ *  number of states is kept on the heap.  The states are numbered in
+ *  breadth-first order, so the store itself is the queue of states to
+ *  expand, and the path to a state is found by following the parent
+ *  states in the store.  Snapshots (see Tester.snapshot) are only kept
+ *  for up to MAX_SNAPSHOTS of the states that are waiting to be expanded;
+ *  the others are reached by a reset and replay.
+ *  </p>
+ */
+class MappedExplorer
+{
+  private static final int NONE = MappedStateStore.NONE;
+
+  /** The most snapshots that are kept at once. */
+  static final int MAX_SNAPSHOTS = 1024;
+
+  private final Tester tester_;
+
+  private final Model model_;
+
+  private final MappedStateStore store_;
+
+  /** The fingerprint of the current state. */
+  private final long[] fp_ = new long[2];
+
+  /** Snapshots of some of the states that are waiting to be expanded. */
+  private final Map<Integer,Object> saved_ = new HashMap<Integer,Object>();
+
+  /** The number in store_ of the current state of the model, or NONE. */
+  private int current_ = NONE;
+
+  /** The number of transitions taken. */
+  private long transitions_ = 0;
+
+  /** The number of states that could not be reached by replay. */
+  private int unreachable_ = 0;
+
+  MappedExplorer(Tester tester, MappedStateStore store)
+  {
+    tester_ = tester;
+    model_ = tester.getModel();
+    store_ = store;
+  }
+
+  /** The number of transitions that were taken while exploring. */
+  public long getTransitions()
+  {
+    return transitions_;
+  }
+
+  /** The number of states that could not be reached by a replay,
+   *  so were not fully explored.
+   */
+  public int getUnreachable()
+  {
+    return unreachable_;
+  }
+
+  /** Explores all the transitions of states that are less than
+   *  maxDepth transitions from the initial state.
+   *  The model must be in its initial state.
+   */
+  public void explore(int maxDepth)
+  {
+    reached(NONE, NONE, 0, maxDepth);
+    for (int state = 0; state < store_.size(); state++) {
+      if (store_.getDepth(state) < maxDepth) {
+        expand(state, maxDepth);
+      }
+      saved_.remove(state);
+    }
+  }
+
+  /** Takes all the todo actions of state. */
+  private void expand(int state, int maxDepth)
+  {
+    int depth = store_.getDepth(state);
+    for (int action = 0; action < store_.numActions(); action++) {
+      if (store_.isTodo(state, action)) {
+        if ( ! goTo(state)) {
+          unreachable_++;
+          return;
+        }
+        store_.setDone(state, action);
+        if (model_.doAction(action)) {
+          transitions_++;
+          reached(state, action, depth + 1, maxDepth);
+        }
+        else {
+          current_ = state;
+        }
+      }
+    }
+  }
+
+  /** Adds the current state to the store, if it is new.
+   *  New states that will be expanded may get a snapshot.
+   */
+  private void reached(int parent, int action, int depth, int maxDepth)
+  {
+    MappedStateStore.fingerprint(model_, model_.getCurrentState(), fp_);
+    int size = store_.size();
+    current_ = store_.add(fp_[0], fp_[1], parent, action, depth);
+    if (current_ == size) {
+      store_.addEnabled(current_, model_.enabledGuards());
+      if (depth < maxDepth && saved_.size() < MAX_SNAPSHOTS) {
+        Object snapshot = tester_.snapshot();
+        if (snapshot != null) {
+          saved_.put(current_, snapshot);
+        }
+      }
+    }
+  }
+
+  /** The number in store_ of the current state of the model, or NONE. */
+  private int currentId()
+  {
+    MappedStateStore.fingerprint(model_, model_.getCurrentState(), fp_);
+    current_ = store_.find(fp_[0], fp_[1]);
+    return current_;
+  }
+
+  /** Puts the model into the given state.
+   * @return false if this was not possible.
+   */
+  private boolean goTo(int state)
+  {
+    if (current_ == state) {
+      return true;
+    }
+    Object saved = saved_.get(state);
+    if (saved != null && tester_.restoreSnapshot(saved) && currentId() == state) {
+      return true;
+    }
+    // replay the path that first reached state.
+    int length = store_.getDepth(state);
+    int[] actions = new int[length];
+    int[] states = new int[length];
+    for (int s = state, i = length - 1; i >= 0; s = store_.getParent(s), i--) {
+      actions[i] = store_.getAction(s);
+      states[i] = s;
+    }
+    model_.doReset("Buildgraph");
+    for (int i = 0; i < length; i++) {
+      if ( ! model_.doAction(actions[i]) || currentId() != states[i]) {
+        return false;
+      }
+    }
+    current_ = state;
+    return true;
+  }
+}
@@ -0,0 +1,523 @@
+/**
+ Copyright (C) 2007 Mark Utting
+ This file is part of the CZT project.
+
+ The CZT project contains free software; you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation; either version 2 of the License, or
+ (at your option) any later version.
+
+ The CZT project is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with CZT; if not, write to the Free Software
+ Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package nz.ac.waikato.modeljunit;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+/** A store of visited states that lives in memory-mapped files, rather
+ *  than on the heap, so that models with tens of millions of states
+ *  can be explored.
+ *  <p>
+ *  Unlike CompactGraph, this does not keep the state objects.  Each
+ *  state is identified by a 128-bit fingerprint (see
+ *  {@link #fingerprint(Model, Object, long[])}), rather than by equals,
+ *  and is given a dense number
+ *  (0, 1, 2, ...) in the order that it is added.  For each state, the
+ *  store records the state and action that it was first reached from,
+ *  its depth, and the enabled and done actions packed into longs.
+ *  Transitions are not stored, only counted.
+ *  </p>
+ *  <p>
+ *  There are two files: an open-addressing hash table that maps each
+ *  fingerprint to its state number (24 bytes per slot, at most half
+ *  full, rebuilt into a new file when it fills up), and an array of
+ *  fixed-size records indexed by state number (16 bytes plus 16 bytes
+ *  per 64 actions).  Both are mapped in segments of up to 1GB, so they
+ *  can be larger than 2GB, and each mapping grows by doubling, so the
+ *  files stay about as large as the parts that have been used.  The
+ *  operating system pages them in and out as needed, so the heap only
+ *  holds the segment objects.
+ *  </p>
+ *  <p>
+ *  Two different states that have the same fingerprint are treated as
+ *  the same state.  With 128-bit fingerprints, this is very unlikely.
+ *  </p>
+ */
+public class MappedStateStore
+{
+  /** The state number that means 'no state'. */
+  public static final int NONE = -1;
+
+  /** The largest segment that is mapped at once. */
+  private static final int SEGMENT_BYTES = 1 << 30;
+
+  /** The size of the first mapping of each segment.  The mapping is
+   *  doubled (up to the segment size) whenever a record beyond it is
+   *  used, so the files only grow as the store grows. */
+  private static final int MIN_MAP_BYTES = 1 << 16;
+
+  private static final int SLOT_BYTES = 24;
+
+  private static final int INITIAL_SLOTS = 1 << 16;
+
+  private final File directory_;
+
+  private final int numActions_;
+
+  /** The number of longs that hold the action bits of each state. */
+  private final int words_;
+
+  private final int segmentBytes_;
+
+  /** The fingerprint table: fp1, fp2, then the state number (or 0 in
+   *  an empty slot, since fingerprints are never both 0). */
+  private MappedArray table_;
+
+  /** The number of slots in table_, which is a power of two. */
+  private long slots_;
+
+  /** The state records: parent, action, depth, unused, then words_
+   *  longs of enabled bits and words_ longs of done bits. */
+  private final MappedArray records_;
+
+  private int numStates_ = 0;
+
+  /** The total number of enabled bits minus the total of done bits. */
+  private long numTodo_ = 0;
+
+  private long numDone_ = 0;
+
+  /** Creates an empty store, with its files in a temporary directory. */
+  public MappedStateStore(int numActions)
+    throws IOException
+  {
+    this(new File(System.getProperty("java.io.tmpdir")), numActions);
+  }
+
+  /** Creates an empty store, with its files in the given directory.
+   *  This should be on a local disk with room for the whole store.
+   */
+  public MappedStateStore(File directory, int numActions)
+    throws IOException
+  {
+    this(directory, numActions, SEGMENT_BYTES);
+  }
+
+  /** This allows the tests to use small segments. */
+  MappedStateStore(File directory, int numActions, int segmentBytes)
+    throws IOException
+  {
+    directory.mkdirs();
+    directory_ = directory;
+    numActions_ = numActions;
+    words_ = Math.max(1, (numActions + 63) / 64);
+    segmentBytes_ = segmentBytes;
+    slots_ = INITIAL_SLOTS;
+    table_ = new MappedArray(directory, "states", SLOT_BYTES, segmentBytes);
+    records_ = new MappedArray(directory, "records", 16 + 16 * words_,
+        segmentBytes);
+  }
+
+  public int numActions()
+  {
+    return numActions_;
+  }
+
+  /** The number of states in the store. */
+  public int size()
+  {
+    return numStates_;
+  }
+
+  /** The number of (state, action) pairs that are enabled but not done. */
+  public long numTodo()
+  {
+    return numTodo_;
+  }
+
+  /** The number of (state, action) pairs that have been done. */
+  public long numDone()
+  {
+    return numDone_;
+  }
+
+  /** Returns the number of the state with the given fingerprint,
+   *  or NONE if it is not in the store.
+   */
+  public int find(long fp1, long fp2)
+  {
+    if (fp1 == 0 && fp2 == 0) {
+      fp2 = 1;
+    }
+    long mask = slots_ - 1;
+    for (long i = mix(fp1) & mask; ; i = (i + 1) & mask) {
+      long f1 = table_.getLong(i, 0);
+      long f2 = table_.getLong(i, 8);
+      if (f1 == 0 && f2 == 0) {
+        return NONE;
+      }
+      if (f1 == fp1 && f2 == fp2) {
+        return table_.getInt(i, 16);
+      }
+    }
+  }
+
+  /** Adds a state, if it is not already in the store.
+   *  New states are numbered consecutively, so the result is equal
+   *  to the old size() if and only if the state is new.
+   *
+   * @param fp1    The first half of the fingerprint of the state.
+   * @param fp2    The second half.
+   * @param parent The state that it was reached from, or NONE.
+   * @param action The action that reached it, or NONE.
+   * @param depth  Its distance from the initial state.
+   * @return The number of the state.
+   */
+  public int add(long fp1, long fp2, int parent, int action, int depth)
+  {
+    if (fp1 == 0 && fp2 == 0) {
+      fp2 = 1;
+    }
+    long mask = slots_ - 1;
+    long i = mix(fp1) & mask;
+    for ( ; ; i = (i + 1) & mask) {
+      long f1 = table_.getLong(i, 0);
+      long f2 = table_.getLong(i, 8);
+      if (f1 == 0 && f2 == 0) {
+        break;
+      }
+      if (f1 == fp1 && f2 == fp2) {
+        return table_.getInt(i, 16);
+      }
+    }
+    if (numStates_ == Integer.MAX_VALUE) {
+      throw new IllegalStateException("too many states");
+    }
+    int id = numStates_++;
+    table_.putLong(i, 0, fp1);
+    table_.putLong(i, 8, fp2);
+    table_.putInt(i, 16, id);
+    records_.putInt(id, 0, parent);
+    records_.putInt(id, 4, action);
+    records_.putInt(id, 8, depth);
+    if (2L * numStates_ > slots_) {
+      rehash();
+    }
+    return id;
+  }
+
+  /** The state that the given state was first reached from, or NONE. */
+  public int getParent(int state)
+  {
+    checkState(state);
+    return records_.getInt(state, 0);
+  }
+
+  /** The action that first reached the given state, or NONE. */
+  public int getAction(int state)
+  {
+    checkState(state);
+    return records_.getInt(state, 4);
+  }
+
+  /** The depth at which the given state was first reached. */
+  public int getDepth(int state)
+  {
+    checkState(state);
+    return records_.getInt(state, 8);
+  }
+
+  /** True if the given action has been seen enabled in the given state. */
+  public boolean isEnabled(int state, int action)
+  {
+    checkState(state);
+    return (word(state, 0, action) & (1L << action)) != 0;
+  }
+
+  /** True if the given action has been done from the given state. */
+  public boolean isDone(int state, int action)
+  {
+    checkState(state);
+    return (word(state, words_, action) & (1L << action)) != 0;
+  }
+
+  /** True if the given action is enabled in the given state,
+   *  but has not yet been done from that state.
+   */
+  public boolean isTodo(int state, int action)
+  {
+    return isEnabled(state, action) && ! isDone(state, action);
+  }
+
+  /** Records that the given actions are enabled in the given state.
+   *
+   * @return The number of actions that were not already recorded.
+   */
+  public int addEnabled(int state, BitSet actions)
+  {
+    checkState(state);
+    int added = 0;
+    for (int a = actions.nextSetBit(0); a >= 0; a = actions.nextSetBit(a + 1)) {
+      long old = word(state, 0, a);
+      if ((old & (1L << a)) == 0) {
+        setWord(state, 0, a, old | (1L << a));
+        added++;
+        if ( ! isDone(state, a)) {
+          numTodo_++;
+        }
+      }
+    }
+    return added;
+  }
+
+  /** Records that the given action has been done from the given state.
+   *
+   * @return true if it had not been done before.
+   */
+  public boolean setDone(int state, int action)
+  {
+    checkState(state);
+    long old = word(state, words_, action);
+    if ((old & (1L << action)) != 0) {
+      return false;
+    }
+    setWord(state, words_, action, old | (1L << action));
+    numDone_++;
+    if (isEnabled(state, action)) {
+      numTodo_--;
+    }
+    return true;
+  }
+
+  /** Deletes the files of this store.  It cannot be used afterwards. */
+  public void close()
+  {
+    table_.close();
+    records_.close();
+  }
+
+  /** Computes a 128-bit fingerprint of a state of the given model.
+   *  If the FSM model is a {@link FingerprintableFsmModel}, it computes
+   *  the fingerprint, otherwise this uses {@link #fingerprint(Object, long[])}.
+   *
+   * @param model The model that the state belongs to.
+   * @param state A non-null state.
+   * @param fp    The two halves of the fingerprint are put here.
+   */
+  public static void fingerprint(Model model, Object state, long[] fp)
+  {
+    Object fsm = model.getModel();
+    if (fsm instanceof FingerprintableFsmModel) {
+      ((FingerprintableFsmModel) fsm).fingerprint(state, fp);
+    }
+    else {
+      fingerprint(state, fp);
+    }
+  }
+
+  /** Computes a 128-bit fingerprint of a state, by hashing its serialized
+   *  form.  So the state must be serializable, and states that are equal
+   *  must serialize to the same bytes.
+   *
+   * @param state A non-null, serializable state.
+   * @param fp    The two halves of the fingerprint are put here.
+   * @throws IllegalArgumentException if the state is not serializable.
+   */
+  public static void fingerprint(Object state, long[] fp)
+  {
+    byte[] bytes;
+    try {
+      ByteArrayOutputStream buf = new ByteArrayOutputStream();
+      ObjectOutputStream out = new ObjectOutputStream(buf);
+      out.writeObject(state);
+      out.close();
+      bytes = buf.toByteArray();
+    }
+    catch (IOException ex) {
+      throw new IllegalArgumentException("cannot fingerprint state " + state
+          + ": it must be serializable, or the model must implement"
+          + " FingerprintableFsmModel", ex);
+    }
+    long h1 = 0xcbf29ce484222325L;
+    long h2 = 0x9E3779B97F4A7C15L;
+    for (byte b : bytes) {
+      h1 = (h1 ^ (b & 0xff)) * 0x100000001b3L;
+      h2 = Long.rotateLeft(h2 ^ ((b & 0xff) * 0xC2B2AE3D27D4EB4FL), 31)
+        * 0x9E3779B97F4A7C15L;
+    }
+    fp[0] = mix(h1 ^ bytes.length);
+    fp[1] = mix(h2 + h1);
+  }
+
+  /** A 64-bit finalizer, so that all the bits of h affect the result. */
+  private static long mix(long h)
+  {
+    h ^= h >>> 33;
+    h *= 0xff51afd7ed558ccdL;
+    h ^= h >>> 33;
+    h *= 0xc4ceb9fe1a85ec53L;
+    h ^= h >>> 33;
+    return h;
+  }
+
+  private long word(int state, int offset, int action)
+  {
+    return records_.getLong(state, 16 + 8 * (offset + (action >>> 6)));
+  }
+
+  private void setWord(int state, int offset, int action, long value)
+  {
+    records_.putLong(state, 16 + 8 * (offset + (action >>> 6)), value);
+  }
+
+  private void checkState(int state)
+  {
+    if (state < 0 || state >= numStates_) {
+      throw new IllegalArgumentException("illegal state number: " + state);
+    }
+  }
+
+  /** Copies the fingerprints into a new table that is twice as big. */
+  private void rehash()
+  {
+    MappedArray old = table_;
+    long oldSlots = slots_;
+    try {
+      table_ = new MappedArray(directory_, "states", SLOT_BYTES,
+          segmentBytes_);
+    }
+    catch (IOException ex) {
+      throw new RuntimeException("cannot grow state table", ex);
+    }
+    slots_ = 2 * oldSlots;
+    long mask = slots_ - 1;
+    for (long j = 0; j < oldSlots; j++) {
+      long f1 = old.getLong(j, 0);
+      long f2 = old.getLong(j, 8);
+      if (f1 != 0 || f2 != 0) {
+        long i = mix(f1) & mask;
+        while (table_.getLong(i, 0) != 0 || table_.getLong(i, 8) != 0) {
+          i = (i + 1) & mask;
+        }
+        table_.putLong(i, 0, f1);
+        table_.putLong(i, 8, f2);
+        table_.putInt(i, 16, old.getInt(j, 16));
+      }
+    }
+    old.close();
+  }
+
+  /** An array of fixed-size records in a temporary file, which is mapped
+   *  into memory one segment at a time, as the records are used.
+   *  Only the start of each segment is mapped at first, and the mapping
+   *  grows by doubling, so the file is about as large as the records
+   *  that have been used.  Records that have never been written read
+   *  as zero.
+   */
+  private static class MappedArray
+  {
+    private final File file_;
+
+    private final RandomAccessFile raf_;
+
+    private final int recordBytes_;
+
+    private final int perSegment_;
+
+    private final List<MappedByteBuffer> segments_
+      = new ArrayList<MappedByteBuffer>();
+
+    MappedArray(File dir, String name, int recordBytes, int segmentBytes)
+      throws IOException
+    {
+      file_ = File.createTempFile("modeljunit-" + name, ".bin", dir);
+      file_.deleteOnExit();
+      raf_ = new RandomAccessFile(file_, "rw");
+      recordBytes_ = recordBytes;
+      perSegment_ = Math.max(1, segmentBytes / recordBytes);
+    }
+
+    private MappedByteBuffer segment(long record)
+    {
+      int seg = (int) (record / perSegment_);
+      while (segments_.size() <= seg) {
+        segments_.add(null);
+      }
+      MappedByteBuffer buf = segments_.get(seg);
+      int end = (int) (record % perSegment_ + 1) * recordBytes_;
+      if (buf == null || buf.capacity() < end) {
+        int max = perSegment_ * recordBytes_;
+        int size = buf == null ? Math.min(MIN_MAP_BYTES, max) : buf.capacity();
+        while (size < end) {
+          size = (int) Math.min(2L * size, max);
+        }
+        // the old mapping (if any) is unmapped when it is garbage
+        // collected.  Both map the same file, so nothing is copied.
+        try {
+          buf = raf_.getChannel().map(FileChannel.MapMode.READ_WRITE,
+              (long) seg * max, size);
+        }
+        catch (IOException ex) {
+          throw new RuntimeException("cannot map " + file_, ex);
+        }
+        segments_.set(seg, buf);
+      }
+      return buf;
+    }
+
+    private int offset(long record, int field)
+    {
+      return (int) (record % perSegment_) * recordBytes_ + field;
+    }
+
+    long getLong(long record, int field)
+    {
+      return segment(record).getLong(offset(record, field));
+    }
+
+    void putLong(long record, int field, long value)
+    {
+      segment(record).putLong(offset(record, field), value);
+    }
+
+    int getInt(long record, int field)
+    {
+      return segment(record).getInt(offset(record, field));
+    }
+
+    void putInt(long record, int field, int value)
+    {
+      segment(record).putInt(offset(record, field), value);
+    }
+
+    /** Forgets the mapped segments and deletes the file.  The segments
+     *  are unmapped when they are garbage collected. */
+    void close()
+    {
+      segments_.clear();
+      try {
+        raf_.close();
+      }
+      catch (IOException ex) {
+        // we are deleting it anyway
+      }
+      file_.delete();
+    }
+  }
+}
@@ -25,7 +25,9 @@ import java.io.Writer;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.BitSet;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
@@ -51,8 +53,11 @@ import junit.framework.Assert;
  *  classes provide a convenience constructor that creates this Model
  *  wrapper for you.
  *  </p>
- *  TODO: cache the guard evaluations?  This would give a small efficiency gain
- *     and would avoid calling the listeners several times for the same guard.
+ *  <p>
+ *  By default, guards are evaluated every time they are checked.
+ *  See {@link #setDeterministicGuards(boolean)} and
+ *  {@link #setStateGuards(boolean)} for ways of caching their values.
+ *  </p>
  */
 public class Model
 {
@@ -85,20 +90,98 @@ public class Model
   //@invariant fsmGuards_ != null ==> fsmGuards_.size() == fsmAction_.size();
   private ArrayList<Method> fsmGuards_ = null;
 
+  /** Calls the actions and guards of fsmClass_, by action number. */
+  //@invariant fsmDispatcher_ == null <==> fsmClass_ == null;
+  protected ActionDispatcher fsmDispatcher_ = null;
+
   /** Coverage listeners. */
   private Map<String,ModelListener> listeners_
     = new HashMap<String,ModelListener>();
 
+  /** The listeners that want each kind of event (see SelectiveListener),
+   *  in the same order as listeners_.values().
+   *  These are rebuilt whenever a listener is added or removed. */
+  private static final ModelListener[] NO_LISTENERS = new ModelListener[0];
+  private ModelListener[] resetListeners_ = NO_LISTENERS;
+  private ModelListener[] guardListeners_ = NO_LISTENERS;
+  private ModelListener[] startListeners_ = NO_LISTENERS;
+  private ModelListener[] transitionListeners_ = NO_LISTENERS;
+  private ModelListener[] failureListeners_ = NO_LISTENERS;
+
   /** The current state of the implementation under test. */
   //@invariant fsmState_ != null ==> fsmModel_ != null;
   protected Object fsmState_ = null;
 
+  /** The number of the current state in fsmStates_, or NONE if it has
+   *  not been numbered yet (see {@link #getCurrentStateId()}). */
+  protected int fsmStateId_ = StateInterner.NONE;
+
+  /** Gives each distinct state a dense number.  This is null until
+   *  state numbers are first needed (see {@link #getStateInterner()}). */
+  private StateInterner fsmStates_ = null;
+
+  /** The generation of fsmStates_ that fsmStateId_ and frozenIds_
+   *  belong to. */
+  private int fsmStatesGeneration_ = 0;
+
+  /** True if some transition listener takes state numbers. */
+  private boolean intListeners_ = false;
+
   /** True means we are generating real tests.
    *  False means we are just exploring the model,
    *  so the FsmModel does not really need to connect to the SUT.
    */
   private boolean fsmTesting_ = true;
 
+  /** True means that guards are evaluated at most once in each state
+   *  that we visit, because their values are assumed to stay the same
+   *  until the next action or reset.
+   */
+  private boolean deterministicGuards_ = false;
+
+  /** If non-null, this caches the guard values of each state, because
+   *  the guards are assumed to depend only upon getState().
+   */
+  //@invariant stateGuards_ != null ==> deterministicGuards_;
+  private Map<Object,GuardValues> stateGuards_ = null;
+
+  /** The cached guard values of the current state.
+   *  This is null if guards are not cached, or if they have not
+   *  yet been evaluated since the last action or reset.
+   */
+  //@invariant currGuards_ != null ==> deterministicGuards_;
+  private GuardValues currGuards_ = null;
+
+  /** If non-null, the explored graph that guards and actions are run
+   *  against, instead of the guards of the FsmModel (see freeze()). */
+  private CompactGraph frozen_ = null;
+
+  /** The number in frozen_ of the current state, or CompactGraph.NONE
+   *  if the current state is not in frozen_. */
+  private int frozenState_ = CompactGraph.NONE;
+
+  /** True means that the state reached by each action is checked
+   *  against frozen_, even when frozen_ has only one possible result. */
+  private boolean frozenCheck_ = true;
+
+  /** For each action of the state frozenRowState_ of frozen_, the only
+   *  state that the action leads to, or NONE (no edge) or MANY (several
+   *  edges).  This is built from the out-edges of that state when it
+   *  becomes the current state. */
+  private int[] frozenRow_ = null;
+
+  /** The state of frozen_ that frozenRow_ belongs to, or NONE. */
+  private int frozenRowState_ = CompactGraph.NONE;
+
+  /** The number of edges of frozen_ when frozenRow_ was built, so we can
+   *  see when it is out of date. */
+  private int frozenRowEdges_;
+
+  /** The number in fsmStates_ of each state of frozen_, or NONE. */
+  private int[] frozenIds_ = null;
+
+  private static final int MANY = -2;
+
   /** The initial state of the implementation under test. */
   //@invariant fsmInitialState_ == null <==> fsmState_ == null;
   private Object fsmInitialState_ = null;
@@ -106,8 +189,8 @@ public class Model
   /** Current test sequence
    *  TODO: decide whether this needs to be builtin or a listener.
    */
-  //@invariant fsmSequence_ == null <==> fsmModel_ == null;
-  protected ArrayList<Transition> fsmSequence_;
+  //@invariant fsmTrace_ == null <==> fsmModel_ == null;
+  protected TraceStore fsmTrace_;
 
   /** An empty array of objects. */
   protected static final Object[] VOID_ARGS = new Object[] {};
@@ -172,6 +255,96 @@ public class Model
     return fsmState_;
   }
 
+  /** Returns the number of the current state
+   *  (see {@link #getStateInterner()}), numbering it if necessary.
+   */
+  public int getCurrentStateId()
+  {
+    StateInterner states = getStateInterner();
+    if (fsmStateId_ == StateInterner.NONE
+        || fsmStatesGeneration_ != states.getGeneration()) {
+      fsmStateId_ = internState(states);
+    }
+    return fsmStateId_;
+  }
+
+  /** Returns the interner that numbers the states of this model,
+   *  creating it if necessary.
+   *  <p>
+   *  The states are only numbered while some listener takes state
+   *  numbers (see {@link IntTransitionListener}), or when
+   *  {@link #getCurrentStateId()} is called, so models without such
+   *  listeners do not keep their states in an interner.  The interner
+   *  holds every state that it has numbered, until it is cleared.
+   *  The Model clears it at a reset once it holds more than
+   *  {@link StateInterner#getMaxSize()} states.
+   *  </p>
+   */
+  public StateInterner getStateInterner()
+  {
+    if (fsmStates_ == null) {
+      fsmStates_ = new StateInterner();
+      fsmStatesGeneration_ = fsmStates_.getGeneration();
+    }
+    return fsmStates_;
+  }
+
+  /** Returns the transition (fromId, action, toId), where the states
+   *  are given by their numbers in the state interner.
+   */
+  public Transition getTransition(int fromId, int action, int toId)
+  {
+    StateInterner states = getStateInterner();
+    return new Transition(states.getState(fromId), getActionName(action),
+        states.getState(toId));
+  }
+
+  /** Numbers the current state, using frozenIds_ for the states of the
+   *  frozen graph, so they are not hashed again.
+   */
+  private int internState(StateInterner states)
+  {
+    if (fsmStatesGeneration_ != states.getGeneration()) {
+      // the interner was cleared, so all the old numbers are invalid.
+      fsmStatesGeneration_ = states.getGeneration();
+      frozenIds_ = null;
+    }
+    int graphId = frozenState_;
+    if (graphId == CompactGraph.NONE) {
+      return states.intern(fsmState_);
+    }
+    if (frozenIds_ == null || graphId >= frozenIds_.length) {
+      int old = frozenIds_ == null ? 0 : frozenIds_.length;
+      int size = Math.max(graphId + 1, frozen_.numStates());
+      frozenIds_ = frozenIds_ == null ? new int[size]
+        : Arrays.copyOf(frozenIds_, size);
+      Arrays.fill(frozenIds_, old, size, StateInterner.NONE);
+    }
+    int id = frozenIds_[graphId];
+    if (id == StateInterner.NONE) {
+      id = states.intern(fsmState_);
+      frozenIds_[graphId] = id;
+    }
+    return id;
+  }
+
+  /** Returns the record of the test sequence since the last reset.
+   *  Use this to bound how much of the sequence is kept in memory
+   *  (see {@link TraceStore#setDepth(int)}).
+   */
+  public TraceStore getTrace()
+  {
+    return fsmTrace_;
+  }
+
+  /** Creates the trace that records the test sequence.
+   *  Subclasses can override this to record other kinds of transition.
+   */
+  protected TraceStore newTrace()
+  {
+    return new TraceStore(this);
+  }
+
 
   /** Returns the name of the given Action. */
   //@requires fsmGetModelClass() != null;
@@ -207,6 +380,174 @@ public class Model
     return old;
   }
 
+  /** True if guards are evaluated at most once in each visited state.
+   *  @see #setDeterministicGuards(boolean)
+   */
+  public boolean getDeterministicGuards()
+  {
+    return deterministicGuards_;
+  }
+
+  /** Turns guard caching on or off.
+   *  <p>
+   *  By default, each call to {@link #enabled(int)} evaluates the guard
+   *  method again, and sends another doneGuard event to all listeners.
+   *  During one step of test generation the same guards are often checked
+   *  several times (for example, by the tester and then by the GraphListener),
+   *  so if your guards always give the same result until the next action or
+   *  reset, you can set this flag to true so that each guard is evaluated
+   *  (and reported to listeners) at most once in each state that we visit.
+   *  </p>
+   *  Returns its previous value.
+   */
+  public boolean setDeterministicGuards(boolean deterministic)
+  {
+    boolean old = deterministicGuards_;
+    deterministicGuards_ = deterministic;
+    if (! deterministic) {
+      stateGuards_ = null;
+    }
+    clearGuardCache();
+    return old;
+  }
+
+  /** True if the guard values are cached for each state.
+   *  @see #setStateGuards(boolean)
+   */
+  public boolean getStateGuards()
+  {
+    return stateGuards_ != null;
+  }
+
+  /** Turns per-state guard caching on or off.
+   *  <p>
+   *  This is a stronger version of {@link #setDeterministicGuards(boolean)}.
+   *  If your guards depend only upon the value returned by getState(),
+   *  then setting this to true means that the guards of each state
+   *  are evaluated only once, no matter how often that state is visited.
+   *  (This costs some memory for each state).
+   *  Setting this to true also sets deterministic guards to true.
+   *  Setting it to false leaves deterministic guards unchanged.
+   *  </p>
+   *  Returns its previous value.
+   */
+  public boolean setStateGuards(boolean stateOnly)
+  {
+    boolean old = getStateGuards();
+    if (stateOnly) {
+      deterministicGuards_ = true;
+      if (stateGuards_ == null) {
+        stateGuards_ = new HashMap<Object,GuardValues>();
+      }
+    }
+    else {
+      stateGuards_ = null;
+    }
+    clearGuardCache();
+    return old;
+  }
+
+  /** Runs the model against a completely explored graph.
+   *  This is the same as freeze(getGraphListener().getCompactGraph()),
+   *  but it checks that the graph listener has completed the graph.
+   *
+   * @throws IllegalStateException if the graph is not complete.
+   */
+  public void freeze()
+  {
+    GraphListener graph = getGraphListener();
+    if (graph == null || ! graph.isComplete()) {
+      throw new IllegalStateException("the graph is not completely explored");
+    }
+    freeze(graph.getCompactGraph());
+  }
+
+  /** Runs the model against a graph of all its states and transitions,
+   *  rather than evaluating its guards.
+   *  <p>
+   *  While the model is frozen, the guards of each state that is in
+   *  the graph are answered from the graph, so the guard methods of the
+   *  FsmModel are not called (and enabled(int) returns only 0 or 1).
+   *  After each action, if the graph says that the action always leads to
+   *  the same state, and {@link #setFrozenCheck(boolean)} is false, that
+   *  state becomes the current state without calling getState().
+   *  Otherwise, getState() is called and the new state is checked
+   *  against the graph.  If the graph has no such transition,
+   *  the model is not behaving as it did when it was explored (for
+   *  example, it is non-deterministic), so this is reported to the
+   *  listeners as a test failure.  States that are not in the graph
+   *  have their guards evaluated as usual.
+   *  </p>
+   *  <p>
+   *  This is useful for long test runs with models whose guards or
+   *  getState() are expensive, after the graph has been explored.
+   *  </p>
+   *
+   * @param graph A graph of this model, such as the one built by
+   *              the graph listener.
+   */
+  public void freeze(CompactGraph graph)
+  {
+    if (graph.numActions() != fsmActions_.size()) {
+      throw new IllegalArgumentException("graph is not of model "
+          + getModelName());
+    }
+    frozen_ = graph;
+    frozenRowState_ = CompactGraph.NONE;
+    frozenIds_ = null;
+    frozenState_ = graph.getStateId(fsmState_);
+    clearGuardCache();
+  }
+
+  /** Goes back to evaluating the guards of the FsmModel. */
+  public void unfreeze()
+  {
+    frozen_ = null;
+    frozenRowState_ = CompactGraph.NONE;
+    frozenIds_ = null;
+    frozenState_ = CompactGraph.NONE;
+    clearGuardCache();
+  }
+
+  /** True if the model is running against a graph.
+   *  @see #freeze(CompactGraph)
+   */
+  public boolean isFrozen()
+  {
+    return frozen_ != null;
+  }
+
+  /** True if every state reached in frozen mode is checked.
+   *  @see #setFrozenCheck(boolean)
+   */
+  public boolean getFrozenCheck()
+  {
+    return frozenCheck_;
+  }
+
+  /** If check is true (the default), getState() is called after every
+   *  action in frozen mode, and checked against the graph.  If it is
+   *  false, getState() is only called after actions that can lead to
+   *  several states, which is faster, but does not detect a model
+   *  or SUT that behaves differently from when it was explored.
+   *  Returns its previous value.
+   */
+  public boolean setFrozenCheck(boolean check)
+  {
+    boolean old = frozenCheck_;
+    frozenCheck_ = check;
+    return old;
+  }
+
+  /** Forgets the cached guard values of the current state, if any.
+   *  This must be called whenever the model may have changed state.
+   *  (The per-state cache of {@link #setStateGuards(boolean)} is kept).
+   */
+  protected void clearGuardCache()
+  {
+    currGuards_ = null;
+  }
+
   /** The current output stream, which is used for messages and warnings. */
   public Writer getOutput()
   {
@@ -284,6 +625,7 @@ public class Model
         }
       }
     }
+    fsmDispatcher_ = ActionDispatcher.forModel(fsm, fsmActions_, fsmGuards_);
     // now set fsmClass_, to show that it is a valid FSM class.
     fsmClass_ = fsm;
   }
@@ -308,18 +650,21 @@ public class Model
    */
   public void doReset(String reason)
   {
-    if (fsmSequence_ == null) {
-      fsmSequence_ = new ArrayList<Transition>();
+    if (fsmTrace_ == null) {
+      fsmTrace_ = newTrace();
     }
     else {
-      //this.printProgress(1, "tested "+fsmSequence_.size()+" transitions.  "
+      //this.printProgress(1, "tested "+fsmTrace_.size()+" transitions.  "
       //    +reason+" reset from state "+fsmState_);
     }
     try {
       fsmModel_.reset(fsmTesting_);
-      fsmSequence_.clear();
-      fsmState_ = fsmModel_.getState();
-      Assert.assertNotNull("Model Error: getState() must be non-null", fsmState_);
+      clearGuardCache();
+      if (fsmStates_ != null && fsmStates_.size() > fsmStates_.getMaxSize()) {
+        fsmStates_.clear();
+      }
+      setCurrentState(fsmModel_.getState());
+      fsmTrace_.clear(fsmState_);
       if (fsmInitialState_ == null) {
         fsmInitialState_ = fsmState_;
       }
@@ -333,6 +678,145 @@ public class Model
     }
   }
 
+  /** True if the FSM model can save and restore its state.
+   *  That is, if it implements {@link SnapshotableFsmModel}.
+   */
+  public boolean isSnapshotable()
+  {
+    return fsmModel_ instanceof SnapshotableFsmModel;
+  }
+
+  /** Saves the current state of the FSM model, plus the test sequence
+   *  that reached it, so that {@link #restore(Object)} can return to
+   *  this state later without a reset and replay.  The test sequence
+   *  shares its earlier steps with the previous snapshot or restore,
+   *  where it can (see {@link TraceStore#save()}).
+   *
+   * @return A snapshot, or null if the FSM model is not snapshotable.
+   */
+  public Object snapshot()
+  {
+    if ( ! (fsmModel_ instanceof SnapshotableFsmModel)) {
+      return null;
+    }
+    Object saved = ((SnapshotableFsmModel) fsmModel_).snapshot();
+    return new Snapshot(saved, fsmState_, fsmTesting_, fsmTrace_.save());
+  }
+
+  /** Puts the FSM model back into a state that was saved by snapshot().
+   *  The current state and the test sequence become those that were
+   *  saved.  Listeners are not notified, since no transition is taken.
+   *  <p>
+   *  A snapshot that was taken with a different testing flag is not
+   *  restored, since the SUT may not be in the right state.
+   *  </p>
+   *
+   * @param snapshot A result of snapshot().
+   * @return true if the state was restored, false if it could not be.
+   */
+  public boolean restore(Object snapshot)
+  {
+    if ( ! (snapshot instanceof Snapshot)
+        || ! (fsmModel_ instanceof SnapshotableFsmModel)) {
+      return false;
+    }
+    Snapshot saved = (Snapshot) snapshot;
+    if (saved.testing_ != fsmTesting_) {
+      return false;
+    }
+    ((SnapshotableFsmModel) fsmModel_).restore(saved.fsmSnapshot_);
+    restoredState();
+    Assert.assertEquals("Model error: restore did not return to the saved state",
+        saved.state_, fsmState_);
+    fsmTrace_.load(saved.sequence_);
+    return true;
+  }
+
+  /** Called after the FSM model has been put back into a previously
+   *  saved state, rather than reaching it via a reset and actions.
+   *  This reads the new current state of the FSM model and forgets
+   *  any cached guards.  If the state has changed, the recorded test
+   *  sequence is cleared, because it no longer describes how the current
+   *  state was reached.  {@link #restore(Object)} calls this itself,
+   *  and calling it again afterwards changes nothing.
+   */
+  public void restoredState()
+  {
+    clearGuardCache();
+    Object state = fsmModel_.getState();
+    boolean moved = state == null || ! state.equals(fsmState_);
+    setCurrentState(state);
+    if (moved) {
+      fsmTrace_.clear(fsmState_);
+    }
+  }
+
+  /** Makes state the current state, after a reset, action or restore.
+   *  The state is not numbered until its number is needed
+   *  (see {@link #getCurrentStateId()}).
+   */
+  protected void setCurrentState(Object state)
+  {
+    Assert.assertNotNull("Model Error: getState() must be non-null", state);
+    fsmState_ = state;
+    fsmStateId_ = StateInterner.NONE;
+    if (frozen_ != null) {
+      frozenState_ = frozen_.getStateId(state);
+    }
+  }
+
+  /** Makes state number graphId of the frozen graph the current state,
+   *  without calling getState().
+   */
+  private void setFrozenState(int graphId)
+  {
+    fsmState_ = frozen_.getState(graphId);
+    fsmStateId_ = StateInterner.NONE;
+    frozenState_ = graphId;
+  }
+
+  /** The state that the given action leads to from the current state
+   *  in the frozen graph, or NONE if it leads nowhere (so is disabled),
+   *  or MANY if it can lead to several states.
+   */
+  private int frozenNext(int action)
+  {
+    if (frozenRowState_ != frozenState_
+        || frozenRowEdges_ != frozen_.numEdges()) {
+      if (frozenRow_ == null) {
+        frozenRow_ = new int[fsmActions_.size()];
+      }
+      Arrays.fill(frozenRow_, CompactGraph.NONE);
+      for (int e = frozen_.getFirstOutEdge(frozenState_);
+           e != CompactGraph.NONE; e = frozen_.getNextOutEdge(e)) {
+        int a = frozen_.getEdgeAction(e);
+        int dest = frozen_.getEdgeDest(e);
+        frozenRow_[a] = frozenRow_[a] == CompactGraph.NONE ? dest : MANY;
+      }
+      frozenRowState_ = frozenState_;
+      frozenRowEdges_ = frozen_.numEdges();
+    }
+    return frozenRow_[action];
+  }
+
+  /** A snapshot of the FSM model, plus what the Model knows about it. */
+  private static class Snapshot
+  {
+    final Object fsmSnapshot_;
+    final Object state_;
+    final boolean testing_;
+    final TraceStore.Saved sequence_;
+
+    Snapshot(Object fsmSnapshot, Object state, boolean testing,
+        TraceStore.Saved sequence)
+    {
+      fsmSnapshot_ = fsmSnapshot;
+      state_ = state;
+      testing_ = testing;
+      sequence_ = sequence;
+    }
+  }
+
   /**
    * True iff the current state is the initial state.
    * (Note that the result is false before the first reset,
@@ -365,31 +849,52 @@ public class Model
   {
     assert 0 <= index;
     assert index < fsmGuards_.size();
-    int result = 0;
+    if (! deterministicGuards_) {
+      return evalGuard(index);
+    }
+    if (currGuards_ == null) {
+      if (stateGuards_ == null) {
+        currGuards_ = new GuardValues(fsmGuards_.size());
+      }
+      else {
+        currGuards_ = stateGuards_.get(fsmState_);
+        if (currGuards_ == null) {
+          currGuards_ = new GuardValues(fsmGuards_.size());
+          stateGuards_.put(fsmState_, currGuards_);
+        }
+      }
+    }
+    if (! currGuards_.known_.get(index)) {
+      currGuards_.value_[index] = evalGuard(index);
+      currGuards_.known_.set(index);
+    }
+    return currGuards_.value_[index];
+  }
+
+  /** Calls the guard of Action number 'index' (ignoring any cached value)
+   *  and sends the doneGuard event to the listeners.
+   */
+  private int evalGuard(int index)
+  {
+    int result = 1; // missing guards are always true.
     Method guard = fsmGuards_.get(index);
-    if (guard == null) {
-      result = 1; // missing guards are always true.
+    if (frozenState_ != CompactGraph.NONE) {
+      // the enabled flags of the graph may have been cleared, so
+      // an action is enabled if the graph has a transition for it.
+      result = frozenNext(index) == CompactGraph.NONE ? 0 : 1;
     }
-    else {
-      Object value = null;
+    else if (guard != null) {
       try {
-        value = guard.invoke(fsmModel_, VOID_ARGS);
+        result = fsmDispatcher_.enabled(fsmModel_, index);
       }
       catch (Exception ex) {
         Assert.fail("Exception while calling guard " + guard.getName() + ", "
             + ex);
       }
-      if (guard.getReturnType() == boolean.class) {
-        if (((Boolean) value).booleanValue())
-          result = 1;
-        else
-          result = 0;
-      }
-      else {
-        result = ((Integer) value).intValue();
-      }
     }
-    notifyDoneGuard(fsmState_, index, result > 0, result);
+    if (guardListeners_.length > 0) {
+      notifyDoneGuard(fsmState_, index, result > 0, result);
+    }
     return result;
   }
 
@@ -432,8 +937,10 @@ public class Model
 
     Method m = fsmActions_.get(index);
     try {
-      notifyStartAction(fsmState_, index, m.getName());
-      m.invoke(fsmModel_, VOID_ARGS);
+      if (startListeners_.length > 0) {
+        notifyStartAction(fsmState_, index, m.getName());
+      }
+      fsmDispatcher_.doAction(fsmModel_, index);
     }
     catch (InvocationTargetException ex) {
       String failmsg = "failure in action "+m.getName()
@@ -445,7 +952,7 @@ public class Model
       failure.setActionName(m.getName());
       failure.setModel(this.fsmModel_);
       failure.setModelName(this.getModelName());
-      failure.setSequence(this.fsmSequence_);
+      failure.setSequence(fsmTrace_.getSequence());
       failure.setState(this.fsmState_);
       notifyFailure(failure);
 
@@ -474,15 +981,50 @@ public class Model
     catch (IllegalAccessException ex) {
       Assert.fail("Model Error: Non-public actions? "+ex);
     }
-    Object newState = fsmModel_.getState();
-    Transition done = new Transition(fsmState_, m.getName(), newState);
-    fsmSequence_.add(done);
-    fsmState_ = newState;
-    Assert.assertNotNull("Model Error: getState() must be non-null", fsmState_);
-    notifyDoneTransition(index, done);
+    finally {
+      clearGuardCache();
+    }
+    Object oldState = fsmState_;
+    int oldId = intListeners_ ? getCurrentStateId() : StateInterner.NONE;
+    int oldFrozen = frozenState_;
+    int next = CompactGraph.NONE;
+    if (oldFrozen != CompactGraph.NONE && ! frozenCheck_) {
+      next = frozenNext(index);
+    }
+    if (next >= 0) {
+      setFrozenState(next);
+    }
+    else {
+      setCurrentState(fsmModel_.getState());
+    }
+    fsmTrace_.add(index, fsmState_);
+    if (oldFrozen != CompactGraph.NONE && (frozenState_ == CompactGraph.NONE
+        || frozen_.getEdge(oldFrozen, index, frozenState_)
+        == CompactGraph.NONE)) {
+      frozenFailure(oldState, m.getName());
+    }
+    if (transitionListeners_.length > 0) {
+      notifyDoneTransition(oldState, oldId, index, fsmState_);
+    }
     return true;
   }
 
+  /** Reports that the frozen graph had no transition like the one
+   *  that has just been taken.
+   */
+  private void frozenFailure(Object oldState, String action)
+  {
+    TestFailureException failure = new TestFailureException(
+        "action " + action + " from state " + oldState + " reached state "
+        + fsmState_ + ", which the frozen graph does not allow");
+    failure.setActionName(action);
+    failure.setModel(fsmModel_);
+    failure.setModelName(getModelName());
+    failure.setSequence(fsmTrace_.getSequence());
+    failure.setState(oldState);
+    notifyFailure(failure);
+  }
+
   /** Add a listener.
    *  The listener name is used to identify it and retrieve it.
    *  If a listener by the same name is already present, then this
@@ -500,6 +1042,7 @@ public class Model
       result = listen;
       listeners_.put(listen.getName(), listen);
       listen.setModel(this);
+      updateEventListeners();
 
       if (listen instanceof CoverageMetric) {
         // see if we can tell this metric about the complete graph.
@@ -536,13 +1079,60 @@ public class Model
    */
   public ModelListener removeListener(String name)
   {
-    return listeners_.remove(name);
+    ModelListener result = listeners_.remove(name);
+    if (result != null) {
+      updateEventListeners();
+      closeAsync(result);
+    }
+    return result;
   }
 
   /** Remove all coverage listeners. */
   public void removeAllListeners()
   {
+    ModelListener[] removed = listeners_.values().toArray(NO_LISTENERS);
     listeners_.clear();
+    updateEventListeners();
+    for (ModelListener listen : removed) {
+      closeAsync(listen);
+    }
+  }
+
+  /** Stops the background thread of a removed AsyncListener, after it
+   *  has passed on all its events.  It can still be used afterwards.
+   */
+  private static void closeAsync(ModelListener listen)
+  {
+    if (listen instanceof AsyncListener) {
+      ((AsyncListener) listen).close();
+    }
+  }
+
+  /** Rebuilds the arrays of listeners for each kind of event. */
+  private void updateEventListeners()
+  {
+    resetListeners_ = eventListeners(SelectiveListener.RESET);
+    guardListeners_ = eventListeners(SelectiveListener.GUARD);
+    startListeners_ = eventListeners(SelectiveListener.START_ACTION);
+    transitionListeners_ = eventListeners(SelectiveListener.TRANSITION);
+    failureListeners_ = eventListeners(SelectiveListener.FAILURE);
+    intListeners_ = false;
+    for (ModelListener listen : transitionListeners_) {
+      intListeners_ |= listen instanceof IntTransitionListener;
+    }
+  }
+
+  /** The listeners that want the given kind of event. */
+  private ModelListener[] eventListeners(int event)
+  {
+    ArrayList<ModelListener> result = new ArrayList<ModelListener>();
+    for (ModelListener listen : listeners_.values()) {
+      if ( ! (listen instanceof SelectiveListener)
+          || (((SelectiveListener) listen).getEvents() & event) != 0) {
+        result.add(listen);
+      }
+    }
+    return result.toArray(NO_LISTENERS);
   }
 
   /** Get the GraphListener for this model.
@@ -565,32 +1155,35 @@ public class Model
     return listeners_.get(name);
   }
 
-  /** The set of names of all the current coverage metrics and listeners */
+  /** The set of names of all the current coverage metrics and listeners.
+   *  This is a read-only view; use addListener and removeListener to
+   *  change the listeners.
+   */
   public Set<String> getListenerNames()
   {
-    return listeners_.keySet();
+    return Collections.unmodifiableSet(listeners_.keySet());
   }
 
-  /** Sends a doneReset event to all listeners */
+  /** Sends a doneReset event to all listeners that want it */
   public void notifyDoneReset(String reason, boolean testing)
   {
     // System.out.println("Done reset "+reason);
-    for (ModelListener cm : listeners_.values())
+    for (ModelListener cm : resetListeners_)
       cm.doneReset(reason, testing);
   }
 
-  /** Sends a doneGuard event to all listeners */
+  /** Sends a doneGuard event to all listeners that want it */
   public void notifyDoneGuard(Object state, int action,
       boolean enabled, int value)
   {
-    for (ModelListener cm : listeners_.values())
+    for (ModelListener cm : guardListeners_)
       cm.doneGuard(state, action, enabled, value);
   }
 
-  /** Sends a startAction event to all listeners */
+  /** Sends a startAction event to all listeners that want it */
   public void notifyStartAction(Object state, int action, String name)
   {
-    for (ModelListener cm : listeners_.values())
+    for (ModelListener cm : startListeners_)
       cm.startAction(state, action, name);
   }
 
@@ -598,8 +1191,42 @@ public class Model
   public void notifyDoneTransition(int action, Transition tr)
   {
     // System.out.println("Done action="+action+" Transition "+tr);
-    for (ModelListener cm : listeners_.values())
-      cm.doneTransition(action, tr);
+    for (ModelListener cm : transitionListeners_) {
+      if (cm instanceof IntTransitionListener) {
+        StateInterner states = getStateInterner();
+        ((IntTransitionListener) cm).doneTransition(this,
+            states.intern(tr.getStartState()), action,
+            states.intern(tr.getEndState()));
+      }
+      else {
+        cm.doneTransition(action, tr);
+      }
+    }
+  }
+
+  /** Sends a doneTransition event to all listeners.
+   *  The Transition object and the number of the new state are only
+   *  created if some listener needs them.
+   */
+  private void notifyDoneTransition(Object from, int fromId, int action,
+      Object to)
+  {
+    Transition done = null;
+    int toId = StateInterner.NONE;
+    for (ModelListener cm : transitionListeners_) {
+      if (cm instanceof IntTransitionListener) {
+        if (toId == StateInterner.NONE) {
+          toId = getCurrentStateId();
+        }
+        ((IntTransitionListener) cm).doneTransition(this, fromId, action, toId);
+      }
+      else {
+        if (done == null) {
+          done = new Transition(from, getActionName(action), to);
+        }
+        cm.doneTransition(action, done);
+      }
+    }
   }
 
   /** Sends a failure event to all listeners.
@@ -614,7 +1241,7 @@ public class Model
     // Any listener can decide to throw an exception.  However,
     // we send to ALL listeners before we throw any test failure exception.
     TestFailureException failure = null;
-    for (ModelListener cm : listeners_.values()) {
+    for (ModelListener cm : failureListeners_) {
       try {
         cm.failure(ex);
       }
@@ -649,4 +1276,19 @@ public class Model
       throw new RuntimeException("I/O error while printing message: "+msg, ex);
     }
   }
+
+  /** The values of all the guards in one state.
+   *  Only the guards in known_ have been evaluated so far.
+   */
+  private static class GuardValues
+  {
+    private final int[] value_;
+    private final BitSet known_;
+
+    GuardValues(int numActions)
+    {
+      value_ = new int[numActions];
+      known_ = new BitSet(numActions);
+    }
+  }
 }
@@ -140,6 +140,11 @@ public class ModelTestCase
   //@invariant fsmGuards == null <==> fsmClass == null;
   private ArrayList<Method> fsmGuards = null;
 
+  /** Calls the actions and the boolean guards of fsmClass.
+   *  (Float guards are still called via reflection). */
+  //@invariant fsmDispatcher == null <==> fsmClass == null;
+  private ActionDispatcher fsmDispatcher = null;
+
   /** The graph of all the states and transitions of this FSM.
    *  Here are several invariants of the graph structures:
    *  <ul>
@@ -469,6 +474,10 @@ public class ModelTestCase
       }
     }
     printProgress(3, "finished loading model class: "+fsmName);
+    ArrayList<Method> boolGuards = new ArrayList<Method>(nActions);
+    for (Method m : fsmGuards)
+      boolGuards.add(m != null && m.getReturnType() == boolean.class ? m : null);
+    fsmDispatcher = ActionDispatcher.forModel(fsm, fsmActions, boolGuards);
     // get ready to record coverage statistics.
     resetCoverageMetrics();
     // now set fsmClass, to show that it is a valid FSM class.
@@ -725,20 +734,15 @@ public class ModelTestCase
     Method guard = fsmGuards.get(index);
     if (guard == null)
       return 1.0F; // missing guards are always true.
-    Object result = null;
     try {
-      result = guard.invoke(fsmModel, fsmNoArgs);
+      if (guard.getReturnType() == boolean.class)
+        return fsmDispatcher.enabled(fsmModel, index) > 0 ? 1.0F : 0.0F;
+      return ((Float)guard.invoke(fsmModel, fsmNoArgs)).floatValue();
     }
     catch (Exception ex) {
       Assert.fail("Exception while calling guard "+guard.getName()+", "+ex);
     }
-    if (guard.getReturnType() == boolean.class) {
-      if ( ((Boolean)result).booleanValue() )
-        return 1.0F;
-      else
-        return 0.0F;
-    }
-    return ((Float)result).floatValue();
+    return 0.0F; // not reached
   }
 
   /** Return the bitset of all actions that are enabled
@@ -766,7 +770,7 @@ public class ModelTestCase
     Method m = fsmActions.get(index);
     try {
       this.printProgress(2, "testing action "+m.getName()+ " from state "+fsmState);
-      m.invoke(fsmModel, fsmNoArgs);
+      fsmDispatcher.doAction(fsmModel, index);
     }
     catch (InvocationTargetException ex) {
       String failmsg = "failure in action "+m.getName()
@@ -0,0 +1,411 @@
+/**
+Copyright (C) 2007 Mark Utting
+This file is part of the CZT project.
+
+The CZT project contains free software; you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation; either version 2 of the License, or
+(at your option) any later version.
+
+The CZT project is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with CZT; if not, write to the Free Software
+Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+*/
+
+package nz.ac.waikato.modeljunit;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import nz.ac.waikato.modeljunit.coverage.AbstractCoverage;
+import nz.ac.waikato.modeljunit.coverage.CoverageMetric;
+
+/** Runs several independent test generators (walkers) in parallel.
+ *  <p>
+ *  Each walker has its own FsmModel instance (and so its own SUT),
+ *  which is obtained from a {@link ModelFactory}, its own Model and
+ *  Tester, and its own random number generator.  The seeds of those
+ *  generators are all derived from one seed (see {@link #setSeed(long)}),
+ *  so a parallel run is as repeatable as a single Tester.
+ *  When all the walkers have finished, their graphs and coverage metrics
+ *  are merged, and can be obtained from {@link #getGraph()} and
+ *  {@link #getCoverage(String)}.
+ *  </p>
+ *  <p>
+ *  By default each walker builds its own graph.  With
+ *  {@link #setSharedGraph(boolean)}, the walkers publish their
+ *  transitions into one SharedGraph instead, so that testers like
+ *  GreedyTester see which branches the other walkers have explored.
+ *  </p>
+ *  <p>
+ *  Each walker records its test failures, which are available from
+ *  {@link #getFailures()}.  In fail-fast mode, the first failure stops
+ *  all the walkers (before their next step), and is thrown by generate.
+ *  </p>
+ */
+public class ParallelTester
+{
+  /** Creates a new FsmModel (and SUT) for each walker. */
+  public interface ModelFactory
+  {
+    /** Returns a new instance of the model, for walker number walker. */
+    FsmModel createModel(int walker);
+  }
+
+  /** Creates the test generator of each walker. */
+  public interface TesterFactory
+  {
+    /** Returns a new Tester for the given model, for walker number walker.
+     *  The model may already have a graph listener, which the
+     *  tester should use.
+     */
+    Tester createTester(Model model, int walker);
+  }
+
+  /** The default TesterFactory, which creates RandomTesters. */
+  public static final TesterFactory RANDOM = new TesterFactory() {
+    public Tester createTester(Model model, int walker)
+    {
+      return new RandomTester(model);
+    }
+  };
+
+  private final ModelFactory models_;
+
+  private final int numWalkers_;
+
+  private TesterFactory testers_ = RANDOM;
+
+  private int numThreads_;
+
+  private long seed_ = Tester.FIXEDSEED;
+
+  private boolean failFast_ = false;
+
+  private boolean sharedGraph_ = false;
+
+  /** The names of the coverage metrics to measure and merge. */
+  private List<String> metricNames_ = new ArrayList<String>();
+
+  /** The walkers of the most recent run. */
+  private List<Tester> walkers_ = new ArrayList<Tester>();
+
+  private CompactGraph graph_;
+
+  private Map<String,CoverageMetric> coverage_
+    = new LinkedHashMap<String,CoverageMetric>();
+
+  private final List<TestFailureException> failures_
+    = Collections.synchronizedList(new ArrayList<TestFailureException>());
+
+  private final AtomicBoolean stop_ = new AtomicBoolean();
+
+  /** Creates a parallel tester.
+   *
+   * @param models     Creates the FsmModel of each walker.
+   * @param numWalkers The number of walkers (at least one).
+   */
+  public ParallelTester(ModelFactory models, int numWalkers)
+  {
+    if (numWalkers < 1) {
+      throw new IllegalArgumentException("need at least one walker");
+    }
+    models_ = models;
+    numWalkers_ = numWalkers;
+    numThreads_ = Math.min(numWalkers,
+        Runtime.getRuntime().availableProcessors());
+  }
+
+  /** Sets the factory that creates the Tester of each walker.
+   *  The default is {@link #RANDOM}.
+   */
+  public void setTesterFactory(TesterFactory testers)
+  {
+    testers_ = testers;
+  }
+
+  /** Sets the number of threads used to run the walkers.
+   *  The default is the number of walkers or processors, whichever
+   *  is smaller.
+   */
+  public void setThreads(int numThreads)
+  {
+    if (numThreads < 1) {
+      throw new IllegalArgumentException("need at least one thread");
+    }
+    numThreads_ = numThreads;
+  }
+
+  /** Sets the seed from which the seed of each walker is derived.
+   *  The default is Tester.FIXEDSEED.
+   */
+  public void setSeed(long seed)
+  {
+    seed_ = seed;
+  }
+
+  /** If failFast is true, the first test failure stops all the walkers. */
+  public void setFailFast(boolean failFast)
+  {
+    failFast_ = failFast;
+  }
+
+  /** If shared is true, all the walkers explore one SharedGraph,
+   *  rather than each building its own graph.
+   */
+  public void setSharedGraph(boolean shared)
+  {
+    sharedGraph_ = shared;
+  }
+
+  /** Requests that the given coverage metric is measured by each walker,
+   *  and merged at the end of each run.
+   *
+   * @param name The name of one of the metrics known to ListenerFactory,
+   *             such as "transition coverage".
+   */
+  public void addCoverageMetric(String name)
+  {
+    if ( ! (ListenerFactory.getFactory().getListener(name)
+        instanceof AbstractCoverage)) {
+      throw new IllegalArgumentException("unknown coverage metric: " + name);
+    }
+    if ( ! metricNames_.contains(name)) {
+      metricNames_.add(name);
+    }
+  }
+
+  /** Runs all the walkers, each for the given number of steps.
+   *  Each step is one call to the generate() method of its Tester.
+   *  This creates new walkers each time it is called.
+   *
+   * @param steps The number of steps per walker.
+   * @throws TestFailureException in fail-fast mode, if a test fails.
+   */
+  public void generate(final int steps)
+  {
+    walkers_ = createWalkers();
+    failures_.clear();
+    stop_.set(false);
+    ExecutorService executor = Executors.newFixedThreadPool(numThreads_);
+    try {
+      List<Future<Object>> results = new ArrayList<Future<Object>>();
+      for (final Tester walker : walkers_) {
+        results.add(executor.submit(new Callable<Object>() {
+          public Object call()
+          {
+            walk(walker, steps);
+            return null;
+          }
+        }));
+      }
+      for (Future<Object> result : results) {
+        result.get();
+      }
+    }
+    catch (InterruptedException ex) {
+      stop_.set(true);
+      Thread.currentThread().interrupt();
+    }
+    catch (ExecutionException ex) {
+      stop_.set(true);
+      if (ex.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) ex.getCause();
+      }
+      throw new RuntimeException("walker failed", ex.getCause());
+    }
+    finally {
+      // the walkers must all have finished before their graphs and
+      // metrics are merged, even if one of them failed.
+      if (stop_.get()) {
+        executor.shutdownNow();
+      }
+      else {
+        executor.shutdown();
+      }
+      awaitTermination(executor);
+      merge();
+    }
+    if (failFast_ && ! failures_.isEmpty()) {
+      throw failures_.get(0);
+    }
+  }
+
+  /** Waits until all the tasks of executor have finished.
+   *  If this thread is interrupted, it still waits, but keeps the
+   *  interrupt status.
+   */
+  private static void awaitTermination(ExecutorService executor)
+  {
+    boolean interrupted = false;
+    while (true) {
+      try {
+        if (executor.awaitTermination(1, TimeUnit.SECONDS)) {
+          break;
+        }
+      }
+      catch (InterruptedException ex) {
+        interrupted = true;
+      }
+    }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /** Creates the walkers, in order, so that their seeds are repeatable. */
+  private List<Tester> createWalkers()
+  {
+    Random seeds = new Random(seed_);
+    List<Tester> walkers = new ArrayList<Tester>(numWalkers_);
+    SharedGraph shared = null;
+    for (int i = 0; i < numWalkers_; i++) {
+      Model model = new Model(models_.createModel(i));
+      if (sharedGraph_) {
+        if (shared == null) {
+          shared = new SharedGraph(model);
+        }
+        model.addListener(shared.newListener());
+      }
+      Tester tester = testers_.createTester(model, i);
+      tester.setRandom(new Random(seeds.nextLong()));
+      tester.addListener("graph");
+      for (String name : metricNames_) {
+        tester.addListener(name);
+      }
+      tester.addListener(new FailureRecorder());
+      walkers.add(tester);
+    }
+    return walkers;
+  }
+
+  /** Runs one walker, until it has done all its steps or is stopped. */
+  private void walk(Tester walker, int steps)
+  {
+    try {
+      for (int i = 0; i < steps && ! stop_.get(); i++) {
+        walker.generate();
+      }
+    }
+    catch (TestFailureException ex) {
+      // FailureRecorder has already recorded it, and this walker stops.
+      if ( ! failures_.contains(ex)) {
+        failures_.add(ex);
+      }
+      if (failFast_) {
+        stop_.set(true);
+      }
+    }
+  }
+
+  /** Merges the graphs and coverage metrics of all the walkers. */
+  private void merge()
+  {
+    graph_ = null;
+    coverage_.clear();
+    for (String name : metricNames_) {
+      coverage_.put(name,
+          (CoverageMetric) ListenerFactory.getFactory().getListener(name));
+    }
+    for (Tester walker : walkers_) {
+      Model model = walker.getModel();
+      GraphListener listener = model.getGraphListener();
+      if (graph_ == null) {
+        graph_ = new CompactGraph(actionNames(model));
+      }
+      if (listener instanceof SharedGraphListener) {
+        // all the walkers have the same graph, so merge it just once.
+        if (graph_.numStates() == 0) {
+          graph_.merge(((SharedGraphListener) listener)
+              .getSharedGraph().snapshot());
+        }
+      }
+      else {
+        graph_.merge(listener.getCompactGraph());
+      }
+      for (String name : metricNames_) {
+        ((AbstractCoverage) coverage_.get(name)).merge(
+            (CoverageMetric) model.getListener(name));
+      }
+    }
+  }
+
+  private static String[] actionNames(Model model)
+  {
+    String[] names = new String[model.getNumActions()];
+    for (int i = 0; i < names.length; i++) {
+      names[i] = model.getActionName(i);
+    }
+    return names;
+  }
+
+  /** The walkers of the most recent run, in walker-number order. */
+  public List<Tester> getWalkers()
+  {
+    return Collections.unmodifiableList(walkers_);
+  }
+
+  /** The union of the graphs explored by the walkers of the last run,
+   *  or null if generate has not been called.
+   */
+  public CompactGraph getGraph()
+  {
+    return graph_;
+  }
+
+  /** The merged coverage of all the walkers of the last run.
+   *
+   * @param name The name of a metric passed to addCoverageMetric.
+   * @return The merged metric, or null if name was not added.
+   */
+  public CoverageMetric getCoverage(String name)
+  {
+    return coverage_.get(name);
+  }
+
+  /** The test failures of the last run, in the order they were detected. */
+  public List<TestFailureException> getFailures()
+  {
+    synchronized (failures_) {
+      return new ArrayList<TestFailureException>(failures_);
+    }
+  }
+
+  /** Records the failures of one walker.
+   *  In fail-fast mode, it also stops the walkers.
+   */
+  private class FailureRecorder extends AbstractListener
+  {
+    @Override
+    public String getName()
+    {
+      return "parallel failures";
+    }
+
+    @Override
+    public void failure(TestFailureException ex)
+    {
+      failures_.add(ex);
+      if (failFast_) {
+        stop_.set(true);
+        throw ex;
+      }
+    }
+  }
+}
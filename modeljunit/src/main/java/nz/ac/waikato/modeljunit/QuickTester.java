@@ -14,18 +14,34 @@ import java.util.Map;
  * It remembers the exact path that made the guard true, so that it can
  * re-traverse that path later, to explore that transition.  The
  * cache size has a maximum limit so that memory is not exhausted on huge models.
+ * The paths share their common prefixes (see GoalQueue), so each cached
+ * action takes only a small constant amount of memory, and the action with
+ * the shortest path is always the next one to be explored.
+ * If the model supports snapshots (see {@link SnapshotableFsmModel}),
+ * a snapshot of each state is saved when its unexplored actions are
+ * remembered, and QuickTester restores that snapshot to go back to the
+ * state, instead of doing a reset and re-traversing the path.
  */
 public class QuickTester extends RandomTester {
 
     /** How far should we explore? */
     protected int maxDepth_ = 10;
   
-    /** The maximum explored memory of each generated test */
-    protected int maxMemory_ = 1000;
+    /** The maximum number of unexplored transitions that are remembered. */
+    protected int maxMemory_ = 100000;
   
-    /** Some unexplored states and transitions that need to be done */
-    protected Map<Unexplored, Path> todo_ = new HashMap<Unexplored, Path>();
+    /**
+     * Some unexplored states and transitions that need to be done,
+     * with the paths that reach them.
+     */
+    protected GoalQueue todo_ = new GoalQueue();
     
+    /**
+     * Snapshots of the states that have unexplored transitions,
+     * if the model supports snapshots (see Tester.snapshot).
+     */
+    protected Map<Object, Object> snapshots_ = new HashMap<Object, Object>();
+
     /** ALL transitions that have already been visited. */
     protected Map<Object, BitSet> done_ = new HashMap<Object, BitSet>();;
 
@@ -36,6 +52,12 @@ public class QuickTester extends RandomTester {
      */
     ArrayList<Transition> sequence_ = new ArrayList<Transition>();
 
+    /**
+     * The current test sequence, as a node in the prefix tree of todo_ paths
+     * (null if the sequence is empty).
+     */
+    private GoalQueue.Prefix prefix_;
+
     /** If non-null, this is the Unexplored transition that we are trying to reach */
     private Unexplored currentGoal_;
 
@@ -76,19 +98,21 @@ public class QuickTester extends RandomTester {
         public void doneTransition(int action, Transition tr) {
 //            System.out.println("DEBUG: did " + tr);
             sequence_.add(tr);
+            prefix_ = new GoalQueue.Prefix(prefix_, tr);
         } 
     }
 
     /**
      * Maybe remember a transition that has not been taken.
-     * It records the current test sequence and the current depth.
+     * It records the current test sequence, which shares its
+     * transitions with the other paths in todo_.
      *
      * @param state     the starting state of the transition
      * @param actionNum the number of an action (with a true guard)
      */
     protected void addTodo(Object state, int actionNum) {
       if (todo_.size() < maxMemory_) {
-        todo_.put(new Unexplored(state, actionNum), new Path(sequence_));
+        todo_.add(new Unexplored(state, actionNum), prefix_);
       }
     }
 
@@ -99,6 +123,19 @@ public class QuickTester extends RandomTester {
     public void setMaxDepth(int maxDepth) {
         this.maxDepth_ = maxDepth;
     }
+
+    public int getMaxMemory() {
+        return maxMemory_;
+    }
+
+    /**
+     * Sets the maximum number of unexplored transitions that are remembered.
+     * Each one takes a small constant amount of memory, since the paths
+     * to them are shared.  The default is 100000.
+     */
+    public void setMaxMemory(int maxMemory) {
+        this.maxMemory_ = maxMemory;
+    }
     
     @Override
     public int generate() {
@@ -149,6 +186,10 @@ public class QuickTester extends RandomTester {
         if (model_.doAction(tryAction)) {
             todo_.remove(exp);
             done_.get(origin).set(tryAction);
+            if (!hasGoals(exp.getState())) {
+                // the snapshot is only used to reach the goals of its state
+                snapshots_.remove(exp.getState());
+            }
             return tryAction;
         } else {
             // TODO: show some kind of warning, because the model is non-deterministic
@@ -157,6 +198,16 @@ public class QuickTester extends RandomTester {
         }
     }
     
+    /** True if todo_ still has any goals that start from state. */
+    private boolean hasGoals(Object state) {
+        for (int a = 0; a < model_.getNumActions(); a++) {
+            if (todo_.contains(new Unexplored(state, a))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     /**
      * Add the unexplored action from the state to todo_ map
      * and set all the bits in done_ map for this state to falsetest sequence is longer than maxDepth
@@ -172,6 +223,12 @@ public class QuickTester extends RandomTester {
             for (int i = 0; i < doneSet.length(); i++) {
                 addTodo(state, i);
             }
+            if (snapshots_.size() < maxMemory_) {
+                Object saved = snapshot();
+                if (saved != null) {
+                    snapshots_.put(state, saved);
+                }
+            }
             
             doneSet.flip(0, doneSet.length());
             done_.put(state, doneSet);
@@ -207,6 +264,13 @@ public class QuickTester extends RandomTester {
      */
     public int revisit() {
         int actionNum = -1;
+        if (sequence_.size() >= currentPath_.getDepth()) {
+            // we did not reach the goal state (the model is non-deterministic)
+            isRevisit = false;
+            currentGoal_ = null;
+            currentPath_ = null;
+            return resetAction();
+        }
         Transition tran = currentPath_.getTransitions().get(sequence_.size());
         if (tran.getEndState().equals(currentGoal_.getState())) {
             isRevisit = false;
@@ -222,12 +286,24 @@ public class QuickTester extends RandomTester {
     
     private int resetAction() {
         sequence_ = new ArrayList<Transition>();
+        prefix_ = null;
         // should we try one of the todo_ paths?
         if (todo_.size() > 0 && rand_.nextBoolean()) {    
-            // There are more unexplored in todo_, get the first one from the map
-            currentGoal_ = todo_.keySet().iterator().next();
-            currentPath_ = todo_.get(currentGoal_);
-            isRevisit = true;
+            // There are more unexplored in todo_, get the shortest one
+            currentGoal_ = todo_.peek();
+            GoalQueue.Prefix goalPath = todo_.get(currentGoal_);
+            currentPath_ = new Path(GoalQueue.transitions(goalPath));
+            Object saved = snapshots_.get(currentGoal_.getState());
+            if (saved != null && restoreSnapshot(saved)) {
+                // jump straight to the goal state, rather than replaying
+                // the path (the snapshot was taken at the end of that path).
+                sequence_ = new ArrayList<Transition>(currentPath_.getTransitions());
+                prefix_ = goalPath;
+                isRevisit = false;
+                return -1;
+            }
+            // if the goal is in the initial state, we are already there
+            isRevisit = currentPath_.getDepth() > 0;
             model_.doReset("Forced");
             return -1;
         } else {
@@ -254,9 +330,11 @@ public class QuickTester extends RandomTester {
         graph_.clearDoneTodo();
         currentGoal_ = null;
         currentPath_ = null;
-        todo_ = new HashMap<Unexplored, Path>();
+        todo_.clear();
+        snapshots_ = new HashMap<Object, Object>();
         done_ = new HashMap<Object, BitSet>();
         sequence_ = new ArrayList<Transition>();
+        prefix_ = null;
     }
     
     public static void main(String[] args) {
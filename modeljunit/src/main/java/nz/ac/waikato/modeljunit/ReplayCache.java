@@ -0,0 +1,214 @@
+/**
+ Copyright (C) 2007 Mark Utting
+ This file is part of the CZT project.
+
+ The CZT project contains free software; you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation; either version 2 of the License, or
+ (at your option) any later version.
+
+ The CZT project is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with CZT; if not, write to the Free Software
+ Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package nz.ac.waikato.modeljunit;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/** Replays test sequences that are variations of a reference sequence,
+ *  without replaying their common prefix every time.
+ *  <p>
+ *  This keeps checkpoints (snapshots of the model, see Tester.snapshot)
+ *  at regular intervals along the reference sequence.  To replay another
+ *  sequence, {@link #start(List)} restores the deepest checkpoint that
+ *  lies within the prefix that the sequence shares with the reference,
+ *  and the caller then replays only the rest of the sequence, calling
+ *  {@link #step(int)} after each action.  If the replayed sequence becomes
+ *  the new reference (see {@link #accept(List)}), the checkpoints that were
+ *  saved during its replay are kept.
+ *  </p>
+ *  <p>
+ *  If the model does not support snapshots, start just resets the model,
+ *  so every sequence is replayed from the beginning as usual.
+ *  </p>
+ */
+public class ReplayCache
+{
+  /** The default number of steps between checkpoints. */
+  public static final int DEFAULT_INTERVAL = 32;
+
+  private final Tester tester_;
+
+  private final int interval_;
+
+  /** The sequence that the checkpoints lie along. */
+  private List<Transition> reference_ = new ArrayList<Transition>();
+
+  /** Entry k is a snapshot of the state after k * interval_ steps of
+   *  reference_, or null if there is no snapshot of that state. */
+  private List<Object> checkpoints_ = new ArrayList<Object>();
+
+  /** The sequence that is being replayed. */
+  private List<Transition> current_ = null;
+
+  /** The length of the common prefix of current_ and reference_. */
+  private int shared_ = 0;
+
+  /** Snapshots of current_, saved beyond its shared prefix. */
+  private List<Object> pending_ = new ArrayList<Object>();
+
+  /** The number of actions that restoring checkpoints has saved. */
+  private long skipped_ = 0;
+
+  public ReplayCache(Tester tester)
+  {
+    this(tester, DEFAULT_INTERVAL);
+  }
+
+  /** Creates a cache that saves a checkpoint every interval steps.
+   *  Smaller intervals skip more of each replay, but take more memory.
+   */
+  public ReplayCache(Tester tester, int interval)
+  {
+    if (interval < 1) {
+      throw new IllegalArgumentException("interval must be positive");
+    }
+    tester_ = tester;
+    interval_ = interval;
+  }
+
+  public int getInterval()
+  {
+    return interval_;
+  }
+
+  /** The total number of actions that did not have to be replayed,
+   *  because a checkpoint was restored instead.
+   */
+  public long getActionsSkipped()
+  {
+    return skipped_;
+  }
+
+  /** The number of checkpoints along the reference sequence. */
+  public int numCheckpoints()
+  {
+    int count = 0;
+    for (Object snapshot : checkpoints_) {
+      if (snapshot != null) {
+        count++;
+      }
+    }
+    return count;
+  }
+
+  /** Makes sequence the reference sequence, and forgets the checkpoints
+   *  that are not within its common prefix with the old reference.
+   */
+  public void setReference(List<Transition> sequence)
+  {
+    int keep = commonPrefix(reference_, sequence) / interval_ + 1;
+    while (checkpoints_.size() > keep) {
+      checkpoints_.remove(checkpoints_.size() - 1);
+    }
+    reference_ = new ArrayList<Transition>(sequence);
+    current_ = null;
+  }
+
+  /** Gets ready to replay sequence.  This puts the model into the state
+   *  reached by the longest prefix of sequence that has a checkpoint,
+   *  or resets the model if there is none.
+   *
+   * @return The number of actions of sequence that have been done already.
+   */
+  public int start(List<Transition> sequence)
+  {
+    current_ = sequence;
+    shared_ = commonPrefix(reference_, sequence);
+    pending_.clear();
+    Model model = tester_.getModel();
+    for (int k = Math.min(shared_ / interval_, checkpoints_.size() - 1);
+         k > 0; k--) {
+      Object snapshot = checkpoints_.get(k);
+      if (snapshot != null && tester_.restoreSnapshot(snapshot)) {
+        skipped_ += k * interval_;
+        return k * interval_;
+      }
+    }
+    model.doReset();
+    return 0;
+  }
+
+  /** Called after each action of the sequence that is being replayed.
+   *  This saves a checkpoint every interval steps.
+   *
+   * @param steps The number of actions of the sequence done so far.
+   */
+  public void step(int steps)
+  {
+    if (current_ == null || steps % interval_ != 0) {
+      return;
+    }
+    int k = steps / interval_;
+    if (steps <= shared_) {
+      // this state is also on the reference sequence
+      if (k >= checkpoints_.size() || checkpoints_.get(k) == null) {
+        set(checkpoints_, k, tester_.snapshot());
+      }
+    }
+    else {
+      set(pending_, k, tester_.snapshot());
+    }
+  }
+
+  /** Makes the sequence that was just replayed the new reference,
+   *  keeping the checkpoints that were saved while replaying it.
+   *
+   * @param sequence The part of the replayed sequence that was done
+   *        (it may be shorter than the replayed sequence, if a failure
+   *        stopped the replay early).
+   */
+  public void accept(List<Transition> sequence)
+  {
+    if (current_ == null) {
+      setReference(sequence);
+      return;
+    }
+    List<Object> pending = new ArrayList<Object>(pending_);
+    int shared = shared_;
+    List<Transition> replayed = current_;
+    setReference(replayed.subList(0, Math.min(shared, replayed.size())));
+    for (int k = shared / interval_ + 1; k < pending.size(); k++) {
+      if (k * interval_ <= sequence.size()) {
+        set(checkpoints_, k, pending.get(k));
+      }
+    }
+    reference_ = new ArrayList<Transition>(sequence);
+  }
+
+  /** The length of the longest common prefix of two sequences. */
+  public static int commonPrefix(List<Transition> seq1, List<Transition> seq2)
+  {
+    int max = Math.min(seq1.size(), seq2.size());
+    int i = 0;
+    while (i < max && seq1.get(i).equals(seq2.get(i))) {
+      i++;
+    }
+    return i;
+  }
+
+  private static void set(List<Object> list, int index, Object value)
+  {
+    while (list.size() <= index) {
+      list.add(null);
+    }
+    list.set(index, value);
+  }
+}
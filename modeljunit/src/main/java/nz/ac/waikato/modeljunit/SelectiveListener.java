@@ -0,0 +1,59 @@
+/**
+ Copyright (C) 2007 Mark Utting
+ This file is part of the CZT project.
+
+ The CZT project contains free software; you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation; either version 2 of the License, or
+ (at your option) any later version.
+
+ The CZT project is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with CZT; if not, write to the Free Software
+ Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package nz.ac.waikato.modeljunit;
+
+/** A listener that says which kinds of events it wants.
+ *  <p>
+ *  The Model only sends a listener the events that it asks for, and
+ *  does not create the objects for an event at all (such as the
+ *  Transition of a doneTransition event) if no listener wants it.
+ *  Listeners that do not implement this interface are sent every event.
+ *  AbstractListener implements this by asking for just the events
+ *  whose methods its subclass overrides.
+ *  </p>
+ */
+public interface SelectiveListener extends ModelListener
+{
+  /** The doneReset event. */
+  public static final int RESET = 1;
+
+  /** The doneGuard event, which happens once per guard evaluation. */
+  public static final int GUARD = 2;
+
+  /** The startAction event. */
+  public static final int START_ACTION = 4;
+
+  /** The doneTransition event (in either form, if the listener is an
+   *  IntTransitionListener). */
+  public static final int TRANSITION = 8;
+
+  /** The failure event. */
+  public static final int FAILURE = 16;
+
+  /** All the events. */
+  public static final int ALL = RESET | GUARD | START_ACTION | TRANSITION
+    | FAILURE;
+
+  /** The events that this listener wants, as a union of the flags above.
+   *  The Model calls this once, when the listener is added, so the
+   *  result should not change.
+   */
+  public int getEvents();
+}
@@ -0,0 +1,100 @@
+/**
+ Copyright (C) 2007 Mark Utting
+ This file is part of the CZT project.
+
+ The CZT project contains free software; you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation; either version 2 of the License, or
+ (at your option) any later version.
+
+ The CZT project is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with CZT; if not, write to the Free Software
+ Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package nz.ac.waikato.modeljunit;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+
+/** A default implementation of snapshots, for pure models.
+ *
+ *  A snapshot is a serialized deep copy of all the fields of the model.
+ *  Restoring it deserializes that copy, and copies the values of all its
+ *  fields back into the model, except for static and transient fields.
+ *  So the model must be Serializable, and any fields that refer to the
+ *  SUT, or to other objects that should not be copied, must be transient.
+ *  Those fields are not restored, so this is only suitable for models
+ *  that have no SUT, or when the state of the SUT does not need to be
+ *  restored (for example, while the graph of the model is being explored
+ *  with testing false).
+ */
+public abstract class SerializableFsmModel
+  implements SnapshotableFsmModel, Serializable
+{
+  private static final long serialVersionUID = 1L;
+
+  public Object snapshot()
+  {
+    try {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      ObjectOutputStream out = new ObjectOutputStream(bytes);
+      out.writeObject(this);
+      out.close();
+      return bytes.toByteArray();
+    }
+    catch (IOException ex) {
+      throw new FsmException("cannot serialize model "
+          + getClass().getName(), ex);
+    }
+  }
+
+  public void restore(Object snapshot)
+  {
+    Object copy;
+    try {
+      ObjectInputStream in = new ObjectInputStream(
+          new ByteArrayInputStream((byte[]) snapshot));
+      copy = in.readObject();
+      in.close();
+    }
+    catch (IOException ex) {
+      throw new FsmException("cannot deserialize model "
+          + getClass().getName(), ex);
+    }
+    catch (ClassNotFoundException ex) {
+      throw new FsmException("cannot deserialize model "
+          + getClass().getName(), ex);
+    }
+    if (copy.getClass() != getClass()) {
+      throw new IllegalArgumentException("snapshot of a different model: "
+          + copy.getClass().getName());
+    }
+    for (Class<?> c = getClass(); c != SerializableFsmModel.class;
+         c = c.getSuperclass()) {
+      for (Field field : c.getDeclaredFields()) {
+        int mods = field.getModifiers();
+        if ( ! Modifier.isStatic(mods) && ! Modifier.isTransient(mods)) {
+          try {
+            field.setAccessible(true);
+            field.set(this, field.get(copy));
+          }
+          catch (IllegalAccessException ex) {
+            throw new FsmException("cannot restore field " + field, ex);
+          }
+        }
+      }
+    }
+  }
+}
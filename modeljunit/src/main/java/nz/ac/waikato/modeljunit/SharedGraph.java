@@ -0,0 +1,586 @@
+/**
+Copyright (C) 2007 Mark Utting
+This file is part of the CZT project.
+
+The CZT project contains free software; you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation; either version 2 of the License, or
+(at your option) any later version.
+
+The CZT project is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with CZT; if not, write to the Free Software
+Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+*/
+
+package nz.ac.waikato.modeljunit;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+
+/** A thread-safe graph of the observed parts of a model, which can be
+ *  explored by several Model instances (walkers) at the same time.
+ *  <p>
+ *  This holds the same information as a CompactGraph: the states, the
+ *  transitions, and the done and enabled actions of each state.
+ *  But each walker publishes its transitions into it concurrently,
+ *  without any global lock.  The states are kept in a ConcurrentHashMap,
+ *  the done and enabled bits of each state are atomic arrays of longs,
+ *  and the outgoing transitions of each state are an immutable linked
+ *  list whose head is updated by compare-and-set.
+ *  </p>
+ *  <p>
+ *  Each walker reads and writes this graph via its own
+ *  {@link SharedGraphListener}, which is obtained from
+ *  {@link #newListener()}.  A snapshot of the whole graph can be
+ *  taken at any time, as a CompactGraph.  The listeners use a cached
+ *  snapshot of the states and transitions (see {@link #getCompactGraph()}),
+ *  which is only rebuilt after the graph has grown by a fraction of its
+ *  size (or after a short time), so the cost of the snapshots stays
+ *  proportional to the size of the graph, and once the graph has
+ *  stopped growing, reading it costs nothing.
+ *  </p>
+ */
+public class SharedGraph
+{
+  /** The names of the actions, indexed by action number. */
+  private final String[] actionNames_;
+
+  /** The number of longs that hold the action bits of each state. */
+  private final int words_;
+
+  private final ConcurrentMap<Object,Node> states_
+    = new ConcurrentHashMap<Object,Node>();
+
+  /** The states that have at least one isTodo action. */
+  private final Set<Object> todoStates_
+    = Collections.newSetFromMap(new ConcurrentHashMap<Object,Boolean>());
+
+  /** Gives each new state a sequence number, in order of discovery. */
+  private final AtomicInteger nextSeq_ = new AtomicInteger();
+
+  private final AtomicInteger numEdges_ = new AtomicInteger();
+
+  /** The number of enabled bits minus the number of done bits. */
+  private final AtomicInteger numTodo_ = new AtomicInteger();
+
+  /** Incremented each time a state or transition is added.
+   *  Changes to the action bits do not change this. */
+  private final AtomicInteger version_ = new AtomicInteger();
+
+  private final AtomicBoolean complete_ = new AtomicBoolean();
+
+  /** getCompactGraph() rebuilds its snapshot once the graph has grown
+   *  by 1/GROWTH of the number of states and edges in the snapshot. */
+  public static final int GROWTH = 8;
+
+  /** getCompactGraph() also rebuilds its snapshot once it is this old,
+   *  if the graph has grown at all. */
+  public static final long MAX_AGE_MILLIS = 100;
+
+  /** The cached result of getCompactGraph(). */
+  private volatile Cached cached_;
+
+  /** Creates an empty graph.
+   *
+   * @param actionNames The names of the actions, in action-number order.
+   */
+  public SharedGraph(String[] actionNames)
+  {
+    actionNames_ = actionNames.clone();
+    words_ = Math.max(1, (actionNames.length + 63) / 64);
+  }
+
+  /** Creates an empty graph for the actions of the given model. */
+  public SharedGraph(Model model)
+  {
+    this(actionNames(model));
+  }
+
+  /** Returns a new listener that publishes the transitions of one model
+   *  into this graph.  Add it to a model before any other GraphListener.
+   */
+  public SharedGraphListener newListener()
+  {
+    return new SharedGraphListener(this);
+  }
+
+  /** The number of actions of the model. */
+  public int numActions()
+  {
+    return actionNames_.length;
+  }
+
+  /** The name of the given action. */
+  public String getActionName(int action)
+  {
+    return actionNames_[action];
+  }
+
+  /** The number of states seen so far. */
+  public int numStates()
+  {
+    return states_.size();
+  }
+
+  /** The number of distinct transitions seen so far. */
+  public int numEdges()
+  {
+    return numEdges_.get();
+  }
+
+  /** The number of enabled actions that have not been done yet,
+   *  summed over all states.
+   */
+  public int numTodo()
+  {
+    return numTodo_.get();
+  }
+
+  /** True after numTodo() has been 0 at some point in the past. */
+  public boolean isComplete()
+  {
+    return complete_.get();
+  }
+
+  /** A read-only view of the states that have at least one isTodo action.
+   *  The view changes as the graph is explored, and its iteration order
+   *  is unspecified.
+   */
+  public Set<Object> getTodoStates()
+  {
+    return Collections.unmodifiableSet(todoStates_);
+  }
+
+  /** Returns one of the states that still have unexplored branches,
+   *  or null if there are no such states.
+   */
+  public Object getTodoState()
+  {
+    Iterator<Object> iter = todoStates_.iterator();
+    return iter.hasNext() ? iter.next() : null;
+  }
+
+  /** True if the given state has been seen. */
+  public boolean containsState(Object state)
+  {
+    return states_.containsKey(state);
+  }
+
+  /** True if the given action has been done from the given state. */
+  public boolean isDone(Object state, int action)
+  {
+    Node node = states_.get(state);
+    return node != null && getBit(node.done, action);
+  }
+
+  /** True if the given action has been seen enabled in the given state,
+   *  but has not yet been done from that state.
+   */
+  public boolean isTodo(Object state, int action)
+  {
+    Node node = states_.get(state);
+    if (node == null) {
+      return false;
+    }
+    int w = action >>> 6;
+    return (node.enabled.get(w) & ~node.done.get(w) & (1L << action)) != 0;
+  }
+
+  /** Returns a new BitSet containing the done actions of state. */
+  public BitSet getDone(Object state)
+  {
+    Node node = states_.get(state);
+    return node == null ? new BitSet() : toBitSet(node.done, null);
+  }
+
+  /** Returns a new BitSet containing the isTodo actions of state. */
+  public BitSet getTodo(Object state)
+  {
+    Node node = states_.get(state);
+    return node == null ? new BitSet() : toBitSet(node.enabled, node.done);
+  }
+
+  /** Records that a walker is in the given state, with the given
+   *  actions enabled.  This adds the state if it is new.
+   */
+  public void addState(Object state, BitSet enabled)
+  {
+    Node node = getNode(state);
+    addEnabled(node, enabled);
+  }
+
+  /** Records that a walker has taken a transition.
+   *  This may be called concurrently by several walkers.
+   *
+   * @param source  The state before the transition.
+   * @param action  The number of the action taken.
+   * @param dest    The state after the transition.
+   * @param enabled The actions enabled in dest.
+   */
+  public void addTransition(Object source, int action, Object dest,
+      BitSet enabled)
+  {
+    Node from = getNode(source);
+    Node to = getNode(dest);
+    addEdge(from, action, to);
+    // the actions of dest are added before this action is marked done,
+    // otherwise numTodo_ could drop to 0 in between, and another walker
+    // could then wrongly decide that the graph is complete.
+    addEnabled(to, enabled);
+    // the action was obviously enabled, even if clearActions
+    // has been called since this walker arrived in source.
+    int delta = 0;
+    if (setBit(from.enabled, action)) {
+      delta++;
+    }
+    if (setBit(from.done, action)) {
+      delta--;
+    }
+    if (delta != 0) {
+      numTodo_.addAndGet(delta);
+    }
+    updateTodoState(from);
+    if (numTodo_.get() == 0) {
+      complete_.set(true);
+    }
+  }
+
+  /** Adds a previously explored graph of the same model (for example,
+   *  one read from a GraphCache) into this graph, including its done
+   *  and enabled actions.  This may be called while walkers are running.
+   *
+   * @param graph A graph with the same actions as this graph.
+   * @throws IllegalArgumentException if the actions are different.
+   */
+  public void merge(CompactGraph graph)
+  {
+    if (graph.numActions() != actionNames_.length) {
+      throw new IllegalArgumentException("cannot merge graphs of different models");
+    }
+    for (int a = 0; a < actionNames_.length; a++) {
+      if ( ! actionNames_[a].equals(graph.getActionName(a))) {
+        throw new IllegalArgumentException("cannot merge graphs of different models");
+      }
+    }
+    Node[] nodes = new Node[graph.numStates()];
+    for (int s = 0; s < nodes.length; s++) {
+      nodes[s] = getNode(graph.getState(s));
+      BitSet done = graph.getDone(s);
+      // done actions were obviously enabled.
+      BitSet enabled = graph.getEnabled(s);
+      enabled.or(done);
+      addEnabled(nodes[s], enabled);
+      int removed = 0;
+      for (int a = done.nextSetBit(0); a >= 0; a = done.nextSetBit(a + 1)) {
+        if (setBit(nodes[s].done, a)) {
+          removed++;
+        }
+      }
+      if (removed > 0) {
+        numTodo_.addAndGet(-removed);
+        updateTodoState(nodes[s]);
+      }
+    }
+    for (int e = 0; e < graph.numEdges(); e++) {
+      addEdge(nodes[graph.getEdgeSource(e)], graph.getEdgeAction(e),
+          nodes[graph.getEdgeDest(e)]);
+    }
+    if (numTodo_.get() == 0) {
+      complete_.set(true);
+    }
+  }
+
+  /** Forgets all the done and enabled actions of all states.
+   *  This should only be called while no walkers are publishing
+   *  transitions, otherwise numTodo() may be inaccurate.
+   */
+  public void clearActions()
+  {
+    for (Node node : states_.values()) {
+      for (int w = 0; w < words_; w++) {
+        node.done.set(w, 0L);
+        node.enabled.set(w, 0L);
+      }
+    }
+    todoStates_.clear();
+    numTodo_.set(0);
+  }
+
+  /** Returns a new CompactGraph that contains the current states,
+   *  transitions and action bits of this graph.  This takes time
+   *  proportional to the size of the graph, but does not block the
+   *  walkers.  If walkers are running, the snapshot may miss their
+   *  latest changes.
+   */
+  public CompactGraph snapshot()
+  {
+    List<Node> nodes = new ArrayList<Node>(states_.values());
+    Collections.sort(nodes, BY_SEQ);
+    CompactGraph result = new CompactGraph(actionNames_);
+    for (Node node : nodes) {
+      int id = result.addState(node.state);
+      result.addEnabled(id, toBitSet(node.enabled, null));
+      BitSet done = toBitSet(node.done, null);
+      for (int a = done.nextSetBit(0); a >= 0; a = done.nextSetBit(a + 1)) {
+        result.setDone(id, a);
+      }
+    }
+    for (Node node : nodes) {
+      int source = result.getStateId(node.state);
+      for (EdgeNode e = node.out.get(); e != null; e = e.next) {
+        int dest = result.addState(e.dest.state);
+        result.addEdge(source, e.action, dest);
+      }
+    }
+    result.compact();
+    return result;
+  }
+
+  /** Returns a snapshot of this graph that is shared by all callers,
+   *  so it must not be modified.  The action bits of the result are only
+   *  those at the time that it was taken: use the isTodo, isDone etc.
+   *  methods of this class to get the current ones.
+   *  <p>
+   *  Taking a snapshot costs time proportional to the size of the graph,
+   *  and testers such as LookaheadTester call this at every step.  So
+   *  while the graph is growing, the same snapshot is returned until the
+   *  graph has grown by 1/{@value #GROWTH} of its size, or the snapshot
+   *  is {@value #MAX_AGE_MILLIS} milliseconds old, which keeps the total
+   *  cost of the snapshots proportional to the size of the final graph.
+   *  So the result may lack the newest states and transitions, unless
+   *  the graph is small or complete.  Use {@link #snapshot()} to get
+   *  all of them.  Callers do not lock anything, unless the snapshot
+   *  must be rebuilt.
+   *  </p>
+   */
+  public CompactGraph getCompactGraph()
+  {
+    Cached cached = cached_;
+    if (cached != null && ! needsRebuild(cached, version_.get())) {
+      return cached.graph;
+    }
+    synchronized (this) {
+      int version = version_.get();
+      cached = cached_;
+      if (cached == null || needsRebuild(cached, version)) {
+        cached = new Cached(snapshot(), version, System.nanoTime());
+        cached_ = cached;
+      }
+      return cached.graph;
+    }
+  }
+
+  /** True if cached is so out of date that it should be rebuilt. */
+  private boolean needsRebuild(Cached cached, int version)
+  {
+    int growth = version - cached.version;
+    if (growth == 0) {
+      return false;
+    }
+    CompactGraph graph = cached.graph;
+    return complete_.get()
+        || growth >= (graph.numStates() + graph.numEdges()) / GROWTH
+        || System.nanoTime() - cached.nanos >= MAX_AGE_MILLIS * 1000000L;
+  }
+
+  /** Returns the node of state, adding it if necessary. */
+  private Node getNode(Object state)
+  {
+    Node node = states_.get(state);
+    if (node == null) {
+      Node added = new Node(state, words_, nextSeq_.getAndIncrement());
+      node = states_.putIfAbsent(state, added);
+      if (node == null) {
+        node = added;
+        version_.incrementAndGet();
+      }
+    }
+    return node;
+  }
+
+  /** Adds the edge (from,action,to) unless it is already there.
+   *  Edges are only ever prepended, so a list that has been
+   *  searched once need not be searched again after a failed CAS.
+   */
+  private void addEdge(Node from, int action, Node to)
+  {
+    EdgeNode searched = null;
+    while (true) {
+      EdgeNode head = from.out.get();
+      for (EdgeNode e = head; e != searched; e = e.next) {
+        if (e.action == action && e.dest == to) {
+          return;
+        }
+      }
+      if (from.out.compareAndSet(head, new EdgeNode(action, to, head))) {
+        numEdges_.incrementAndGet();
+        version_.incrementAndGet();
+        return;
+      }
+      searched = head;
+    }
+  }
+
+  private void addEnabled(Node node, BitSet enabled)
+  {
+    int added = 0;
+    for (int a = enabled.nextSetBit(0); a >= 0; a = enabled.nextSetBit(a + 1)) {
+      if (setBit(node.enabled, a)) {
+        added++;
+      }
+    }
+    if (added > 0) {
+      numTodo_.addAndGet(added);
+      updateTodoState(node);
+    }
+  }
+
+  /** Adds or removes the state of node from todoStates_.
+   *  The check is repeated after a removal, in case another walker
+   *  has just enabled a new action of that state.
+   */
+  private void updateTodoState(Node node)
+  {
+    if (hasTodo(node)) {
+      todoStates_.add(node.state);
+    }
+    else if (todoStates_.remove(node.state) && hasTodo(node)) {
+      todoStates_.add(node.state);
+    }
+  }
+
+  private boolean hasTodo(Node node)
+  {
+    for (int w = 0; w < words_; w++) {
+      if ((node.enabled.get(w) & ~node.done.get(w)) != 0) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static boolean getBit(AtomicLongArray bits, int bit)
+  {
+    return (bits.get(bit >>> 6) & (1L << bit)) != 0;
+  }
+
+  /** Sets one bit atomically.
+   * @return true if the bit was not already set.
+   */
+  private static boolean setBit(AtomicLongArray bits, int bit)
+  {
+    int w = bit >>> 6;
+    long mask = 1L << bit;
+    while (true) {
+      long old = bits.get(w);
+      if ((old & mask) != 0) {
+        return false;
+      }
+      if (bits.compareAndSet(w, old, old | mask)) {
+        return true;
+      }
+    }
+  }
+
+  /** Converts bits (minus the minus bits, if non-null) into a BitSet. */
+  private BitSet toBitSet(AtomicLongArray bits, AtomicLongArray minus)
+  {
+    BitSet result = new BitSet();
+    for (int w = 0; w < words_; w++) {
+      long word = bits.get(w);
+      if (minus != null) {
+        word &= ~minus.get(w);
+      }
+      while (word != 0) {
+        int bit = Long.numberOfTrailingZeros(word);
+        result.set(w * 64 + bit);
+        word &= word - 1;
+      }
+    }
+    return result;
+  }
+
+  private static String[] actionNames(Model model)
+  {
+    String[] names = new String[model.getNumActions()];
+    for (int i = 0; i < names.length; i++) {
+      names[i] = model.getActionName(i);
+    }
+    return names;
+  }
+
+  private static final Comparator<Node> BY_SEQ = new Comparator<Node>() {
+    public int compare(Node n1, Node n2)
+    {
+      return n1.seq < n2.seq ? -1 : (n1.seq == n2.seq ? 0 : 1);
+    }
+  };
+
+  /** A snapshot, and the version of the graph and the time
+   *  (from System.nanoTime) that it was taken at.
+   */
+  private static class Cached
+  {
+    final CompactGraph graph;
+    final int version;
+    final long nanos;
+
+    Cached(CompactGraph graph, int version, long nanos)
+    {
+      this.graph = graph;
+      this.version = version;
+      this.nanos = nanos;
+    }
+  }
+
+  /** One state, with its action bits and outgoing transitions. */
+  private static class Node
+  {
+    final Object state;
+    final int seq;
+    final AtomicLongArray done;
+    final AtomicLongArray enabled;
+    final AtomicReference<EdgeNode> out = new AtomicReference<EdgeNode>();
+
+    Node(Object state, int words, int seq)
+    {
+      this.state = state;
+      this.seq = seq;
+      done = new AtomicLongArray(words);
+      enabled = new AtomicLongArray(words);
+    }
+  }
+
+  /** One transition, in an immutable list of the transitions
+   *  that go out of the same state.
+   */
+  private static class EdgeNode
+  {
+    final int action;
+    final Node dest;
+    final EdgeNode next;
+
+    EdgeNode(int action, Node dest, EdgeNode next)
+    {
+      this.action = action;
+      this.dest = dest;
+      this.next = next;
+    }
+  }
+}
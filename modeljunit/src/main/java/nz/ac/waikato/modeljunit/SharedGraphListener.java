@@ -0,0 +1,238 @@
+/**
+Copyright (C) 2007 Mark Utting
+This file is part of the CZT project.
+
+The CZT project contains free software; you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation; either version 2 of the License, or
+(at your option) any later version.
+
+The CZT project is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with CZT; if not, write to the Free Software
+Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+*/
+
+package nz.ac.waikato.modeljunit;
+
+import java.util.BitSet;
+import java.util.Set;
+
+import nz.ac.waikato.modeljunit.coverage.CoverageMetric;
+
+/** A GraphListener that records its transitions in a SharedGraph,
+ *  which may be shared with the listeners of other Model instances.
+ *  <p>
+ *  Each Model needs its own SharedGraphListener (see
+ *  {@link SharedGraph#newListener()}), and it must be added before
+ *  any tester adds the usual "graph" listener.  Then GreedyTester,
+ *  QuickTester etc. see the todo and done information of all the
+ *  walkers, rather than just their own.  For example:
+ *  </p>
+ *  <pre>
+ *    SharedGraph shared = new SharedGraph(actionNames);
+ *    Model model = new Model(fsm);
+ *    model.addListener(shared.newListener());
+ *    Tester tester = new GreedyTester(model);
+ *  </pre>
+ *  <p>
+ *  The todo and done methods always read the shared graph directly.
+ *  But the graph methods (getGraph, getCompactGraph, getVertex and so on)
+ *  use a read-only snapshot of the shared graph (see
+ *  {@link SharedGraph#getCompactGraph()}), which is refreshed after each
+ *  transition of this model, once the shared graph has grown enough
+ *  since the snapshot was taken.  While a large graph is growing, the
+ *  snapshot may lack the newest states and transitions, so a tester that
+ *  reads the graph at every step (such as LookaheadTester) does not pay
+ *  for copying the whole graph at every step.  So the Vertex and Edge objects
+ *  that a tester obtains while deciding what to do next all belong to
+ *  the same graph.  Calling clearDoneTodo clears the bits of all the
+ *  walkers.  Since each snapshot is a private copy, buildGraphBreadthFirst
+ *  cannot be used with this listener.
+ *  </p>
+ */
+public class SharedGraphListener extends GraphListener
+{
+  private final SharedGraph shared_;
+
+  /** True after the metrics of this model have been told about
+   *  the complete graph.
+   */
+  private boolean notified_ = false;
+
+  /** The snapshot used by the graph methods, or null. */
+  private CompactGraph snapshot_;
+
+  /** True if snapshot_ should be refreshed before it is next used. */
+  private boolean stale_ = true;
+
+  public SharedGraphListener(SharedGraph shared)
+  {
+    shared_ = shared;
+  }
+
+  /** The graph that this listener publishes into. */
+  public SharedGraph getSharedGraph()
+  {
+    return shared_;
+  }
+
+  /** Records the initial state of model in the shared graph.
+   *  Unlike GraphListener, this does not clear the done and todo
+   *  information, since other walkers may already be using it.
+   */
+  @Override
+  public void setModel(Model model)
+  {
+    if (shared_.numActions() != model.getNumActions()) {
+      throw new IllegalArgumentException("shared graph has "
+          + shared_.numActions() + " actions, but model has "
+          + model.getNumActions());
+    }
+    super.setModel(model);
+    addInitialState();
+  }
+
+  private void addInitialState()
+  {
+    if (! model_.isInitialState()) {
+      model_.doReset("graphlistener");
+    }
+    BitSet enabled = model_.enabledGuards();
+    if (enabled.isEmpty())
+      throw new FsmException("Initial state has no actions enabled.");
+    shared_.addState(model_.getCurrentState(), enabled);
+  }
+
+  @Override
+  public boolean isComplete()
+  {
+    return shared_.isComplete();
+  }
+
+  @Override
+  public int numTodo()
+  {
+    return shared_.numTodo();
+  }
+
+  @Override
+  public Object getTodoState()
+  {
+    return shared_.getTodoState();
+  }
+
+  @Override
+  public Set<Object> getTodoStates()
+  {
+    return shared_.getTodoStates();
+  }
+
+  @Override
+  public boolean isTodo(Object state, int action)
+  {
+    return shared_.isTodo(state, action);
+  }
+
+  @Override
+  public BitSet getTodo(Object state)
+  {
+    return shared_.getTodo(state);
+  }
+
+  @Override
+  public boolean isDone(Object state, int action)
+  {
+    return shared_.isDone(state, action);
+  }
+
+  @Override
+  public BitSet getDone(Object state)
+  {
+    return shared_.getDone(state);
+  }
+
+  /** Clears the done and todo information of the shared graph.
+   *  This should only be called while the other walkers are idle.
+   */
+  @Override
+  public void clearDoneTodo()
+  {
+    shared_.clearActions();
+    addInitialState();
+    stale_ = true;
+  }
+
+  /** Returns a snapshot of the shared graph.
+   *  This must not be modified.  It is refreshed after the next
+   *  transition of this model, but not when other walkers explore.
+   *  Its done and enabled bits may be out of date, so use the todo and
+   *  done methods of this listener instead.
+   *  The other graph methods, such as getGraph and getOutEdges,
+   *  use this snapshot.
+   */
+  @Override
+  public CompactGraph getCompactGraph()
+  {
+    if (stale_ || snapshot_ == null) {
+      stale_ = false;
+      snapshot_ = shared_.getCompactGraph();
+    }
+    return snapshot_;
+  }
+
+  /** Publishes a transition into the shared graph. */
+  @Override
+  public void doneTransition(int action, Transition tr)
+  {
+    shared_.addTransition(tr.getStartState(), action, tr.getEndState(),
+        model_.enabledGuards());
+    stale_ = true;
+    checkComplete();
+  }
+
+  /** Adds a previously explored graph of the same model (for example,
+   *  one read from a GraphCache) into the shared graph, including its
+   *  done and enabled actions, so all the walkers see it.
+   *
+   * @param graph A graph with the same actions as this model.
+   */
+  @Override
+  public void loadGraph(CompactGraph graph)
+  {
+    shared_.merge(graph);
+    stale_ = true;
+    checkComplete();
+  }
+
+  /** A fresh snapshot of the shared graph, so that the current
+   *  done and enabled bits are saved.
+   */
+  @Override
+  CompactGraph getGraphToSave()
+  {
+    return shared_.snapshot();
+  }
+
+  /** Tells the metrics of this model about the graph, the first time
+   *  that the shared graph is complete.
+   */
+  private void checkComplete()
+  {
+    if (! notified_ && shared_.isComplete()) {
+      notified_ = true;
+      CompactGraph graph = getCompactGraph();
+      for (String name : model_.getListenerNames()) {
+        ModelListener listen = model_.getListener(name);
+        if (listen instanceof CoverageMetric) {
+          ((CoverageMetric)listen).setGraph(graph.getView(),
+              graph.getView().getVertexMap());
+        }
+      }
+    }
+  }
+}
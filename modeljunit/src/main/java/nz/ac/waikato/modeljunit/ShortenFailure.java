@@ -2,13 +2,17 @@
 package nz.ac.waikato.modeljunit;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Random;
 
 import junit.framework.Assert;
-import nz.ac.waikato.jdsl.graph.algo.IntegerDijkstraPathfinder;
 import nz.ac.waikato.jdsl.graph.api.Edge;
+import nz.ac.waikato.jdsl.graph.api.EdgeDirection;
 import nz.ac.waikato.jdsl.graph.api.EdgeIterator;
 import nz.ac.waikato.jdsl.graph.api.InspectableGraph;
 import nz.ac.waikato.jdsl.graph.api.Vertex;
@@ -18,6 +22,20 @@ import nz.ac.waikato.jdsl.graph.api.VertexIterator;
  * This class can minimize (shorten) a failing test sequence.
  * It uses two algorithms for minimization (CutCycles algorithm, Beeline algorithm). 
  * <p>
+ * Each shortened sequence is re-executed to check that it still fails.
+ * If the model supports snapshots (see SnapshotableFsmModel), checkpoints
+ * are kept along the current failing sequence (see ReplayCache), so each
+ * re-execution starts from the last checkpoint before the part that was
+ * changed, rather than from the initial state.
+ * </p>
+ * <p>
+ * The Beeline algorithm finds shortest paths by breadth-first search over
+ * the state numbers of the CompactGraph behind the graph.  For graphs with
+ * at most getNextHopLimit() states, a table of the first step of the
+ * shortest path between every pair of states is computed once, and
+ * reused until the graph changes.
+ * </p>
+ * <p>
  * It requires the used tester and TestFailureException to be passed before
  * starting the minimization process, and returns the new shortened failing
  * test sequence as a TestFailureException.
@@ -41,6 +59,39 @@ public class ShortenFailure
 
   private HashMap<String, ArrayList<Integer>> _cyclesHashMap;
 
+  private ReplayCache _replay;
+
+  /** Graphs with at most this many states get a next-hop table. */
+  private int _nextHopLimit = 1000;
+
+  /** The graph that the cached search data below belongs to. */
+  private CompactGraph _pathGraph;
+
+  /** The size and edge version of _pathGraph when it was cached. */
+  private int _pathStates, _pathEdges, _pathVersion;
+
+  /** Entry s * n + d is the first edge of a shortest path from state s
+   *  to state d of _pathGraph, or NONE.  Null if there is no table.
+   */
+  private int[] _nextHop;
+
+  /** The edge used to reach each state in the current search. */
+  private int[] _bfsEdge = new int[0];
+
+  /** Entry s equals _bfsStamp iff state s was reached in this search. */
+  private int[] _bfsSeen = new int[0];
+
+  private int _bfsStamp = 0;
+
+  private int[] _bfsQueue = new int[0];
+
+  /** The graph and state-to-vertex map used by getVertex, for graphs
+   *  that are not views of a CompactGraph.
+   */
+  private InspectableGraph _vertexGraph;
+
+  private Map<Object, Vertex> _vertexMap;
+
   /**
    * Constructor method to create ShortenFailure object.
    * @param tester, used for running the model.
@@ -67,6 +118,50 @@ public class ShortenFailure
         failure.getSequence().size()));
 
     _tester = tester; // to run the new path and check its validation
+    _replay = new ReplayCache(tester);
+    _replay.setReference(_failureSequence);
+  }
+
+  /**
+   * Sets how often checkpoints are saved along the current failing test
+   * sequence, so that each shortened sequence can be replayed from the
+   * last checkpoint before it differs from the current one, rather than
+   * from the initial state.  This only has an effect if the model
+   * supports snapshots (see SnapshotableFsmModel).
+   * @param interval the number of steps between checkpoints (default 32).
+   */
+  public void setCheckpointInterval(int interval)
+  {
+    _replay = new ReplayCache(_tester, interval);
+    _replay.setReference(_failureSequence);
+  }
+
+  /**
+   * Returns the cache of checkpoints that is used to replay each
+   * shortened sequence.
+   */
+  public ReplayCache getReplayCache()
+  {
+    return _replay;
+  }
+
+  /**
+   * Sets the largest graph (in states) for which the first step of the
+   * shortest path between every pair of states is precomputed.  The table
+   * takes 4 * n * n bytes, and n breadth-first searches to build, but then
+   * each shortest path is found in time proportional to its length.
+   * @param maxStates the maximum number of states (default 1000), or 0 to
+   * always search.
+   */
+  public void setNextHopLimit(int maxStates)
+  {
+    _nextHopLimit = maxStates;
+    _pathGraph = null;
+  }
+
+  public int getNextHopLimit()
+  {
+    return _nextHopLimit;
   }
 
   /**
@@ -243,8 +338,10 @@ public class ShortenFailure
     Object currState = null;
     int currActionNo = -1;
     try {
-      model.doReset();
-      for (int i = 0; i < sequence.size(); i++) {
+      // resume from the deepest checkpoint in the prefix that this
+      // sequence shares with the current failing sequence.
+      int start = _replay.start(sequence);
+      for (int i = start; i < sequence.size(); i++) {
         String actionName = sequence.get(i).getAction();
         currState = model.getCurrentState();
         currActionNo = model.getActionNumber(actionName);
@@ -254,6 +351,7 @@ public class ShortenFailure
 
         if (!model.getCurrentState().equals(sequence.get(i).getEndState()))
           return null;
+        _replay.step(i + 1);
       }
       //same state
       assert model.getCurrentState().equals(_failure.getState());
@@ -277,6 +375,7 @@ public class ShortenFailure
         // found a good failure
         List<Transition> failSeq = new ArrayList<Transition>();
         failSeq.addAll(e.getSequence().subList(0, e.getSequence().size()));
+        _replay.accept(failSeq);
         return failSeq;
       }
       return null;
@@ -284,16 +383,25 @@ public class ShortenFailure
 
   }
 
-  //get the vertex of the given state. 
+  //get the vertex of the given state, or null if it is not in the graph.
   public Vertex getVertex(InspectableGraph graph, Object state)
   {
-    VertexIterator itr = graph.vertices();
-    while (itr.hasNext()) {
-      Vertex v = itr.nextVertex();
-      if (v.element().equals(state))
-        return v;
+    if (graph instanceof CompactGraphView) {
+      CompactGraphView view = (CompactGraphView) graph;
+      int id = view.getCompactGraph().getStateId(state);
+      return id == CompactGraph.NONE ? null : view.getVertex(id);
     }
-    return null;
+    // index the vertices of other graphs once, until the graph grows.
+    if (_vertexGraph != graph || _vertexMap.size() != graph.numVertices()) {
+      _vertexGraph = graph;
+      _vertexMap = new HashMap<Object, Vertex>();
+      VertexIterator itr = graph.vertices();
+      while (itr.hasNext()) {
+        Vertex v = itr.nextVertex();
+        _vertexMap.put(v.element(), v);
+      }
+    }
+    return _vertexMap.get(state);
   }
 
   //check whether the two given lists are equal or not.
@@ -322,33 +430,164 @@ public class ShortenFailure
   }
 
   /**
-   * The method uses "IntegerDijkstraPathfinder" algorithm to find the
-   * shortest path between the two given vertices.
+   * Finds a shortest path between the two given vertices, by breadth-first
+   * search.
    * @param graph is the model graph
    * @param source start vertex for the path
    * @param dest end vertex for the path
-   * @return the shortest path between the "source" vertex and the "dest" vertex
+   * @return the shortest path between the "source" vertex and the "dest"
+   * vertex, which is empty if there is no such path.
    */
   public List<Transition> getShortestPath(InspectableGraph graph,
       Vertex source, Vertex dest)
   {
+    if (source == null || dest == null)
+      return new ArrayList<Transition>();
+    if (!(graph instanceof CompactGraphView))
+      return getShortestPathSlow(graph, source, dest);
+
+    CompactGraphView view = (CompactGraphView) graph;
+    CompactGraph g = view.getCompactGraph();
+    int from = view.getStateNumber(source);
+    int to = view.getStateNumber(dest);
+    prepareSearch(g);
     List<Transition> path = new ArrayList<Transition>();
-    PathFinder finder = new PathFinder();
-    finder.execute(graph, source, dest);
-    if (!finder.pathExists())
+    if (_nextHop != null) {
+      int n = g.numStates();
+      for (int s = from; s != to;) {
+        int e = _nextHop[s * n + to];
+        if (e == CompactGraph.NONE)
+          return new ArrayList<Transition>();
+        path.add(transition(g, e));
+        s = g.getEdgeDest(e);
+      }
       return path;
-    else {
-      EdgeIterator itr = finder.reportPath();
+    }
+    if (breadthFirst(g, from, to)) {
+      for (int s = to; s != from;) {
+        int e = _bfsEdge[s];
+        path.add(transition(g, e));
+        s = g.getEdgeSource(e);
+      }
+      Collections.reverse(path);
+    }
+    return path;
+  }
+
+  private static Transition transition(CompactGraph g, int edge)
+  {
+    return new Transition(g.getState(g.getEdgeSource(edge)),
+        g.getActionName(g.getEdgeAction(edge)),
+        g.getState(g.getEdgeDest(edge)));
+  }
+
+  /** Resizes the search arrays for g, and (re)builds the next-hop table
+   *  if g is small enough and has changed since it was built. */
+  private void prepareSearch(CompactGraph g)
+  {
+    int n = g.numStates();
+    if (_bfsSeen.length < n) {
+      _bfsEdge = new int[n];
+      _bfsSeen = new int[n];
+      _bfsQueue = new int[n];
+      _bfsStamp = 0;
+    }
+    if (_pathGraph == g && _pathStates == n && _pathEdges == g.numEdges()
+        && _pathVersion == g.getEdgeVersion())
+      return;
+    _pathGraph = g;
+    _pathStates = n;
+    _pathEdges = g.numEdges();
+    _pathVersion = g.getEdgeVersion();
+    _nextHop = null;
+    if (n > _nextHopLimit)
+      return;
+    int[] table = new int[n * n];
+    Arrays.fill(table, CompactGraph.NONE);
+    for (int from = 0; from < n; from++) {
+      breadthFirst(g, from, CompactGraph.NONE);
+      int base = from * n;
+      // the states are dequeued in order of distance, so the first
+      // step to each state is known before it is needed.
+      for (int i = 0; i < n && _bfsQueue[i] != CompactGraph.NONE; i++) {
+        int s = _bfsQueue[i];
+        if (s == from)
+          continue;
+        int e = _bfsEdge[s];
+        int parent = g.getEdgeSource(e);
+        table[base + s] = parent == from ? e : table[base + parent];
+      }
+    }
+    _nextHop = table;
+  }
+
+  /**
+   * Breadth-first search from state from, until state to is reached
+   * (or all reachable states, if to is NONE).  Afterwards, _bfsEdge[s]
+   * is the last edge of a shortest path to each reached state s, and
+   * _bfsQueue holds the reached states in order, followed by NONE if
+   * there are fewer than numStates of them.
+   * @return true if state to was reached.
+   */
+  private boolean breadthFirst(CompactGraph g, int from, int to)
+  {
+    if (++_bfsStamp == 0) {
+      Arrays.fill(_bfsSeen, 0);
+      _bfsStamp = 1;
+    }
+    int head = 0;
+    int tail = 0;
+    _bfsQueue[tail++] = from;
+    _bfsSeen[from] = _bfsStamp;
+    while (head < tail) {
+      int s = _bfsQueue[head++];
+      if (s == to)
+        return true;
+      for (int e = g.getFirstOutEdge(s); e != CompactGraph.NONE; e = g
+          .getNextOutEdge(e)) {
+        int d = g.getEdgeDest(e);
+        if (_bfsSeen[d] != _bfsStamp) {
+          _bfsSeen[d] = _bfsStamp;
+          _bfsEdge[d] = e;
+          _bfsQueue[tail++] = d;
+        }
+      }
+    }
+    if (tail < _bfsQueue.length)
+      _bfsQueue[tail] = CompactGraph.NONE;
+    return false;
+  }
+
+  //breadth-first search over the JDSL interface, for other graphs.
+  private List<Transition> getShortestPathSlow(InspectableGraph graph,
+      Vertex source, Vertex dest)
+  {
+    Map<Vertex, Edge> reached = new HashMap<Vertex, Edge>();
+    LinkedList<Vertex> queue = new LinkedList<Vertex>();
+    reached.put(source, null);
+    queue.add(source);
+    while (!queue.isEmpty() && !reached.containsKey(dest)) {
+      Vertex v = queue.removeFirst();
+      EdgeIterator itr = graph.incidentEdges(v, EdgeDirection.OUT);
       while (itr.hasNext()) {
         Edge e = itr.nextEdge();
-        Object s = graph.origin(e).element();
-        Object d = graph.destination(e).element();
-        String action = (String) e.element();
-        Transition trans = new Transition(s, action, d);
-        path.add(trans);
+        Vertex d = graph.destination(e);
+        if (!reached.containsKey(d)) {
+          reached.put(d, e);
+          queue.add(d);
+        }
       }
+    }
+    List<Transition> path = new ArrayList<Transition>();
+    if (!reached.containsKey(dest))
       return path;
+    for (Edge e = reached.get(dest); e != null; e = reached.get(graph
+        .origin(e))) {
+      path.add(new Transition(graph.origin(e).element(), (String) e
+          .element(), graph.destination(e).element()));
     }
+    Collections.reverse(path);
+    return path;
   }
 
   //Returns a list after cutting off part of the list (fromIndex to toIndex). 
@@ -412,22 +651,11 @@ public class ShortenFailure
 
     ArrayList<Integer> value = new ArrayList<Integer>();
     if (table.containsKey(keyObject.toString()))
-      value = table.get(keyObject);
+      value = table.get(keyObject.toString());
 
     if (!value.contains(positionToAdd))
       value.add(positionToAdd);
     table.put(keyObject.toString(), value);
   }
 
-
-  //a class extend the abstract class IntegerDijkstraPathfinder
-  private class PathFinder extends IntegerDijkstraPathfinder
-  {
-    @Override
-    protected int weight(Edge e)
-    {
-      return 0;
-    }
-  }
-
 }
@@ -0,0 +1,54 @@
+/**
+ Copyright (C) 2007 Mark Utting
+ This file is part of the CZT project.
+
+ The CZT project contains free software; you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation; either version 2 of the License, or
+ (at your option) any later version.
+
+ The CZT project is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with CZT; if not, write to the Free Software
+ Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package nz.ac.waikato.modeljunit;
+
+/** An FSM model that can save its current state and go back to it later.
+ *
+ *  Without this, the only way to return to a state that has been visited
+ *  before is to reset the model (and the SUT) and replay a path of
+ *  actions that leads to that state.  If the model implements this
+ *  interface, then the testers can jump straight back to a saved state
+ *  instead (see {@link Model#snapshot()} and {@link Model#restore(Object)}).
+ *  This is worthwhile when resetting or running the SUT is expensive.
+ *  <p>
+ *  A snapshot must include everything that affects the guards, the
+ *  actions and getState().  If the model was last reset with testing
+ *  true, then restore must also put the SUT back into the saved state
+ *  (or else the model should only support snapshots while testing is
+ *  false).  Pure models, which have no SUT, can simply extend
+ *  {@link SerializableFsmModel}, which takes snapshots by serialization.
+ *  </p>
+ */
+public interface SnapshotableFsmModel extends FsmModel
+{
+  /** Saves the current state of this model.
+   *  The result must not change when this model changes later.
+   *
+   * @return A non-null snapshot of the current state.
+   */
+  public Object snapshot();
+
+  /** Puts this model back into a state that was saved by snapshot().
+   *  The same snapshot may be restored many times.
+   *
+   * @param snapshot A result of snapshot() from this model.
+   */
+  public void restore(Object snapshot);
+}
@@ -0,0 +1,184 @@
+/**
+ Copyright (C) 2007 Mark Utting
+ This file is part of the CZT project.
+
+ The CZT project contains free software; you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation; either version 2 of the License, or
+ (at your option) any later version.
+
+ The CZT project is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with CZT; if not, write to the Free Software
+ Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package nz.ac.waikato.modeljunit;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/** Gives each distinct state of a model a dense int number.
+ *  <p>
+ *  The numbers start from 0 and are given in the order that the states
+ *  are first seen.  A state keeps its number until the interner is
+ *  cleared, so listeners can use the numbers to index arrays, or pack
+ *  a transition into a single long (see {@link #pack(int, int, int)}).
+ *  Each Model has one interner (see {@link Model#getStateInterner()}),
+ *  and the numbers of different models are unrelated.
+ *  </p>
+ *  <p>
+ *  The interner holds every state that it has numbered.  To bound its
+ *  memory, it can be cleared, which forgets all the numbers and starts
+ *  a new generation (see {@link #getGeneration()}), and the Model
+ *  clears it at a reset when it holds more than {@link #getMaxSize()}
+ *  states.  Listeners that keep state numbers must forget them when
+ *  the generation changes.
+ *  </p>
+ *  <p>
+ *  This is not thread-safe, since it is only used by the thread that
+ *  is running its model.
+ *  </p>
+ */
+public class StateInterner
+{
+  /** The result of getId for a state that has no number yet. */
+  public static final int NONE = -1;
+
+  /** The number of bits used for each state number in a packed
+   *  transition, so packed transitions can have up to 2^26 states. */
+  public static final int STATE_BITS = 26;
+
+  /** The number of bits used for the action number in a packed
+   *  transition, so packed transitions can have up to 4096 actions. */
+  public static final int ACTION_BITS = 12;
+
+  private static final long STATE_MASK = (1L << STATE_BITS) - 1;
+
+  private static final long ACTION_MASK = (1L << ACTION_BITS) - 1;
+
+  /** The default for {@link #setMaxSize(int)}. */
+  public static final int DEFAULT_MAX_SIZE = 1 << 20;
+
+  private List<Object> states_ = new ArrayList<Object>();
+
+  private Map<Object,Integer> ids_ = new HashMap<Object,Integer>();
+
+  private int maxSize_ = DEFAULT_MAX_SIZE;
+
+  private int generation_ = 0;
+
+  /** Returns the number of state, giving it a new number if necessary. */
+  public int intern(Object state)
+  {
+    Integer id = ids_.get(state);
+    if (id == null) {
+      id = states_.size();
+      states_.add(state);
+      ids_.put(state, id);
+    }
+    return id;
+  }
+
+  /** Returns the number of state, or NONE if it has not been interned. */
+  public int getId(Object state)
+  {
+    Integer id = ids_.get(state);
+    return id == null ? NONE : id;
+  }
+
+  /** Returns the state with the given number. */
+  public Object getState(int id)
+  {
+    return states_.get(id);
+  }
+
+  /** The number of distinct states seen so far. */
+  public int size()
+  {
+    return states_.size();
+  }
+
+  /** Forgets all the states and their numbers, and starts a new
+   *  generation.  The numbers start from 0 again.
+   */
+  public void clear()
+  {
+    states_ = new ArrayList<Object>();
+    ids_ = new HashMap<Object,Integer>();
+    generation_++;
+  }
+
+  /** The number of times that this interner has been cleared.
+   *  State numbers from different generations are unrelated.
+   */
+  public int getGeneration()
+  {
+    return generation_;
+  }
+
+  /** The most states that the Model lets this hold after a reset. */
+  public int getMaxSize()
+  {
+    return maxSize_;
+  }
+
+  /** Sets the most states that this interner may hold after a reset
+   *  of its Model.  Once it holds more, the Model clears it at the next
+   *  reset, so the numbers of the states are only stable between those
+   *  resets.
+   *
+   * @param maxSize  At least 1.  The default is DEFAULT_MAX_SIZE.
+   */
+  public void setMaxSize(int maxSize)
+  {
+    if (maxSize < 1) {
+      throw new IllegalArgumentException("maxSize must be positive");
+    }
+    maxSize_ = maxSize;
+  }
+
+  /** True if the transition (fromId, action, toId) can be packed. */
+  public static boolean canPack(int fromId, int action, int toId)
+  {
+    return (fromId & ~STATE_MASK) == 0 && (toId & ~STATE_MASK) == 0
+      && (action & ~ACTION_MASK) == 0;
+  }
+
+  /** Packs a transition (fromId, action, toId) into a long.
+   *  Equal transitions of the same model have equal packed forms.
+   */
+  public static long pack(int fromId, int action, int toId)
+  {
+    if ( ! canPack(fromId, action, toId)) {
+      throw new IllegalArgumentException("cannot pack transition ("
+          + fromId + ", " + action + ", " + toId + ")");
+    }
+    return ((long) fromId << (ACTION_BITS + STATE_BITS))
+      | ((long) action << STATE_BITS) | toId;
+  }
+
+  /** The start state number of a packed transition. */
+  public static int packedFrom(long transition)
+  {
+    return (int) (transition >>> (ACTION_BITS + STATE_BITS));
+  }
+
+  /** The action number of a packed transition. */
+  public static int packedAction(long transition)
+  {
+    return (int) ((transition >>> STATE_BITS) & ACTION_MASK);
+  }
+
+  /** The end state number of a packed transition. */
+  public static int packedTo(long transition)
+  {
+    return (int) (transition & STATE_MASK);
+  }
+}
@@ -55,6 +55,9 @@ public abstract class Tester
    */
   protected Random rand_ = new Random(FIXEDSEED);
 
+  /** Where buildGraph saves and reloads explored graphs, or null. */
+  private GraphCache graphCache_ = GraphCache.getDefault();
+
   /**
    *  Create a test generator for the given model.
    * @param model  Must be non-null.
@@ -112,6 +115,22 @@ public abstract class Tester
     rand_ = rand;
   }
 
+  /** The cache of explored graphs used by buildGraph, or null. */
+  public GraphCache getGraphCache()
+  {
+    return graphCache_;
+  }
+
+  /** Sets the cache of explored graphs that buildGraph uses.
+   *  The default is GraphCache.getDefault().
+   *
+   * @param cache A cache, or null to always explore the graph.
+   */
+  public void setGraphCache(GraphCache cache)
+  {
+    graphCache_ = cache;
+  }
+
   /**
    *  A convenience method for adding known listeners and coverage metrics.
    *  This is equivalent to <code>getModel().addListener(name)</code>.
@@ -210,6 +229,12 @@ public abstract class Tester
    *  (with FIXEDSEED) to avoid modifying the random number
    *  generator {@link #getRandom()} that is used for test generation.
    *  </p>
+   *  <p>
+   *  If there is a graph cache (see {@link #setGraphCache(GraphCache)}),
+   *  a saved graph of this model is loaded first, so exploration only
+   *  continues from its unexplored branches, if any.  The explored graph
+   *  is saved back into the cache before the flags are cleared.
+   *  </p>
    *  @param maxSteps An upper bound on the number of calls to generate,
    *              to avoid eternal exploration of large graphs.
    *  @param clear If this is true, the TODO and DONE flags on each
@@ -226,11 +251,26 @@ public abstract class Tester
     GraphListener graph = (GraphListener) model_.addListener("graph");
     boolean wasTesting = model_.setTesting(false);
     model_.doReset("Buildgraph");
-    do {
-      generate(10);
-      maxSteps -= 10;
+    boolean loaded = false;
+    CompactGraph compact = graph.getCompactGraph();
+    if (graphCache_ != null && compact.numEdges() == 0) {
+      loaded = graphCache_.load(graph);
+    }
+    int numStates = compact.numStates();
+    int numEdges = compact.numEdges();
+    if ( ! loaded || graph.numTodo() > 0) {
+      do {
+        generate(10);
+        maxSteps -= 10;
+      }
+      while (graph.numTodo() > 0 && maxSteps > 0);
+    }
+    // a SharedGraphListener's snapshot may lack the newest states.
+    compact = graph.getGraphToSave();
+    if (graphCache_ != null && ( ! loaded || compact.numStates() > numStates
+        || compact.numEdges() > numEdges)) {
+      graphCache_.save(graph);
     }
-    while (graph.numTodo() > 0 && maxSteps > 0);
 
     int todo = graph.numTodo();
     if (todo > 0) {
@@ -250,27 +290,23 @@ public abstract class Tester
     return graph;
   }
 
-  /** Generate a graph using a breadth-first approach with optimisations.
+  /** Explores the graph of the model systematically, in breadth-first order.
    *  <p>
-   *  Note that this method uses a fresh random number generator
-   *  (with FIXEDSEED) to avoid modifying the random number
-   *  generator {@link #getRandom()} that is used for test generation.
+   *  Unlike {@link #buildGraph(int, boolean)}, this does not rely on random
+   *  walks.  It expands the states in order of their distance from the
+   *  initial state, taking each of the isTodo actions of each state once
+   *  (see {@link GraphListener#isTodo(Object, int)}).
+   *  To go back to a state, it restores a snapshot of that state if
+   *  {@link #snapshot()} provides one, otherwise it resets the model and
+   *  replays the shortest known path to that state.  So for a deterministic
+   *  model, the number of actions taken is bounded by the number of
+   *  transitions times the depth of the graph.
    *  </p>
-   *  <p>
-   *  The approach taken by this method is to maintain two queues:
-   *  <ul>
-   *  <li>a high priority queue, consisting of actions and guards that have 
-   *      not previously been encountered, and</li>
-   *  <li>a low priority queue, consisting of transitions that have not 
-   *      previously been taken, and high-priority transitions beyond 
-   *      depth {@code maxDepth}.</li>
-   *  </ul>
-   *  </p>
-   *  <p>Note that this function is incomplete and will be available in a
-   *     subsequent release.</p>
    *
-   *  @param maxDepth An upper bound on the depth to explore, 
+   *  @param maxDepth An upper bound on the depth to explore,
    *            to avoid eternal exploration of large graphs.
+   *            Transitions are explored from the states that are
+   *            less than maxDepth transitions from the initial state.
    *  @param clear If this is true, the TODO and DONE flags on each
    *            transition of the graph are cleared after the graph is built.
    *            This is recommended, so that algorithms like GreedyTester
@@ -279,20 +315,128 @@ public abstract class Tester
    */
   public GraphListener buildGraphBreadthFirst(int maxDepth, boolean clear)
   {
-    Random old = rand_;
-    rand_ = new Random(FIXEDSEED);
     GraphListener graph = (GraphListener) model_.addListener("graph");
+    if (graph instanceof SharedGraphListener) {
+      throw new IllegalStateException(
+          "buildGraphBreadthFirst needs a private GraphListener");
+    }
     boolean wasTesting = model_.setTesting(false);
     model_.doReset("Buildgraph");
- 
+    BreadthFirstExplorer explorer = new BreadthFirstExplorer(this, graph);
+    explorer.explore(maxDepth);
+
+    int todo = graph.numTodo();
+    if (todo > 0) {
+      model_.printWarning("buildGraphBreadthFirst stopped with "
+          + graph.getGraph().numEdges() + " transitions and "
+          + graph.getGraph().numVertices() + " states, but "
+          + todo + " unexplored branches ("
+          + explorer.getUnreachable() + " states could not be replayed).");
+    }
     model_.setTesting(wasTesting);
     model_.doReset("Buildgraph");
     if (clear) {
       graph.clearDoneTodo();
     }
-
-    // restore the original random number generator.
-    rand_ = old;
     return graph;
   }
+
+  /** Explores the model breadth-first, like
+   *  {@link #buildGraphBreadthFirst(int, boolean)}, but records the states
+   *  in a memory-mapped store on disk instead of in a graph on the heap.
+   *  This can explore models that have far more states than would fit
+   *  in a GraphListener, but the result is only the set of states and
+   *  their done and enabled actions, not the transitions between them.
+   *  The model should not have a GraphListener (or other listeners that
+   *  keep every state) while this runs.  The model only numbers its states
+   *  if a listener needs the numbers (see {@link IntTransitionListener}),
+   *  and then its state interner is bounded by
+   *  {@link StateInterner#getMaxSize()}, and is cleared at the end.
+   *  <p>
+   *  The store identifies states by fingerprints, not by equals (see
+   *  {@link MappedStateStore#fingerprint(Model, Object, long[])}).  So
+   *  the states must be serializable, with equal states serializing to
+   *  the same bytes, unless the FSM model implements
+   *  {@link FingerprintableFsmModel}.
+   *  </p>
+   *
+   *  @param store    An empty store, with as many actions as the model.
+   *  @param maxDepth An upper bound on the depth to explore.
+   *  @return The number of transitions that were taken.
+   */
+  public long exploreMapped(MappedStateStore store, int maxDepth)
+  {
+    if (store.numActions() != model_.getNumActions() || store.size() > 0) {
+      throw new IllegalArgumentException("store must be empty and have "
+          + model_.getNumActions() + " actions");
+    }
+    boolean wasTesting = model_.setTesting(false);
+    model_.doReset("Buildgraph");
+    MappedExplorer explorer = new MappedExplorer(this, store);
+    explorer.explore(maxDepth);
+
+    long todo = store.numTodo();
+    if (todo > 0) {
+      model_.printWarning("exploreMapped stopped with "
+          + store.size() + " states, but "
+          + todo + " unexplored branches ("
+          + explorer.getUnreachable() + " states could not be replayed).");
+    }
+    model_.setTesting(wasTesting);
+    model_.doReset("Buildgraph");
+    StateInterner states = model_.getStateInterner();
+    if (states.size() > 0) {
+      // forget the states that listeners needed numbers for.
+      states.clear();
+    }
+    return explorer.getTransitions();
+  }
+
+  /** Saves the current state of the model (and the SUT), if possible.
+   *  This allows {@link #buildGraphBreadthFirst(int, boolean)} and some
+   *  testers to return to a state without resetting the model and
+   *  replaying a path.
+   *  <p>
+   *  The default implementation calls {@link Model#snapshot()}, so it
+   *  supports FSM models that implement {@link SnapshotableFsmModel},
+   *  and returns null for other models, which means that snapshots are
+   *  not supported.  Subclasses that override this must also override
+   *  {@link #restore(Object)}.
+   *  </p>
+   *
+   * @return A snapshot of the current state, or null.
+   */
+  protected Object snapshot()
+  {
+    return model_.snapshot();
+  }
+
+  /** Puts the model (and the SUT) back into a state that was saved by
+   *  {@link #snapshot()}.  The same snapshot may be restored many times.
+   *  The default implementation calls {@link Model#restore(Object)}.
+   *  Overrides may restore the FSM model some other way: the explorers
+   *  and testers that call this then call {@link Model#restoredState()},
+   *  so that the Model sees the new state.
+   *
+   * @param snapshot A non-null result of snapshot().
+   * @return true if the state was restored, false if it could not be.
+   */
+  protected boolean restore(Object snapshot)
+  {
+    return model_.restore(snapshot);
+  }
+
+  /** Calls {@link #restore(Object)}, then makes the Model read the
+   *  restored state of the FSM model, in case restore was overridden.
+   *
+   * @return true if the state was restored, false if it could not be.
+   */
+  boolean restoreSnapshot(Object snapshot)
+  {
+    if ( ! restore(snapshot)) {
+      return false;
+    }
+    model_.restoredState();
+    return true;
+  }
 }
@@ -0,0 +1,488 @@
+/**
+ Copyright (C) 2007 Mark Utting
+ This file is part of the CZT project.
+
+ The CZT project contains free software; you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation; either version 2 of the License, or
+ (at your option) any later version.
+
+ The CZT project is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with CZT; if not, write to the Free Software
+ Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package nz.ac.waikato.modeljunit;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.NotSerializableException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/** Records the test sequence since the last reset of a Model.
+ *  <p>
+ *  Each step is stored as the action number, the state that it reached
+ *  and an optional int tag, rather than as a Transition object.
+ *  Transition objects are only created when the sequence is asked for,
+ *  for example when a test fails.
+ *  </p>
+ *  <p>
+ *  By default, all the steps are kept.  If a depth is set (see
+ *  {@link #setDepth(int)}), only the most recent steps are kept in a ring
+ *  buffer, and the trace keeps no reference to the states of older steps,
+ *  so memory use stays flat however long a walk is.  The older steps are
+ *  then forgotten, unless spilling is turned on (see
+ *  {@link #setSpill(boolean)}), in which case they are appended to a
+ *  temporary file, states and all, and read back when the sequence is
+ *  asked for.
+ *  </p>
+ */
+public class TraceStore
+{
+  /** The depth that means that all steps are kept in memory. */
+  public static final int UNBOUNDED = Integer.MAX_VALUE;
+
+  /** How many steps are written to the spill file between resets of
+   *  its object stream, which would otherwise keep every state that it
+   *  has written. */
+  private static final int SPILL_RESET = 1024;
+
+  private final Model model_;
+
+  private int depth_ = UNBOUNDED;
+
+  /** The action, end state and tag of each step in the ring buffer.
+   *  tags_ is null until the first non-zero tag is added. */
+  private int[] actions_ = new int[16];
+  private Object[] ends_ = new Object[16];
+  private int[] tags_ = null;
+
+  /** The position in the buffer of the oldest step that it holds. */
+  private int head_ = 0;
+
+  /** The number of steps in the buffer. */
+  private int count_ = 0;
+
+  /** The state where the sequence started, if it is still needed to
+   *  read the spill file, else null. */
+  private Object start_;
+
+  /** The state where the oldest step in the buffer started. */
+  private Object bufferStart_;
+
+  /** The number of steps that were evicted from the buffer. */
+  private long evicted_ = 0;
+
+  private boolean spill_ = false;
+
+  /** The file that evicted steps are written to, if spilling. */
+  private File spillFile_;
+
+  private ObjectOutputStream spillOut_;
+
+  /** The number of evicted steps that are in the spill file. */
+  private long spilled_ = 0;
+
+  /** The result of the last save() or load(), if its steps are still
+   *  the first steps in the buffer, else null.  The next save() only
+   *  copies the steps after those, and shares the rest with this. */
+  private Saved lastSaved_;
+
+  /** Creates an empty trace for the given model.
+   *  The model is used to get the names of the actions.
+   */
+  public TraceStore(Model model)
+  {
+    model_ = model;
+  }
+
+  /** The maximum number of steps that are kept in memory. */
+  public int getDepth()
+  {
+    return depth_;
+  }
+
+  /** Sets the maximum number of steps that are kept in memory.
+   *  If the trace already holds more steps, the oldest are evicted.
+   *
+   * @param depth At least 1, or UNBOUNDED (the default).
+   */
+  public void setDepth(int depth)
+  {
+    if (depth < 1) {
+      throw new IllegalArgumentException("depth must be positive");
+    }
+    depth_ = depth;
+    while (count_ > depth_) {
+      evictOldest();
+    }
+    if (actions_.length > depth_) {
+      resize(Math.max(count_, 1));
+    }
+  }
+
+  public boolean getSpill()
+  {
+    return spill_;
+  }
+
+  /** If spill is true, steps that are evicted from the ring buffer are
+   *  written to a temporary file, so that the whole sequence since the
+   *  last reset is still available.  This only has an effect when a
+   *  depth has been set.  Turning spilling on only affects the steps
+   *  that are evicted afterwards.
+   *  <p>
+   *  The states are written with Java serialization.  If a state is not
+   *  Serializable, the spill file is discarded, and the steps that were
+   *  in it are dropped, as if spilling had been off.
+   *  </p>
+   */
+  public void setSpill(boolean spill)
+  {
+    if (spill == spill_) {
+      return;
+    }
+    spill_ = spill;
+    if ( ! spill) {
+      closeSpill();
+    }
+  }
+
+  /** Starts a new, empty sequence from the given state. */
+  public void clear(Object start)
+  {
+    for (int i = 0; i < count_; i++) {
+      ends_[(head_ + i) % ends_.length] = null;
+    }
+    head_ = 0;
+    count_ = 0;
+    evicted_ = 0;
+    lastSaved_ = null;
+    start_ = start;
+    bufferStart_ = start;
+    if (spilled_ > 0) {
+      // truncate the spill file, rather than appending to it forever.
+      closeSpill();
+    }
+  }
+
+  /** Records one step, which took the given action and reached the
+   *  given state.
+   */
+  public void add(int action, Object end)
+  {
+    add(action, end, 0);
+  }
+
+  /** Records one step, with an extra tag, such as the time of the step
+   *  in a timed model.  The tag is passed to newTransition.
+   */
+  public void add(int action, Object end, int tag)
+  {
+    if (count_ == depth_) {
+      evictOldest();
+    }
+    if (count_ == actions_.length) {
+      resize((int) Math.min((long) depth_, 2L * actions_.length));
+    }
+    int pos = (head_ + count_) % actions_.length;
+    actions_[pos] = action;
+    ends_[pos] = end;
+    if (tag != 0 && tags_ == null) {
+      tags_ = new int[actions_.length];
+    }
+    if (tags_ != null) {
+      tags_[pos] = tag;
+    }
+    count_++;
+  }
+
+  /** The number of steps recorded since the last clear,
+   *  including those that have been evicted from memory.
+   */
+  public long size()
+  {
+    return evicted_ + count_;
+  }
+
+  /** The number of steps at the start of the sequence that have been
+   *  forgotten, because they were evicted and not spilled.
+   */
+  public long numDropped()
+  {
+    return evicted_ - spilled_;
+  }
+
+  /** The number of steps that are held in memory. */
+  public int numBuffered()
+  {
+    return count_;
+  }
+
+  /** Returns the recorded sequence, except for any dropped steps.
+   *  The result is a new, unmodifiable list, which does not change as
+   *  more steps are recorded.
+   */
+  public List<Transition> getSequence()
+  {
+    List<Transition> result = new ArrayList<Transition>(
+        (int) Math.min(spilled_ + count_, Integer.MAX_VALUE - 8));
+    Object prev = readSpill(result);
+    for (int i = 0; i < count_; i++) {
+      int pos = (head_ + i) % actions_.length;
+      result.add(newTransition(prev, actions_[pos], ends_[pos],
+          tags_ == null ? 0 : tags_[pos]));
+      prev = ends_[pos];
+    }
+    return Collections.unmodifiableList(result);
+  }
+
+  /** Creates the Transition object for one step.
+   *  Subclasses can override this to create other kinds of transition.
+   */
+  protected Transition newTransition(Object start, int action, Object end,
+      int tag)
+  {
+    return new Transition(start, model_.getActionName(action), end);
+  }
+
+  /** Saves the steps that are in memory, so that they can be put back by
+   *  {@link #load(Saved)}.  Dropped and spilled steps are not saved.
+   *  <p>
+   *  If no steps have been evicted since the last save() or load(), the
+   *  result only holds the steps added since then, and shares the earlier
+   *  ones with the result of that save() or load().  So saving the trace
+   *  at every state of a search tree takes memory proportional to the
+   *  number of saves, rather than to the number of saves times the depth.
+   *  </p>
+   */
+  public Saved save()
+  {
+    Saved parent = null;
+    int from = 0;
+    if (lastSaved_ != null && evicted_ == 0 && lastSaved_.size_ <= count_) {
+      parent = lastSaved_;
+      from = parent.size_;
+      if (from == count_) {
+        return parent;
+      }
+    }
+    Saved result = new Saved(parent, bufferStart_, evicted_, count_ - from);
+    for (int i = from; i < count_; i++) {
+      int pos = (head_ + i) % actions_.length;
+      result.actions_[i - from] = actions_[pos];
+      result.ends_[i - from] = ends_[pos];
+      result.tags_[i - from] = tags_ == null ? 0 : tags_[pos];
+    }
+    lastSaved_ = result;
+    return result;
+  }
+
+  /** Replaces the sequence by steps that were saved by save().
+   *  The steps that had been evicted before the save are now counted
+   *  as dropped.
+   */
+  public void load(Saved saved)
+  {
+    List<Saved> chain = new ArrayList<Saved>();
+    for (Saved s = saved; s != null; s = s.parent_) {
+      chain.add(s);
+    }
+    Collections.reverse(chain);
+    clear(saved.start_);
+    evicted_ = saved.evicted_;
+    if (evicted_ > 0) {
+      start_ = null;
+    }
+    for (Saved s : chain) {
+      for (int i = 0; i < s.actions_.length; i++) {
+        add(s.actions_[i], s.ends_[i], s.tags_[i]);
+      }
+    }
+    lastSaved_ = evicted_ == 0 ? saved : null;
+  }
+
+  /** Deletes the spill file, if any. */
+  public void close()
+  {
+    closeSpill();
+  }
+
+  private void resize(int capacity)
+  {
+    int[] actions = new int[capacity];
+    Object[] ends = new Object[capacity];
+    int[] tags = tags_ == null ? null : new int[capacity];
+    for (int i = 0; i < count_; i++) {
+      int pos = (head_ + i) % actions_.length;
+      actions[i] = actions_[pos];
+      ends[i] = ends_[pos];
+      if (tags != null) {
+        tags[i] = tags_[pos];
+      }
+    }
+    actions_ = actions;
+    ends_ = ends;
+    tags_ = tags;
+    head_ = 0;
+  }
+
+  private void evictOldest()
+  {
+    int pos = head_;
+    if (spill_ && spilled_ == evicted_) {
+      // spill only while the file holds every evicted step.
+      spillStep(actions_[pos], ends_[pos], tags_ == null ? 0 : tags_[pos]);
+    }
+    if (spilled_ == 0) {
+      // the start state is only needed to read the spill file.
+      start_ = null;
+    }
+    bufferStart_ = ends_[pos];
+    ends_[pos] = null;
+    lastSaved_ = null;
+    head_ = (head_ + 1) % actions_.length;
+    count_--;
+    evicted_++;
+  }
+
+  private void spillStep(int action, Object end, int tag)
+  {
+    try {
+      if (spillOut_ == null) {
+        openSpill();
+      }
+      if (spilled_ % SPILL_RESET == 0) {
+        spillOut_.reset();
+      }
+      spillOut_.writeInt(action);
+      spillOut_.writeInt(tag);
+      spillOut_.writeObject(end);
+      spilled_++;
+    }
+    catch (NotSerializableException ex) {
+      closeSpill();
+    }
+    catch (IOException ex) {
+      throw new RuntimeException("cannot write trace spill file", ex);
+    }
+  }
+
+  private void openSpill() throws IOException
+  {
+    if (spillFile_ == null) {
+      spillFile_ = File.createTempFile("modeljunit-trace", ".bin");
+      spillFile_.deleteOnExit();
+    }
+    spillOut_ = new ObjectOutputStream(new BufferedOutputStream(
+        new FileOutputStream(spillFile_)));
+    spilled_ = 0;
+  }
+
+  private void closeSpill()
+  {
+    if (spillOut_ != null) {
+      try {
+        spillOut_.close();
+      }
+      catch (IOException ex) {
+        // we are discarding the file anyway
+      }
+      spillOut_ = null;
+    }
+    if (spillFile_ != null) {
+      spillFile_.delete();
+      spillFile_ = null;
+    }
+    spilled_ = 0;
+    if (evicted_ > 0) {
+      start_ = null;
+    }
+  }
+
+  /** Adds the spilled steps (if any) to result.
+   *
+   * @return The state where the steps in the buffer start.
+   */
+  private Object readSpill(List<Transition> result)
+  {
+    if (spilled_ == 0) {
+      return bufferStart_;
+    }
+    Object prev = start_;
+    try {
+      spillOut_.flush();
+      ObjectInputStream in = new ObjectInputStream(new BufferedInputStream(
+          new FileInputStream(spillFile_)));
+      try {
+        for (long i = 0; i < spilled_; i++) {
+          int action = in.readInt();
+          int tag = in.readInt();
+          Object end = in.readObject();
+          result.add(newTransition(prev, action, end, tag));
+          prev = end;
+        }
+      }
+      finally {
+        in.close();
+      }
+    }
+    catch (IOException ex) {
+      throw new RuntimeException("cannot read trace spill file", ex);
+    }
+    catch (ClassNotFoundException ex) {
+      throw new RuntimeException("cannot read trace spill file", ex);
+    }
+    return prev;
+  }
+
+  @Override
+  public String toString()
+  {
+    return getSequence().toString();
+  }
+
+  /** The steps of a trace that were saved by {@link TraceStore#save()}.
+   *  These are the steps of the parent (if any), followed by the steps
+   *  held by this object.
+   */
+  public static class Saved
+  {
+    private final Saved parent_;
+    private final Object start_;
+    private final long evicted_;
+    private final int[] actions_;
+    private final Object[] ends_;
+    private final int[] tags_;
+    private final int size_;
+
+    private Saved(Saved parent, Object start, long evicted, int steps)
+    {
+      parent_ = parent;
+      start_ = start;
+      evicted_ = evicted;
+      actions_ = new int[steps];
+      ends_ = new Object[steps];
+      tags_ = new int[steps];
+      size_ = (parent == null ? 0 : parent.size_) + steps;
+    }
+
+    /** The number of saved steps. */
+    public int size()
+    {
+      return size_;
+    }
+  }
+}
@@ -19,7 +19,6 @@
 
 package nz.ac.waikato.modeljunit.coverage;
 
-import java.util.HashMap;
 import java.util.Map;
 
 import nz.ac.waikato.jdsl.graph.api.Edge;
@@ -30,9 +29,9 @@ import nz.ac.waikato.modeljunit.Transition;
 
 /**
  * A partial implementation of CoverageMetric. This maintains the map from Object to Integer, and calculates the
- * coverage metrics from that. Note that currCoverage_ is the number of keys in the coverage_ map that have non-zero
- * values. (The {@link #addItem(Object) addItem} and {@link #incrementItem(Object) incrementItem} methods maintain this
- * invariant.)
+ * coverage metrics from that. The counts are kept in a {@link CoverageCounters} table, which gives each item a dense
+ * slot number and updates its count atomically, so one metric can be updated by several walkers at once, and
+ * subclasses can increment a known slot without any allocation (see {@link #incrementSlot(int)}).
  * <p>
  * Subclasses must implement the setGraph method so that it calls {@link #addItem(Object) addItem} for every item in the
  * FSM graph. After doing this, it should also set maxCoverage_ to coverage_.size(). Subclasses must also implement
@@ -40,15 +39,22 @@ import nz.ac.waikato.modeljunit.Transition;
  * course, they must also implement <code>getName()</code> and <code>getDescription()</code> so that this metric has a
  * meaningful name and some documentation.
  * </p>
+ * <p>
+ * Metrics that keep no per-walker state, like ActionCoverage and TransitionCoverage, can be added to several models
+ * and updated by their walkers concurrently.
+ * </p>
  */
 public abstract class AbstractCoverage extends AbstractListener implements CoverageMetric {
+    /** The number of times each item has been covered. */
+    protected final/*@non_null@*/CoverageCounters counters_ = new CoverageCounters();
+
     /**
-     * Records the number of times each item has been covered. If possible, all changes to this field should be done via
+     * Records the number of times each item has been covered. This is a view of {@code counters_}, so putting a count
+     * into it updates the counters, but items cannot be removed from it. If possible, all changes should be done via
      * the methods {@link #clear() reset}, {@link #addItem(Object) addItem} and {@link #incrementItem(Object)
-     * incrementItem}, because they preserve the invariant that currCoverage_ is the number of non-zero entries in the
-     * {@code coverage_} map.
+     * incrementItem}.
      */
-    protected/*@non_null@*/Map<Object, Integer> coverage_;
+    protected final/*@non_null@*/Map<Object, Integer> coverage_ = counters_.asMap();
 
     /**
      * The maximum number of coverage items. This is typically -1 (which means unknown) until setModel is called, then
@@ -58,32 +64,27 @@ public abstract class AbstractCoverage extends AbstractListener implements Cover
 
     /**
      * The number of items that have been 'covered'. This is equal to the number of non-zero entries in
-     * {@code coverage_}.
+     * {@code coverage_}, as it was after the last change made by the methods of this class. It is kept for subclasses
+     * that read it, but {@link #getCoverage()} no longer uses it, so changing it has no effect.
      */
     protected int currCoverage_ = 0;
 
     /**
-     * This default constructor sets up the {@code coverage_} map, sets {@code maxCoverage=-1} (meaning unknown), and
-     * sets {@code currCoverage_=0}.
+     * This default constructor sets {@code maxCoverage=-1} (meaning unknown).
      */
     public AbstractCoverage() {
         maxCoverage_ = -1; // means maximum is unknown
-        currCoverage_ = 0;
-        coverage_ = new HashMap<Object, Integer>();
     }
 
     /**
      * {@inheritDoc}
      * <p>
-     * The default implementation iterates through the coverage_ map and resets all counts to zero, and also resets
-     * currCoverage_ to zero, to maintain the invariant.
+     * The default implementation resets all counts to zero, but keeps the items.
      * </p>
      */
     public void clear() {
-        for (Object key : coverage_.keySet()) {
-            coverage_.put(key, 0);
-        }
-        currCoverage_ = 0; // maintain the invariant.
+        counters_.clear();
+        currCoverage_ = counters_.covered();
     }
 
     /**
@@ -96,8 +97,27 @@ public abstract class AbstractCoverage extends AbstractListener implements Cover
      *            The object that is to be added to the coverage_ map.
      */
     protected void addItem(Object item) {
-        if (!coverage_.containsKey(item))
-            coverage_.put(item, 0);
+        counters_.addItem(item);
+    }
+
+    /**
+     * Like {@link #addItem(Object)}, but returns the slot number of the item, which can be passed to
+     * {@link #incrementSlot(int)}.
+     */
+    protected int addSlot(Object item) {
+        return counters_.addItem(item);
+    }
+
+    /**
+     * Increments the count of the item in the given slot. This is the allocation-free form of incrementItem.
+     * 
+     * @param slot
+     *            A slot number returned by {@link #addSlot(Object)}.
+     */
+    protected void incrementSlot(int slot) {
+        if (counters_.increment(slot, 1) == 0) {
+            currCoverage_ = counters_.covered();
+        }
     }
 
     /**
@@ -111,20 +131,45 @@ public abstract class AbstractCoverage extends AbstractListener implements Cover
      *            The object that has just been 'covered'.
      */
     protected void incrementItem(Object item) {
-        Integer result = coverage_.get(item);
-        if (result == null) {
-            result = 1;
-            currCoverage_++; // it is a new (non-zero) entry.
-        } else {
-            if (result == 0)
-                currCoverage_++; // it is changing from zero to non-zero.
-            result++;
+        incrementItem(item, 1);
+    }
+
+    /**
+     * Adds {@code count} to the count of {@code item} in the {@code coverage_} map. If item was not already in the
+     * map, then it is added to the map and its value is set to count.
+     * 
+     * @param item
+     *            The object that has just been 'covered'.
+     * @param count
+     *            A positive number of times that item has been covered.
+     */
+    protected void incrementItem(Object item, int count) {
+        if (counters_.increment(item, count) == 0) {
+            currCoverage_ = counters_.covered();
         }
-        coverage_.put(item, result);
+    }
+
+    /**
+     * Adds the items and counts of another coverage metric into this one. This is used to combine the coverage
+     * obtained by several test generators that test the same model independently (see ParallelTester).
+     * 
+     * @param other
+     *            A metric of the same kind as this one.
+     */
+    public void merge(CoverageMetric other) {
+        for (Map.Entry<Object, Integer> entry : other.getDetails().entrySet()) {
+            int count = entry.getValue();
+            if (count == 0) {
+                addItem(entry.getKey());
+            } else {
+                incrementItem(entry.getKey(), count);
+            }
+        }
+        maxCoverage_ = Math.max(maxCoverage_, other.getMaximum());
     }
 
     public int getCoverage() {
-        return currCoverage_;
+        return counters_.covered();
     }
 
     /**
@@ -147,10 +192,25 @@ public abstract class AbstractCoverage extends AbstractListener implements Cover
         }
     }
 
+    /** Returns a read-only view of the counts, which changes as more items are covered. */
     public Map<Object, Integer> getDetails() {
         return coverage_;
     }
 
+    /**
+     * Returns the slot number of {@code item}, or -1 if it is not one of the coverage items yet. A slot never changes
+     * once it has been given, so callers can look it up once and then use {@link #getSlotCount(int)} to read the
+     * current count of that item without any allocation.
+     */
+    public int getSlot(Object item) {
+        return counters_.getSlot(item);
+    }
+
+    /** The current count of the item in the given slot (see {@link #getSlot(Object)}). */
+    public int getSlotCount(int slot) {
+        return counters_.getCount(slot);
+    }
+
     public String toString() {
         int max = getMaximum();
         if (max < 0) {
@@ -19,6 +19,7 @@ Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
 
 package nz.ac.waikato.modeljunit.coverage;
 
+import java.util.Arrays;
 import java.util.Map;
 
 import nz.ac.waikato.jdsl.graph.api.Edge;
@@ -31,6 +32,9 @@ import nz.ac.waikato.modeljunit.Transition;
  * Measures the number of distinct Actions that have been tested.
  */
 public class ActionCoverage extends AbstractCoverage {
+    /** The slot of each action number, or -1 if that action has no slot yet. */
+    private volatile int[] actionSlots_ = new int[0];
+
     public String getName() {
         return "action coverage";
     }
@@ -49,13 +53,35 @@ public class ActionCoverage extends AbstractCoverage {
 
     @Override
     public void doneTransition(int action, Transition tr) {
-        incrementItem(tr.getAction());
+        int[] slots = actionSlots_;
+        int slot = action < slots.length ? slots[action] : -1;
+        if (slot < 0) {
+            slot = addSlot(tr.getAction());
+            cacheSlot(action, slot);
+        }
+        incrementSlot(slot);
+    }
+
+    private synchronized void cacheSlot(int action, int slot) {
+        int[] slots = actionSlots_;
+        if (action >= slots.length) {
+            int[] bigger = new int[action + 1];
+            Arrays.fill(bigger, -1);
+            System.arraycopy(slots, 0, bigger, 0, slots.length);
+            slots = bigger;
+        } else {
+            slots = slots.clone();
+        }
+        slots[action] = slot;
+        actionSlots_ = slots;
     }
 
     @Override
     public void setGraph(InspectableGraph model, Map<Object, Vertex> state2vertex) {
         // TODO: this will not be needed once model_ is never null.
-
+        if (model_ != null) {
+            counters_.ensureCapacity(model_.getNumActions());
+        }
         for (EdgeIterator iter = model.edges(); iter.hasNext();) {
             Edge e = iter.nextEdge();
             addItem(e.element()); // get the FSM state object.
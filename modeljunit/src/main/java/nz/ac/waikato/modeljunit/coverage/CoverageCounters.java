@@ -0,0 +1,249 @@
+/**
+ Copyright (C) 2006 Mark Utting
+ This file is part of the CZT project.
+
+ The CZT project contains free software; you can redistribute it and/or
+ modify it under the terms of the GNU General Public License as published
+ by the Free Software Foundation; either version 2 of the License, or
+ (at your option) any later version.
+
+ The CZT project is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with CZT; if not, write to the Free Software
+ Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package nz.ac.waikato.modeljunit.coverage;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * A thread-safe table of coverage counts. Each coverage item is given a dense slot number when it is first added, and
+ * the counts are kept in blocks of atomic ints, indexed by slot number. Once an item has a slot, incrementing its count
+ * does not allocate or lock anything, so many walkers can update the same counters concurrently.
+ * <p>
+ * The blocks are never copied when the table grows (only the small directory of blocks is), so concurrent increments
+ * are never lost. Adding a new item takes a lock, but that is rare once the graph of the model is known, and
+ * {@link #ensureCapacity(int)} can be used to allocate all the blocks in advance.
+ * </p>
+ */
+public class CoverageCounters {
+    /** The number of counts in each block. */
+    private static final int BLOCK_BITS = 10;
+
+    private static final int BLOCK_SIZE = 1 << BLOCK_BITS;
+
+    /** Maps each item to its slot number. */
+    private final ConcurrentHashMap<Object, Integer> slots_ = new ConcurrentHashMap<Object, Integer>();
+
+    /** The items, indexed by slot number (in the same blocks as the counts). */
+    private volatile Object[][] items_ = new Object[0][];
+
+    /** The counts, indexed by slot number. */
+    private volatile AtomicIntegerArray[] counts_ = new AtomicIntegerArray[0];
+
+    /** The number of slots in use. */
+    private volatile int size_ = 0;
+
+    /** The number of slots with a non-zero count. */
+    private final AtomicInteger covered_ = new AtomicInteger();
+
+    /** The number of items that have a slot. */
+    public int size() {
+        return size_;
+    }
+
+    /** The number of items whose count is not zero. */
+    public int covered() {
+        return covered_.get();
+    }
+
+    /** Allocates enough blocks for at least the given number of items. */
+    public synchronized void ensureCapacity(int items) {
+        int blocks = (items + BLOCK_SIZE - 1) >>> BLOCK_BITS;
+        if (blocks > counts_.length) {
+            Object[][] items2 = new Object[blocks][];
+            AtomicIntegerArray[] counts2 = new AtomicIntegerArray[blocks];
+            System.arraycopy(items_, 0, items2, 0, items_.length);
+            System.arraycopy(counts_, 0, counts2, 0, counts_.length);
+            for (int b = counts_.length; b < blocks; b++) {
+                items2[b] = new Object[BLOCK_SIZE];
+                counts2[b] = new AtomicIntegerArray(BLOCK_SIZE);
+            }
+            items_ = items2;
+            counts_ = counts2;
+        }
+    }
+
+    /**
+     * Returns the slot number of item, or -1 if it has not been added.
+     */
+    public int getSlot(Object item) {
+        Integer slot = slots_.get(item);
+        return slot == null ? -1 : slot;
+    }
+
+    /**
+     * Returns the slot number of item, adding it with a zero count if necessary.
+     */
+    public int addItem(Object item) {
+        Integer slot = slots_.get(item);
+        if (slot == null) {
+            slot = add(item);
+        }
+        return slot;
+    }
+
+    private synchronized int add(Object item) {
+        Integer slot = slots_.get(item);
+        if (slot == null) {
+            int size = size_;
+            ensureCapacity(size + 1);
+            items_[size >>> BLOCK_BITS][size & (BLOCK_SIZE - 1)] = item;
+            slot = size;
+            size_ = size + 1; // publishes the item before its slot
+            slots_.put(item, slot);
+        }
+        return slot;
+    }
+
+    /** The item in the given slot. */
+    public Object getItem(int slot) {
+        return items_[slot >>> BLOCK_BITS][slot & (BLOCK_SIZE - 1)];
+    }
+
+    /** The count of the given slot. */
+    public int getCount(int slot) {
+        return counts_[slot >>> BLOCK_BITS].get(slot & (BLOCK_SIZE - 1));
+    }
+
+    /**
+     * Adds count to the count of the given slot.
+     *
+     * @param slot
+     *            A slot number returned by addItem.
+     * @param count
+     *            A positive number of times that the item has been covered.
+     * @return The previous count of the slot.
+     */
+    public int increment(int slot, int count) {
+        int old = counts_[slot >>> BLOCK_BITS].getAndAdd(slot & (BLOCK_SIZE - 1), count);
+        if (old == 0) {
+            covered_.incrementAndGet();
+        }
+        return old;
+    }
+
+    /**
+     * Sets the count of the given slot, and returns its previous count.
+     */
+    public int set(int slot, int count) {
+        int old = counts_[slot >>> BLOCK_BITS].getAndSet(slot & (BLOCK_SIZE - 1), count);
+        if (old == 0 && count != 0) {
+            covered_.incrementAndGet();
+        } else if (old != 0 && count == 0) {
+            covered_.decrementAndGet();
+        }
+        return old;
+    }
+
+    /** Adds count to the count of item, adding it if necessary, and returns its previous count. */
+    public int increment(Object item, int count) {
+        return increment(addItem(item), count);
+    }
+
+    /**
+     * Resets all the counts to zero. The items keep their slots. Increments that happen during the clear may or may not
+     * be counted.
+     */
+    public synchronized void clear() {
+        AtomicIntegerArray[] counts = counts_;
+        int size = size_;
+        for (int slot = 0; slot < size; slot++) {
+            if (counts[slot >>> BLOCK_BITS].getAndSet(slot & (BLOCK_SIZE - 1), 0) != 0) {
+                covered_.decrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Returns a Map view of these counters, from each item to its count. The view always reflects the current counts,
+     * and iterates through the items in slot order. Its put method sets the count of an item (adding the item if
+     * necessary), but items cannot be removed, because slots are never reused.
+     */
+    public Map<Object, Integer> asMap() {
+        return new CountsMap();
+    }
+
+    private class CountsMap extends AbstractMap<Object, Integer> {
+        @Override
+        public int size() {
+            return size_;
+        }
+
+        @Override
+        public boolean containsKey(Object item) {
+            return slots_.containsKey(item);
+        }
+
+        @Override
+        public Integer get(Object item) {
+            int slot = getSlot(item);
+            return slot < 0 ? null : Integer.valueOf(getCount(slot));
+        }
+
+        @Override
+        public Integer put(Object item, Integer count) {
+            boolean added = !slots_.containsKey(item);
+            int old = set(addItem(item), count);
+            return added ? null : Integer.valueOf(old);
+        }
+
+        @Override
+        public Set<Map.Entry<Object, Integer>> entrySet() {
+            return new AbstractSet<Map.Entry<Object, Integer>>() {
+                @Override
+                public int size() {
+                    return size_;
+                }
+
+                @Override
+                public Iterator<Map.Entry<Object, Integer>> iterator() {
+                    final int size = size_;
+                    return new Iterator<Map.Entry<Object, Integer>>() {
+                        private int next_ = 0;
+
+                        public boolean hasNext() {
+                            return next_ < size;
+                        }
+
+                        public Map.Entry<Object, Integer> next() {
+                            if (next_ >= size) {
+                                throw new NoSuchElementException();
+                            }
+                            int slot = next_++;
+                            return new AbstractMap.SimpleImmutableEntry<Object, Integer>(getItem(slot),
+                                            getCount(slot));
+                        }
+
+                        public void remove() {
+                            throw new UnsupportedOperationException("coverage items cannot be removed");
+                        }
+                    };
+                }
+            };
+        }
+    }
+}
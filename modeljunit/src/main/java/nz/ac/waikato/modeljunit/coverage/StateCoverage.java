@@ -47,6 +47,7 @@ public class StateCoverage extends AbstractCoverage {
 
     @Override
     public void setGraph(InspectableGraph model, Map<Object, Vertex> state2vertex) {
+        counters_.ensureCapacity(model.numVertices());
         for (VertexIterator iter = model.vertices(); iter.hasNext();) {
             Vertex v = iter.nextVertex();
             addItem(v.element()); // get the FSM state object.
@@ -20,17 +20,37 @@ Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
 package nz.ac.waikato.modeljunit.coverage;
 
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
 
 import nz.ac.waikato.jdsl.graph.api.Edge;
 import nz.ac.waikato.jdsl.graph.api.EdgeIterator;
 import nz.ac.waikato.jdsl.graph.api.InspectableGraph;
 import nz.ac.waikato.jdsl.graph.api.Vertex;
+import nz.ac.waikato.modeljunit.IntTransitionListener;
+import nz.ac.waikato.modeljunit.LongIntMap;
+import nz.ac.waikato.modeljunit.Model;
+import nz.ac.waikato.modeljunit.StateInterner;
 import nz.ac.waikato.modeljunit.Transition;
 
 /**
  * Measures the number of Transitions that have been tested.
+ * <p>
+ * The transitions of the first model that sends this metric an int-based doneTransition event are looked up by their
+ * packed state and action numbers, so no Transition object is created once a transition has been seen. Transitions
+ * from any other model are counted via their Transition objects, so this metric can still be shared by several
+ * models.
+ * </p>
  */
-public class TransitionCoverage extends AbstractCoverage {
+public class TransitionCoverage extends AbstractCoverage implements IntTransitionListener {
+    /** The model whose packed transitions are the keys of slots_. */
+    private final AtomicReference<Model> owner_ = new AtomicReference<Model>();
+
+    /** The slot of each transition of owner_, keyed by its packed form. */
+    private final LongIntMap slots_ = new LongIntMap();
+
+    /** The generation of the state interner of owner_ that slots_ belongs to. */
+    private int generation_ = 0;
+
     public String getName() {
         return "transition coverage";
     }
@@ -41,6 +61,7 @@ public class TransitionCoverage extends AbstractCoverage {
 
     @Override
     public void setGraph(InspectableGraph model, Map<Object, Vertex> state2vertex) {
+        counters_.ensureCapacity(model.numEdges());
         for (EdgeIterator iter = model.edges(); iter.hasNext();) {
             Edge e = iter.nextEdge();
             Object origin = model.origin(e).element();
@@ -56,4 +77,25 @@ public class TransitionCoverage extends AbstractCoverage {
     public void doneTransition(int action, Transition tr) {
         incrementItem(tr);
     }
+
+    public void doneTransition(Model model, int fromId, int action, int toId) {
+        if (!StateInterner.canPack(fromId, action, toId)
+                        || owner_.get() != model && !owner_.compareAndSet(null, model)) {
+            incrementItem(model.getTransition(fromId, action, toId));
+            return;
+        }
+        int generation = model.getStateInterner().getGeneration();
+        if (generation != generation_) {
+            // the state numbers have changed, but the slots have not.
+            slots_.clear();
+            generation_ = generation;
+        }
+        long key = StateInterner.pack(fromId, action, toId);
+        int slot = slots_.get(key);
+        if (slot == LongIntMap.NONE) {
+            slot = addSlot(model.getTransition(fromId, action, toId));
+            slots_.put(key, slot);
+        }
+        incrementSlot(slot);
+    }
 }
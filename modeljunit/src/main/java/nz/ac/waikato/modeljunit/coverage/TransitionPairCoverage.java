@@ -19,7 +19,11 @@ Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
 
 package nz.ac.waikato.modeljunit.coverage;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
 
 import nz.ac.waikato.jdsl.graph.api.Edge;
 import nz.ac.waikato.jdsl.graph.api.EdgeDirection;
@@ -27,16 +31,50 @@ import nz.ac.waikato.jdsl.graph.api.EdgeIterator;
 import nz.ac.waikato.jdsl.graph.api.InspectableGraph;
 import nz.ac.waikato.jdsl.graph.api.Vertex;
 import nz.ac.waikato.jdsl.graph.api.VertexIterator;
+import nz.ac.waikato.modeljunit.IntTransitionListener;
+import nz.ac.waikato.modeljunit.LongIntMap;
+import nz.ac.waikato.modeljunit.Model;
+import nz.ac.waikato.modeljunit.StateInterner;
 import nz.ac.waikato.modeljunit.Transition;
 import nz.ac.waikato.modeljunit.TransitionPair;
 
 /**
  * Measures the number of distinct Actions that have been tested.
+ * <p>
+ * Like TransitionCoverage, this looks up the transitions of the first model that sends it int-based events by their
+ * packed form, and gives each one a dense number, so that each pair can be looked up by one long key.
+ * </p>
  */
-public class TransitionPairCoverage extends AbstractCoverage {
+public class TransitionPairCoverage extends AbstractCoverage implements IntTransitionListener {
     /** The current state of the FSM. */
     Transition lastTransition_ = null;
 
+    /**
+     * The slot of each known pair, indexed by its first and then its second transition. This lets doneTransition find
+     * the slot of a pair without creating a TransitionPair object.
+     */
+    private final Map<Transition, Map<Transition, Integer>> pairSlots_ =
+                    new ConcurrentHashMap<Transition, Map<Transition, Integer>>();
+
+    /** The model whose state numbers are used by the maps below. */
+    private final AtomicReference<Model> owner_ = new AtomicReference<Model>();
+
+    /** The number of each transition of owner_, keyed by its packed form. */
+    private final LongIntMap transitionIds_ = new LongIntMap();
+
+    /** The transitions of owner_, indexed by their number. */
+    private final List<Transition> transitions_ = new ArrayList<Transition>();
+
+    /** The slot of each pair, keyed by the numbers of its two transitions. */
+    private final LongIntMap pairIds_ = new LongIntMap();
+
+    /** The generation of the state interner of owner_ that the maps above belong to. */
+    private int generation_ = 0;
+
+    /** The number of the last transition of owner_ (or -1), and its end state. */
+    private int lastId_ = -1;
+    private int lastTo_ = -1;
+
     public String getName() {
         return "transition-pair coverage";
     }
@@ -48,6 +86,12 @@ public class TransitionPairCoverage extends AbstractCoverage {
 
     @Override
     public void setGraph(InspectableGraph model, Map<Object, Vertex> state2vertex) {
+        int pairs = 0;
+        for (VertexIterator iter = model.vertices(); iter.hasNext();) {
+            Vertex v = iter.nextVertex();
+            pairs += model.degree(v, EdgeDirection.IN) * model.degree(v, EdgeDirection.OUT);
+        }
+        counters_.ensureCapacity(pairs);
         for (VertexIterator iter = model.vertices(); iter.hasNext();) {
             Vertex v = iter.nextVertex();
             for (EdgeIterator incoming = model.incidentEdges(v, EdgeDirection.IN); incoming.hasNext();) {
@@ -56,8 +100,7 @@ public class TransitionPairCoverage extends AbstractCoverage {
                 for (EdgeIterator outgoing = model.incidentEdges(v, EdgeDirection.OUT); outgoing.hasNext();) {
                     Edge out = outgoing.nextEdge();
                     Transition outTrans = transition(out, model);
-                    TransitionPair pair = new TransitionPair(inTrans, outTrans);
-                    addItem(pair);
+                    slotOf(inTrans, outTrans);
                 }
             }
         }
@@ -67,14 +110,73 @@ public class TransitionPairCoverage extends AbstractCoverage {
     @Override
     public void doneReset(String reason, boolean testing) {
         lastTransition_ = null;
+        lastId_ = -1;
     }
 
     @Override
     public void doneTransition(int action, Transition tr) {
         if (lastTransition_ != null && lastTransition_.getEndState().equals(tr.getStartState())) {
-            TransitionPair pair = new TransitionPair(lastTransition_, tr);
-            incrementItem(pair);
+            incrementSlot(slotOf(lastTransition_, tr));
         }
         lastTransition_ = tr;
     }
+
+    public void doneTransition(Model model, int fromId, int action, int toId) {
+        if (!StateInterner.canPack(fromId, action, toId)
+                        || owner_.get() != model && !owner_.compareAndSet(null, model)) {
+            doneTransition(action, model.getTransition(fromId, action, toId));
+            return;
+        }
+        int generation = model.getStateInterner().getGeneration();
+        if (generation != generation_) {
+            // the state numbers have changed, so renumber the transitions.
+            transitionIds_.clear();
+            transitions_.clear();
+            pairIds_.clear();
+            lastId_ = -1;
+            generation_ = generation;
+        }
+        long key = StateInterner.pack(fromId, action, toId);
+        int id = transitionIds_.get(key);
+        if (id == LongIntMap.NONE) {
+            id = transitions_.size();
+            transitions_.add(model.getTransition(fromId, action, toId));
+            transitionIds_.put(key, id);
+        }
+        if (lastId_ >= 0 && lastTo_ == fromId) {
+            long pair = ((long) lastId_ << 32) | id;
+            int slot = pairIds_.get(pair);
+            if (slot == LongIntMap.NONE) {
+                slot = slotOf(transitions_.get(lastId_), transitions_.get(id));
+                pairIds_.put(pair, slot);
+            }
+            incrementSlot(slot);
+        }
+        lastId_ = id;
+        lastTo_ = toId;
+    }
+
+    /** Returns the slot of the pair (in, out), adding the pair if it is new. */
+    private int slotOf(Transition in, Transition out) {
+        Map<Transition, Integer> outs = pairSlots_.get(in);
+        if (outs != null) {
+            Integer slot = outs.get(out);
+            if (slot != null) {
+                return slot;
+            }
+        }
+        synchronized (pairSlots_) {
+            outs = pairSlots_.get(in);
+            if (outs == null) {
+                outs = new ConcurrentHashMap<Transition, Integer>();
+                pairSlots_.put(in, outs);
+            }
+            Integer slot = outs.get(out);
+            if (slot == null) {
+                slot = addSlot(new TransitionPair(in, out));
+                outs.put(out, slot);
+            }
+            return slot;
+        }
+    }
 }
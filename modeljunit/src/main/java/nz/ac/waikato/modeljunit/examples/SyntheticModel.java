@@ -0,0 +1,405 @@
+/**
+Copyright (C) 2007 Mark Utting
+This file is part of the CZT project.
+
+The CZT project contains free software; you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation; either version 2 of the License, or
+(at your option) any later version.
+
+The CZT project is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with CZT; if not, write to the Free Software
+Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+*/
+
+package nz.ac.waikato.modeljunit.examples;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import nz.ac.waikato.modeljunit.Action;
+import nz.ac.waikato.modeljunit.CacheableFsmModel;
+import nz.ac.waikato.modeljunit.GreedyTester;
+import nz.ac.waikato.modeljunit.Tester;
+import nz.ac.waikato.modeljunit.coverage.TransitionCoverage;
+
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+
+/** A synthetic model of any size, for stress tests and scaling experiments.
+ *  <p>
+ *  The states are the integers 0..numStates-1, and the actions are called
+ *  a0, a1, ... (padded with zeroes so that they sort in numerical order).
+ *  The guards and transitions are computed from a hash of the state,
+ *  the action and a seed, so nothing is stored for each state, and models
+ *  with millions of states cost no memory.  The same parameters always
+ *  give the same model.
+ *  </p>
+ *  <p>
+ *  Since ModelJUnit finds the actions of a model via its @Action methods,
+ *  {@link #create(int, int)} generates (using ASM) a subclass with the
+ *  requested number of @Action methods and guards, which just call
+ *  {@link #doAction(int)} and {@link #guard(int)}.
+ *  The shape of the graph is controlled by these parameters:
+ *  </p>
+ *  <ul>
+ *    <li>branching factor: the number of different successor states that
+ *        each state can have (excluding self-loops);</li>
+ *    <li>guard density: the probability that each action is enabled
+ *        in each state;</li>
+ *    <li>self-loop ratio: the probability that an enabled transition
+ *        leads back to the same state;</li>
+ *    <li>trap ratio: the fraction of states in which no actions are
+ *        enabled, so that the tester must reset;</li>
+ *    <li>action cost: the time (in nanoseconds) that each action busy-waits,
+ *        to simulate the cost of calling a system under test.</li>
+ *  </ul>
+ *  <p>
+ *  To make sure that all the states are reachable, action number
+ *  (s mod numActions) is always enabled in each non-trap state s,
+ *  and leads to state s+1 (mod numStates).
+ *  </p>
+ */
+public abstract class SyntheticModel implements CacheableFsmModel
+{
+  /** Salts for the different uses of the hash function. */
+  private static final long GUARD = 0x47554152444C4FL;
+  private static final long DEST = 0x444553544C4F4FL;
+  private static final long SUCC = 0x53554343455353L;
+  private static final long TRAP = 0x54524150545241L;
+
+  /** The generated subclasses, indexed by their number of actions. */
+  private static final Map<Integer, Class<? extends SyntheticModel>> classes_
+    = new HashMap<Integer, Class<? extends SyntheticModel>>();
+
+  private int numStates_;
+  private int numActions_;
+  private int branching_ = 3;
+  private double guardDensity_ = 0.5;
+  private double selfLoopRatio_ = 0.1;
+  private double trapRatio_ = 0.0;
+  private long actionCost_ = 0;
+  private long seed_ = 42;
+
+  private int state_ = 0;
+
+  /** Creates a synthetic model with the default shape:
+   *  a branching factor of 3, guard density 0.5, self-loop ratio 0.1,
+   *  no trap states and no action cost.
+   *
+   * @param numStates  The number of states (at least one).
+   * @param numActions The number of actions (at least one).
+   */
+  public static SyntheticModel create(int numStates, int numActions)
+  {
+    if (numStates < 1 || numActions < 1) {
+      throw new IllegalArgumentException("need at least one state and action");
+    }
+    SyntheticModel result;
+    try {
+      result = modelClass(numActions).newInstance();
+    }
+    catch (InstantiationException ex) {
+      throw new RuntimeException("cannot create synthetic model", ex);
+    }
+    catch (IllegalAccessException ex) {
+      throw new RuntimeException("cannot create synthetic model", ex);
+    }
+    result.numStates_ = numStates;
+    result.numActions_ = numActions;
+    return result;
+  }
+
+  /** Only the generated subclasses call this. */
+  protected SyntheticModel()
+  {
+  }
+
+  public int getNumStates()
+  {
+    return numStates_;
+  }
+
+  public int getNumActions()
+  {
+    return numActions_;
+  }
+
+  /** Sets the number of different successors of each state. */
+  public void setBranching(int branching)
+  {
+    if (branching < 1) {
+      throw new IllegalArgumentException("branching must be positive");
+    }
+    branching_ = branching;
+  }
+
+  public int getBranching()
+  {
+    return branching_;
+  }
+
+  /** Sets the probability that each guard is true (0.0 to 1.0). */
+  public void setGuardDensity(double density)
+  {
+    guardDensity_ = checkRatio(density);
+  }
+
+  public double getGuardDensity()
+  {
+    return guardDensity_;
+  }
+
+  /** Sets the probability that a transition is a self-loop (0.0 to 1.0). */
+  public void setSelfLoopRatio(double ratio)
+  {
+    selfLoopRatio_ = checkRatio(ratio);
+  }
+
+  public double getSelfLoopRatio()
+  {
+    return selfLoopRatio_;
+  }
+
+  /** Sets the fraction of states that have no enabled actions.
+   *  The initial state is never a trap.
+   */
+  public void setTrapRatio(double ratio)
+  {
+    trapRatio_ = checkRatio(ratio);
+  }
+
+  public double getTrapRatio()
+  {
+    return trapRatio_;
+  }
+
+  /** Sets the time that each action busy-waits, in nanoseconds. */
+  public void setActionCost(long nanos)
+  {
+    actionCost_ = nanos;
+  }
+
+  public long getActionCost()
+  {
+    return actionCost_;
+  }
+
+  /** Sets the seed that the guards and transitions are computed from. */
+  public void setSeed(long seed)
+  {
+    seed_ = seed;
+  }
+
+  public long getSeed()
+  {
+    return seed_;
+  }
+
+  private static double checkRatio(double ratio)
+  {
+    if (ratio < 0.0 || ratio > 1.0) {
+      throw new IllegalArgumentException("ratio must be 0.0 .. 1.0");
+    }
+    return ratio;
+  }
+
+  /** All the settings except the action cost, which does not change
+   *  the graph.
+   */
+  public String getConfiguration()
+  {
+    return "states=" + numStates_ + ",actions=" + numActions_
+        + ",branching=" + branching_ + ",guards=" + guardDensity_
+        + ",selfloops=" + selfLoopRatio_ + ",traps=" + trapRatio_
+        + ",seed=" + seed_;
+  }
+
+  public Object getState()
+  {
+    return state_;
+  }
+
+  public void reset(boolean testing)
+  {
+    state_ = 0;
+  }
+
+  /** True if no actions are enabled in the given state. */
+  public boolean isTrap(int state)
+  {
+    return state != 0 && unit(hash(state, 0, TRAP)) < trapRatio_;
+  }
+
+  /** True if the given action is enabled in the given state. */
+  public boolean isEnabled(int state, int action)
+  {
+    if (isTrap(state)) {
+      return false;
+    }
+    return action == state % numActions_
+      || unit(hash(state, action, GUARD)) < guardDensity_;
+  }
+
+  /** The state that the given action leads to from the given state. */
+  public int successor(int state, int action)
+  {
+    if (action == state % numActions_) {
+      return (state + 1) % numStates_;
+    }
+    long h = hash(state, action, DEST);
+    if (unit(h) < selfLoopRatio_) {
+      return state;
+    }
+    int k = (int) ((h >>> 1) % branching_);
+    return (int) ((hash(state, k, SUCC) >>> 1) % numStates_);
+  }
+
+  /** The guard of every action.  The generated guards call this. */
+  public boolean guard(int action)
+  {
+    return isEnabled(state_, action);
+  }
+
+  /** The body of every action.  The generated actions call this. */
+  public void doAction(int action)
+  {
+    if (actionCost_ > 0) {
+      long end = System.nanoTime() + actionCost_;
+      while (System.nanoTime() < end) {
+        // simulate a slow SUT
+      }
+    }
+    state_ = successor(state_, action);
+  }
+
+  /** Mixes state, action and salt with the seed (using SplitMix64). */
+  private long hash(int state, int action, long salt)
+  {
+    long z = seed_ ^ salt;
+    z += 0x9E3779B97F4A7C15L * (state + 1);
+    z ^= (long) action << 32;
+    z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+    z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+    return z ^ (z >>> 31);
+  }
+
+  /** Converts a hash into a number in 0.0 .. 1.0 (exclusive). */
+  private static double unit(long hash)
+  {
+    return (hash >>> 11) * 0x1.0p-53;
+  }
+
+  /** Returns the subclass that has the given number of actions,
+   *  generating it if necessary.
+   */
+  private static synchronized Class<? extends SyntheticModel> modelClass(
+      int numActions)
+  {
+    Class<? extends SyntheticModel> result = classes_.get(numActions);
+    if (result == null) {
+      String name = SyntheticModel.class.getName() + "$Actions" + numActions;
+      byte[] code = generateClass(name.replace('.', '/'), numActions);
+      result = new ModelLoader().define(name, code)
+        .asSubclass(SyntheticModel.class);
+      classes_.put(numActions, result);
+    }
+    return result;
+  }
+
+  /** The name of action number i, padded so that names sort by number. */
+  static String actionName(int i, int numActions)
+  {
+    String num = Integer.toString(i);
+    int width = Integer.toString(numActions - 1).length();
+    StringBuilder result = new StringBuilder("a");
+    for (int pad = num.length(); pad < width; pad++) {
+      result.append('0');
+    }
+    return result.append(num).toString();
+  }
+
+  /** Generates a public subclass with an @Action method and a guard
+   *  for each action number, which call doAction(i) and guard(i).
+   */
+  private static byte[] generateClass(String name, int numActions)
+  {
+    String superName = Type.getInternalName(SyntheticModel.class);
+    ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+    cw.visit(Opcodes.V1_5, Opcodes.ACC_PUBLIC + Opcodes.ACC_SUPER, name, null,
+        superName, null);
+
+    MethodVisitor init = cw.visitMethod(Opcodes.ACC_PUBLIC, "<init>", "()V",
+        null, null);
+    init.visitCode();
+    init.visitVarInsn(Opcodes.ALOAD, 0);
+    init.visitMethodInsn(Opcodes.INVOKESPECIAL, superName, "<init>", "()V");
+    init.visitInsn(Opcodes.RETURN);
+    init.visitMaxs(0, 0);
+    init.visitEnd();
+
+    for (int i = 0; i < numActions; i++) {
+      String action = actionName(i, numActions);
+      MethodVisitor mv = cw.visitMethod(Opcodes.ACC_PUBLIC, action, "()V",
+          null, null);
+      mv.visitAnnotation(Type.getDescriptor(Action.class), true).visitEnd();
+      mv.visitCode();
+      mv.visitVarInsn(Opcodes.ALOAD, 0);
+      mv.visitLdcInsn(i);
+      mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, name, "doAction", "(I)V");
+      mv.visitInsn(Opcodes.RETURN);
+      mv.visitMaxs(0, 0);
+      mv.visitEnd();
+
+      mv = cw.visitMethod(Opcodes.ACC_PUBLIC, action + "Guard", "()Z",
+          null, null);
+      mv.visitCode();
+      mv.visitVarInsn(Opcodes.ALOAD, 0);
+      mv.visitLdcInsn(i);
+      mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, name, "guard", "(I)Z");
+      mv.visitInsn(Opcodes.IRETURN);
+      mv.visitMaxs(0, 0);
+      mv.visitEnd();
+    }
+    cw.visitEnd();
+    return cw.toByteArray();
+  }
+
+  /** Loads the generated subclasses. */
+  private static class ModelLoader extends ClassLoader
+  {
+    ModelLoader()
+    {
+      super(SyntheticModel.class.getClassLoader());
+    }
+
+    Class<?> define(String name, byte[] code)
+    {
+      return defineClass(name, code, 0, code.length);
+    }
+  }
+
+  /** Explores a synthetic model with a million states. */
+  public static void main(String[] args)
+  {
+    SyntheticModel fsm = create(1000000, 20);
+    Tester tester = new GreedyTester(fsm);
+    tester.addListener("graph");
+    TransitionCoverage coverage = new TransitionCoverage();
+    tester.addCoverageMetric(coverage);
+    long start = System.currentTimeMillis();
+    tester.generate(1000000);
+    long time = System.currentTimeMillis() - start;
+    System.out.println("1000000 steps in " + time + " ms, covering "
+        + coverage.getCoverage() + " transitions and "
+        + tester.getModel().getGraphListener().getGraph().numVertices()
+        + " states.");
+  }
+}
@@ -12,6 +12,7 @@ import nz.ac.waikato.modeljunit.FsmException;
 import nz.ac.waikato.modeljunit.FsmModel;
 import nz.ac.waikato.modeljunit.Model;
 import nz.ac.waikato.modeljunit.TestFailureException;
+import nz.ac.waikato.modeljunit.TraceStore;
 import nz.ac.waikato.modeljunit.Transition;
 
 import junit.framework.Assert;
@@ -180,9 +181,24 @@ public class TimedModel extends Model
     super.doReset(reason);
     chosenTimeout_ = -1;
     chosenTimeoutAction_ = -1;
-    fsmState_ = fsmModel_.getState();
+    setCurrentState(fsmModel_.getState());
+    fsmTrace_.clear(fsmState_);
   };
 
+  /** Records the time of each transition, as its tag. */
+  @Override
+  protected TraceStore newTrace()
+  {
+    return new TraceStore(this) {
+      @Override
+      protected Transition newTransition(Object start, int action,
+          Object end, int tag)
+      {
+        return new TimedTransition(tag, start, getActionName(action), end);
+      }
+    };
+  }
+
   @Override
   public boolean doAction(int index)
   {
@@ -194,7 +210,7 @@ public class TimedModel extends Model
     Method m = fsmActions_.get(index);
     try {
       notifyStartAction(fsmState_, index, m.getName());
-      m.invoke(fsmModel_, VOID_ARGS);
+      fsmDispatcher_.doAction(fsmModel_, index);
     }
     catch (InvocationTargetException ex) {
       String failmsg = "failure in action " + m.getName() + " from state "
@@ -205,6 +221,9 @@ public class TimedModel extends Model
       Assert.fail("Model Error: Non-public actions? " + ex);
       return false;
     }
+    finally {
+      clearGuardCache();
+    }
 
     if (chosenTimeout_ >= 0) {
       // the chosen timeout was the only one whose guard was enabled.
@@ -242,6 +261,8 @@ public class TimedModel extends Model
         setTimeoutValue(i, TimedFsmModel.TIMEOUT_DISABLED);
       }
     }
+    // the guards may depend upon the time or the timeouts.
+    clearGuardCache();
     if (!newState.equals(fsmModel_.getState())) {
       // changing the time caused a state change
       String failmsg = "Model problem detected after action "
@@ -255,9 +276,8 @@ public class TimedModel extends Model
 
     Transition done = new TimedTransition(startTime, fsmState_, m.getName(),
         newState);
-    fsmSequence_.add(done);
-    fsmState_ = newState;
-    Assert.assertNotNull("Model Error: getState() must be non-null", fsmState_);
+    setCurrentState(newState);
+    fsmTrace_.add(index, fsmState_, startTime);
 
     notifyDoneTransition(index, done);
     return true;
@@ -276,7 +296,7 @@ public class TimedModel extends Model
     failure.setActionName(actionName);
     failure.setModel(this.fsmModel_);
     failure.setModelName(this.getModelName());
-    failure.setSequence(this.fsmSequence_);
+    failure.setSequence(fsmTrace_.getSequence());
     failure.setState(this.fsmState_);
     notifyFailure(failure);
   }
@@ -0,0 +1,201 @@
+package nz.ac.waikato.modeljunit;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import nz.ac.waikato.modeljunit.examples.FSM;
+
+import org.junit.Test;
+
+public class AsyncListenerTest
+{
+  /** Records the guard and transition events, after an optional delay. */
+  private static class Recorder extends AbstractListener
+  {
+    final List<String> events = new ArrayList<String>();
+    final CountDownLatch start;
+
+    Recorder(CountDownLatch start)
+    {
+      this.start = start;
+    }
+
+    public String getName()
+    {
+      return "recorder";
+    }
+
+    private void await()
+    {
+      try {
+        start.await(10, TimeUnit.SECONDS);
+      }
+      catch (InterruptedException ex) {
+        throw new RuntimeException(ex);
+      }
+    }
+
+    @Override
+    public void doneGuard(Object state, int action, boolean enabled, int value)
+    {
+      await();
+      events.add("guard " + state + " " + action + " " + enabled);
+    }
+
+    @Override
+    public void doneTransition(int action, Transition tr)
+    {
+      await();
+      events.add(tr.toString());
+    }
+  }
+
+  private static void release(final CountDownLatch latch, final long millis)
+  {
+    new Thread() {
+      @Override
+      public void run()
+      {
+        try {
+          Thread.sleep(millis);
+        }
+        catch (InterruptedException ex) {
+          // release it now
+        }
+        latch.countDown();
+      }
+    }.start();
+  }
+
+  @Test
+  public void testSameEvents()
+  {
+    Recorder sync = new Recorder(new CountDownLatch(0));
+    Recorder async = new Recorder(new CountDownLatch(0));
+    Model model = new Model(new FSM());
+    model.addListener(sync);
+    AsyncListener wrapper = new AsyncListener(async, 8,
+        AsyncListener.BackPressure.BLOCK);
+    // it has the same name, so it needs its own model.
+    Model model2 = new Model(new FSM());
+    model2.addListener(wrapper);
+    assertEquals("recorder", wrapper.getName());
+    assertSame(model2, async.getModel());
+
+    Tester tester = new RandomTester(model);
+    tester.setRandom(new Random(3));
+    tester.generate(200);
+    Tester tester2 = new RandomTester(model2);
+    tester2.setRandom(new Random(3));
+    tester2.generate(200);
+    wrapper.flush();
+    assertEquals(0, wrapper.getPending());
+    assertEquals(0, wrapper.getDropped());
+    assertEquals(sync.events, async.events);
+    wrapper.close();
+  }
+
+  /** True if the background thread of a listener called name is alive. */
+  private static boolean consumerAlive(String name)
+  {
+    for (Thread thread : Thread.getAllStackTraces().keySet()) {
+      if (thread.getName().equals("async " + name) && thread.isAlive()) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  @Test
+  public void testRemoveCloses()
+  {
+    Recorder async = new Recorder(new CountDownLatch(0));
+    Model model = new Model(new ShortenFailureTest.Ring());
+    model.addListener(new AsyncListener(async));
+    int inc = model.getActionNumber("inc");
+    for (int i = 0; i < 10; i++) {
+      model.doAction(inc);
+    }
+    assertTrue(consumerAlive("recorder"));
+    // removing it passes on the remaining events and stops the thread.
+    model.removeListener("recorder");
+    assertEquals("(9, inc, 0)", async.events.get(async.events.size() - 1));
+    assertFalse(consumerAlive("recorder"));
+  }
+
+  @Test
+  public void testFailureIsSynchronous()
+  {
+    Model model = new Model(new ShortenFailureTest.Ring());
+    Recorder async = new Recorder(new CountDownLatch(0));
+    model.addListener(new AsyncListener(async));
+    model.addListener(new AsyncListener(new StopOnFailureListener()));
+    int inc = model.getActionNumber("inc");
+    for (int i = 0; i < 9; i++) {
+      model.doAction(inc);
+    }
+    try {
+      model.doAction(model.getActionNumber("boom"));
+      fail("expected the failure to be thrown");
+    }
+    catch (TestFailureException ex) {
+      assertEquals("9", ex.getState());
+    }
+  }
+
+  @Test
+  public void testDropOldest()
+  {
+    CountDownLatch latch = new CountDownLatch(1);
+    Recorder slow = new Recorder(latch);
+    Model model = new Model(new ShortenFailureTest.Ring());
+    AsyncListener wrapper = new AsyncListener(slow, 4,
+        AsyncListener.BackPressure.DROP_OLDEST);
+    model.addListener(wrapper);
+    int inc = model.getActionNumber("inc");
+    for (int i = 0; i < 50; i++) {
+      model.doAction(inc);
+      assertTrue(wrapper.getPending() <= 4);
+    }
+    latch.countDown();
+    wrapper.close();
+    assertTrue(wrapper.getDropped() > 0);
+    // the last events are never dropped.
+    List<String> events = slow.events;
+    assertEquals("(9, inc, 0)", events.get(events.size() - 1));
+    assertEquals(100, events.size() + wrapper.getDropped());
+  }
+
+  @Test
+  public void testCoalesce()
+  {
+    CountDownLatch latch = new CountDownLatch(1);
+    Recorder slow = new Recorder(latch);
+    Model model = new Model(new ShortenFailureTest.Ring());
+    AsyncListener wrapper = new AsyncListener(slow, 4,
+        AsyncListener.BackPressure.COALESCE);
+    model.addListener(wrapper);
+    release(latch, 200);
+    int inc = model.getActionNumber("inc");
+    for (int i = 0; i < 50; i++) {
+      model.doAction(inc);
+    }
+    wrapper.close();
+    assertTrue(wrapper.getDropped() > 0);
+    // every transition is still seen, in order.
+    int transitions = 0;
+    for (String event : slow.events) {
+      if ( ! event.startsWith("guard")) {
+        assertEquals(new Transition(String.valueOf(transitions % 10), "inc",
+            String.valueOf((transitions + 1) % 10)).toString(), event);
+        transitions++;
+      }
+    }
+    assertEquals(50, transitions);
+  }
+}
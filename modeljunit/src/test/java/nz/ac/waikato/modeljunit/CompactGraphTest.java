@@ -0,0 +1,208 @@
+package nz.ac.waikato.modeljunit;
+
+import static org.junit.Assert.*;
+
+import java.util.BitSet;
+import java.util.Map;
+
+import nz.ac.waikato.jdsl.graph.api.Edge;
+import nz.ac.waikato.jdsl.graph.api.EdgeDirection;
+import nz.ac.waikato.jdsl.graph.api.EdgeIterator;
+import nz.ac.waikato.jdsl.graph.api.InspectableGraph;
+import nz.ac.waikato.jdsl.graph.api.Vertex;
+
+import org.junit.Test;
+
+public class CompactGraphTest
+{
+  private static String[] actionNames(int num)
+  {
+    String[] names = new String[num];
+    for (int i = 0; i < num; i++) {
+      names[i] = "a" + i;
+    }
+    return names;
+  }
+
+  @Test
+  public void testStates()
+  {
+    CompactGraph graph = new CompactGraph(actionNames(2));
+    assertEquals(0, graph.numStates());
+    assertEquals(CompactGraph.NONE, graph.getStateId("s0"));
+    // enough states to force the arrays and hash table to grow
+    for (int i = 0; i < 1000; i++) {
+      assertEquals(i, graph.addState("s" + i));
+    }
+    assertEquals(1000, graph.numStates());
+    for (int i = 0; i < 1000; i++) {
+      assertEquals(i, graph.getStateId("s" + i));
+      assertEquals(i, graph.addState("s" + i));
+      assertEquals("s" + i, graph.getState(i));
+    }
+    assertEquals(CompactGraph.NONE, graph.getStateId("s1000"));
+  }
+
+  @Test
+  public void testEdges()
+  {
+    CompactGraph graph = new CompactGraph(actionNames(3));
+    int s0 = graph.addState("s0");
+    int s1 = graph.addState("s1");
+    int s2 = graph.addState("s2");
+    assertEquals(0, graph.addEdge(s0, 2, s1));
+    assertEquals(1, graph.addEdge(s0, 0, s2));
+    assertEquals(2, graph.addEdge(s0, 0, s1)); // non-deterministic
+    assertEquals(3, graph.addEdge(s1, 1, s0));
+    assertEquals(1, graph.addEdge(s0, 0, s2)); // already present
+    assertEquals(4, graph.numEdges());
+    assertEquals(2, graph.getEdge(s0, 0, s1));
+    assertEquals(CompactGraph.NONE, graph.getEdge(s1, 0, s1));
+    assertEquals(3, countOut(graph, s0));
+    assertEquals(2, countIn(graph, s1));
+    assertEquals(2, countSame(graph, s0, 0));
+    assertEquals(1, countSame(graph, s0, 2));
+    assertEquals(0, countSame(graph, s1, 0));
+
+    graph.compact();
+    assertEquals(1, graph.getEdgeVersion());
+    assertEquals(4, graph.numEdges());
+    // now the edges are in order of source state, then action.
+    int[] expected = {s0, 0, s2,  s0, 0, s1,  s0, 2, s1,  s1, 1, s0};
+    for (int e = 0; e < 4; e++) {
+      assertEquals(expected[3 * e], graph.getEdgeSource(e));
+      assertEquals(expected[3 * e + 1], graph.getEdgeAction(e));
+      assertEquals(expected[3 * e + 2], graph.getEdgeDest(e));
+    }
+    assertEquals(3, countOut(graph, s0));
+    assertEquals(1, countOut(graph, s1));
+    assertEquals(0, countOut(graph, s2));
+    assertEquals(2, countIn(graph, s1));
+    assertEquals(1, graph.getEdge(s0, 0, s1));
+    assertEquals(2, countSame(graph, s0, 0));
+    assertEquals(1, countSame(graph, s1, 1));
+    assertEquals(0, countSame(graph, s1, 0));
+
+    // we can still add states and edges after compacting.
+    int s3 = graph.addState("s3");
+    assertEquals(4, graph.addEdge(s2, 1, s3));
+    assertEquals(4, graph.getEdge(s2, 1, s3));
+    assertEquals(3, graph.getStateId("s3"));
+    assertEquals(5, graph.addEdge(s0, 0, s3));
+    assertEquals(3, countSame(graph, s0, 0));
+  }
+
+  private static int countSame(CompactGraph graph, int state, int action)
+  {
+    int count = 0;
+    for (int e = graph.getFirstEdge(state, action); e != CompactGraph.NONE;
+         e = graph.getNextEdge(e)) {
+      assertEquals(state, graph.getEdgeSource(e));
+      assertEquals(action, graph.getEdgeAction(e));
+      count++;
+    }
+    return count;
+  }
+
+  private static int countOut(CompactGraph graph, int state)
+  {
+    int count = 0;
+    for (int e = graph.getFirstOutEdge(state); e != CompactGraph.NONE;
+         e = graph.getNextOutEdge(e)) {
+      assertEquals(state, graph.getEdgeSource(e));
+      count++;
+    }
+    return count;
+  }
+
+  private static int countIn(CompactGraph graph, int state)
+  {
+    int count = 0;
+    for (int e = graph.getFirstInEdge(state); e != CompactGraph.NONE;
+         e = graph.getNextInEdge(e)) {
+      assertEquals(state, graph.getEdgeDest(e));
+      count++;
+    }
+    return count;
+  }
+
+  @Test
+  public void testActionBits()
+  {
+    // more than 64 actions, so that each state needs two words.
+    CompactGraph graph = new CompactGraph(actionNames(70));
+    int s0 = graph.addState("s0");
+    int s1 = graph.addState("s1");
+    BitSet enabled = new BitSet();
+    enabled.set(3);
+    enabled.set(68);
+    assertEquals(2, graph.addEnabled(s1, enabled));
+    assertEquals(0, graph.addEnabled(s1, enabled));
+    assertEquals(enabled, graph.getEnabled(s1));
+    assertEquals(new BitSet(), graph.getEnabled(s0));
+    assertTrue(graph.hasTodo(s1));
+    assertFalse(graph.hasTodo(s0));
+    assertTrue(graph.isTodo(s1, 68));
+
+    assertTrue(graph.setDone(s1, 68));
+    assertFalse(graph.setDone(s1, 68));
+    assertTrue(graph.isDone(s1, 68));
+    assertFalse(graph.isDone(s1, 4)); // 68 mod 64
+    assertFalse(graph.isTodo(s1, 68));
+    BitSet todo = new BitSet();
+    todo.set(3);
+    assertEquals(todo, graph.getTodo(s1));
+    assertTrue(graph.setDone(s1, 3));
+    assertFalse(graph.hasTodo(s1));
+
+    graph.clearActions();
+    assertFalse(graph.isDone(s1, 3));
+    assertFalse(graph.isEnabled(s1, 68));
+  }
+
+  @Test
+  public void testView()
+  {
+    CompactGraph graph = new CompactGraph(actionNames(2));
+    int s0 = graph.addState("s0");
+    int s1 = graph.addState("s1");
+    graph.addEdge(s0, 1, s1);
+    graph.addEdge(s1, 0, s0);
+    graph.addEdge(s1, 1, s1);
+    InspectableGraph view = graph.getView();
+    assertSame(view, graph.getView());
+    assertEquals(2, view.numVertices());
+    assertEquals(3, view.numEdges());
+
+    Map<Object,Vertex> vertices = graph.getView().getVertexMap();
+    assertEquals(2, vertices.size());
+    Vertex v0 = vertices.get("s0");
+    Vertex v1 = vertices.get("s1");
+    assertEquals("s0", v0.element());
+    assertSame(v1, graph.getView().getVertex(s1));
+    assertNull(vertices.get("s2"));
+
+    assertEquals(1, view.degree(v0, EdgeDirection.OUT));
+    assertEquals(2, view.degree(v1, EdgeDirection.OUT));
+    assertEquals(2, view.degree(v1, EdgeDirection.IN));
+    EdgeIterator out = view.incidentEdges(v0, EdgeDirection.OUT);
+    Edge e = out.nextEdge();
+    assertFalse(out.hasNext());
+    assertEquals("a1", e.element());
+    assertSame(v0, view.origin(e));
+    assertSame(v1, view.destination(e));
+    assertSame(v0, view.opposite(v1, e));
+    assertTrue(view.areAdjacent(v0, v1));
+
+    // decorations are kept on the vertex objects.
+    v0.set("mark", "yes");
+    assertEquals("yes", view.aVertex().get("mark"));
+
+    // old edges do not belong to the view after compact.
+    assertTrue(view.contains(e));
+    graph.compact();
+    assertFalse(view.contains(e));
+    assertTrue(view.contains(v0));
+    assertEquals(3, view.numEdges());
+  }
+}
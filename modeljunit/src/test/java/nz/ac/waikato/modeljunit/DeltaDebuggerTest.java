@@ -0,0 +1,93 @@
+package nz.ac.waikato.modeljunit;
+
+import static org.junit.Assert.*;
+
+import java.util.List;
+
+import org.junit.Test;
+
+public class DeltaDebuggerTest
+{
+  private static final ParallelTester.ModelFactory RINGS =
+    new ParallelTester.ModelFactory() {
+      public FsmModel createModel(int walker)
+      {
+        return new ShortenFailureTest.Ring();
+      }
+    };
+
+  /** Fails after a long walk that skips a lot between the incs. */
+  private static TestFailureException longFailure()
+  {
+    Model model = new Model(new ShortenFailureTest.Ring());
+    model.addListener(new StopOnFailureListener());
+    int inc = model.getActionNumber("inc");
+    int skip = model.getActionNumber("skip");
+    try {
+      for (int i = 0; i < 9; i++) {
+        for (int j = 0; j < i * 7 % 13 + 5; j++) {
+          model.doAction(skip);
+        }
+        model.doAction(inc);
+      }
+      for (int j = 0; j < 20; j++) {
+        model.doAction(skip);
+      }
+      model.doAction(model.getActionNumber("boom"));
+    }
+    catch (TestFailureException ex) {
+      return ex;
+    }
+    fail("expected a failure");
+    return null;
+  }
+
+  @Test
+  public void testMinimize()
+  {
+    TestFailureException failure = longFailure();
+    int length = failure.getSequence().size();
+    DeltaDebugger ddmin = new DeltaDebugger(RINGS, failure);
+    ddmin.setThreads(4);
+    TestFailureException result = ddmin.minimize();
+
+    assertSame(result, ddmin.getFailure());
+    assertEquals(length, ddmin.getOldFailureSequence().size());
+    assertEquals("boom", result.getActionName());
+    assertEquals("9", result.getState());
+    // the shortest failing sequence is inc nine times.
+    List<Transition> seq = result.getSequence();
+    assertEquals(9, seq.size());
+    for (int i = 0; i < seq.size(); i++) {
+      assertEquals(new Transition(String.valueOf(i), "inc",
+          String.valueOf(i + 1)), seq.get(i));
+    }
+    assertTrue(ddmin.getNumTests() > 0);
+  }
+
+  @Test
+  public void testDeterministic()
+  {
+    TestFailureException failure = longFailure();
+    DeltaDebugger ddmin1 = new DeltaDebugger(RINGS, failure);
+    ddmin1.setThreads(1);
+    DeltaDebugger ddmin4 = new DeltaDebugger(RINGS, failure);
+    ddmin4.setThreads(4);
+    assertEquals(ddmin1.minimize().getSequence(),
+        ddmin4.minimize().getSequence());
+  }
+
+  @Test
+  public void testAnyFailure()
+  {
+    // boom is the only action that fails, and only from state 9.
+    TestFailureException failure = longFailure();
+    DeltaDebugger ddmin = new DeltaDebugger(RINGS, failure);
+    ddmin.setThreads(2);
+    ddmin.setSameState(false);
+    ddmin.setSameAction(false);
+    TestFailureException result = ddmin.minimize();
+    assertTrue(result.getSequence().size() <= 9);
+    assertEquals("9", result.getState());
+  }
+}
@@ -0,0 +1,57 @@
+package nz.ac.waikato.modeljunit;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public class GoalQueueTest
+{
+  @Test
+  public void testSharedPrefixes()
+  {
+    Transition t1 = new Transition("A", "a", "B");
+    Transition t2 = new Transition("B", "b", "C");
+    Transition t3 = new Transition("B", "c", "D");
+    GoalQueue.Prefix p1 = new GoalQueue.Prefix(null, t1);
+    GoalQueue.Prefix p2 = new GoalQueue.Prefix(p1, t2);
+    GoalQueue.Prefix p3 = new GoalQueue.Prefix(p1, t3);
+    assertSame(p2.getParent(), p3.getParent());
+    assertEquals(2, p3.getDepth());
+    assertEquals(Arrays.asList(t1, t3), p3.getTransitions());
+    assertEquals(0, GoalQueue.transitions(null).size());
+  }
+
+  @Test
+  public void testCheapestFirst()
+  {
+    GoalQueue.Prefix p1 = new GoalQueue.Prefix(null, new Transition("A", "a", "B"));
+    GoalQueue.Prefix p2 = new GoalQueue.Prefix(p1, new Transition("B", "b", "C"));
+    GoalQueue todo = new GoalQueue();
+    Unexplored deep = new Unexplored("C", 0);
+    Unexplored mid1 = new Unexplored("B", 0);
+    Unexplored mid2 = new Unexplored("B", 1);
+    assertNull(todo.peek());
+    todo.add(deep, p2);
+    todo.add(mid1, p1);
+    todo.add(mid2, p1);
+    assertEquals(3, todo.size());
+    // the shortest path wins, then the oldest goal
+    assertEquals(mid1, todo.peek());
+    assertTrue(todo.remove(mid1));
+    assertFalse(todo.remove(mid1));
+    assertEquals(mid2, todo.peek());
+
+    // a longer path does not replace a shorter one, but a shorter one does
+    assertFalse(todo.add(mid2, p2));
+    assertSame(p1, todo.get(mid2));
+    assertTrue(todo.add(deep, null));
+    assertEquals(deep, todo.peek());
+    assertTrue(todo.contains(deep));
+    assertNull(todo.get(deep));
+
+    todo.clear();
+    assertTrue(todo.isEmpty());
+  }
+}
@@ -0,0 +1,182 @@
+package nz.ac.waikato.modeljunit;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+
+import nz.ac.waikato.modeljunit.examples.FSM;
+import nz.ac.waikato.modeljunit.examples.LargeSet;
+import nz.ac.waikato.modeljunit.examples.SyntheticModel;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class GraphCacheTest
+{
+  private File dir_;
+
+  @Before
+  public void setUp() throws IOException
+  {
+    dir_ = File.createTempFile("graphcache", "");
+    dir_.delete();
+  }
+
+  @After
+  public void tearDown()
+  {
+    File[] files = dir_.listFiles();
+    if (files != null) {
+      for (File f : files) {
+        f.delete();
+      }
+    }
+    dir_.delete();
+  }
+
+  /** Counts the transitions that are taken. */
+  private static class Counter extends AbstractListener
+  {
+    int transitions = 0;
+    public String getName() { return "counter"; }
+    @Override
+    public void doneTransition(int action, Transition tr)
+    {
+      transitions++;
+    }
+  }
+
+  @Test
+  public void testFingerprint()
+  {
+    assertEquals(GraphCache.fingerprint(FSM.class),
+        GraphCache.fingerprint(FSM.class));
+    assertFalse(GraphCache.fingerprint(FSM.class).equals(
+        GraphCache.fingerprint(LargeSet.class)));
+  }
+
+  @Test
+  public void testReload()
+  {
+    GraphCache cache = new GraphCache(dir_);
+    Tester tester = new RandomTester(new FSM());
+    tester.setGraphCache(cache);
+    GraphListener graph = tester.buildGraph();
+    assertTrue(graph.isComplete());
+    assertTrue(cache.getFile(tester.getModel()).isFile());
+
+    // the second time, the graph is loaded rather than explored.
+    Tester tester2 = new RandomTester(new FSM());
+    tester2.setGraphCache(cache);
+    Counter counter = new Counter();
+    tester2.getModel().addListener(counter);
+    GraphListener graph2 = tester2.buildGraph();
+    assertEquals(0, counter.transitions);
+    assertTrue(graph2.isComplete());
+    CompactGraph g1 = graph.getCompactGraph();
+    CompactGraph g2 = graph2.getCompactGraph();
+    assertEquals(g1.numStates(), g2.numStates());
+    assertEquals(g1.numEdges(), g2.numEdges());
+    for (int e = 0; e < g1.numEdges(); e++) {
+      int e2 = g2.getEdge(g2.getStateId(g1.getState(g1.getEdgeSource(e))),
+          g1.getEdgeAction(e), g2.getStateId(g1.getState(g1.getEdgeDest(e))));
+      assertTrue(e2 != CompactGraph.NONE);
+    }
+  }
+
+  @Test
+  public void testResume()
+  {
+    GraphCache cache = new GraphCache(dir_);
+    Tester tester = new RandomTester(new LargeSet(4));
+    tester.setGraphCache(cache);
+    GraphListener graph = tester.buildGraph(10, false);
+    assertFalse(graph.isComplete());
+    int numEdges = graph.getCompactGraph().numEdges();
+
+    Tester tester2 = new RandomTester(new LargeSet(4));
+    tester2.setGraphCache(cache);
+    GraphListener graph2 = (GraphListener) tester2.getModel()
+      .addListener("graph");
+    assertTrue(cache.load(graph2));
+    assertEquals(numEdges, graph2.getCompactGraph().numEdges());
+    assertEquals(graph.numTodo(), graph2.numTodo());
+
+    // buildGraph carries on from the saved graph, and saves the result.
+    graph2 = tester2.buildGraph();
+    assertTrue(graph2.isComplete());
+    assertEquals(16, graph2.getCompactGraph().numStates());
+    Tester tester3 = new RandomTester(new LargeSet(4));
+    GraphListener graph3 = (GraphListener) tester3.getModel()
+      .addListener("graph");
+    assertTrue(cache.load(graph3));
+    assertTrue(graph3.isComplete());
+  }
+
+  @Test
+  public void testSharedGraph()
+  {
+    GraphCache cache = new GraphCache(dir_);
+    Tester tester = new RandomTester(new LargeSet(4));
+    tester.setGraphCache(cache);
+    GraphListener graph = tester.buildGraph(10, false);
+    assertFalse(graph.isComplete());
+    int numEdges = graph.getCompactGraph().numEdges();
+
+    // the saved graph is merged into the shared graph.
+    Model model = new Model(new LargeSet(4));
+    SharedGraph shared = new SharedGraph(model);
+    GraphListener graph2 = shared.newListener();
+    model.addListener(graph2);
+    assertTrue(cache.load(graph2));
+    assertEquals(numEdges, shared.numEdges());
+    assertEquals(graph.numTodo(), shared.numTodo());
+    assertEquals(numEdges, graph2.getCompactGraph().numEdges());
+
+    // buildGraph carries on from there, and saves the complete graph.
+    Tester tester2 = new RandomTester(model);
+    tester2.setGraphCache(cache);
+    assertSame(graph2, tester2.buildGraph(10000, false));
+    assertTrue(shared.isComplete());
+    assertEquals(16, shared.numStates());
+    GraphListener graph3 = (GraphListener) new Model(new LargeSet(4))
+      .addListener("graph");
+    assertTrue(cache.load(graph3));
+    assertTrue(graph3.isComplete());
+    assertEquals(shared.numEdges(), graph3.getCompactGraph().numEdges());
+  }
+
+  @Test
+  public void testConfiguration()
+  {
+    GraphCache cache = new GraphCache(dir_);
+    Tester small = new RandomTester(SyntheticModel.create(50, 4));
+    small.setGraphCache(cache);
+    assertEquals(50, small.buildGraph(100000).getCompactGraph().numStates());
+
+    // the same class, configured differently, is explored again.
+    Tester large = new RandomTester(SyntheticModel.create(500, 4));
+    large.setGraphCache(cache);
+    assertFalse(cache.getFile(small.getModel()).equals(
+        cache.getFile(large.getModel())));
+    GraphListener graph = large.buildGraph(100000);
+    Tester uncached = new RandomTester(SyntheticModel.create(500, 4));
+    uncached.setGraphCache(null);
+    assertEquals(uncached.buildGraph(100000).getCompactGraph().numStates(),
+        graph.getCompactGraph().numStates());
+    assertTrue(graph.getCompactGraph().numStates() > 50);
+    assertEquals(2, dir_.listFiles().length);
+  }
+
+  @Test
+  public void testNoCache()
+  {
+    GraphCache cache = new GraphCache(dir_);
+    GraphListener graph = new GraphListener();
+    new Model(new FSM()).addListener(graph);
+    assertFalse(cache.load(graph));
+    assertFalse(dir_.exists());
+  }
+}
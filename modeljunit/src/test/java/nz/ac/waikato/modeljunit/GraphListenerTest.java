@@ -44,6 +44,85 @@ public class GraphListenerTest
     checkGraph(model, listen, true);
   }
 
+  @Test
+  public void testBuildGraphBreadthFirst()
+  {
+    Model model = new Model(new FSM());
+    Tester tester = new RandomTester(model);
+    // depth 1 explores just the transitions out of the initial state.
+    GraphListener listen = tester.buildGraphBreadthFirst(1, false);
+    assertEquals(2, listen.getGraph().numVertices());
+    assertEquals(2, listen.getGraph().numEdges());
+    assertEquals(false, listen.isComplete());
+    assertEquals(3, listen.numTodo());
+
+    // depth 2 reaches the rest of the graph.
+    assertEquals(listen, tester.buildGraphBreadthFirst(2, false));
+    assertEquals(true, listen.isComplete());
+    assertEquals(0, listen.numTodo());
+    checkBuildGraph(model, listen, "0", "2");
+  }
+
+  @Test
+  public void testBuildGraphBreadthFirstSnapshots()
+  {
+    final Counter fsm = new Counter();
+    Model model = new Model(fsm);
+    new RandomTester(model).buildGraphBreadthFirst(100, false);
+    assertEquals(true, model.getGraphListener().isComplete());
+    int replayResets = fsm.resets;
+
+    // now use snapshots instead of replaying paths
+    final Counter fsm2 = new Counter();
+    model = new Model(fsm2);
+    Tester tester = new RandomTester(model) {
+      @Override
+      protected Object snapshot()
+      {
+        return fsm2.value;
+      }
+
+      @Override
+      protected boolean restore(Object snapshot)
+      {
+        fsm2.value = (Integer) snapshot;
+        return true;
+      }
+    };
+    GraphListener listen = tester.buildGraphBreadthFirst(100, false);
+    assertEquals(true, listen.isComplete());
+    assertEquals(5, listen.getGraph().numVertices());
+    assertEquals(9, listen.getGraph().numEdges());
+    assertTrue(fsm2.resets < replayResets);
+  }
+
+  /** A counter from 0 to 4, which counts how often it is reset. */
+  public static class Counter implements FsmModel
+  {
+    public int value = 0;
+    public int resets = 0;
+
+    public Object getState()
+    {
+      return value;
+    }
+
+    public void reset(boolean testing)
+    {
+      value = 0;
+      resets++;
+    }
+
+    public boolean incGuard() { return value < 4; }
+    @Action public void inc() { value++; }
+
+    public boolean decGuard() { return value > 0; }
+    @Action public void dec() { value--; }
+
+    public boolean clearGuard() { return value == 4; }
+    @Action public void clear() { value = 0; }
+  }
+
   @Test(expected = FsmException.class)
   public void testClearDoneToDo()
   {
@@ -71,6 +150,8 @@ public class GraphListenerTest
     assertEquals(0, done.cardinality());
     assertEquals(complete, listen.isComplete());
     assertEquals(2, listen.numTodo());
+    assertEquals(state0, listen.getTodoState());
+    assertEquals(1, listen.getTodoStates().size());
     
     // take action2 (from state 0 to state 2).
     int action2 = model.getActionNumber("action2");
@@ -90,6 +171,9 @@ public class GraphListenerTest
     done = listen.getDone(state2);
     assertEquals(3, todo.cardinality());
     assertEquals(0, done.cardinality());
+    assertEquals(4, listen.numTodo());
+    assertTrue(listen.getTodoStates().contains(state0));
+    assertTrue(listen.getTodoStates().contains(state2));
     assertEquals(complete, listen.isComplete());
     assertEquals(4, listen.numTodo());
 
@@ -121,6 +205,8 @@ public class GraphListenerTest
     assertEquals(listen, new RandomTester(model).buildGraph(1000,false));
     assertEquals(true, listen.isComplete());
     assertEquals(0, listen.numTodo());
+    assertNull(listen.getTodoState());
+    assertTrue(listen.getTodoStates().isEmpty());
     for (int i=0; i<model.getNumActions(); i++) {
       assertEquals("action "+model.getActionName(i),
           0, listen.getTodo(i).cardinality());
@@ -168,6 +254,23 @@ public class GraphListenerTest
       else
         assertEquals("actionNone", e.element());
     }
+
+    // the edge index should agree with the graph
+    int action0 = model.getActionNumber("action0");
+    int action2 = model.getActionNumber("action2");
+    assertEquals(1, listen.getOutEdges("2", action0).size());
+    assertEquals(s0, graph.destination(listen.getOutEdges("2", action0).get(0)));
+    assertEquals(1, listen.getOutEdges("0", action2).size());
+    assertEquals(s2, graph.destination(listen.getOutEdges("0", action2).get(0)));
+    assertTrue(listen.getOutEdges("0", action0).isEmpty());
+    assertTrue(listen.getOutEdges("unknown", action0).isEmpty());
+    int total = 0;
+    for (Object state : listen.getVertexMap().keySet()) {
+      for (int i = 0; i < model.getNumActions(); i++) {
+        total += listen.getOutEdges(state, i).size();
+      }
+    }
+    assertEquals(graph.numEdges(), total);
   }
   
   /**
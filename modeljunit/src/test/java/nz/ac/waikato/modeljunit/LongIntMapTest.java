@@ -0,0 +1,53 @@
+package nz.ac.waikato.modeljunit;
+
+import static org.junit.Assert.*;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class LongIntMapTest
+{
+  @Test
+  public void testPutGet()
+  {
+    LongIntMap map = new LongIntMap();
+    assertEquals(0, map.size());
+    assertEquals(LongIntMap.NONE, map.get(42L));
+    map.put(42L, 7);
+    map.put(Long.MIN_VALUE, 8);
+    map.put(-1L, 9);
+    assertEquals(7, map.get(42L));
+    assertEquals(8, map.get(Long.MIN_VALUE));
+    assertEquals(9, map.get(-1L));
+    assertTrue(map.containsKey(Long.MIN_VALUE));
+    assertFalse(map.containsKey(0L));
+    assertEquals(3, map.size());
+    map.put(42L, 10);
+    assertEquals(10, map.get(42L));
+    assertEquals(3, map.size());
+    map.clear();
+    assertEquals(0, map.size());
+    assertEquals(LongIntMap.NONE, map.get(42L));
+    assertFalse(map.containsKey(Long.MIN_VALUE));
+  }
+
+  @Test
+  public void testMany()
+  {
+    LongIntMap map = new LongIntMap();
+    Map<Long,Integer> expected = new HashMap<Long,Integer>();
+    Random rand = new Random(3);
+    for (int i = 0; i < 10000; i++) {
+      long key = rand.nextInt(5000) * 0x100000000L + rand.nextInt(3);
+      map.put(key, i);
+      expected.put(key, i);
+    }
+    assertEquals(expected.size(), map.size());
+    for (Map.Entry<Long,Integer> entry : expected.entrySet()) {
+      assertEquals(entry.getValue().intValue(), map.get(entry.getKey()));
+    }
+  }
+}
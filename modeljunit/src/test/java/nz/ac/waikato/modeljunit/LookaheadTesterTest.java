@@ -26,6 +26,7 @@ import java.util.List;
 import nz.ac.waikato.modeljunit.coverage.CoverageMetric;
 import nz.ac.waikato.modeljunit.coverage.TransitionCoverage;
 import nz.ac.waikato.modeljunit.examples.SimpleSet;
+import nz.ac.waikato.modeljunit.examples.SyntheticModel;
 import junit.framework.TestCase;
 
 /**
@@ -200,7 +201,65 @@ public class LookaheadTesterTest extends TestCase
     assertEquals("At each state, this test generator looks ahead through all" +
         " the known paths, upto a fixed DEPTH, to find the path" +
         " that leads to an Action or a Transition that has not yet" +
-        " been explored.  Can be exponentially slow if DEPTH is set" +
-        " too large.", tester.getDescription());
+        " been explored.  Each step gets slower as DEPTH is" +
+        " increased.", tester.getDescription());
+  }
+
+  /** Deep lookaheads must stay usable on graphs with thousands of edges. */
+  public void testDeepLookahead()
+  {
+    SyntheticModel fsm = SyntheticModel.create(2000, 8);
+    LookaheadTester deep = new LookaheadTester(fsm);
+    deep.setDepth(10);
+    deep.setMaxLength(1000);
+    GraphListener graph = (GraphListener) deep.addListener("graph");
+    deep.generate(3000);
+    assertTrue(graph.getGraph().numEdges() > 1000);
+  }
+
+  /** Generates a test, and returns the sequence of actions chosen. */
+  private List<Integer> lookahead(LookaheadTester tester, int steps)
+  {
+    List<Integer> actions = new ArrayList<Integer>();
+    for (int i = 0; i < steps; i++) {
+      actions.add(tester.generate());
+    }
+    return actions;
+  }
+
+  public void testParallel()
+  {
+    LookaheadTester serial = new LookaheadTester(SyntheticModel.create(500, 6));
+    serial.setDepth(6);
+    LookaheadTester parallel = new LookaheadTester(SyntheticModel.create(500, 6));
+    parallel.setDepth(6);
+    parallel.setParallelism(4);
+    try {
+      assertEquals(4, parallel.getParallelism());
+      assertEquals(lookahead(serial, 1500), lookahead(parallel, 1500));
+    }
+    finally {
+      parallel.close();
+    }
+    // it still works, with one thread
+    assertEquals(1, parallel.getParallelism());
+    assertEquals(lookahead(serial, 100), lookahead(parallel, 100));
+  }
+
+  public void testTimeBudget()
+  {
+    LookaheadTester fixed = new LookaheadTester(SyntheticModel.create(500, 6));
+    fixed.setDepth(5);
+    // a generous budget always reaches the maximum depth
+    LookaheadTester adaptive = new LookaheadTester(SyntheticModel.create(500, 6));
+    adaptive.setTimeBudget(10000000000L);
+    adaptive.setMaxDepth(5);
+    assertEquals(lookahead(fixed, 500), lookahead(adaptive, 500));
+    assertEquals(5, adaptive.getLastDepth());
+
+    // a tiny budget stops after the first depth
+    adaptive.setTimeBudget(1);
+    adaptive.generate();
+    assertEquals(1, adaptive.getLastDepth());
   }
 }
@@ -0,0 +1,293 @@
+package nz.ac.waikato.modeljunit;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.BitSet;
+
+import nz.ac.waikato.modeljunit.examples.LargeSet;
+import nz.ac.waikato.modeljunit.examples.SyntheticModel;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class MappedStateStoreTest
+{
+  private File dir_;
+
+  @Before
+  public void setUp() throws IOException
+  {
+    dir_ = File.createTempFile("mappedstates", "");
+    dir_.delete();
+  }
+
+  @After
+  public void tearDown()
+  {
+    File[] files = dir_.listFiles();
+    if (files != null) {
+      for (File f : files) {
+        f.delete();
+      }
+    }
+    dir_.delete();
+  }
+
+  @Test
+  public void testAddFind() throws IOException
+  {
+    // small segments, and enough states to grow the table several times.
+    MappedStateStore store = new MappedStateStore(dir_, 3, 4096);
+    int n = 200000;
+    for (int i = 0; i < n; i++) {
+      assertEquals(i, store.add(i, 31L * i, i - 1, i % 3, i / 7));
+    }
+    assertEquals(n, store.size());
+    assertEquals(17, store.add(17, 31L * 17, 5, 1, 1));
+    for (int i = 0; i < n; i += 997) {
+      assertEquals(i, store.find(i, 31L * i));
+      assertEquals(i - 1, store.getParent(i));
+      assertEquals(i % 3, store.getAction(i));
+      assertEquals(i / 7, store.getDepth(i));
+    }
+    assertEquals(MappedStateStore.NONE, store.find(1, 2));
+    store.close();
+    assertEquals(0, dir_.listFiles().length);
+  }
+
+  @Test
+  public void testFileSize() throws IOException
+  {
+    // with the default (1GB) segments, the files grow with the store.
+    MappedStateStore store = new MappedStateStore(dir_, 3);
+    for (int i = 0; i < 1000; i++) {
+      store.add(i, 31L * i, i - 1, i % 3, i / 7);
+    }
+    long bytes = 0;
+    for (File file : dir_.listFiles()) {
+      bytes += file.length();
+    }
+    assertTrue("files are " + bytes + " bytes", bytes < 4 << 20);
+    assertEquals(999, store.find(999, 31L * 999));
+    store.close();
+  }
+
+  @Test
+  public void testActionBits() throws IOException
+  {
+    MappedStateStore store = new MappedStateStore(dir_, 70);
+    int s = store.add(5, 6, MappedStateStore.NONE, MappedStateStore.NONE, 0);
+    BitSet enabled = new BitSet();
+    enabled.set(1);
+    enabled.set(69);
+    assertEquals(2, store.addEnabled(s, enabled));
+    assertEquals(0, store.addEnabled(s, enabled));
+    assertEquals(2, store.numTodo());
+    assertTrue(store.isTodo(s, 69));
+    assertTrue(store.setDone(s, 69));
+    assertFalse(store.setDone(s, 69));
+    assertFalse(store.isTodo(s, 69));
+    assertTrue(store.isDone(s, 69));
+    assertTrue(store.isEnabled(s, 69));
+    assertFalse(store.isEnabled(s, 2));
+    assertEquals(1, store.numTodo());
+    assertEquals(1, store.numDone());
+    store.close();
+  }
+
+  @Test
+  public void testFingerprint()
+  {
+    long[] fp1 = new long[2];
+    long[] fp2 = new long[2];
+    MappedStateStore.fingerprint("1", fp1);
+    MappedStateStore.fingerprint(1, fp2);
+    assertFalse(fp1[0] == fp2[0] && fp1[1] == fp2[1]);
+    MappedStateStore.fingerprint(new String("1"), fp2);
+    assertArrayEquals(fp1, fp2);
+
+    // states that toString does not distinguish are still different.
+    MappedStateStore.fingerprint(new Point(1, 2), fp1);
+    MappedStateStore.fingerprint(new Point(1, 3), fp2);
+    assertEquals(new Point(1, 2).toString(), new Point(1, 3).toString());
+    assertFalse(fp1[0] == fp2[0] && fp1[1] == fp2[1]);
+    MappedStateStore.fingerprint(new Point(1, 3), fp1);
+    assertArrayEquals(fp1, fp2);
+
+    try {
+      MappedStateStore.fingerprint(new Object(), fp1);
+      fail("unserializable states have no fingerprint");
+    }
+    catch (IllegalArgumentException ex) {
+      // expected
+    }
+  }
+
+  @Test
+  public void testFingerprintableModel() throws IOException
+  {
+    Tester tester = new RandomTester(new Counter());
+    MappedStateStore store = new MappedStateStore(dir_, 2);
+    assertEquals(2 * Counter.MAX, tester.exploreMapped(store, 100));
+    assertEquals(Counter.MAX, store.size());
+    assertEquals(0, store.numTodo());
+    store.close();
+  }
+
+  @Test
+  public void testExplore() throws IOException
+  {
+    Tester tester = new RandomTester(new LargeSet(4));
+    GraphListener graph = tester.buildGraphBreadthFirst(100, true);
+
+    Tester mapped = new RandomTester(new LargeSet(4));
+    MappedStateStore store = new MappedStateStore(dir_,
+        mapped.getModel().getNumActions());
+    long transitions = mapped.exploreMapped(store, 100);
+    assertEquals(graph.getCompactGraph().numStates(), store.size());
+    assertEquals(graph.getCompactGraph().numEdges(), transitions);
+    assertEquals(0, store.numTodo());
+    assertEquals(0, store.getDepth(0));
+    store.close();
+  }
+
+  @Test
+  public void testExploreSnapshots() throws IOException
+  {
+    Tester tester = new RandomTester(new ShortenFailureTest.Ring());
+    MappedStateStore store = new MappedStateStore(dir_,
+        tester.getModel().getNumActions());
+    // inc and skip from each state, dec from all but 0, and boom from 9.
+    assertEquals(30, tester.exploreMapped(store, 100));
+    assertEquals(10, store.size());
+    assertEquals(9, store.getDepth(store.size() - 1));
+    store.close();
+  }
+
+  /** Records the largest size of the state interner of a model. */
+  private static class InternerSize extends AbstractListener
+    implements IntTransitionListener
+  {
+    int max_ = 0;
+
+    public String getName()
+    {
+      return "interner size";
+    }
+
+    public void doneTransition(Model model, int fromId, int action, int toId)
+    {
+      max_ = Math.max(max_, model.getStateInterner().size());
+    }
+  }
+
+  @Test
+  public void testExploreKeepsNoStates() throws IOException
+  {
+    Tester tester = new RandomTester(SyntheticModel.create(20000, 4));
+    Model model = tester.getModel();
+    MappedStateStore store = new MappedStateStore(dir_, 4);
+    tester.exploreMapped(store, 1000);
+    assertTrue(store.size() > 10000);
+    assertEquals(0, model.getStateInterner().size());
+    store.close();
+
+    // a listener that needs state numbers only gets a bounded interner.
+    tester = new RandomTester(SyntheticModel.create(20000, 4));
+    model = tester.getModel();
+    model.getStateInterner().setMaxSize(100);
+    InternerSize listener = new InternerSize();
+    model.addListener(listener);
+    store = new MappedStateStore(dir_, 4);
+    tester.exploreMapped(store, 1000);
+    assertTrue(store.size() > 10000);
+    assertTrue(listener.max_ > 0 && listener.max_ < 1000);
+    assertEquals(0, model.getStateInterner().size());
+    store.close();
+  }
+
+  /** A serializable state whose toString omits a field. */
+  private static class Point implements Serializable
+  {
+    private static final long serialVersionUID = 1L;
+
+    private final int x_;
+
+    private final int y_;
+
+    public Point(int x, int y)
+    {
+      x_ = x;
+      y_ = y;
+    }
+
+    @Override
+    public String toString()
+    {
+      return "x=" + x_;
+    }
+  }
+
+  /** A state that is not serializable. */
+  private static class Count
+  {
+    private final int count_;
+
+    public Count(int count)
+    {
+      count_ = count;
+    }
+
+    @Override
+    public boolean equals(Object other)
+    {
+      return other instanceof Count && ((Count) other).count_ == count_;
+    }
+
+    @Override
+    public int hashCode()
+    {
+      return count_;
+    }
+  }
+
+  /** A counter modulo MAX, whose states are not serializable. */
+  public static class Counter implements FingerprintableFsmModel
+  {
+    public static final int MAX = 10;
+
+    private int count_;
+
+    public Object getState()
+    {
+      return new Count(count_);
+    }
+
+    public void reset(boolean testing)
+    {
+      count_ = 0;
+    }
+
+    public void fingerprint(Object state, long[] fp)
+    {
+      fp[0] = ((Count) state).count_;
+      fp[1] = 0;
+    }
+
+    @Action
+    public void inc()
+    {
+      count_ = (count_ + 1) % MAX;
+    }
+
+    @Action
+    public void dec()
+    {
+      count_ = (count_ + MAX - 1) % MAX;
+    }
+  }
+}
@@ -148,6 +148,102 @@ public class ModelTest extends TestCase
     assertEquals(enabled0, model.enabledGuards());
   }
 
+  /** A non-public model, which must use the reflective dispatcher. */
+  private static class HiddenModel implements FsmModel
+  {
+    private int count = 0;
+    public Object getState() { return String.valueOf(count); }
+    public void reset(boolean testing) { count = 0; }
+    public int incGuard() { return count < 2 ? 3 : 0; }
+    @Action public void inc() { count++; }
+  }
+
+  public static void testDispatcher()
+  {
+    Model model = new Model(new FSM());
+    assertTrue(model.fsmDispatcher_.isGenerated());
+    // the dispatcher is shared by all models of the same class.
+    assertSame(model.fsmDispatcher_, new Model(new FSM()).fsmDispatcher_);
+
+    Model hidden = new Model(new HiddenModel());
+    assertFalse(hidden.fsmDispatcher_.isGenerated());
+    int inc = hidden.getActionNumber("inc");
+    assertEquals(3, hidden.enabled(inc));
+    assertTrue(hidden.doAction(inc));
+    assertTrue(hidden.doAction(inc));
+    assertEquals("2", hidden.getCurrentState());
+    assertEquals(0, hidden.enabled(inc));
+    assertFalse(hidden.doAction(inc));
+  }
+
+  /** Counts the doneGuard events. */
+  private static class GuardCounter extends AbstractListener
+  {
+    int guards = 0;
+    public String getName() { return "guard counter"; }
+    @Override
+    public void doneGuard(Object state, int action, boolean enabled, int value)
+    {
+      guards++;
+    }
+  }
+
+  public static void testDeterministicGuards()
+  {
+    Model model = new Model(new FSM());
+    GuardCounter counter = new GuardCounter();
+    model.addListener(counter);
+    int action2 = model.getActionNumber("action2");
+    assertFalse(model.setDeterministicGuards(true));
+    assertTrue(model.getDeterministicGuards());
+    assertFalse(model.getStateGuards());
+    BitSet enabled0 = model.enabledGuards();
+    assertEquals(enabled0, model.enabledGuards());
+    assertTrue(model.isEnabled(action2));
+    assertEquals(4, counter.guards); // each guard evaluated just once
+
+    // taking an action means the guards must be evaluated again.
+    assertTrue(model.doAction(action2));
+    model.enabledGuards();
+    assertEquals(8, counter.guards);
+
+    // and so does a reset.
+    model.doReset();
+    assertEquals(enabled0, model.enabledGuards());
+    assertEquals(12, counter.guards);
+
+    assertTrue(model.setDeterministicGuards(false));
+    model.enabledGuards();
+    model.enabledGuards();
+    assertEquals(20, counter.guards);
+  }
+
+  public static void testStateGuards()
+  {
+    Model model = new Model(new FSM());
+    GuardCounter counter = new GuardCounter();
+    model.addListener(counter);
+    int action2 = model.getActionNumber("action2");
+    assertFalse(model.setStateGuards(true));
+    assertTrue(model.getDeterministicGuards());
+    BitSet enabled0 = model.enabledGuards();
+    assertTrue(model.doAction(action2));
+    BitSet enabled2 = model.enabledGuards();
+    assertEquals(8, counter.guards);
+
+    // revisiting the same states does not evaluate any guards.
+    model.doReset();
+    assertEquals(enabled0, model.enabledGuards());
+    assertTrue(model.doAction(action2));
+    assertEquals(enabled2, model.enabledGuards());
+    assertEquals(8, counter.guards);
+
+    assertTrue(model.setStateGuards(false));
+    assertTrue(model.getDeterministicGuards());
+    model.enabledGuards();
+    assertEquals(12, counter.guards);
+  }
+
   public void testFailureContinues()
   {
     SimpleSetWithAdaptor sut = new SimpleSetWithAdaptor(new StringSetBuggy());
@@ -254,4 +350,136 @@ public class ModelTest extends TestCase
     model.removeAllListeners();
     assertEquals(0, model.getListenerNames().size());
   }
+
+  /** Counts the transitions. */
+  private static class TransitionCounter extends AbstractListener
+  {
+    int transitions = 0;
+    public String getName() { return "transition counter"; }
+    @Override
+    public void doneTransition(int action, Transition tr)
+    {
+      transitions++;
+    }
+  }
+
+  public static void testSelectiveListener()
+  {
+    Model model = new Model(new FSM());
+    TransitionCounter counter = new TransitionCounter();
+    assertEquals(SelectiveListener.TRANSITION, counter.getEvents());
+    assertEquals(SelectiveListener.GUARD, new GuardCounter().getEvents());
+    assertEquals(SelectiveListener.RESET | SelectiveListener.TRANSITION
+        | SelectiveListener.FAILURE, new VerboseListener().getEvents());
+    model.addListener(counter);
+    GuardCounter guards = new GuardCounter();
+    model.addListener(guards);
+    int action2 = model.getActionNumber("action2");
+    assertTrue(model.doAction(action2));
+    assertEquals(1, counter.transitions);
+    assertEquals(1, guards.guards);
+
+    // removing one listener must not affect the events of the other.
+    model.removeListener("guard counter");
+    model.isEnabled(action2);
+    assertEquals(1, guards.guards);
+    model.doReset();
+    assertTrue(model.doAction(action2));
+    assertEquals(2, counter.transitions);
+
+    try {
+      model.getListenerNames().clear();
+      fail("listener names should be read-only");
+    }
+    catch (UnsupportedOperationException ex) {
+      // expected
+    }
+  }
+
+  /** A model that counts how often its guards and getState are called.
+   *  Setting broken makes next go somewhere it did not go before. */
+  public static class CountingRing implements FsmModel
+  {
+    int value = 0;
+    int guards = 0;
+    int states = 0;
+    boolean broken = false;
+
+    public Object getState()
+    {
+      states++;
+      return value;
+    }
+
+    public void reset(boolean testing)
+    {
+      value = 0;
+    }
+
+    @Action public void next() { value = broken ? 3 : (value + 1) % 4; }
+
+    public boolean jumpGuard() { guards++; return value == 2; }
+    @Action public void jump() { value = 0; }
+  }
+
+  public static void testFrozen()
+  {
+    CountingRing ring = new CountingRing();
+    Model model = new Model(ring);
+    model.addListener("graph");
+    try {
+      model.freeze();
+      fail("the graph is not complete yet");
+    }
+    catch (IllegalStateException ex) {
+      // expected
+    }
+    new RandomTester(model).buildGraph();
+    model.freeze();
+    assertTrue(model.isFrozen());
+    model.removeAllListeners();
+
+    int next = model.getActionNumber("next");
+    int jump = model.getActionNumber("jump");
+    model.doReset();
+    ring.guards = 0;
+    assertFalse(model.isEnabled(jump));
+    assertTrue(model.doAction(next));
+    assertTrue(model.doAction(next));
+    assertTrue(model.isEnabled(jump));
+    assertTrue(model.doAction(jump));
+    assertEquals(0, ring.guards);
+
+    // without checking, getState is not called either.
+    model.setFrozenCheck(false);
+    ring.states = 0;
+    for (int i = 0; i < 10; i++) {
+      assertTrue(model.doAction(next));
+    }
+    assertEquals(0, ring.states);
+    assertEquals(2, model.getCurrentState());
+
+    // with checking, a transition that is not in the graph fails.
+    model.setFrozenCheck(true);
+    model.addListener(new StopOnFailureListener());
+    model.doReset();
+    ring.broken = true;
+    try {
+      model.doAction(next);
+      fail("expected a failure");
+    }
+    catch (TestFailureException ex) {
+      assertEquals("next", ex.getActionName());
+      assertEquals(0, ex.getState());
+    }
+    // state 3 is in the graph, so it is still answered from the graph.
+    assertEquals(3, model.getCurrentState());
+    assertFalse(model.isEnabled(jump));
+    assertEquals(0, ring.guards);
+
+    model.unfreeze();
+    assertFalse(model.isFrozen());
+    assertFalse(model.isEnabled(jump));
+    assertEquals(1, ring.guards);
+  }
 }
@@ -0,0 +1,135 @@
+package nz.ac.waikato.modeljunit;
+
+import static org.junit.Assert.*;
+
+import java.util.Map;
+
+import nz.ac.waikato.modeljunit.coverage.CoverageMetric;
+import nz.ac.waikato.modeljunit.examples.FSM;
+
+import org.junit.Test;
+
+public class ParallelTesterTest
+{
+  private static final ParallelTester.ModelFactory FSMS =
+    new ParallelTester.ModelFactory() {
+      public FsmModel createModel(int walker)
+      {
+        return new FSM();
+      }
+    };
+
+  @Test
+  public void testMerge()
+  {
+    ParallelTester tester = new ParallelTester(FSMS, 4);
+    tester.setThreads(2);
+    tester.addCoverageMetric("transition coverage");
+    tester.addCoverageMetric("action coverage");
+    tester.generate(100);
+
+    assertEquals(4, tester.getWalkers().size());
+    assertTrue(tester.getFailures().isEmpty());
+    CompactGraph graph = tester.getGraph();
+    assertEquals(3, graph.numStates());
+    assertEquals(5, graph.numEdges());
+
+    // the merged counts are the sums of the counts of the walkers.
+    CoverageMetric merged = tester.getCoverage("transition coverage");
+    assertEquals(5, merged.getCoverage());
+    for (Map.Entry<Object,Integer> entry : merged.getDetails().entrySet()) {
+      int sum = 0;
+      for (Tester walker : tester.getWalkers()) {
+        CoverageMetric metric = (CoverageMetric)
+            walker.getModel().getListener("transition coverage");
+        Integer count = metric.getDetails().get(entry.getKey());
+        sum += count == null ? 0 : count;
+      }
+      assertEquals(sum, entry.getValue().intValue());
+    }
+    assertEquals(4, tester.getCoverage("action coverage").getCoverage());
+    assertNull(tester.getCoverage("state coverage"));
+  }
+
+  @Test
+  public void testRepeatable()
+  {
+    ParallelTester tester = new ParallelTester(FSMS, 3);
+    tester.addCoverageMetric("transition coverage");
+    tester.generate(50);
+    Map<Object,Integer> first = tester.getCoverage("transition coverage").getDetails();
+    tester.generate(50);
+    assertEquals(first, tester.getCoverage("transition coverage").getDetails());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testUnknownMetric()
+  {
+    new ParallelTester(FSMS, 2).addCoverageMetric("no such coverage");
+  }
+
+  @Test
+  public void testFailFast()
+  {
+    ParallelTester tester = new ParallelTester(new ParallelTester.ModelFactory() {
+      public FsmModel createModel(int walker)
+      {
+        return new Broken(walker == 0 ? 5 : 1000000);
+      }
+    }, 3);
+    tester.setThreads(3);
+    tester.setFailFast(true);
+    try {
+      tester.generate(1000000);
+      fail("expected a test failure");
+    }
+    catch (TestFailureException ex) {
+      assertEquals(ex, tester.getFailures().get(0));
+    }
+    // the other walkers were stopped long before their last step.
+    assertEquals(1, tester.getFailures().size());
+  }
+
+  @Test
+  public void testNoFailFast()
+  {
+    ParallelTester tester = new ParallelTester(new ParallelTester.ModelFactory() {
+      public FsmModel createModel(int walker)
+      {
+        return new Broken(walker == 0 ? 5 : 1000000);
+      }
+    }, 2);
+    tester.generate(50);
+    // walker 0 fails repeatedly, but keeps going.
+    assertTrue(tester.getFailures().size() > 1);
+  }
+
+  /** A model whose action fails after a given number of calls. */
+  public static class Broken implements FsmModel
+  {
+    private final int limit_;
+    private int count_ = 0;
+
+    public Broken(int limit)
+    {
+      limit_ = limit;
+    }
+
+    public Object getState()
+    {
+      return "only";
+    }
+
+    public void reset(boolean testing)
+    {
+    }
+
+    @Action public void step()
+    {
+      count_++;
+      if (count_ >= limit_) {
+        throw new IllegalStateException("broken after " + count_);
+      }
+    }
+  }
+}
@@ -148,24 +148,24 @@ public class QuickTesterTest {
     assertThat(path.get(19).toString(), is("(TF, addS1, TF)"));
     assertThat(path.get(20).toString(), is("(TF, removeS1, FF)"));
     assertThat(path.get(21).toString(), is("(FF, reset, FF)"));
-    assertThat(path.get(22).toString(), is("(FF, removeS1, FF)"));
-    assertThat(path.get(23).toString(), is("(FF, removeS2, FF)"));
-    assertThat(path.get(24).toString(), is("(FF, addS2, FT)"));
-    assertThat(path.get(25).toString(), is("(FT, removeS1, FT)"));
-    assertThat(path.get(26).toString(), is("(FT, addS2, FT)"));
-    assertThat(path.get(27).toString(), is("(FT, addS1, TT)"));
-    assertThat(path.get(28).toString(), is("(TT, addS2, TT)"));
-    assertThat(path.get(29).toString(), is("(TT, removeS2, TF)"));
-    assertThat(path.get(30).toString(), is("(TF, addS2, TT)"));
-    assertThat(path.get(31).toString(), is("(TT, addS1, TT)"));
-    assertThat(path.get(32).toString(), is("(TT, reset, FF)"));
-    assertThat(path.get(33).toString(), is("(FF, removeS1, FF)"));
-    assertThat(path.get(34).toString(), is("(FF, removeS2, FF)"));
-    assertThat(path.get(35).toString(), is("(FF, addS2, FT)"));
-    assertThat(path.get(36).toString(), is("(FT, removeS2, FF)"));
+    assertThat(path.get(22).toString(), is("(FF, addS1, TF)"));
+    assertThat(path.get(23).toString(), is("(TF, removeS2, TF)"));
+    assertThat(path.get(24).toString(), is("(TF, addS2, TT)"));
+    assertThat(path.get(25).toString(), is("(TT, removeS1, FT)"));
+    assertThat(path.get(26).toString(), is("(FT, removeS2, FF)"));
+    assertThat(path.get(27).toString(), is("(FF, reset, FF)"));
+    assertThat(path.get(28).toString(), is("(FF, removeS1, FF)"));
+    assertThat(path.get(29).toString(), is("(FF, removeS2, FF)"));
+    assertThat(path.get(30).toString(), is("(FF, addS2, FT)"));
+    assertThat(path.get(31).toString(), is("(FT, removeS1, FT)"));
+    assertThat(path.get(32).toString(), is("(FT, addS2, FT)"));
+    assertThat(path.get(33).toString(), is("(FT, addS1, TT)"));
+    assertThat(path.get(34).toString(), is("(TT, addS1, TT)"));
+    assertThat(path.get(35).toString(), is("(TT, reset, FF)"));
+    assertThat(path.get(36).toString(), is("(FF, removeS1, FF)"));
     assertThat(path.get(37).toString(), is("(FF, addS1, TF)"));
     assertThat(path.get(38).toString(), is("(TF, removeS2, TF)"));
-    assertThat(path.get(39).toString(), is("(TF, reset, FF)"));
+    assertThat(path.get(39).toString(), is("(TF, addS2, TT)"));
     assertThat(transitions.getCoverage(), is(16));
   }
 }
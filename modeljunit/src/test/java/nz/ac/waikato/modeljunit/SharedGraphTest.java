@@ -0,0 +1,220 @@
+package nz.ac.waikato.modeljunit;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+import nz.ac.waikato.modeljunit.examples.FSM;
+
+import org.junit.Test;
+
+public class SharedGraphTest
+{
+  @Test
+  public void testTwoModels()
+  {
+    Model model1 = new Model(new FSM());
+    SharedGraph shared = new SharedGraph(model1);
+    GraphListener listen1 =
+      (GraphListener) model1.addListener(shared.newListener());
+    Model model2 = new Model(new FSM());
+    GraphListener listen2 =
+      (GraphListener) model2.addListener(shared.newListener());
+    // the usual graph listener is not added on top of the shared one
+    assertSame(listen2, model2.addListener("graph"));
+    assertEquals(1, shared.numStates());
+    assertEquals(2, listen2.numTodo());
+
+    Object state0 = model1.getCurrentState();
+    int action2 = model1.getActionNumber("action2");
+    model1.doAction(action2);
+    // model2 sees what model1 has done
+    assertTrue(listen2.isDone(state0, action2));
+    assertEquals(1, listen2.getTodo(state0).cardinality());
+    assertEquals(4, listen2.numTodo());
+    assertTrue(listen2.getTodoStates().contains(model1.getCurrentState()));
+
+    // taking the same transition again adds nothing
+    model2.doAction(action2);
+    assertEquals(2, shared.numStates());
+    assertEquals(1, shared.numEdges());
+    assertEquals(4, listen1.numTodo());
+    assertEquals(1, listen2.getOutEdges(state0, action2).size());
+    assertEquals("2", listen2.getGraph().destination(
+        listen2.getOutEdges(state0, action2).get(0)).element());
+
+    new RandomTester(model2).buildGraph(1000, false);
+    assertTrue(listen1.isComplete());
+    assertEquals(0, listen1.numTodo());
+    assertEquals(3, listen1.getGraph().numVertices());
+    assertEquals(5, listen1.getGraph().numEdges());
+
+    // changing the action bits does not rebuild the shared snapshot
+    CompactGraph graph = shared.getCompactGraph();
+    listen1.clearDoneTodo();
+    assertEquals(2, listen2.numTodo());
+    assertFalse(listen2.isDone(state0, action2));
+    assertSame(graph, shared.getCompactGraph());
+    assertSame(graph, listen2.getCompactGraph());
+  }
+
+  @Test
+  public void testConcurrentTransitions() throws InterruptedException
+  {
+    // a ring of states, where every state has three actions
+    final int size = 200;
+    final SharedGraph shared = new SharedGraph(new String[] {"a", "b", "c"});
+    final BitSet all = new BitSet();
+    all.set(0, 3);
+    shared.addState(0, all);
+    List<Thread> threads = new ArrayList<Thread>();
+    for (int t = 0; t < 4; t++) {
+      final int offset = t * 37;
+      threads.add(new Thread() {
+        @Override
+        public void run()
+        {
+          for (int i = 0; i < size; i++) {
+            int s = (i + offset) % size;
+            for (int a = 0; a < 3; a++) {
+              shared.addTransition(s, a, (s + a + 1) % size, all);
+            }
+          }
+        }
+      });
+    }
+    for (Thread thread : threads) {
+      thread.start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    assertEquals(size, shared.numStates());
+    assertEquals(3 * size, shared.numEdges());
+    assertEquals(0, shared.numTodo());
+    assertTrue(shared.isComplete());
+    assertNull(shared.getTodoState());
+    CompactGraph graph = shared.snapshot();
+    assertEquals(size, graph.numStates());
+    assertEquals(3 * size, graph.numEdges());
+    assertEquals(0, graph.getStateId(0));
+  }
+
+  /** Walkers on separate chains of states.  Each walker knows that the
+   *  graph is incomplete until it reaches the end of its chain, which has
+   *  no enabled actions, so isComplete must not become true before then.
+   */
+  @Test
+  public void testCompleteOnlyAtEnd() throws InterruptedException
+  {
+    final BitSet one = new BitSet();
+    one.set(0);
+    final BitSet none = new BitSet();
+    for (int round = 0; round < 20; round++) {
+      final SharedGraph shared = new SharedGraph(new String[] {"a"});
+      final int[] early = new int[1];
+      List<Thread> threads = new ArrayList<Thread>();
+      for (int t = 0; t < 4; t++) {
+        final int first = t * 100000;
+        final int length = (t + 1) * 500;
+        shared.addState(first, one);
+        threads.add(new Thread() {
+          @Override
+          public void run()
+          {
+            for (int i = 0; i < length; i++) {
+              boolean last = i == length - 1;
+              shared.addTransition(first + i, 0, first + i + 1,
+                  last ? none : one);
+              if (! last && shared.isComplete()) {
+                synchronized (early) {
+                  early[0]++;
+                }
+              }
+            }
+          }
+        });
+      }
+      for (Thread thread : threads) {
+        thread.start();
+      }
+      for (Thread thread : threads) {
+        thread.join();
+      }
+      assertEquals(0, early[0]);
+      assertTrue(shared.isComplete());
+      assertEquals(0, shared.numTodo());
+    }
+  }
+
+  @Test
+  public void testSnapshotRefresh()
+  {
+    SharedGraph shared = new SharedGraph(new String[] {"a"});
+    BitSet one = new BitSet();
+    one.set(0);
+    shared.addState(0, one);
+    for (int i = 0; i < 1000; i++) {
+      shared.addTransition(i, 0, i + 1, one);
+    }
+    long start = System.nanoTime();
+    CompactGraph graph = shared.getCompactGraph();
+    assertEquals(1001, graph.numStates());
+
+    // a little growth keeps the same snapshot, for a while.
+    shared.addTransition(1000, 0, 1001, one);
+    CompactGraph same = shared.getCompactGraph();
+    if (System.nanoTime() - start < SharedGraph.MAX_AGE_MILLIS * 1000000L) {
+      assertSame(graph, same);
+    }
+    assertEquals(1002, shared.snapshot().numStates());
+
+    // but a lot of growth, or completion, gives a new one.
+    for (int i = 1001; i < 1300; i++) {
+      shared.addTransition(i, 0, i + 1, one);
+    }
+    assertEquals(1301, shared.getCompactGraph().numStates());
+    shared.addTransition(1300, 0, 1301, new BitSet());
+    assertTrue(shared.isComplete());
+    assertEquals(1302, shared.getCompactGraph().numStates());
+  }
+
+  @Test
+  public void testParallelGreedy()
+  {
+    ParallelTester tester = new ParallelTester(new ParallelTester.ModelFactory() {
+      public FsmModel createModel(int walker)
+      {
+        return new FSM();
+      }
+    }, 4);
+    tester.setSharedGraph(true);
+    tester.setTesterFactory(new ParallelTester.TesterFactory() {
+      public Tester createTester(Model model, int walker)
+      {
+        return new GreedyTester(model);
+      }
+    });
+    tester.generate(50);
+    GraphListener first = tester.getWalkers().get(0).getModel().getGraphListener();
+    assertTrue(first instanceof SharedGraphListener);
+    for (Tester walker : tester.getWalkers()) {
+      assertSame(((SharedGraphListener) first).getSharedGraph(),
+          ((SharedGraphListener) walker.getModel().getGraphListener())
+          .getSharedGraph());
+    }
+    assertTrue(first.isComplete());
+    assertEquals(3, tester.getGraph().numStates());
+    assertEquals(5, tester.getGraph().numEdges());
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testNoBreadthFirst()
+  {
+    Model model = new Model(new FSM());
+    model.addListener(new SharedGraph(model).newListener());
+    new RandomTester(model).buildGraphBreadthFirst(10, false);
+  }
+}
@@ -6,6 +6,9 @@ import java.util.HashMap;
 import java.util.List;
 
 import junit.framework.TestCase;
+import nz.ac.waikato.jdsl.graph.api.InspectableGraph;
+import nz.ac.waikato.jdsl.graph.api.Vertex;
+import nz.ac.waikato.jdsl.graph.ref.IncidenceListGraph;
 import nz.ac.waikato.modeljunit.examples.SimpleSet;
 
 /**
@@ -154,4 +157,127 @@ public class ShortenFailureTest extends TestCase
 
     assertTrue(sut.areListsEqual(list1, list2));
   }
+
+  /** A ring of ten states, where the action boom fails in state 9.
+   *  The skip action does nothing.
+   */
+  public static class Ring extends SerializableFsmModel
+  {
+    private static final long serialVersionUID = 1L;
+
+    private int value = 0;
+
+    public Object getState()
+    {
+      return String.valueOf(value);
+    }
+
+    public void reset(boolean testing)
+    {
+      value = 0;
+    }
+
+    @Action public void inc() { value = (value + 1) % 10; }
+
+    @Action public void skip() { }
+
+    public boolean decGuard() { return value > 0; }
+    @Action public void dec() { value--; }
+
+    public boolean boomGuard() { return value == 9; }
+    @Action public void boom() { fail("boom"); }
+  }
+
+  public void testCheckpointReplay()
+  {
+    Model model = new Model(new Ring());
+    model.addListener(new StopOnFailureListener());
+    Tester tester = new RandomTester(model);
+    int inc = model.getActionNumber("inc");
+    int dec = model.getActionNumber("dec");
+    TestFailureException failure = null;
+    try {
+      // a long failing sequence, with lots of cycles.
+      for (int i = 0; i < 50; i++) {
+        for (int j = 0; j < 5; j++) {
+          model.doAction(inc);
+        }
+        for (int j = 0; j < 5; j++) {
+          model.doAction(dec);
+        }
+      }
+      for (int j = 0; j < 9; j++) {
+        model.doAction(inc);
+      }
+      model.doAction(model.getActionNumber("boom"));
+    }
+    catch (TestFailureException ex) {
+      failure = ex;
+    }
+    assertNotNull(failure);
+    assertEquals(509, failure.getSequence().size());
+
+    ShortenFailure sut = new ShortenFailure(tester, failure);
+    sut.setCheckpointInterval(8);
+    sut.cutCycles(200);
+    List<Transition> shorter = sut.getFailure().getSequence();
+    assertTrue(shorter.size() < 509);
+    assertEquals("9", shorter.get(shorter.size() - 1).getEndState());
+    assertTrue(sut.getReplayCache().getActionsSkipped() > 0);
+    assertTrue(sut.getReplayCache().numCheckpoints() > 0);
+  }
+
+  public void testCommonPrefix()
+  {
+    List<Transition> list1 = new ArrayList<Transition>();
+    list1.add(new Transition("1", "a1", "2"));
+    list1.add(new Transition("2", "a2", "3"));
+    List<Transition> list2 = new ArrayList<Transition>(list1);
+    assertEquals(2, ReplayCache.commonPrefix(list1, list2));
+    list2.set(1, new Transition("2", "a3", "3"));
+    list2.add(new Transition("3", "a3", "3"));
+    assertEquals(1, ReplayCache.commonPrefix(list1, list2));
+    assertEquals(0, ReplayCache.commonPrefix(list1, new ArrayList<Transition>()));
+  }
+
+  public void testShortestPath()
+  {
+    TestFailureException exception = new TestFailureException();
+    exception.setSequence(new ArrayList<Transition>());
+    Tester tester = new RandomTester(new Ring());
+    ShortenFailure sut = new ShortenFailure(tester, exception);
+    InspectableGraph graph = tester.buildGraph().getGraph();
+    assertEquals(10, graph.numVertices());
+
+    // inc goes round the ring, and dec goes back towards 0.
+    for (int limit : new int[] {1000, 0}) {
+      sut.setNextHopLimit(limit);
+      List<Transition> path = sut.getShortestPath(graph,
+          sut.getVertex(graph, "8"), sut.getVertex(graph, "2"));
+      assertEquals(4, path.size());
+      assertEquals(new Transition("8", "inc", "9"), path.get(0));
+      assertEquals(new Transition("1", "inc", "2"), path.get(3));
+      path = sut.getShortestPath(graph,
+          sut.getVertex(graph, "5"), sut.getVertex(graph, "3"));
+      assertEquals(2, path.size());
+      assertEquals("dec", path.get(0).getAction());
+      assertEquals(0, sut.getShortestPath(graph,
+          sut.getVertex(graph, "5"), sut.getVertex(graph, "5")).size());
+    }
+    assertNull(sut.getVertex(graph, "10"));
+
+    // other JDSL graphs are searched through the JDSL interface.
+    IncidenceListGraph other = new IncidenceListGraph();
+    Vertex a = other.insertVertex("a");
+    Vertex b = other.insertVertex("b");
+    Vertex c = other.insertVertex("c");
+    other.insertDirectedEdge(a, b, "ab");
+    other.insertDirectedEdge(b, c, "bc");
+    other.insertDirectedEdge(c, a, "ca");
+    assertSame(c, sut.getVertex(other, "c"));
+    List<Transition> path = sut.getShortestPath(other, b, a);
+    assertEquals(2, path.size());
+    assertEquals(new Transition("c", "ca", "a"), path.get(1));
+    assertEquals(0, sut.getShortestPath(other, a, null).size());
+  }
 }
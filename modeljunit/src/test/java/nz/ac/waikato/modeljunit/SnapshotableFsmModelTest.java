@@ -0,0 +1,121 @@
+package nz.ac.waikato.modeljunit;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import nz.ac.waikato.modeljunit.examples.FSM;
+
+import org.junit.Test;
+
+public class SnapshotableFsmModelTest
+{
+  /** A pure model of a bounded stack, which counts its resets. */
+  public static class Stack extends SerializableFsmModel
+  {
+    private static final long serialVersionUID = 1L;
+
+    private List<Integer> items = new ArrayList<Integer>();
+
+    private transient int resets = 0;
+
+    public Object getState()
+    {
+      return items.toString();
+    }
+
+    public void reset(boolean testing)
+    {
+      items.clear();
+      resets++;
+    }
+
+    public boolean pushGuard() { return items.size() < 3; }
+    @Action public void push() { items.add(items.size()); }
+
+    public boolean popGuard() { return items.size() > 0; }
+    @Action public void pop() { items.remove(items.size() - 1); }
+
+    public boolean clearGuard() { return items.size() == 3; }
+    @Action public void clear() { items.clear(); }
+  }
+
+  @Test
+  public void testRestore()
+  {
+    Stack fsm = new Stack();
+    Model model = new Model(fsm);
+    assertTrue(model.isSnapshotable());
+    int push = model.getActionNumber("push");
+    model.doAction(push);
+    model.doAction(push);
+    Object saved = model.snapshot();
+    model.doAction(model.getActionNumber("pop"));
+    model.doAction(push);
+    model.doAction(push);
+    assertEquals("[0, 1, 2]", model.getCurrentState());
+    int resets = fsm.resets;
+
+    assertTrue(model.restore(saved));
+    assertEquals("[0, 1]", model.getCurrentState());
+    assertEquals(2, model.getTrace().size());
+    assertEquals("[0]", model.getTrace().getSequence().get(1).getStartState());
+    assertEquals(resets, fsm.resets);
+    // the snapshot is a deep copy, so it can be restored again
+    model.doAction(push);
+    assertTrue(model.restore(saved));
+    assertEquals("[0, 1]", model.getCurrentState());
+    assertTrue(model.isEnabled(push));
+
+    // snapshots taken while exploring are not restored while testing
+    model.setTesting(false);
+    Object exploring = model.snapshot();
+    model.setTesting(true);
+    assertFalse(model.restore(exploring));
+  }
+
+  @Test
+  public void testNotSnapshotable()
+  {
+    Model model = new Model(new FSM());
+    assertFalse(model.isSnapshotable());
+    assertNull(model.snapshot());
+    assertFalse(model.restore(new Object()));
+  }
+
+  @Test
+  public void testBuildGraph()
+  {
+    Stack fsm = new Stack();
+    GraphListener graph =
+      new RandomTester(fsm).buildGraphBreadthFirst(100, false);
+    assertTrue(graph.isComplete());
+    assertEquals(4, graph.getGraph().numVertices());
+    assertEquals(7, graph.getGraph().numEdges());
+    // one reset to start, and one at the end.
+    assertEquals(3, fsm.resets);
+  }
+
+  @Test
+  public void testQuickTester()
+  {
+    Stack fsm = new Stack();
+    QuickTester tester = new QuickTester(fsm);
+    GraphListener graph = (GraphListener) tester.addListener("graph");
+    tester.generate(200);
+    assertEquals(7, graph.getGraph().numEdges());
+
+    // the same, but going back to each goal by a reset and replay
+    Stack fsm2 = new Stack();
+    QuickTester replay = new QuickTester(fsm2) {
+      @Override
+      protected Object snapshot()
+      {
+        return null;
+      }
+    };
+    replay.generate(200);
+    assertTrue(fsm.resets < fsm2.resets);
+  }
+}
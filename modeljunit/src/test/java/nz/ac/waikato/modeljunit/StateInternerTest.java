@@ -0,0 +1,164 @@
+package nz.ac.waikato.modeljunit;
+
+import static org.junit.Assert.*;
+
+import java.util.Map;
+
+import nz.ac.waikato.modeljunit.coverage.TransitionCoverage;
+import nz.ac.waikato.modeljunit.coverage.TransitionPairCoverage;
+import nz.ac.waikato.modeljunit.examples.FSM;
+
+import org.junit.Test;
+
+public class StateInternerTest
+{
+  @Test
+  public void testIntern()
+  {
+    StateInterner states = new StateInterner();
+    assertEquals(StateInterner.NONE, states.getId("a"));
+    assertEquals(0, states.intern("a"));
+    assertEquals(1, states.intern("b"));
+    assertEquals(0, states.intern(new String("a")));
+    assertEquals(1, states.getId("b"));
+    assertEquals("b", states.getState(1));
+    assertEquals(2, states.size());
+    states.clear();
+    assertEquals(1, states.getGeneration());
+    assertEquals(0, states.size());
+    assertEquals(StateInterner.NONE, states.getId("a"));
+    assertEquals(0, states.intern("b"));
+  }
+
+  @Test
+  public void testLazyInterning()
+  {
+    Model model = new Model(new FSM());
+    int action2 = model.getActionNumber("action2");
+    model.doAction(action2);
+    // nothing needed the state numbers.
+    assertEquals(0, model.getStateInterner().size());
+    model.addListener(new TransitionCoverage());
+    model.doAction(model.getActionNumber("action1"));
+    assertEquals(2, model.getStateInterner().size());
+
+    // nor does the graph listener, which numbers the states itself.
+    Model other = new Model(new FSM());
+    new RandomTester(other).buildGraph();
+    assertEquals(0, other.getStateInterner().size());
+  }
+
+  @Test
+  public void testBoundedInterning()
+  {
+    Model model = new Model(new FSM());
+    model.getStateInterner().setMaxSize(1);
+    TransitionPairCoverage pairs = new TransitionPairCoverage();
+    model.addListener(pairs);
+    GraphListener graph = (GraphListener) model.addListener("graph");
+    TransitionCoverage metric = new TransitionCoverage();
+    model.addListener(metric);
+    new RandomTester(model).generate(200);
+    // each reset cleared the interner, but the counts are the same.
+    assertTrue(model.getStateInterner().getGeneration() > 0);
+    assertEquals(walk(new TransitionCoverage(), false), metric.getDetails());
+    // (the graph listener also adds the pairs that were never taken)
+    Map<Object,Integer> expected = walk(new TransitionPairCoverage(), false);
+    assertEquals(expected.size(), pairs.getCoverage());
+    for (Map.Entry<Object,Integer> entry : expected.entrySet()) {
+      assertEquals(entry.getValue(), pairs.getDetails().get(entry.getKey()));
+    }
+    assertEquals(3, graph.getGraph().numVertices());
+    assertEquals(5, graph.getGraph().numEdges());
+  }
+
+  @Test
+  public void testPack()
+  {
+    int max = (1 << StateInterner.STATE_BITS) - 1;
+    int maxAction = (1 << StateInterner.ACTION_BITS) - 1;
+    int[][] cases = {{0, 0, 0}, {1, 2, 3}, {max, maxAction, max}, {max, 0, 7}};
+    for (int[] c : cases) {
+      long packed = StateInterner.pack(c[0], c[1], c[2]);
+      assertEquals(c[0], StateInterner.packedFrom(packed));
+      assertEquals(c[1], StateInterner.packedAction(packed));
+      assertEquals(c[2], StateInterner.packedTo(packed));
+    }
+    assertFalse(StateInterner.canPack(max + 1, 0, 0));
+    assertFalse(StateInterner.canPack(0, maxAction + 1, 0));
+    assertFalse(StateInterner.canPack(0, 0, -1));
+    try {
+      StateInterner.pack(0, 0, max + 1);
+      fail("should not pack a state number that is too big");
+    }
+    catch (IllegalArgumentException ex) {
+      // expected
+    }
+  }
+
+  @Test
+  public void testModelStateIds()
+  {
+    Model model = new Model(new FSM());
+    StateInterner states = model.getStateInterner();
+    assertEquals(model.getCurrentState(), states.getState(model.getCurrentStateId()));
+    model.doAction(model.getActionNumber("action2"));
+    assertEquals(model.getCurrentState(), states.getState(model.getCurrentStateId()));
+    Transition tr = model.getTrace().getSequence().get(0);
+    assertEquals(tr, model.getTransition(states.getId(tr.getStartState()),
+        model.getActionNumber("action2"), model.getCurrentStateId()));
+  }
+
+  /** Counts the transitions of one walk, via the int or object events. */
+  private static Map<Object,Integer> walk(ModelListener metric, boolean ints)
+  {
+    Model model = new Model(new FSM());
+    if (ints) {
+      model.addListener(metric);
+    }
+    else {
+      // a wrapper that only passes on the Transition events.
+      final ModelListener inner = metric;
+      model.addListener(new AbstractListener() {
+        public String getName() { return "wrapper"; }
+        @Override public void doneReset(String reason, boolean testing)
+        {
+          inner.doneReset(reason, testing);
+        }
+        @Override public void doneTransition(int action, Transition tr)
+        {
+          inner.doneTransition(action, tr);
+        }
+      });
+    }
+    Tester tester = new RandomTester(model);
+    tester.generate(200);
+    return ((nz.ac.waikato.modeljunit.coverage.CoverageMetric) metric).getDetails();
+  }
+
+  @Test
+  public void testIntCoverage()
+  {
+    assertEquals(walk(new TransitionCoverage(), false),
+        walk(new TransitionCoverage(), true));
+    assertEquals(walk(new TransitionPairCoverage(), false),
+        walk(new TransitionPairCoverage(), true));
+  }
+
+  @Test
+  public void testSharedCoverage()
+  {
+    // the second model uses the Transition objects, with the same result.
+    TransitionCoverage shared = new TransitionCoverage();
+    Model model1 = new Model(new FSM());
+    Model model2 = new Model(new FSM());
+    model1.addListener(shared);
+    model2.addListener(shared);
+    int action2 = model1.getActionNumber("action2");
+    model1.doAction(action2);
+    model2.doAction(action2);
+    assertEquals(1, shared.getCoverage());
+    assertEquals(Integer.valueOf(2),
+        shared.getDetails().get(model1.getTrace().getSequence().get(0)));
+  }
+}
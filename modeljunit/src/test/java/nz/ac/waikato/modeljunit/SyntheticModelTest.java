@@ -0,0 +1,108 @@
+package nz.ac.waikato.modeljunit;
+
+import static org.junit.Assert.*;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import nz.ac.waikato.modeljunit.examples.SyntheticModel;
+
+import org.junit.Test;
+
+public class SyntheticModelTest
+{
+  @Test
+  public void testActions()
+  {
+    SyntheticModel fsm = SyntheticModel.create(50, 12);
+    Model model = new Model(fsm);
+    assertEquals(12, model.getNumActions());
+    for (int i = 0; i < 12; i++) {
+      assertEquals(i < 10 ? "a0" + i : "a" + i, model.getActionName(i));
+    }
+    // the same number of actions reuses the same class
+    assertSame(fsm.getClass(), SyntheticModel.create(7, 12).getClass());
+  }
+
+  @Test
+  public void testTransitions()
+  {
+    SyntheticModel fsm = SyntheticModel.create(100, 4);
+    Model model = new Model(fsm);
+    assertEquals(0, model.getCurrentState());
+    // action 0 is always enabled in state 0, and leads to state 1.
+    assertTrue(model.doAction(0));
+    assertEquals(1, model.getCurrentState());
+    for (int a = 0; a < 4; a++) {
+      assertEquals(fsm.isEnabled(1, a), model.enabled(a) > 0);
+    }
+
+    // the same parameters give the same model
+    SyntheticModel other = SyntheticModel.create(100, 4);
+    for (int s = 0; s < 100; s++) {
+      for (int a = 0; a < 4; a++) {
+        assertEquals(fsm.isEnabled(s, a), other.isEnabled(s, a));
+        assertEquals(fsm.successor(s, a), other.successor(s, a));
+      }
+    }
+  }
+
+  @Test
+  public void testShape()
+  {
+    SyntheticModel fsm = SyntheticModel.create(200, 6);
+    fsm.setBranching(2);
+    fsm.setSelfLoopRatio(0.0);
+    fsm.setGuardDensity(1.0);
+    GraphListener graph = new RandomTester(fsm).buildGraphBreadthFirst(1000, false);
+    assertTrue(graph.isComplete());
+    // every state is reachable via the always-enabled actions
+    assertEquals(200, graph.getGraph().numVertices());
+    assertEquals(200 * 6, graph.getGraph().numEdges());
+    // apart from the always-enabled action, each state has at most
+    // two different successors.
+    for (int s = 0; s < 200; s++) {
+      Set<Integer> succ = new HashSet<Integer>();
+      for (int a = 0; a < 6; a++) {
+        if (a != s % 6) {
+          succ.add(fsm.successor(s, a));
+        }
+      }
+      assertTrue(succ.size() <= 2);
+    }
+  }
+
+  @Test
+  public void testTraps()
+  {
+    SyntheticModel fsm = SyntheticModel.create(1000, 3);
+    fsm.setTrapRatio(0.5);
+    assertFalse(fsm.isTrap(0));
+    int traps = 0;
+    for (int s = 0; s < 1000; s++) {
+      if (fsm.isTrap(s)) {
+        traps++;
+        for (int a = 0; a < 3; a++) {
+          assertFalse(fsm.isEnabled(s, a));
+        }
+      }
+    }
+    assertTrue(300 < traps && traps < 700);
+  }
+
+  @Test
+  public void testMillionStates()
+  {
+    SyntheticModel fsm = SyntheticModel.create(1000000, 10);
+    Tester tester = new RandomTester(fsm);
+    GraphListener graph = (GraphListener) tester.addListener("graph");
+    tester.generate(2000);
+    assertTrue(graph.getGraph().numVertices() > 100);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testBadRatio()
+  {
+    SyntheticModel.create(10, 2).setGuardDensity(1.5);
+  }
+}
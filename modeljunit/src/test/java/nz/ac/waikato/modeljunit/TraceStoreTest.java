@@ -0,0 +1,181 @@
+package nz.ac.waikato.modeljunit;
+
+import static org.junit.Assert.*;
+
+import java.util.List;
+
+import org.junit.Test;
+
+public class TraceStoreTest
+{
+  /** Walks n steps around the ring, from a reset. */
+  private static Model walk(int depth, boolean spill, int n)
+  {
+    Model model = new Model(new ShortenFailureTest.Ring());
+    model.getTrace().setDepth(depth);
+    model.getTrace().setSpill(spill);
+    model.doReset();
+    int inc = model.getActionNumber("inc");
+    for (int i = 0; i < n; i++) {
+      model.doAction(inc);
+    }
+    return model;
+  }
+
+  private static void checkChain(List<Transition> seq, int first)
+  {
+    for (int i = 0; i < seq.size(); i++) {
+      int from = (first + i) % 10;
+      assertEquals(new Transition(String.valueOf(from), "inc",
+          String.valueOf((from + 1) % 10)), seq.get(i));
+    }
+  }
+
+  @Test
+  public void testUnbounded()
+  {
+    Model model = walk(TraceStore.UNBOUNDED, false, 1000);
+    TraceStore trace = model.getTrace();
+    assertEquals(1000, trace.size());
+    assertEquals(0, trace.numDropped());
+    List<Transition> seq = trace.getSequence();
+    assertEquals(1000, seq.size());
+    checkChain(seq, 0);
+    model.doReset();
+    assertEquals(0, trace.size());
+    // the earlier result is a snapshot, not a view.
+    assertEquals(1000, seq.size());
+  }
+
+  @Test
+  public void testRing()
+  {
+    Model model = walk(64, false, 1003);
+    TraceStore trace = model.getTrace();
+    assertEquals(1003, trace.size());
+    assertEquals(64, trace.numBuffered());
+    assertEquals(1003 - 64, trace.numDropped());
+    List<Transition> seq = trace.getSequence();
+    assertEquals(64, seq.size());
+    checkChain(seq, (1003 - 64) % 10);
+  }
+
+  @Test
+  public void testSpill()
+  {
+    Model model = walk(50, true, 777);
+    TraceStore trace = model.getTrace();
+    assertEquals(50, trace.numBuffered());
+    assertEquals(0, trace.numDropped());
+    List<Transition> seq = trace.getSequence();
+    assertEquals(777, seq.size());
+    checkChain(seq, 0);
+
+    // a reset starts a new spill file.
+    model.doReset();
+    model.doAction(model.getActionNumber("inc"));
+    assertEquals(1, trace.getSequence().size());
+    trace.close();
+  }
+
+  /** A counter whose states cannot be serialized. */
+  public static class Opaque implements FsmModel
+  {
+    public Object getState()
+    {
+      return new Object();
+    }
+
+    public void reset(boolean testing)
+    {
+    }
+
+    @Action public void tick()
+    {
+    }
+  }
+
+  @Test
+  public void testSpillUnserializable()
+  {
+    Model model = new Model(new Opaque());
+    TraceStore trace = model.getTrace();
+    trace.setDepth(5);
+    trace.setSpill(true);
+    for (int i = 0; i < 20; i++) {
+      model.doAction(0);
+    }
+    // the spill file is given up, so the older steps are dropped.
+    assertEquals(20, trace.size());
+    assertEquals(15, trace.numDropped());
+    assertEquals(5, trace.getSequence().size());
+  }
+
+  @Test
+  public void testFailureSequence()
+  {
+    Model model = walk(5, false, 9);
+    model.addListener(new StopOnFailureListener());
+    try {
+      model.doAction(model.getActionNumber("boom"));
+      fail("expected a failure");
+    }
+    catch (TestFailureException ex) {
+      List<Transition> seq = ex.getSequence();
+      assertEquals(5, seq.size());
+      checkChain(seq, 4);
+      model.doReset();
+      assertEquals(5, ex.getSequence().size());
+      try {
+        seq.clear();
+        fail("the failure sequence should be read-only");
+      }
+      catch (UnsupportedOperationException e) {
+        // expected
+      }
+    }
+  }
+
+  @Test
+  public void testSaveLoad()
+  {
+    Model model = walk(8, false, 12);
+    TraceStore trace = model.getTrace();
+    TraceStore.Saved saved = trace.save();
+    assertEquals(8, saved.size());
+    model.doReset();
+    trace.load(saved);
+    assertEquals(12, trace.size());
+    assertEquals(4, trace.numDropped());
+    checkChain(trace.getSequence(), 4);
+  }
+
+  /** Saves that follow a save or load share the earlier steps. */
+  @Test
+  public void testSaveTree()
+  {
+    Model model = walk(TraceStore.UNBOUNDED, false, 5);
+    TraceStore trace = model.getTrace();
+    int inc = model.getActionNumber("inc");
+    TraceStore.Saved s5 = trace.save();
+    assertSame(s5, trace.save());
+    for (int i = 5; i < 8; i++) {
+      trace.add(inc, String.valueOf(i + 1));
+    }
+    TraceStore.Saved s8 = trace.save();
+    assertEquals(8, s8.size());
+    trace.load(s5);
+    assertEquals(5, trace.size());
+    trace.add(inc, "6");
+    TraceStore.Saved s6 = trace.save();
+    assertEquals(6, s6.size());
+
+    trace.clear("0");
+    trace.load(s8);
+    assertEquals(8, trace.size());
+    checkChain(trace.getSequence(), 0);
+    trace.load(s6);
+    assertEquals(6, trace.size());
+    checkChain(trace.getSequence(), 0);
+  }
+}
@@ -95,6 +95,54 @@ public class AbstractCoverageTest {
         assertEquals(0.0, coverage.getPercentage(), 0.001);
     }
 
+    @Test
+    public void testConcurrentIncrements() throws InterruptedException {
+        final AbstractCoverage coverage = new TestCoverage();
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < 1500; i++) {
+                        coverage.doneTransition(0, TRANS_AB);
+                        coverage.doneTransition(0, new Transition("S" + i, "x", "T"));
+                    }
+                }
+            };
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        // slots are allocated in blocks of 1024, so this crosses a block boundary
+        assertEquals(1501, coverage.getCoverage());
+        assertEquals(1501, coverage.getDetails().size());
+        assertEquals(Integer.valueOf(6000), coverage.getDetails().get(TRANS_AB));
+        assertEquals(Integer.valueOf(4), coverage.getDetails().get(new Transition("S1499", "x", "T")));
+        int total = 0;
+        for (Integer count : coverage.getDetails().values()) {
+            total += count;
+        }
+        assertEquals(12000, total);
+    }
+
+    @Test
+    public void testProtectedFields() {
+        AbstractCoverage coverage = new TestCoverage();
+        shortWalk(coverage);
+        assertEquals(2, coverage.currCoverage_);
+        // subclasses can still put counts straight into the map
+        assertNull(coverage.coverage_.put(TRANS_NEVER, 3));
+        assertEquals(3, coverage.getCoverage());
+        assertEquals(Integer.valueOf(3), coverage.coverage_.put(TRANS_NEVER, 0));
+        assertEquals(2, coverage.getCoverage());
+        coverage.clear();
+        assertEquals(0, coverage.currCoverage_);
+        assertEquals(Integer.valueOf(0), coverage.getDetails().get(TRANS_NEVER));
+    }
+
     protected void shortWalk(AbstractCoverage coverage) {
         coverage.doneReset("forced", true);
         coverage.doneTransition(0, TRANS_AB);